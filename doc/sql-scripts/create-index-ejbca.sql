@@ -90,3 +90,9 @@ CREATE INDEX ocspresponsedata_idx1 ON OcspResponseData (cAId);
 CREATE INDEX ocspresponsedata_idx2 ON OcspResponseData (serialNumber);
 CREATE INDEX ocspresponsedata_idx3 ON OcspResponseData (nextUpdate);
 
+-- indexes for resolving substring search candidates and for removing the search tokens of a row
+CREATE INDEX searchtokendata_idx1 ON SearchTokenData (referenceType, fieldType, token);
+CREATE INDEX searchtokendata_idx2 ON SearchTokenData (referenceType, referenceId);
+
+-- index for reading the revocation events of an issuer and CRL partition since the last base CRL
+CREATE INDEX revocationeventdata_idx1 ON RevocationEventData (issuerDNHash, crlPartitionIndex, eventTime);
@@ -456,3 +456,29 @@ alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminG
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
 
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(254) NOT NULL,
+    referenceType INTEGER NOT NULL,
+    referenceId VARCHAR(254) NOT NULL,
+    fieldType INTEGER NOT NULL,
+    token VARCHAR(254) NOT NULL,
+    rowProtection CLOB(10K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(254) NOT NULL,
+    issuerDNHash INTEGER NOT NULL,
+    issuerDN VARCHAR(254) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime BIGINT NOT NULL,
+    fingerprint VARCHAR(254) NOT NULL,
+    serialNumber VARCHAR(254) NOT NULL,
+    revocationDate BIGINT NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    expireDate BIGINT NOT NULL,
+    rowProtection CLOB(10K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
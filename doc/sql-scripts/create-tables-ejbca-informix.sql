@@ -455,3 +455,29 @@ CREATE TABLE OcspResponseData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(255,0) NOT NULL,
+    referenceType INTEGER NOT NULL,
+    referenceId VARCHAR(255,0) NOT NULL,
+    fieldType INTEGER NOT NULL,
+    token VARCHAR(255,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255,0) NOT NULL,
+    issuerDNHash INTEGER NOT NULL,
+    issuerDN VARCHAR(255,0) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime DECIMAL(18,0) NOT NULL,
+    fingerprint VARCHAR(255,0) NOT NULL,
+    serialNumber VARCHAR(255,0) NOT NULL,
+    revocationDate DECIMAL(18,0) NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    expireDate DECIMAL(18,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
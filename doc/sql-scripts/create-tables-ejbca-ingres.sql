@@ -456,3 +456,29 @@ CREATE TABLE OcspResponseData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(256) NOT NULL,
+    referenceType INT4 NOT NULL,
+    referenceId VARCHAR(256) NOT NULL,
+    fieldType INT4 NOT NULL,
+    token VARCHAR(256) NOT NULL,
+    rowProtection LONG VARCHAR,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(256) NOT NULL,
+    issuerDNHash INT4 NOT NULL,
+    issuerDN VARCHAR(256) NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    eventTime INT8 NOT NULL,
+    fingerprint VARCHAR(256) NOT NULL,
+    serialNumber VARCHAR(256) NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    expireDate INT8 NOT NULL,
+    rowProtection LONG VARCHAR,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -455,3 +455,30 @@ CREATE TABLE OcspResponseData (
     rowVersion INTEGER NOT NULL,
     PRIMARY KEY (id)
 );
+
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(256) NOT NULL,
+    referenceType INTEGER NOT NULL,
+    referenceId VARCHAR(256) NOT NULL,
+    fieldType INTEGER NOT NULL,
+    token VARCHAR(256) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(256) NOT NULL,
+    issuerDNHash INTEGER NOT NULL,
+    issuerDN VARCHAR(256) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime BIGINT NOT NULL,
+    fingerprint VARCHAR(256) NOT NULL,
+    serialNumber VARCHAR(256) NOT NULL,
+    revocationDate BIGINT NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    expireDate BIGINT NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -461,3 +461,29 @@ CREATE TABLE OcspResponseData (
     PRIMARY KEY (id)
 ) TABLESPACE ejbca_ts STORAGE DISK ENGINE=ND;
 
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(250) BINARY NOT NULL,
+    referenceType INT(11) NOT NULL,
+    referenceId VARCHAR(250) BINARY NOT NULL,
+    fieldType INT(11) NOT NULL,
+    token VARCHAR(250) BINARY NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (pk)
+) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(250) BINARY NOT NULL,
+    issuerDNHash INT(11) NOT NULL,
+    issuerDN VARCHAR(250) BINARY NOT NULL,
+    crlPartitionIndex INT(11) NOT NULL,
+    eventTime BIGINT NOT NULL,
+    fingerprint VARCHAR(250) BINARY NOT NULL,
+    serialNumber VARCHAR(250) BINARY NOT NULL,
+    revocationDate BIGINT NOT NULL,
+    revocationReason INT(11) NOT NULL,
+    expireDate BIGINT NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (id)
+) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
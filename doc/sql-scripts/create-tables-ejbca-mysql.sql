@@ -456,3 +456,30 @@ CREATE TABLE OcspResponseData (
     rowVersion INT(11) NOT NULL,
     PRIMARY KEY (id)
 );
+
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(250) BINARY NOT NULL,
+    referenceType INT(11) NOT NULL,
+    referenceId VARCHAR(250) BINARY NOT NULL,
+    fieldType INT(11) NOT NULL,
+    token VARCHAR(250) BINARY NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(250) BINARY NOT NULL,
+    issuerDNHash INT(11) NOT NULL,
+    issuerDN VARCHAR(250) BINARY NOT NULL,
+    crlPartitionIndex INT(11) NOT NULL,
+    eventTime BIGINT(20) NOT NULL,
+    fingerprint VARCHAR(250) BINARY NOT NULL,
+    serialNumber VARCHAR(250) BINARY NOT NULL,
+    revocationDate BIGINT(20) NOT NULL,
+    revocationReason INT(11) NOT NULL,
+    expireDate BIGINT(20) NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -454,4 +454,31 @@ CREATE TABLE OcspResponseData (
     rowProtection CLOB,
     rowVersion NUMBER(10) NOT NULL,
     PRIMARY KEY (id)
-);
\ No newline at end of file
+);
+
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(255 byte) NOT NULL,
+    referenceType NUMBER(10) NOT NULL,
+    referenceId VARCHAR(255 byte) NOT NULL,
+    fieldType NUMBER(10) NOT NULL,
+    token VARCHAR(255 byte) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255 byte) NOT NULL,
+    issuerDNHash NUMBER(10) NOT NULL,
+    issuerDN VARCHAR(255 byte) NOT NULL,
+    crlPartitionIndex NUMBER(10) NOT NULL,
+    eventTime NUMBER(19) NOT NULL,
+    fingerprint VARCHAR(255 byte) NOT NULL,
+    serialNumber VARCHAR(255 byte) NOT NULL,
+    revocationDate NUMBER(19) NOT NULL,
+    revocationReason NUMBER(10) NOT NULL,
+    expireDate NUMBER(19) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    PRIMARY KEY (id)
+);
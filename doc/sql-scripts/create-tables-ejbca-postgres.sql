@@ -456,3 +456,29 @@ alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminG
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
 
+CREATE TABLE SearchTokenData (
+    pk TEXT NOT NULL,
+    referenceType INT4 NOT NULL,
+    referenceId TEXT NOT NULL,
+    fieldType INT4 NOT NULL,
+    token TEXT NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id TEXT NOT NULL,
+    issuerDNHash INT4 NOT NULL,
+    issuerDN TEXT NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    eventTime INT8 NOT NULL,
+    fingerprint TEXT NOT NULL,
+    serialNumber TEXT NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    expireDate INT8 NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
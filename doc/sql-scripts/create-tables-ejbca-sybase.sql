@@ -454,4 +454,31 @@ CREATE TABLE OcspResponseData (
     rowProtection TEXT,
     rowVersion INTEGER NOT NULL,
     PRIMARY KEY (id)
-);
\ No newline at end of file
+);
+
+CREATE TABLE SearchTokenData (
+    pk VARCHAR(255) NOT NULL,
+    referenceType INTEGER NOT NULL,
+    referenceId VARCHAR(255) NOT NULL,
+    fieldType INTEGER NOT NULL,
+    token VARCHAR(255) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
+
+CREATE TABLE RevocationEventData (
+    id VARCHAR(255) NOT NULL,
+    issuerDNHash INTEGER NOT NULL,
+    issuerDN VARCHAR(255) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    eventTime DECIMAL(20,0) NOT NULL,
+    fingerprint VARCHAR(255) NOT NULL,
+    serialNumber VARCHAR(255) NOT NULL,
+    revocationDate DECIMAL(20,0) NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    expireDate DECIMAL(20,0) NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -35,4 +35,6 @@ drop table AcmeNonceData if exists;
 drop table AcmeAccountData if exists;
 drop table AcmeOrderData if exists;
 drop table SctData if exists;
-drop table OcspResponseData if exists;
\ No newline at end of file
+drop table OcspResponseData if exists;
+drop table SearchTokenData if exists;
+drop table RevocationEventData if exists;
@@ -35,4 +35,6 @@ drop table AcmeNonceData;
 drop table AcmeAccountData;
 drop table AcmeOrderData;
 drop table SctData;
-drop table OcspResponseData;
\ No newline at end of file
+drop table OcspResponseData;
+drop table SearchTokenData;
+drop table RevocationEventData;
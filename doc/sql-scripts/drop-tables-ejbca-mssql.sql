@@ -36,3 +36,5 @@ drop table AcmeAccountData;
 drop table AcmeOrderData;
 drop table SctData;
 drop table OcspResponseData;
+drop table SearchTokenData;
+drop table RevocationEventData;
@@ -36,3 +36,5 @@ drop table if exists AcmeAccountData;
 drop table if exists AcmeOrderData;
 drop table if exists SctData;
 drop table if exists OcspResponseData;
+drop table if exists SearchTokenData;
+drop table if exists RevocationEventData;
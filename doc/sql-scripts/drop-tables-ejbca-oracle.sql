@@ -33,4 +33,6 @@ drop table AcmeNonceData cascade constraints;
 drop table AcmeAccountData cascade constraints;
 drop table AcmeOrderData cascade constraints;
 drop table SctData cascade constraints;
-drop table OcspResponseData cascade constraints;
\ No newline at end of file
+drop table OcspResponseData cascade constraints;
+drop table SearchTokenData cascade constraints;
+drop table RevocationEventData cascade constraints;
@@ -35,4 +35,6 @@ drop table if exists AcmeNonceData cascade;
 drop table if exists AcmeAccountData cascade;
 drop table if exists AcmeOrderData cascade;
 drop table if exists SctData cascade;
-drop table if exists OcspResponseData cascade;
\ No newline at end of file
+drop table if exists OcspResponseData cascade;
+drop table if exists SearchTokenData cascade;
+drop table if exists RevocationEventData cascade;
@@ -47,3 +47,8 @@ DROP INDEX acmechallengedata_idx1 ON AcmeChallengeData;
 DROP INDEX ocspresponsedata_idx1 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx2 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx3 ON OcspResponseData;
+
+DROP INDEX searchtokendata_idx1 ON SearchTokenData;
+DROP INDEX searchtokendata_idx2 ON SearchTokenData;
+
+DROP INDEX revocationeventdata_idx1 ON RevocationEventData;
@@ -349,8 +349,8 @@ public class ApproveActionManagedBean extends BaseManagedBean {
     	try {
     		RAAuthorization raAuthorization = new RAAuthorization(EjbcaJSFHelper.getBean().getAdmin(), globalConfigurationSession,
     				authorizationSession, caSession, endEntityProfileSession);
-    		result = approvalSession.query(query, 0, 1, raAuthorization.getCAAuthorizationString(),
-    		        raAuthorization.getEndEntityProfileAuthorizationString(AccessRulesConstants.APPROVE_END_ENTITY));
+    		result = approvalSession.query(query, 0, 1, raAuthorization.getAuthorizedCaIds(),
+    		        raAuthorization.getApprovalEndEntityProfileIds(AccessRulesConstants.APPROVE_END_ENTITY));
     		if (result.size() > 0) {
     			this.approvalDataVOView = new ApprovalDataVOView(result.get(0));
     		}
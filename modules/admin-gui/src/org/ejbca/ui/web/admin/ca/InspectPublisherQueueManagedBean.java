@@ -38,6 +38,7 @@ import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
 import org.ejbca.core.model.authorization.AccessRulesConstants;
 import org.ejbca.core.model.ca.publisher.PublisherConst;
 import org.ejbca.core.model.ca.publisher.PublisherQueueData;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
 import org.ejbca.ui.web.admin.BaseManagedBean;
 
 /**
@@ -89,6 +90,16 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
                 } else {
                     return getEjbcaWebBean().getText("INSPECT_PUBLISHER_QUEUE_NOT_AUTHORIZED");
                 }
+            } else if (publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT_BATCH) {
+                final CertificateInfo certificateInfo = certificateSession.getCertificateInfo(publisherQueueData.getFingerprint());
+                if (isAuthorizedToViewCertificate(certificateInfo)) {
+                    final PublisherQueueVolatileInformation volatileData = publisherQueueData.getVolatileData();
+                    final int count = volatileData == null ? 1 : volatileData.getFingerprints().size();
+                    return StringUtils.abbreviate(getEjbcaWebBean().getText("INSPECT_PUBLISHER_QUEUE_CERTIFICATE_BATCH_DESCRIPTION", /* unescape */ false,
+                            count, certificateInfo.getSubjectDN()), DESCRIPTION_MAX_LENGTH);
+                } else {
+                    return getEjbcaWebBean().getText("INSPECT_PUBLISHER_QUEUE_NOT_AUTHORIZED");
+                }
             } else if (publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CRL) {
                 final CRLInfo crlInfo = crlSession.getCRLInfo(getFingerprint());
                 if (isAuthorizedToViewCrl(crlInfo)) {
@@ -106,7 +117,7 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
         }
 
         public String getLink() {
-            if (publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT) {
+            if (isCertificate()) {
                 final CertificateInfo certificateInfo = certificateSession.getCertificateInfo(getFingerprint());
                 if (isAuthorizedToViewCertificate(certificateInfo)) {
                     return getEjbcaWebBean().getBaseUrl() + "ra/viewcert.xhtml?fp=" + publisherQueueData.getFingerprint();
@@ -121,6 +132,12 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
             return "#";
         }
 
+        /** @return true if the item is a certificate, or a batch of certificates where the first one is shown */
+        private boolean isCertificate() {
+            return publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT
+                    || publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT_BATCH;
+        }
+
         public String getStatus() {
             if (isStatusNotOk()) {
                 return "Failed";
@@ -128,6 +145,8 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
                 return "Pending...";
             } else if (isStatusOk()) {
                 return "OK";
+            } else if (isStatusOutbox()) {
+                return "Publishing after commit...";
             } else {
                 return "Unknown status " + publisherQueueData.getPublishStatus();
             }
@@ -145,6 +164,10 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
             return publisherQueueData.getPublishStatus() == PublisherConst.STATUS_FAILED;
         }
 
+        public boolean isStatusOutbox() {
+            return publisherQueueData.getPublishStatus() == PublisherConst.STATUS_OUTBOX;
+        }
+
         public String getTimeCreated() {
             return new SimpleDateFormat("dd MMMM yyyy hh:mm:ss").format(publisherQueueData.getTimeCreated());
         }
@@ -158,7 +181,7 @@ public class InspectPublisherQueueManagedBean extends BaseManagedBean {
         }
 
         public boolean isCanView() {
-            if (publisherQueueData.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT) {
+            if (isCertificate()) {
                 final CertificateInfo certificateInfo = certificateSession.getCertificateInfo(publisherQueueData.getFingerprint());
                 return isAuthorizedToViewCertificate(certificateInfo);
             }
@@ -414,9 +414,8 @@ public class RAInterfaceBean implements Serializable {
     }
 
     public UserView[] filterByQuery(Query query, int index, int size, final String endentityAccessRule) throws IllegalQueryException {
-        Collection<EndEntityInformation> userlist = endEntityAccessSession.query(administrator, query,
-                raauthorization.getCAAuthorizationString(),
-                raauthorization.getEndEntityProfileAuthorizationString(true, endentityAccessRule), 0, endentityAccessRule);
+        // The session bean looks up the authorized CAs and end entity profiles, and queries them as bound parameters
+        Collection<EndEntityInformation> userlist = endEntityAccessSession.query(administrator, query, null, null, 0, endentityAccessRule);
     	usersView.setUsers(userlist, caSession.getCAIdToNameMap());
     	return usersView.getUsers(index,size);
     }
@@ -0,0 +1,98 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authentication.tokens;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CmpVerifiedSignerCache}.
+ *
+ * @version $Id$
+ */
+public class CmpVerifiedSignerCacheTest {
+
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @After
+    public void tearDown() {
+        CmpVerifiedSignerCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testAddAndRemoveCertificate() throws Exception {
+        final CmpVerifiedSignerCache cache = CmpVerifiedSignerCache.INSTANCE;
+        final X509Certificate certificate1 = getCertificate("CN=Signer1", 1);
+        final X509Certificate certificate2 = getCertificate("CN=Signer2", 1);
+        final String fp1 = CertTools.getFingerprintAsString(certificate1);
+        final String fp2 = CertTools.getFingerprintAsString(certificate2);
+        assertFalse("Unknown signer should not be verified.", cache.isVerified(fp1 + ";alias;0"));
+        assertFalse("Null key should not be verified.", cache.isVerified(null));
+        final long removalCount = cache.getRemovalCount();
+        cache.addVerified(fp1 + ";alias;0", certificate1, removalCount);
+        cache.addVerified(fp1 + ";alias;11", certificate1, removalCount);
+        cache.addVerified(fp2 + ";alias;0", certificate2, removalCount);
+        assertTrue(cache.isVerified(fp1 + ";alias;0"));
+        assertTrue(cache.isVerified(fp1 + ";alias;11"));
+        assertFalse("Signer should only be verified for the same key.", cache.isVerified(fp1 + ";otheralias;0"));
+        cache.removeCertificate(fp1);
+        assertFalse("Revoked signer should be removed for all keys.", cache.isVerified(fp1 + ";alias;0"));
+        assertFalse("Revoked signer should be removed for all keys.", cache.isVerified(fp1 + ";alias;11"));
+        assertTrue("Other signers should be kept.", cache.isVerified(fp2 + ";alias;0"));
+        cache.removeCertificate(CertTools.getIssuerDN(certificate2), CertTools.getSerialNumber(certificate2));
+        assertFalse("Signer should be removed by issuer and serial number.", cache.isVerified(fp2 + ";alias;0"));
+    }
+
+    @Test
+    public void testNotAddedAfterRemoval() throws Exception {
+        final CmpVerifiedSignerCache cache = CmpVerifiedSignerCache.INSTANCE;
+        final X509Certificate certificate = getCertificate("CN=Signer3", 1);
+        final String key = CertTools.getFingerprintAsString(certificate) + ";alias;0";
+        // The signer is verified while its status is changed, so the verification may have seen the old status
+        final long removalCount = cache.getRemovalCount();
+        cache.removeCertificate(CertTools.getFingerprintAsString(certificate));
+        cache.addVerified(key, certificate, removalCount);
+        assertFalse("Signer verified before a status change should not be cached.", cache.isVerified(key));
+        cache.addVerified(key, certificate, cache.getRemovalCount());
+        assertTrue(cache.isVerified(key));
+    }
+
+    @Test
+    public void testExpiredCertificate() throws Exception {
+        final X509Certificate certificate = getCertificate("CN=Signer4", -1);
+        final String key = CertTools.getFingerprintAsString(certificate) + ";alias;0";
+        CmpVerifiedSignerCache.INSTANCE.addVerified(key, certificate, CmpVerifiedSignerCache.INSTANCE.getRemovalCount());
+        assertFalse("Signer should not be cached longer than its certificate is valid.", CmpVerifiedSignerCache.INSTANCE.isVerified(key));
+    }
+
+    private static X509Certificate getCertificate(final String subjectDn, final long validity) throws Exception {
+        return CertTools.genSelfCert(subjectDn, validity, null, keys.getPrivate(), keys.getPublic(), AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+    }
+}
@@ -0,0 +1,83 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authentication.tokens;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link X509CertificateAuthenticationTokenCache}.
+ *
+ * @version $Id$
+ */
+public class X509CertificateAuthenticationTokenCacheTest {
+
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @After
+    public void tearDown() {
+        X509CertificateAuthenticationTokenCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testAddAndRemoveCertificate() throws Exception {
+        final X509CertificateAuthenticationTokenCache cache = X509CertificateAuthenticationTokenCache.INSTANCE;
+        final X509Certificate certificate1 = CertTools.genSelfCert("CN=Cache1", 1, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+        final X509Certificate certificate2 = CertTools.genSelfCert("CN=Cache2", 1, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+        assertNull("Unknown certificate should not be cached.", cache.get(certificate1));
+        final X509CertificateAuthenticationToken token1 = new X509CertificateAuthenticationToken(certificate1);
+        final X509CertificateAuthenticationToken token2 = new X509CertificateAuthenticationToken(certificate2);
+        cache.add(token1);
+        cache.add(token2);
+        assertSame(token1, cache.get(certificate1));
+        assertSame(token2, cache.get(certificate2));
+        assertEquals(hits + 2, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+        cache.removeCertificate(CertTools.getFingerprintAsString(certificate1));
+        assertNull("Certificate with changed status should be removed.", cache.get(certificate1));
+        assertSame("Other certificates should be kept.", token2, cache.get(certificate2));
+        cache.removeCertificate(CertTools.getIssuerDN(certificate2), CertTools.getSerialNumber(certificate2));
+        assertNull("Certificate should be removed by issuer and serial number.", cache.get(certificate2));
+    }
+
+    @Test
+    public void testExpiredCertificate() throws Exception {
+        final X509Certificate certificate = CertTools.genSelfCert("CN=Cache3", -1, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, false);
+        X509CertificateAuthenticationTokenCache.INSTANCE.add(new X509CertificateAuthenticationToken(certificate));
+        assertNull("Authentication should not be cached longer than the certificate is valid.",
+                X509CertificateAuthenticationTokenCache.INSTANCE.get(certificate));
+    }
+}
@@ -0,0 +1,245 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.AuthenticationFailedException;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.AuthorizationCache.AuthorizationCacheCallback;
+import org.cesecore.authorization.AuthorizationCache.AuthorizationResult;
+import org.cesecore.authorization.access.AuthorizationCacheReloadListener;
+import org.cesecore.roles.AccessRulesHelper;
+import org.junit.Test;
+
+/**
+ * Test of the AuthorizedIdSets.
+ * 
+ * @version $Id$
+ */
+public class AuthorizedIdSetsTest {
+
+    private static final Logger log = Logger.getLogger(AuthorizedIdSetsTest.class);
+
+    /** Same as StandardRules.CAACCESS */
+    private static final String CA_ACCESS = "/ca/";
+
+    @Test
+    public void testMemoisedUntilSourcesChange() {
+        final AuthorizedIdSets authorizedIdSets = new AuthorizedIdSets();
+        final AtomicInteger loads = new AtomicInteger(0);
+        final List<Integer> allCaIds = Arrays.asList(-1011, 42, 7, 123456789);
+        final AuthorizedIdSets.IdLoader loader = () -> {
+            loads.incrementAndGet();
+            return Arrays.asList(-1011, 7);
+        };
+        final AuthorizedIdSets.IdSet idSet = authorizedIdSets.get(AuthorizedIdSets.CA_IDS, loader, allCaIds);
+        assertEquals(Arrays.asList(-1011, 7), idSet.getIds());
+        assertTrue(idSet.contains(-1011));
+        assertTrue(idSet.contains(7));
+        assertFalse(idSet.contains(42));
+        assertEquals(2, idSet.size());
+        // Equal sources return the memoised set
+        assertSame(idSet, authorizedIdSets.get(AuthorizedIdSets.CA_IDS, loader, new ArrayList<>(allCaIds)));
+        assertEquals(1, loads.get());
+        // Other kinds of ids are memoised separately
+        authorizedIdSets.get(AuthorizedIdSets.CERTIFICATE_PROFILE_IDS + 1, loader, allCaIds);
+        assertEquals(2, loads.get());
+        // Changed sources, for example a new CA, recompute the set
+        final AuthorizedIdSets.IdSet newIdSet = authorizedIdSets.get(AuthorizedIdSets.CA_IDS, loader, Arrays.asList(-1011, 42, 7, 123456789, 8));
+        assertNotSame(idSet, newIdSet);
+        assertEquals(3, loads.get());
+        try {
+            newIdSet.getIds().add(42);
+            fail("The memoised ids should not be modifiable.");
+        } catch (UnsupportedOperationException e) {
+            // NOPMD expected
+        }
+        assertFalse(newIdSet.contains(42));
+        // Profile ids are computed from the change count of the profile cache, which only changes when the profiles may have changed
+        authorizedIdSets.get(AuthorizedIdSets.END_ENTITY_PROFILE_IDS, loader, newIdSet, Long.valueOf(1));
+        authorizedIdSets.get(AuthorizedIdSets.END_ENTITY_PROFILE_IDS, loader, newIdSet, Long.valueOf(1));
+        assertEquals(4, loads.get());
+        authorizedIdSets.get(AuthorizedIdSets.END_ENTITY_PROFILE_IDS, loader, newIdSet, Long.valueOf(2));
+        assertEquals(5, loads.get());
+    }
+
+    /** Test that the memoised ids are discarded with the cached access rules */
+    @Test
+    public void testDiscardedWhenAccessRulesChange() throws AuthenticationFailedException {
+        AuthorizationCache.INSTANCE.reset();
+        final AtomicInteger updateNumber = new AtomicInteger(0);
+        final AuthorizationCacheCallback callback = getCallback(new HashMap<String, Boolean>(), updateNumber);
+        final AuthenticationToken authenticationToken = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("AuthorizedIdSetsTest"));
+        final AuthorizedIdSets authorizedIdSets = AuthorizationCache.INSTANCE.getAuthorizedIdSets(authenticationToken, callback);
+        assertSame(authorizedIdSets, AuthorizationCache.INSTANCE.getAuthorizedIdSets(authenticationToken, callback));
+        AuthorizationCache.INSTANCE.refresh(callback, updateNumber.incrementAndGet());
+        assertNotSame(authorizedIdSets, AuthorizationCache.INSTANCE.getAuthorizedIdSets(authenticationToken, callback));
+        // Without a token there is nothing to memoise for
+        assertNotSame(AuthorizationCache.INSTANCE.getAuthorizedIdSets(null, callback), AuthorizationCache.INSTANCE.getAuthorizedIdSets(null, callback));
+        AuthorizationCache.INSTANCE.reset();
+    }
+
+    /**
+     * Compares the time to find the authorized CAs and certificate profiles among 10000 of each, by evaluating the access rules and
+     * the available CAs of every profile, with the memoised ids. The profile ids are memoised both with the profile map as source,
+     * which the profile cache rebuilds with new profile objects on every refresh, and with the change count of the profile cache.
+     * Run with -Dauthorizedidsets.benchmark=true
+     */
+    @Test
+    public void testBenchmark() throws AuthenticationFailedException {
+        if (!Boolean.getBoolean("authorizedidsets.benchmark")) {
+            log.info("Skipping benchmark, enable with -Dauthorizedidsets.benchmark=true");
+            return;
+        }
+        AuthorizationCache.INSTANCE.reset();
+        final int cas = 10000;
+        final int searches = 1000;
+        // The profile cache is refreshed every second, which is taken to be every tenth search
+        final int searchesPerRefresh = 10;
+        final Random random = new Random(1);
+        final List<Integer> allCaIds = new ArrayList<>(cas);
+        final HashMap<String, Boolean> accessRules = new HashMap<>();
+        final Map<Integer, int[]> profileAvailableCas = new HashMap<>();
+        for (int i = 0; i < cas; i++) {
+            final int caId = i * 7919 - 40000000;
+            allCaIds.add(caId);
+            if (i % 2 == 0) {
+                accessRules.put(CA_ACCESS + caId, Boolean.TRUE);
+            }
+        }
+        for (int i = 0; i < cas; i++) {
+            profileAvailableCas.put(i, new int[] { allCaIds.get(random.nextInt(cas)), allCaIds.get(random.nextInt(cas)) });
+        }
+        final AuthorizationCacheCallback callback = getCallback(accessRules, new AtomicInteger(0));
+        final AuthenticationToken authenticationToken = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("AuthorizedIdSetsTest"));
+        long start = System.nanoTime();
+        int authorized = 0;
+        int authorizedProfiles = 0;
+        for (int i = 0; i < searches; i++) {
+            final List<Integer> authorizedCaIds = loadAuthorizedCaIds(AuthorizationCache.INSTANCE.get(authenticationToken, callback), allCaIds);
+            authorized += authorizedCaIds.size();
+            authorizedProfiles += loadAuthorizedProfileIds(authorizedCaIds, profileAvailableCas).size();
+        }
+        final long ruleTime = System.nanoTime() - start;
+        final AtomicInteger profileMapLoads = new AtomicInteger(0);
+        final AtomicInteger changeCountLoads = new AtomicInteger(0);
+        long profileMapTime = 0;
+        long changeCountTime = 0;
+        Map<Integer, Object> profileMap = null;
+        for (int i = 0; i < searches; i++) {
+            if (i % searchesPerRefresh == 0) {
+                // Like the profile caches, a refresh builds a new map with new profile objects, even if nothing has changed
+                profileMap = new HashMap<>();
+                for (final Integer profileId : profileAvailableCas.keySet()) {
+                    profileMap.put(profileId, new Object());
+                }
+            }
+            final Map<Integer, Object> profiles = profileMap;
+            start = System.nanoTime();
+            final HashMap<String, Boolean> rules = AuthorizationCache.INSTANCE.get(authenticationToken, callback);
+            final AuthorizedIdSets authorizedIdSets = AuthorizationCache.INSTANCE.getAuthorizedIdSets(authenticationToken, callback);
+            // Like CaSessionBean, the ids of all CAs are copied from the cache for each search
+            final List<Integer> sources = new ArrayList<>(allCaIds);
+            final AuthorizedIdSets.IdSet caIdSet = authorizedIdSets.get(AuthorizedIdSets.CA_IDS, () -> loadAuthorizedCaIds(rules, sources), sources);
+            authorized += new ArrayList<>(caIdSet.getIds()).size();
+            final long caTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            final int mapProfileIds = new ArrayList<>(authorizedIdSets.get(AuthorizedIdSets.CERTIFICATE_PROFILE_IDS + "map", () -> {
+                profileMapLoads.incrementAndGet();
+                return loadAuthorizedProfileIds(caIdSet.getIds(), profileAvailableCas);
+            }, caIdSet, profiles).getIds()).size();
+            profileMapTime += caTime + System.nanoTime() - start;
+            start = System.nanoTime();
+            // The change count of the profile cache does not change, since no profile is changed
+            final int changeCountProfileIds = new ArrayList<>(authorizedIdSets.get(AuthorizedIdSets.CERTIFICATE_PROFILE_IDS + "changeCount", () -> {
+                changeCountLoads.incrementAndGet();
+                return loadAuthorizedProfileIds(caIdSet.getIds(), profileAvailableCas);
+            }, caIdSet, Long.valueOf(1)).getIds()).size();
+            changeCountTime += caTime + System.nanoTime() - start;
+            assertEquals(authorizedProfiles / searches, mapProfileIds);
+            assertEquals(authorizedProfiles / searches, changeCountProfileIds);
+        }
+        log.info(searches + " lookups of the authorized CAs and certificate profiles among " + cas + " of each: " + ruleTime / 1000000
+                + " ms evaluating the access rules and available CAs, " + profileMapTime / 1000000 + " ms memoised on the profile map ("
+                + profileMapLoads.get() + " recomputations), " + changeCountTime / 1000000 + " ms memoised on the change count ("
+                + changeCountLoads.get() + " recomputations).");
+        // Every other CA is authorized
+        assertEquals(2 * searches * (cas / 2), authorized);
+        assertEquals("The profile map is new after every refresh.", searches / searchesPerRefresh, profileMapLoads.get());
+        assertEquals("The change count only changes when a profile is changed.", 1, changeCountLoads.get());
+        assertTrue(changeCountTime < profileMapTime);
+        assertTrue(changeCountTime < ruleTime);
+        AuthorizationCache.INSTANCE.reset();
+    }
+
+    private static List<Integer> loadAuthorizedCaIds(final HashMap<String, Boolean> accessRules, final List<Integer> allCaIds) {
+        final List<Integer> authorizedCaIds = new ArrayList<>();
+        for (final Integer caId : allCaIds) {
+            if (AccessRulesHelper.hasAccessToResource(accessRules, CA_ACCESS + caId)) {
+                authorizedCaIds.add(caId);
+            }
+        }
+        return authorizedCaIds;
+    }
+
+    /** @return the ids of the profiles available to at least one of the authorized CAs, like CertificateProfileSessionBean */
+    private static List<Integer> loadAuthorizedProfileIds(final List<Integer> authorizedCaIds, final Map<Integer, int[]> profileAvailableCas) {
+        final Set<Integer> authorizedCaIdSet = new HashSet<>(authorizedCaIds);
+        final List<Integer> authorizedProfileIds = new ArrayList<>();
+        for (final Map.Entry<Integer, int[]> entry : profileAvailableCas.entrySet()) {
+            for (final int caId : entry.getValue()) {
+                if (authorizedCaIdSet.contains(caId)) {
+                    authorizedProfileIds.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return authorizedProfileIds;
+    }
+
+    private static AuthorizationCacheCallback getCallback(final HashMap<String, Boolean> accessRules, final AtomicInteger updateNumber) {
+        return new AuthorizationCacheCallback() {
+            @Override
+            public AuthorizationResult loadAuthorization(AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+                return new AuthorizationResult(accessRules, updateNumber.get());
+            }
+            @Override
+            public long getKeepUnusedEntriesFor() {
+                return 3600000L;
+            }
+            @Override
+            public void subscribeToAuthorizationCacheReload(AuthorizationCacheReloadListener authorizationCacheReloadListener) {
+                // Not needed for this test
+            }
+        };
+    }
+}
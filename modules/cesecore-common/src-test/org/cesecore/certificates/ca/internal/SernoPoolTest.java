@@ -0,0 +1,170 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Tests the pool of pre-generated serial numbers.
+ *
+ * @version $Id$
+ */
+public class SernoPoolTest {
+
+    private static final Logger log = Logger.getLogger(SernoPoolTest.class);
+
+    /** Simulates the database, where the serial numbers returned from the pool are stored */
+    private static class TestChecker implements SernoPool.UniquenessChecker {
+        private final Set<BigInteger> stored = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger queries = new AtomicInteger();
+        private final AtomicInteger checked = new AtomicInteger();
+
+        @Override
+        public Set<BigInteger> findExistingSernos(final Collection<BigInteger> sernos) {
+            queries.incrementAndGet();
+            checked.addAndGet(sernos.size());
+            final Set<BigInteger> existing = new HashSet<>();
+            for (final BigInteger serno : sernos) {
+                if (stored.contains(serno)) {
+                    existing.add(serno);
+                }
+            }
+            return existing;
+        }
+    }
+
+    @Test
+    public void testSernoSizeAndBatching() {
+        final TestChecker checker = new TestChecker();
+        final SernoPool pool = new SernoPool("CN=SernoPoolTest", 8, 100);
+        for (int i = 0; i < 1000; i++) {
+            final BigInteger serno = pool.getSerno(checker);
+            assertEquals("Serial number should be 8 octets: " + serno.toString(16), 8, serno.toByteArray().length);
+            assertTrue("Duplicate serial number " + serno.toString(16), checker.stored.add(serno));
+        }
+        // The pool is refilled with 50 serial numbers when half empty
+        log.info(checker.queries.get() + " queries checked " + checker.checked.get() + " serial numbers.");
+        assertTrue("Too many queries: " + checker.queries.get(), checker.queries.get() <= 1000 / 50 + 1);
+        assertTrue(pool.getAvailable() >= 50);
+    }
+
+    @Test
+    public void testUsedSernosAreDiscarded() {
+        final TestChecker checker = new TestChecker() {
+            @Override
+            public Set<BigInteger> findExistingSernos(final Collection<BigInteger> sernos) {
+                // Every even serial number is already used
+                final Set<BigInteger> existing = super.findExistingSernos(sernos);
+                for (final BigInteger serno : sernos) {
+                    if (!serno.testBit(0)) {
+                        existing.add(serno);
+                    }
+                }
+                return existing;
+            }
+        };
+        final SernoPool pool = new SernoPool("CN=SernoPoolTest", 20, 100);
+        for (int i = 0; i < 1000; i++) {
+            final BigInteger serno = pool.getSerno(checker);
+            assertTrue("Used serial number " + serno.toString(16) + " returned from the pool.", serno.testBit(0));
+            assertEquals(20, serno.toByteArray().length);
+        }
+    }
+
+    @Test
+    public void testGenerator() {
+        final TestChecker checker = new TestChecker();
+        final SernoGenerator generator = new SernoPool("CN=SernoPoolTest", 16, 10).getGenerator(checker);
+        assertEquals(16, generator.getNoSernoBytes());
+        assertEquals(16, generator.getSerno().toByteArray().length);
+        assertEquals(1, checker.queries.get());
+    }
+
+    @Test
+    public void testMultiThreaded64Bit() throws Exception {
+        benchmark(8);
+    }
+
+    @Test
+    public void testMultiThreaded160Bit() throws Exception {
+        benchmark(20);
+    }
+
+    /**
+     * Takes serial numbers from the pool and from {@link SernoGeneratorRandom} in several threads, and verifies that all
+     * serial numbers taken from the pool are unique.
+     */
+    private void benchmark(final int noOctets) throws Exception {
+        final int threads = 16;
+        final int sernosPerThread = 20000;
+        final TestChecker checker = new TestChecker();
+        final SernoPool pool = new SernoPool("CN=SernoPoolTest" + noOctets, noOctets, 1000);
+        final SernoGenerator generator = SernoGeneratorRandom.instance(noOctets);
+        // Warm up
+        runThreads(threads, sernosPerThread / 10, () -> pool.getSerno(checker), null);
+        runThreads(threads, sernosPerThread / 10, generator::getSerno, null);
+        checker.stored.clear();
+        final long poolNanos = runThreads(threads, sernosPerThread, () -> pool.getSerno(checker), checker.stored);
+        final long generatorNanos = runThreads(threads, sernosPerThread, generator::getSerno, ConcurrentHashMap.newKeySet());
+        log.info(noOctets * 8 + " bit serial numbers with " + threads + " threads: pool " + poolNanos / (threads * sernosPerThread)
+                + " ns per serial number (" + checker.queries.get() + " queries), SernoGeneratorRandom "
+                + generatorNanos / (threads * sernosPerThread) + " ns per serial number.");
+        assertEquals("Duplicate serial numbers from the pool.", threads * sernosPerThread, checker.stored.size());
+    }
+
+    private interface SernoSource {
+        BigInteger getSerno();
+    }
+
+    /** @return the elapsed time in nanoseconds */
+    private static long runThreads(final int threads, final int sernosPerThread, final SernoSource source, final Set<BigInteger> stored)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final long startTime = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < sernosPerThread; j++) {
+                        final BigInteger serno = source.getSerno();
+                        if (stored != null) {
+                            stored.add(serno);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - startTime;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificatetransparency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.cesecore.certificates.certificate.CertificateCreateException;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificatetransparency.CertificateTransparency.UsageMode;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link CertificateTransparencyImpl} against fake CT logs running in an embedded HTTP server.
+ *
+ * @version $Id$
+ */
+public class CertificateTransparencyImplTest {
+
+    private static final String CA_DN = "CN=CT Test CA";
+    private static final String LEAF_DN = "CN=ct.example.com";
+    private static final int TIMEOUT = 5000;
+
+    /** A CT log that signs SCTs over submitted pre-certificates, with configurable latency and failures */
+    private static class FakeCtLog implements HttpHandler {
+        private final KeyPair keyPair;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile long latency;
+        private volatile boolean failing;
+
+        private FakeCtLog() throws Exception {
+            keyPair = KeyTools.genKeys("secp256r1", "EC");
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                if (failing) {
+                    sendResponse(exchange, 500, "Log is down");
+                    return;
+                }
+                final JSONObject request = (JSONObject) new JSONParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                final JSONArray chain = (JSONArray) request.get("chain");
+                final X509Certificate preCertificate = CertTools.getCertfromByteArray(Base64.decode((String) chain.get(0)), X509Certificate.class);
+                final X509Certificate issuer = CertTools.getCertfromByteArray(Base64.decode((String) chain.get(1)), X509Certificate.class);
+                final long timestamp = System.currentTimeMillis();
+                final byte[] signature = signSct(keyPair.getPrivate(), timestamp, issuer, removeExtension(preCertificate,
+                        CertificateTransparencyImpl.POISON_OID));
+                final byte[] digitallySigned = new byte[4 + signature.length];
+                digitallySigned[0] = 4; // SHA-256
+                digitallySigned[1] = 3; // ECDSA
+                digitallySigned[2] = (byte) (signature.length >>> 8);
+                digitallySigned[3] = (byte) signature.length;
+                System.arraycopy(signature, 0, digitallySigned, 4, signature.length);
+                final JSONObject response = new JSONObject();
+                response.put("sct_version", 0);
+                response.put("id", Base64.toBase64String(MessageDigest.getInstance("SHA-256").digest(keyPair.getPublic().getEncoded())));
+                response.put("timestamp", timestamp);
+                response.put("extensions", "");
+                response.put("signature", Base64.toBase64String(digitallySigned));
+                sendResponse(exchange, 200, response.toJSONString());
+            } catch (Exception e) {
+                sendResponse(exchange, 400, e.getMessage());
+            }
+        }
+
+        private void sendResponse(final HttpExchange exchange, final int status, final String body) throws IOException {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static HttpServer server;
+    private static KeyPair caKeyPair;
+    private static X509Certificate caCertificate;
+    private static KeyPair leafKeyPair;
+
+    private final Map<String, FakeCtLog> fakeLogs = new LinkedHashMap<>();
+    private final Map<Integer, CTLogInfo> ctLogs = new LinkedHashMap<>();
+    private CertificateTransparencyImpl ct;
+    private ExecutorService threadPool;
+    private int nextLogNumber = 0;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        caKeyPair = KeyTools.genKeys("secp256r1", "EC");
+        leafKeyPair = KeyTools.genKeys("secp256r1", "EC");
+        caCertificate = CertTools.genSelfCert(CA_DN, 365, null, caKeyPair.getPrivate(), caKeyPair.getPublic(), "SHA256withECDSA", true);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Before
+    public void before() {
+        ct = new CertificateTransparencyImpl();
+        threadPool = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void after() {
+        for (final String path : fakeLogs.keySet()) {
+            server.removeContext(path);
+        }
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void testParallelSubmission() throws Exception {
+        final long latency = 500;
+        for (int i = 0; i < 3; i++) {
+            addLog("Group" + i).latency = latency;
+        }
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final long startTime = System.currentTimeMillis();
+        final byte[] sctList = ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(3, 3), createConfig(),
+                createCallback(threadPool));
+        final long time = System.currentTimeMillis() - startTime;
+        assertNotNull(sctList);
+        assertEquals("Should have one SCT from each group.", 3, countScts(sctList));
+        assertTrue("Logs should have been queried in parallel, took " + time + " ms.", time < 2 * latency);
+    }
+
+    @Test
+    public void testReturnsWhenMaxIsReached() throws Exception {
+        addLog("Fast1");
+        addLog("Fast2");
+        addLog("Slow").latency = 3000;
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final long startTime = System.currentTimeMillis();
+        final byte[] sctList = ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(1, 2), createConfig(),
+                createCallback(threadPool));
+        final long time = System.currentTimeMillis() - startTime;
+        assertEquals(2, countScts(sctList));
+        assertTrue("Should not wait for the slow log, took " + time + " ms.", time < 2000);
+    }
+
+    @Test
+    public void testFallbackWithinGroup() throws Exception {
+        final FakeCtLog failingLog = addLog("Group");
+        failingLog.failing = true;
+        final FakeCtLog workingLog = addLog("Group");
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final byte[] sctList = ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(1, 1), createConfig(),
+                createCallback(threadPool));
+        assertEquals(1, countScts(sctList));
+        assertEquals(1, failingLog.requests.get());
+        assertEquals(1, workingLog.requests.get());
+    }
+
+    @Test
+    public void testFastFail() throws Exception {
+        final FakeCtLog failingLog = addLog("Group");
+        failingLog.failing = true;
+        final CertificateProfile profile = createProfile(1, 1);
+        for (int i = 0; i < CtLogClient.MAX_FAILURES + 2; i++) {
+            final X509Certificate preCertificate = createCertificate(BigInteger.valueOf(i + 1), true, null);
+            try {
+                ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), profile, createConfig(), createCallback(threadPool));
+                fail("Should fail when the only log is down.");
+            } catch (CTLogException e) {
+                // Expected
+            }
+        }
+        assertEquals("Log should not be queried while it is considered to be down.", CtLogClient.MAX_FAILURES, failingLog.requests.get());
+        ct.clearCaches();
+        failingLog.failing = false;
+        final X509Certificate preCertificate = createCertificate(BigInteger.TEN, true, null);
+        assertNotNull(ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), profile, createConfig(), createCallback(threadPool)));
+    }
+
+    @Test
+    public void testCachedSctIsReused() throws Exception {
+        final FakeCtLog fakeLog = addLog("Group");
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final List<Certificate> chain = Arrays.<Certificate>asList(preCertificate, caCertificate);
+        final byte[] sctList1 = ct.fetchSCTList(chain, createProfile(1, 1), createConfig(), createCallback(threadPool));
+        final byte[] sctList2 = ct.fetchSCTList(chain, createProfile(1, 1), createConfig(), createCallback(threadPool));
+        assertTrue(Arrays.equals(sctList1, sctList2));
+        assertEquals("Pre-certificate should only have been submitted once.", 1, fakeLog.requests.get());
+    }
+
+    @Test
+    public void testSequentialWithoutThreadPool() throws Exception {
+        addLog("Group1");
+        addLog("Group2");
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final byte[] sctList = ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(2, 2), createConfig(),
+                createCallback(null));
+        assertEquals(2, countScts(sctList));
+    }
+
+    @Test(expected = CTLogException.class)
+    public void testTooFewLogGroups() throws Exception {
+        addLog("Group1");
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(2, 2), createConfig(), createCallback(threadPool));
+    }
+
+    @Test
+    public void testStoredSctsForOcsp() throws Exception {
+        final FakeCtLog fakeLog = addLog("Group");
+        final X509Certificate certificate = createCertificate(BigInteger.ONE, false, null);
+        final Map<Integer, byte[]> stored = new LinkedHashMap<>();
+        final SctDataCallback callback = new SctDataCallback() {
+            @Override
+            public void saveSctData(final String fingerprint, final int logId, final long certificateExpirationDate, final String data) {
+                stored.put(logId, org.bouncycastle.util.encoders.Hex.decode(data));
+            }
+
+            @Override
+            public Map<Integer, byte[]> findSctData(final String fingerprint) {
+                return stored;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        };
+        final CertificateProfile profile = createProfile(1, 1);
+        profile.setCtMinSctsOcsp(1);
+        profile.setCtMaxSctsOcsp(1);
+        profile.setUseCTSubmitExisting(true);
+        final List<Certificate> chain = Arrays.<Certificate>asList(certificate, caCertificate);
+        final byte[] sctList1 = ct.fetchSCTList(chain, profile, createConfig(), UsageMode.OCSP, callback);
+        assertEquals("SCT should have been stored.", 1, stored.size());
+        ct.clearCaches();
+        final byte[] sctList2 = ct.fetchSCTList(chain, profile, createConfig(), UsageMode.OCSP, callback);
+        assertTrue(Arrays.equals(sctList1, sctList2));
+        assertEquals("Stored SCT should have been used.", 1, fakeLog.requests.get());
+    }
+
+    @Test
+    public void testVerifyEmbeddedScts() throws Exception {
+        addLog("Group1");
+        addLog("Group2");
+        final X509Certificate preCertificate = createCertificate(BigInteger.ONE, true, null);
+        final byte[] sctList = ct.fetchSCTList(Arrays.<Certificate>asList(preCertificate, caCertificate), createProfile(2, 2), createConfig(),
+                createCallback(threadPool));
+        final X509Certificate certificate = createCertificate(BigInteger.ONE, false, sctList);
+        assertTrue(ct.hasSCTs(certificate));
+        assertFalse(ct.hasSCTs(preCertificate));
+        ct.allSctsAreValidOrThrow(certificate, Collections.<Certificate>singletonList(caCertificate), ctLogs.values());
+        // A certificate with other contents than the pre-certificate must not verify
+        final X509Certificate otherCertificate = createCertificate(BigInteger.TEN, false, sctList);
+        try {
+            ct.allSctsAreValidOrThrow(otherCertificate, Collections.<Certificate>singletonList(caCertificate), ctLogs.values());
+            fail("SCTs for another pre-certificate should not verify.");
+        } catch (CertificateCreateException e) {
+            // Expected
+        }
+    }
+
+    private FakeCtLog addLog(final String label) throws Exception {
+        final FakeCtLog fakeLog = new FakeCtLog();
+        final String path = "/log" + (nextLogNumber++) + "/ct/v1/";
+        server.createContext(path, fakeLog);
+        fakeLogs.put(path, fakeLog);
+        final String url = "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        final CTLogInfo ctLog = new CTLogInfo(url, fakeLog.keyPair.getPublic().getEncoded(), label, TIMEOUT);
+        ctLogs.put(ctLog.getLogId(), ctLog);
+        return fakeLog;
+    }
+
+    private CTSubmissionConfigParams createConfig() {
+        final CTSubmissionConfigParams config = new CTSubmissionConfigParams();
+        config.setConfiguredCTLogs(ctLogs);
+        config.setValidityPolicy(new GoogleCtPolicy());
+        return config;
+    }
+
+    private CertificateProfile createProfile(final int minScts, final int maxScts) {
+        final CertificateProfile profile = new CertificateProfile();
+        profile.setUseCertificateTransparencyInCerts(true);
+        final HashSet<String> labels = new HashSet<>();
+        for (final CTLogInfo ctLog : ctLogs.values()) {
+            labels.add(ctLog.getLabel());
+        }
+        profile.setEnabledCtLabels(labels);
+        profile.setNumberOfSctByValidity(false);
+        profile.setNumberOfSctByCustom(true);
+        profile.setMaxNumberOfSctByValidity(false);
+        profile.setMaxNumberOfSctByCustom(true);
+        profile.setCtMinScts(minScts);
+        profile.setCtMaxScts(maxScts);
+        profile.setCTMaxRetries(0);
+        return profile;
+    }
+
+    private static SctDataCallback createCallback(final ExecutorService threadPool) {
+        return new SctDataCallback() {
+            @Override
+            public void saveSctData(final String fingerprint, final int logId, final long certificateExpirationDate, final String data) {
+                fail("SCTs for certificates should not be stored.");
+            }
+
+            @Override
+            public Map<Integer, byte[]> findSctData(final String fingerprint) {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        };
+    }
+
+    /** Creates a pre-certificate, or a certificate with the same contents and optionally an SCT list */
+    private static X509Certificate createCertificate(final BigInteger serialNumber, final boolean preCertificate, final byte[] sctList)
+            throws Exception {
+        final Date notBefore = new Date(1500000000000L);
+        final Date notAfter = new Date(notBefore.getTime() + 365L * 24 * 3600 * 1000);
+        final X509v3CertificateBuilder builder = new X509v3CertificateBuilder(new X500Name(CA_DN), serialNumber, notBefore, notAfter,
+                new X500Name(LEAF_DN), SubjectPublicKeyInfo.getInstance(leafKeyPair.getPublic().getEncoded()));
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+        if (preCertificate) {
+            new CertificateTransparencyImpl().addPreCertPoison(builder);
+        }
+        if (sctList != null) {
+            builder.addExtension(new ASN1ObjectIdentifier(CertificateTransparency.SCTLIST_OID), false, new DEROctetString(sctList));
+        }
+        return new JcaX509CertificateConverter().getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME).build(caKeyPair.getPrivate())));
+    }
+
+    /** @return the TBSCertificate without the given extension */
+    private static byte[] removeExtension(final X509Certificate certificate, final String oid) throws Exception {
+        final ASN1EncodableVector elements = new ASN1EncodableVector();
+        for (final ASN1Encodable element : ASN1Sequence.getInstance(certificate.getTBSCertificate())) {
+            if (element instanceof ASN1TaggedObject && ((ASN1TaggedObject) element).getTagNo() == 3) {
+                final Extensions extensions = Extensions.getInstance((ASN1TaggedObject) element, true);
+                final List<Extension> remaining = new ArrayList<>();
+                for (final ASN1ObjectIdentifier extensionOid : extensions.getExtensionOIDs()) {
+                    if (!oid.equals(extensionOid.getId())) {
+                        remaining.add(extensions.getExtension(extensionOid));
+                    }
+                }
+                elements.add(new DERTaggedObject(true, 3, new Extensions(remaining.toArray(new Extension[remaining.size()]))));
+            } else {
+                elements.add(element);
+            }
+        }
+        return new DERSequence(elements).getEncoded();
+    }
+
+    /** Signs the data of an SCT over a pre-certificate entry, as in RFC 6962 section 3.2 */
+    private static byte[] signSct(final PrivateKey logKey, final long timestamp, final X509Certificate issuer, final byte[] tbsCertificate)
+            throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(0); // v1
+        out.writeByte(0); // certificate_timestamp
+        out.writeLong(timestamp);
+        out.writeShort(1); // precert_entry
+        out.write(MessageDigest.getInstance("SHA-256").digest(issuer.getPublicKey().getEncoded()));
+        out.writeByte(tbsCertificate.length >>> 16);
+        out.writeShort(tbsCertificate.length & 0xFFFF);
+        out.write(tbsCertificate);
+        out.writeShort(0); // no extensions
+        final Signature signature = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
+        signature.initSign(logKey);
+        signature.update(bytes.toByteArray());
+        return signature.sign();
+    }
+
+    private static int countScts(final byte[] sctList) {
+        int count = 0;
+        int position = 2;
+        while (position < sctList.length) {
+            position += 2 + (((sctList[position] & 0xFF) << 8) | (sctList[position + 1] & 0xFF));
+            count++;
+        }
+        return count;
+    }
+}
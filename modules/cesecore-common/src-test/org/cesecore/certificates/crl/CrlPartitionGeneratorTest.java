@@ -0,0 +1,176 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.X509CAUnitTestBase;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.CryptoTokenOfflineException;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.util.CertTools;
+import org.junit.Test;
+
+/**
+ * Tests that CRLs generated at the same time by {@link CrlPartitionGenerator} are the same as CRLs generated one by one.
+ *
+ * @version $Id$
+ */
+public class CrlPartitionGeneratorTest extends X509CAUnitTestBase {
+
+    private static final int PARTITIONS = 8;
+
+    @Test
+    public void testSameAsSequentialGeneration() throws Exception {
+        final CryptoToken cryptoToken = getNewCryptoToken();
+        final X509CA ca = createPartitionedCa(cryptoToken);
+        final Map<Integer, Collection<RevokedCertInfo>> certsByPartition = new LinkedHashMap<>();
+        final Map<Integer, Integer> crlNumbers = new HashMap<>();
+        certsByPartition.put(CertificateConstants.NO_CRL_PARTITION, createRevokedCerts(0, 50));
+        crlNumbers.put(CertificateConstants.NO_CRL_PARTITION, 10);
+        for (int crlPartitionIndex = 1; crlPartitionIndex <= PARTITIONS; crlPartitionIndex++) {
+            // Partition 3 has no revoked certificates
+            certsByPartition.put(crlPartitionIndex, createRevokedCerts(crlPartitionIndex * 1000, crlPartitionIndex == 3 ? 0 : 20 * crlPartitionIndex));
+            crlNumbers.put(crlPartitionIndex, 10 + crlPartitionIndex);
+        }
+        final List<CrlPartitionGenerator.GeneratedCrl> generated = CrlPartitionGenerator.generateCrls(ca, cryptoToken, certsByPartition, crlNumbers, 4);
+        assertEquals(PARTITIONS + 1, generated.size());
+        final List<Integer> expectedOrder = new ArrayList<>(certsByPartition.keySet());
+        for (int i = 0; i < generated.size(); i++) {
+            final CrlPartitionGenerator.GeneratedCrl generatedCrl = generated.get(i);
+            final int crlPartitionIndex = generatedCrl.getCrlPartitionIndex();
+            assertEquals("CRLs should be returned in partition order.", expectedOrder.get(i).intValue(), crlPartitionIndex);
+            assertEquals(crlNumbers.get(crlPartitionIndex).intValue(), generatedCrl.getCrlNumber());
+            final X509CRLHolder sequentialHolder = ca.generateCRL(cryptoToken, crlPartitionIndex, certsByPartition.get(crlPartitionIndex),
+                    crlNumbers.get(crlPartitionIndex));
+            final X509CRL parallel = CertTools.getCRLfromByteArray(generatedCrl.getEncoded());
+            final X509CRL sequential = CertTools.getCRLfromByteArray(sequentialHolder.getEncoded());
+            parallel.verify(ca.getCACertificate().getPublicKey());
+            assertEquals(sequential.getIssuerX500Principal(), parallel.getIssuerX500Principal());
+            assertEquals(sequentialHolder.getIssuer().toString(), generatedCrl.getIssuerDN());
+            assertEquals(CrlExtensions.getCrlNumber(sequential), CrlExtensions.getCrlNumber(parallel));
+            assertEquals(parallel.getThisUpdate(), generatedCrl.getThisUpdate());
+            assertEquals(parallel.getNextUpdate(), generatedCrl.getNextUpdate());
+            assertExtensionsEqual(sequential, parallel);
+            assertEntriesEqual(sequential, parallel, certsByPartition.get(crlPartitionIndex).size());
+        }
+    }
+
+    @Test
+    public void testExceptionIsThrown() throws Exception {
+        // A crypto token with auto-activation is activated again when it is used, so it must not have the default password either
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(SoftCryptoToken.NODEFAULTPWD, Boolean.TRUE.toString());
+        final CryptoToken cryptoToken = CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, 17,
+                "CryptoToken's name");
+        cryptoToken.activate("foo1234".toCharArray());
+        final X509CA ca = createPartitionedCa(cryptoToken);
+        final Map<Integer, Collection<RevokedCertInfo>> certsByPartition = new LinkedHashMap<>();
+        final Map<Integer, Integer> crlNumbers = new HashMap<>();
+        for (int crlPartitionIndex = 1; crlPartitionIndex <= PARTITIONS; crlPartitionIndex++) {
+            certsByPartition.put(crlPartitionIndex, createRevokedCerts(crlPartitionIndex * 1000, 5));
+            crlNumbers.put(crlPartitionIndex, crlPartitionIndex);
+        }
+        cryptoToken.deactivate();
+        try {
+            CrlPartitionGenerator.generateCrls(ca, cryptoToken, certsByPartition, crlNumbers, 4);
+            fail("CRL generation should fail when the crypto token is offline.");
+        } catch (Exception e) {
+            // Expected, the exception thrown by CA.generateCRL should not be wrapped
+            assertTrue("Unexpected exception: " + e, e instanceof CryptoTokenOfflineException);
+        }
+    }
+
+    @Test
+    public void testThreads() {
+        assertEquals(1, CrlPartitionGenerator.getThreads(null, 1));
+        assertEquals(1, CrlPartitionGenerator.getThreads(null, 0));
+        assertTrue(CrlPartitionGenerator.getThreads(null, 1000) >= 1);
+        assertTrue(CrlPartitionGenerator.getThreads(null, 1000) <= Runtime.getRuntime().availableProcessors());
+    }
+
+    private X509CA createPartitionedCa(final CryptoToken cryptoToken) throws Exception {
+        final X509CA ca = createTestCA(cryptoToken, CADN);
+        final X509CAInfo caInfo = (X509CAInfo) ca.getCAInfo();
+        caInfo.setUseCrlDistributionPointOnCrl(true);
+        caInfo.setDefaultCRLDistPoint("http://example.com/CA*.crl");
+        caInfo.setUsePartitionedCrl(true);
+        caInfo.setCrlPartitions(PARTITIONS);
+        ca.updateCA(cryptoToken, caInfo, cceConfig);
+        return ca;
+    }
+
+    private static Collection<RevokedCertInfo> createRevokedCerts(final int firstSerialNumber, final int count) {
+        final RevokedCertInfoCollection ret = new RevokedCertInfoCollection();
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            final int serialNumber = firstSerialNumber + i + 1;
+            ret.add(("fingerprint" + serialNumber).getBytes(), BigInteger.valueOf(serialNumber).toByteArray(), now - i * 1000L,
+                    RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE + i % 3, now + 86400000L);
+        }
+        return ret;
+    }
+
+    private static void assertExtensionsEqual(final X509CRL expected, final X509CRL actual) {
+        final Set<String> criticalExtensions = expected.getCriticalExtensionOIDs();
+        final Set<String> nonCriticalExtensions = expected.getNonCriticalExtensionOIDs();
+        assertEquals(criticalExtensions, actual.getCriticalExtensionOIDs());
+        assertEquals(nonCriticalExtensions, actual.getNonCriticalExtensionOIDs());
+        for (final String oid : nonCriticalExtensions) {
+            assertTrue("Extension " + oid + " differs.", Arrays.equals(expected.getExtensionValue(oid), actual.getExtensionValue(oid)));
+        }
+        for (final String oid : criticalExtensions) {
+            assertTrue("Extension " + oid + " differs.", Arrays.equals(expected.getExtensionValue(oid), actual.getExtensionValue(oid)));
+        }
+        assertTrue("CRL should have an issuing distribution point.", actual.getExtensionValue(Extension.issuingDistributionPoint.getId()) != null);
+    }
+
+    private static void assertEntriesEqual(final X509CRL expected, final X509CRL actual, final int count) {
+        final Set<? extends X509CRLEntry> expectedEntries = expected.getRevokedCertificates();
+        final Set<? extends X509CRLEntry> actualEntries = actual.getRevokedCertificates();
+        if (count == 0) {
+            assertTrue(expectedEntries == null || expectedEntries.isEmpty());
+            assertTrue(actualEntries == null || actualEntries.isEmpty());
+            return;
+        }
+        assertEquals(count, actualEntries.size());
+        for (final X509CRLEntry expectedEntry : expectedEntries) {
+            final X509CRLEntry actualEntry = actual.getRevokedCertificate(expectedEntry.getSerialNumber());
+            assertEquals(expectedEntry.getSerialNumber(), actualEntry.getSerialNumber());
+            assertEquals(expectedEntry.getRevocationDate(), actualEntry.getRevocationDate());
+            assertEquals(expectedEntry.getRevocationReason(), actualEntry.getRevocationReason());
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.CompressedCollection;
+import org.junit.Test;
+
+/**
+ * Tests the columnar storage of revoked certificates, and compares it with {@link CompressedCollection}.
+ * <p>
+ * The benchmark runs with 100000 entries. Run with -Drevokedcertinfocollection.benchmark=true to also compare 1000000
+ * and 5000000 entries, which needs a heap of a few GB.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollectionTest {
+
+    private static final Logger log = Logger.getLogger(RevokedCertInfoCollectionTest.class);
+
+    @Test
+    public void testAddAndIterate() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(2);
+        final List<RevokedCertInfo> expected = createEntries(1000, new Random(1));
+        expected.add(new RevokedCertInfo(null, null, 0, RevokedCertInfo.NOT_REVOKED, 0));
+        for (final RevokedCertInfo revokedCertInfo : expected) {
+            assertTrue(collection.add(revokedCertInfo));
+        }
+        assertFalse(collection.add(null));
+        assertEquals(expected.size(), collection.size());
+        assertEntriesEqual(expected, collection);
+        // Iterating again gives the same result
+        assertEntriesEqual(expected, collection);
+        final RevokedCertInfo last = new ArrayList<>(collection).get(expected.size() - 1);
+        assertNull(last.getUserCertificate());
+        assertNull(last.getCertificateFingerprint());
+        assertNull(last.getRevocationDate());
+        assertNull(last.getExpireDate());
+        assertEquals(RevokedCertInfo.NOT_REVOKED, last.getReason());
+    }
+
+    @Test
+    public void testClear() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        final List<RevokedCertInfo> entries = createEntries(100, new Random(2));
+        collection.addAll(entries);
+        collection.clear();
+        assertTrue(collection.isEmpty());
+        assertFalse(collection.iterator().hasNext());
+        collection.addAll(entries);
+        assertEntriesEqual(entries, collection);
+    }
+
+    @Test
+    public void testConcurrentModification() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        collection.addAll(createEntries(10, new Random(3)));
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        iterator.next();
+        collection.add(new RevokedCertInfo("fp".getBytes(), BigInteger.ONE.toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 1));
+        try {
+            iterator.next();
+            fail("Iterating over a changed collection should fail.");
+        } catch (ConcurrentModificationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testIllegalReason() {
+        try {
+            new RevokedCertInfoCollection().add("fp".getBytes(), BigInteger.ONE.toByteArray(), 1, 1000, 1);
+            fail("Revocation reason 1000 should not be accepted.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFingerprintFormats() {
+        final List<RevokedCertInfo> entries = new ArrayList<>();
+        // SHA-1 and SHA-256 hex fingerprints, odd length, empty and null values are packed
+        for (final String fingerprint : new String[] { "0123456789abcdef0123456789abcdef01234567",
+                "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef", "abc", "", null }) {
+            entries.add(new RevokedCertInfo(fingerprint == null ? null : fingerprint.getBytes(), BigInteger.ONE.toByteArray(), 1,
+                    RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        }
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(1);
+        collection.addAll(entries);
+        assertEntriesEqual(entries, collection);
+        // Other values are stored as they are, also the ones added before
+        for (final String fingerprint : new String[] { "0123456789ABCDEF", "not a fingerprint" }) {
+            entries.add(new RevokedCertInfo(fingerprint.getBytes(), BigInteger.ONE.toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+            collection.add(entries.get(entries.size() - 1));
+            assertEntriesEqual(entries, collection);
+        }
+    }
+
+    @Test
+    public void testSortBySerialNumber() {
+        final List<RevokedCertInfo> entries = createEntries(10000, new Random(4));
+        // Serial numbers of different lengths, and negative serial numbers from old non-conforming CAs
+        entries.add(new RevokedCertInfo("a".getBytes(), BigInteger.ZERO.toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        entries.add(new RevokedCertInfo("b".getBytes(), BigInteger.valueOf(-1).toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        entries.add(new RevokedCertInfo("c".getBytes(), BigInteger.valueOf(-300).toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        entries.add(new RevokedCertInfo("d".getBytes(), BigInteger.valueOf(255).toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        entries.add(new RevokedCertInfo("e".getBytes(), BigInteger.valueOf(127).toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2));
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        collection.addAll(entries);
+        collection.sortBySerialNumber();
+        Collections.sort(entries, (a, b) -> a.getUserCertificate().compareTo(b.getUserCertificate()));
+        assertEntriesEqual(entries, collection);
+        // Entries can still be added after sorting
+        final RevokedCertInfo added = new RevokedCertInfo("f".getBytes(), BigInteger.TEN.toByteArray(), 1, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2);
+        collection.add(added);
+        entries.add(added);
+        assertEntriesEqual(entries, collection);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        final List<RevokedCertInfo> entries = createEntries(1000, new Random(5));
+        collection.addAll(entries);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(collection);
+        }
+        log.debug("Serialized " + entries.size() + " entries to " + baos.size() + " bytes.");
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            final Collection<RevokedCertInfo> deserialized = (Collection<RevokedCertInfo>) ois.readObject();
+            assertEntriesEqual(entries, deserialized);
+        }
+    }
+
+    @Test
+    public void testMergeByDateAndStatus() {
+        final RevokedCertInfoCollection a = new RevokedCertInfoCollection();
+        final RevokedCertInfoCollection b = new RevokedCertInfoCollection();
+        a.add("a".getBytes(), BigInteger.ONE.toByteArray(), 1000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 5000);
+        b.add("a".getBytes(), BigInteger.ONE.toByteArray(), 2000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5000);
+        b.add("b".getBytes(), BigInteger.TEN.toByteArray(), 2000, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, 5000);
+        final Collection<RevokedCertInfo> merged = RevokedCertInfo.mergeByDateAndStatus(a, b, 0);
+        assertTrue(merged instanceof RevokedCertInfoCollection);
+        assertEquals(2, merged.size());
+        for (final RevokedCertInfo revokedCertInfo : merged) {
+            assertTrue(revokedCertInfo.isPermanentlyRevoked());
+        }
+    }
+
+    @Test
+    public void testBenchmark() {
+        benchmark(100000);
+        if (Boolean.getBoolean("revokedcertinfocollection.benchmark")) {
+            benchmark(1000000);
+            benchmark(5000000);
+        }
+    }
+
+    /** Compares adding, iterating and memory use with CompressedCollection, with 20 byte serial numbers as for a CRL */
+    private void benchmark(final int entries) {
+        final Random random = new Random(entries);
+        final long now = System.currentTimeMillis();
+        final long columnarStart = System.nanoTime();
+        final RevokedCertInfoCollection columnar = new RevokedCertInfoCollection();
+        fill(columnar, entries, random, now);
+        columnar.trimToSize();
+        final long columnarAdded = System.nanoTime();
+        final long columnarChecksum = iterate(columnar);
+        final long columnarEnd = System.nanoTime();
+        final long columnarSortStart = System.nanoTime();
+        columnar.sortBySerialNumber();
+        final long columnarSortEnd = System.nanoTime();
+        final long columnarBytes = serializedSize(columnar);
+        columnar.clear();
+
+        random.setSeed(entries);
+        final long compressedStart = System.nanoTime();
+        final CompressedCollection<RevokedCertInfo> compressed = new CompressedCollection<>(RevokedCertInfo.class);
+        fill(compressed, entries, random, now);
+        compressed.closeForWrite();
+        final long compressedAdded = System.nanoTime();
+        final long compressedChecksum = iterate(compressed);
+        final long compressedEnd = System.nanoTime();
+        final long compressedBytes = serializedSize(compressed);
+        compressed.clear();
+
+        assertEquals("Both collections should return the same entries.", compressedChecksum, columnarChecksum);
+        log.info(entries + " entries: RevokedCertInfoCollection add " + (columnarAdded - columnarStart) / 1000000 + " ms, iterate "
+                + (columnarEnd - columnarAdded) / 1000000 + " ms, sort " + (columnarSortEnd - columnarSortStart) / 1000000 + " ms, "
+                + columnarBytes / entries + " bytes per entry. CompressedCollection add " + (compressedAdded - compressedStart) / 1000000
+                + " ms, iterate " + (compressedEnd - compressedAdded) / 1000000 + " ms, " + compressedBytes / entries + " bytes per entry.");
+    }
+
+    private static void fill(final Collection<RevokedCertInfo> collection, final int entries, final Random random, final long now) {
+        final byte[] serialNumber = new byte[20];
+        for (int i = 0; i < entries; i++) {
+            random.nextBytes(serialNumber);
+            serialNumber[0] &= 0x7f;
+            final BigInteger serno = new BigInteger(serialNumber);
+            collection.add(new RevokedCertInfo(serno.toString(16).getBytes(), serno.toByteArray(), now - random.nextInt(1000000000),
+                    RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, now + random.nextInt(1000000000)));
+        }
+    }
+
+    /** Iterates the way a CRL is built, and returns a checksum of the entries */
+    private static long iterate(final Collection<RevokedCertInfo> collection) {
+        long checksum = 0;
+        for (final RevokedCertInfo revokedCertInfo : collection) {
+            checksum += revokedCertInfo.getUserCertificate().longValue() + revokedCertInfo.getRevocationDate().getTime() + revokedCertInfo.getReason();
+        }
+        return checksum;
+    }
+
+    /** @return the size of the stored data, which is what the collection keeps in memory for CompressedCollection */
+    private static long serializedSize(final Collection<RevokedCertInfo> collection) {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(collection);
+            }
+            return baos.size();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<RevokedCertInfo> createEntries(final int count, final Random random) {
+        final List<RevokedCertInfo> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final BigInteger serno = new BigInteger(1 + random.nextInt(160), random);
+            final byte[] fingerprint = random.nextInt(10) == 0 ? null : serno.toString(16).getBytes();
+            final int reason = random.nextBoolean() ? RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL : RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE;
+            entries.add(new RevokedCertInfo(fingerprint, serno.toByteArray(), random.nextInt(1000) * 1000L, reason, random.nextInt(1000) * 1000L));
+        }
+        return entries;
+    }
+
+    private static void assertEntriesEqual(final List<RevokedCertInfo> expected, final Collection<RevokedCertInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        final Iterator<RevokedCertInfo> iterator = actual.iterator();
+        for (final RevokedCertInfo expectedEntry : expected) {
+            assertTrue(iterator.hasNext());
+            final RevokedCertInfo actualEntry = iterator.next();
+            assertEquals(expectedEntry.getUserCertificate(), actualEntry.getUserCertificate());
+            assertEquals(expectedEntry.getCertificateFingerprint(), actualEntry.getCertificateFingerprint());
+            assertEquals(expectedEntry.getRevocationDate(), actualEntry.getRevocationDate());
+            assertEquals(expectedEntry.getExpireDate(), actualEntry.getExpireDate());
+            assertEquals(expectedEntry.getReason(), actualEntry.getReason());
+        }
+        assertFalse(iterator.hasNext());
+    }
+}
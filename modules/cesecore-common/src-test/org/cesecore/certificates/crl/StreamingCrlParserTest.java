@@ -0,0 +1,211 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests parsing CRLs without decoding them as a whole, and comparing the entries of two CRLs.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlParserTest {
+
+    private static final Logger log = Logger.getLogger(StreamingCrlParserTest.class);
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCrlParserTest,O=EJBCA");
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testParseAsX509Crl() throws Exception {
+        final byte[] encoded = createCrl(1, 0, 100, 7, true);
+        final StreamingCrlParser parser = new StreamingCrlParser(encoded);
+        final X509CRL x509crl = CertTools.getCRLfromByteArray(encoded);
+        assertEquals(ISSUER, parser.getIssuer());
+        assertEquals(x509crl.getThisUpdate(), parser.getThisUpdate());
+        assertEquals(x509crl.getNextUpdate(), parser.getNextUpdate());
+        assertEquals(BigInteger.valueOf(7), parser.getCrlNumber());
+        assertEquals(BigInteger.valueOf(-1), parser.getDeltaCrlIndicator());
+        assertEquals(100, parser.getEntryCount());
+        parser.verify(keyPair.getPublic());
+        final Map<BigInteger, X509CRLEntry> expected = new HashMap<>();
+        for (final X509CRLEntry entry : x509crl.getRevokedCertificates()) {
+            expected.put(entry.getSerialNumber(), entry);
+        }
+        int count = 0;
+        for (final Iterator<StreamingCrlParser.Entry> iterator = parser.iterator(); iterator.hasNext(); count++) {
+            final StreamingCrlParser.Entry entry = iterator.next();
+            final X509CRLEntry x509entry = expected.get(entry.getSerialNumber());
+            assertEquals(x509entry.getRevocationDate(), entry.getRevocationDate());
+            final int expectedReason = x509entry.getRevocationReason() == null ? RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED
+                    : x509entry.getRevocationReason().ordinal();
+            assertEquals(expectedReason, entry.getReasonCode());
+            assertNull(entry.getCertificateIssuer());
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    public void testEmptyCrl() throws Exception {
+        final StreamingCrlParser parser = new StreamingCrlParser(createCrl(1, 0, 0, 0, false));
+        assertFalse(parser.hasEntries());
+        assertEquals(0, parser.getEntryCount());
+        assertFalse(parser.iterator().hasNext());
+        assertNull(parser.getNextUpdate());
+        assertEquals(BigInteger.ZERO, parser.getCrlNumber());
+        assertEquals(0, parser.getSortedEntryDigests().length);
+    }
+
+    @Test
+    public void testInvalidSignature() throws Exception {
+        final byte[] encoded = createCrl(1, 0, 10, 1, true);
+        // Change the last byte of the signature
+        encoded[encoded.length - 1] ^= 1;
+        final StreamingCrlParser parser = new StreamingCrlParser(encoded);
+        try {
+            parser.verify(keyPair.getPublic());
+            fail("The signature should not be valid.");
+        } catch (CRLException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMalformedCrl() throws Exception {
+        final byte[] encoded = createCrl(1, 0, 10, 1, true);
+        final byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertMalformed(truncated);
+        // Indefinite length encoding of the outer sequence
+        final byte[] indefinite = encoded.clone();
+        indefinite[1] = (byte) 0x80;
+        assertMalformed(indefinite);
+        assertMalformed(new byte[] { 0x30 });
+    }
+
+    /** Entries that are in both CRLs are found in the digests of the previous one, changed and new entries are not. */
+    @Test
+    public void testDiff() throws Exception {
+        final long[] previous = new StreamingCrlParser(createCrl(1, 0, 1000, 1, true)).getSortedEntryDigests();
+        assertEquals(2000, previous.length);
+        // Serial numbers 500 to 1499, where 500 to 999 have the same revocation date and reason as in the previous CRL
+        final StreamingCrlParser parser = new StreamingCrlParser(createCrl(2, 500, 1000, 2, true));
+        int unchanged = 0;
+        for (final Iterator<StreamingCrlParser.Entry> iterator = parser.iterator(); iterator.hasNext();) {
+            final StreamingCrlParser.Entry entry = iterator.next();
+            final boolean contained = StreamingCrlParser.containsDigest(previous, entry.getDigestHigh(), entry.getDigestLow());
+            assertEquals("Serial number " + entry.getSerialNumber(), entry.getSerialNumber().intValue() < 1000, contained);
+            if (contained) {
+                unchanged++;
+            }
+        }
+        assertEquals(500, unchanged);
+        assertFalse(StreamingCrlParser.containsDigest(new long[0], 0, 0));
+    }
+
+    /** Parses and diffs two CRLs with a million entries each, run with -Dstreamingcrlparser.benchmark=true */
+    @Test
+    public void testLargeCrl() throws Exception {
+        if (!Boolean.getBoolean("streamingcrlparser.benchmark")) {
+            log.info("Skipping benchmark, enable with -Dstreamingcrlparser.benchmark=true");
+            return;
+        }
+        final int size = 1000000;
+        final byte[] previousCrl = createCrl(1, 0, size, 1, true);
+        final byte[] crl = createCrl(2, size / 10, size, 2, true);
+        final long start = System.currentTimeMillis();
+        final long[] previous = new StreamingCrlParser(previousCrl).getSortedEntryDigests();
+        final StreamingCrlParser parser = new StreamingCrlParser(crl);
+        parser.verify(keyPair.getPublic());
+        int newEntries = 0;
+        for (final Iterator<StreamingCrlParser.Entry> iterator = parser.iterator(); iterator.hasNext();) {
+            final StreamingCrlParser.Entry entry = iterator.next();
+            if (!StreamingCrlParser.containsDigest(previous, entry.getDigestHigh(), entry.getDigestLow())) {
+                newEntries++;
+            }
+        }
+        log.info("Parsed and compared two CRLs of " + size + " entries (" + crl.length + " bytes) in " + (System.currentTimeMillis() - start) + " ms.");
+        assertEquals(size / 10, newEntries);
+    }
+
+    private static void assertMalformed(final byte[] encoded) {
+        try {
+            new StreamingCrlParser(encoded);
+            fail("The CRL should not be parsed.");
+        } catch (CRLException e) {
+            assertTrue(e.getMessage(), e.getMessage().length() > 0);
+        }
+    }
+
+    /**
+     * Creates a CRL with the serial numbers first to first+count-1. The revocation date and reason only depend on the serial
+     * number, so CRLs with overlapping serial numbers have identical entries.
+     */
+    private static byte[] createCrl(final long thisUpdateSeconds, final long first, final int count, final int crlNumber, final boolean nextUpdate)
+            throws Exception {
+        final Date thisUpdate = new Date(1500000000000L + thisUpdateSeconds * 1000L);
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        if (nextUpdate) {
+            builder.setNextUpdate(new Date(thisUpdate.getTime() + 86400000L));
+        }
+        if (crlNumber != 0) {
+            builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(crlNumber)));
+        }
+        for (long serial = first; serial < first + count; serial++) {
+            final Date revocationDate = new Date(1400000000000L + serial * 1000L);
+            final int reason = (int) (serial % 3 == 0 ? CRLReason.keyCompromise : serial % 3 == 1 ? CRLReason.superseded : -1);
+            if (reason == -1) {
+                builder.addCRLEntry(BigInteger.valueOf(serial), revocationDate, null);
+            } else {
+                builder.addCRLEntry(BigInteger.valueOf(serial), revocationDate, reason);
+            }
+        }
+        return builder.build(new JcaContentSignerBuilder("SHA256WithRSA").setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keyPair.getPrivate()))
+                .getEncoded();
+    }
+}
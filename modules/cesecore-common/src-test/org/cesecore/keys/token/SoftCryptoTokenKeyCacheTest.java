@@ -0,0 +1,124 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that soft crypto tokens reuse the cached keys of an unchanged keystore, and only with the right password.
+ *
+ * @version $Id$
+ */
+public class SoftCryptoTokenKeyCacheTest {
+
+    private static final int CRYPTO_TOKEN_ID = 4711;
+    private static final String PIN = "foo123";
+    private static final String ALIAS = "cachetest";
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProvider();
+    }
+
+    @After
+    public void tearDown() {
+        SoftCryptoTokenKeyCache.INSTANCE.clear();
+    }
+
+    @Test
+    public void testReloadUsesCachedKeys() throws Exception {
+        final CryptoToken original = createToken(null);
+        original.activate(PIN.toCharArray());
+        original.generateKeyPair("1024", ALIAS);
+        final byte[] tokenData = original.getTokenData();
+        assertTrue("Keys should be cached after the keystore was stored.",
+                SoftCryptoTokenKeyCache.INSTANCE.isPasswordCorrect(CRYPTO_TOKEN_ID, tokenData, PIN.toCharArray()));
+        final CryptoToken reloaded = createToken(tokenData);
+        reloaded.activate(PIN.toCharArray());
+        assertArrayEquals(original.getPrivateKey(ALIAS).getEncoded(), reloaded.getPrivateKey(ALIAS).getEncoded());
+        KeyTools.testKey(reloaded.getPrivateKey(ALIAS), reloaded.getPublicKey(ALIAS), reloaded.getSignProviderName());
+        // Keys generated in the reloaded token should not appear in the original one
+        reloaded.generateKeyPair("1024", ALIAS + "2");
+        assertNotNull(reloaded.getPublicKey(ALIAS + "2"));
+        try {
+            original.getPublicKey(ALIAS + "2");
+            fail("Key generated in another instance should not be found.");
+        } catch (CryptoTokenOfflineException e) {
+            // NOPMD expected
+        }
+    }
+
+    @Test
+    public void testWrongPasswordIsRejected() throws Exception {
+        final CryptoToken original = createToken(null);
+        original.activate(PIN.toCharArray());
+        original.generateKeyPair("1024", ALIAS);
+        final byte[] tokenData = original.getTokenData();
+        assertFalse(SoftCryptoTokenKeyCache.INSTANCE.isPasswordCorrect(CRYPTO_TOKEN_ID, tokenData, "bar123".toCharArray()));
+        assertNull(SoftCryptoTokenKeyCache.INSTANCE.getKeyStore(CRYPTO_TOKEN_ID, tokenData, "bar123".toCharArray()));
+        final CryptoToken reloaded = createToken(tokenData);
+        try {
+            reloaded.activate("bar123".toCharArray());
+            fail("Activation with the wrong password should fail.");
+        } catch (CryptoTokenAuthenticationFailedException e) {
+            // NOPMD expected
+        }
+    }
+
+    @Test
+    public void testChangedKeystoreIsNotCached() throws Exception {
+        final CryptoToken original = createToken(null);
+        original.activate(PIN.toCharArray());
+        original.generateKeyPair("1024", ALIAS);
+        final byte[] tokenData = original.getTokenData();
+        final byte[] otherTokenData = tokenData.clone();
+        otherTokenData[otherTokenData.length - 1] ^= 1;
+        assertNull(SoftCryptoTokenKeyCache.INSTANCE.getKeyStore(CRYPTO_TOKEN_ID, otherTokenData, PIN.toCharArray()));
+        assertNull(SoftCryptoTokenKeyCache.INSTANCE.getKeyStore(CRYPTO_TOKEN_ID + 1, tokenData, PIN.toCharArray()));
+        assertNotNull(SoftCryptoTokenKeyCache.INSTANCE.getKeyStore(CRYPTO_TOKEN_ID, tokenData, PIN.toCharArray()));
+    }
+
+    @Test
+    public void testDeactivateRemovesKeys() throws Exception {
+        final CryptoToken original = createToken(null);
+        original.activate(PIN.toCharArray());
+        original.generateKeyPair("1024", ALIAS);
+        original.deactivate();
+        final byte[] tokenData = original.getTokenData();
+        assertFalse("Keys should not be cached after deactivation.",
+                SoftCryptoTokenKeyCache.INSTANCE.isPasswordCorrect(CRYPTO_TOKEN_ID, tokenData, PIN.toCharArray()));
+        // The token can still be activated by decrypting the keystore
+        final CryptoToken reloaded = createToken(tokenData);
+        reloaded.activate(PIN.toCharArray());
+        KeyTools.testKey(reloaded.getPrivateKey(ALIAS), reloaded.getPublicKey(ALIAS), reloaded.getSignProviderName());
+    }
+
+    private static CryptoToken createToken(final byte[] tokenData) throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(SoftCryptoToken.NODEFAULTPWD, "true");
+        return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), properties, tokenData, CRYPTO_TOKEN_ID, "Key cache test");
+    }
+}
@@ -0,0 +1,278 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token.p11;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.ProviderException;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureSpi;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.BufferingContentSigner;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.PKCS11CryptoTokenTest;
+import org.cesecore.keys.token.PKCS11TestUtils;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the pool of PKCS#11 signatures. The benchmark needs a PKCS#11 library, for example SoftHSMv2, configured as for
+ * {@link PKCS11CryptoTokenTest}, and is skipped otherwise.
+ *
+ * @version $Id$
+ */
+public class P11SignaturePoolTest {
+
+    private static final Logger log = Logger.getLogger(P11SignaturePoolTest.class);
+
+    private static final String ALGORITHM = "SHA256WithRSA";
+
+    /** Makes fake signatures, counting how many are made at the same time */
+    public static class CountingSignatureSpi extends SignatureSpi {
+        private static final AtomicInteger created = new AtomicInteger();
+        private static final AtomicInteger concurrent = new AtomicInteger();
+        private static final AtomicInteger maxConcurrent = new AtomicInteger();
+        private static volatile boolean fail = false;
+
+        public CountingSignatureSpi() {
+            created.incrementAndGet();
+        }
+
+        @Override
+        protected void engineInitSign(final PrivateKey privateKey) {
+        }
+
+        @Override
+        protected void engineUpdate(final byte b) {
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] b, final int off, final int len) {
+        }
+
+        @Override
+        protected byte[] engineSign() {
+            final int count = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(count, Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+            if (fail) {
+                throw new ProviderException("CKR_DEVICE_ERROR");
+            }
+            return new byte[] { 1 };
+        }
+
+        @Override
+        protected void engineInitVerify(final PublicKey publicKey) throws InvalidKeyException {
+            throw new InvalidKeyException("Only signing is supported.");
+        }
+
+        @Override
+        protected boolean engineVerify(final byte[] sigBytes) {
+            return false;
+        }
+
+        @Override
+        @Deprecated
+        protected void engineSetParameter(final String param, final Object value) {
+        }
+
+        @Override
+        @Deprecated
+        protected Object engineGetParameter(final String param) {
+            return null;
+        }
+    }
+
+    private static class CountingProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        private CountingProvider() {
+            super("P11SignaturePoolTest", 1.0, "Fake signatures for P11SignaturePoolTest");
+            put("Signature." + ALGORITHM, CountingSignatureSpi.class.getName());
+        }
+    }
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+        keyPairGenerator.initialize(1024);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Before
+    public void before() {
+        CountingSignatureSpi.created.set(0);
+        CountingSignatureSpi.maxConcurrent.set(0);
+        CountingSignatureSpi.fail = false;
+    }
+
+    @Test
+    public void testContentSigner() throws Exception {
+        final P11SignaturePool pool = new P11SignaturePool(Security.getProvider(BouncyCastleProvider.PROVIDER_NAME), 4, 0);
+        for (int i = 0; i < 10; i++) {
+            final byte[] data = ("data to sign " + i).getBytes();
+            final ContentSigner contentSigner = pool.getContentSigner(ALGORITHM, keyPair.getPrivate(), 100);
+            assertEquals(PKCSObjectIdentifiers.sha256WithRSAEncryption, contentSigner.getAlgorithmIdentifier().getAlgorithm());
+            contentSigner.getOutputStream().write(data);
+            final Signature signature = Signature.getInstance(ALGORITHM, BouncyCastleProvider.PROVIDER_NAME);
+            signature.initVerify(keyPair.getPublic());
+            signature.update(data);
+            assertTrue("Signature did not verify.", signature.verify(contentSigner.getSignature()));
+        }
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSignaturesAreReused() throws Exception {
+        final P11SignaturePool pool = new P11SignaturePool(new CountingProvider(), 4, 0);
+        for (int i = 0; i < 100; i++) {
+            pool.sign(ALGORITHM, keyPair.getPrivate(), new byte[] { 1, 2, 3 });
+        }
+        assertEquals(1, CountingSignatureSpi.created.get());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMaxSessions() throws Exception {
+        final P11SignaturePool pool = new P11SignaturePool(new CountingProvider(), 4, 2);
+        final int signatures = runThreads(16, 320, () -> pool.sign(ALGORITHM, keyPair.getPrivate(), new byte[] { 1, 2, 3 }));
+        assertEquals(320, signatures);
+        assertTrue("Too many signatures at the same time: " + CountingSignatureSpi.maxConcurrent.get(), CountingSignatureSpi.maxConcurrent.get() <= 2);
+        assertTrue("Too many idle signatures: " + pool.getIdleCount(), pool.getIdleCount() <= 4);
+    }
+
+    @Test
+    public void testFailureDropsIdleSignatures() throws Exception {
+        final P11SignaturePool pool = new P11SignaturePool(new CountingProvider(), 8, 0);
+        runThreads(8, 80, () -> pool.sign(ALGORITHM, keyPair.getPrivate(), new byte[] { 1, 2, 3 }));
+        assertTrue(pool.getIdleCount() > 0);
+        CountingSignatureSpi.fail = true;
+        try {
+            pool.sign(ALGORITHM, keyPair.getPrivate(), new byte[] { 1, 2, 3 });
+            fail("Signing should fail.");
+        } catch (ProviderException e) {
+            // Expected
+        }
+        assertEquals(0, pool.getIdleCount());
+        CountingSignatureSpi.fail = false;
+        final int created = CountingSignatureSpi.created.get();
+        pool.sign(ALGORITHM, keyPair.getPrivate(), new byte[] { 1, 2, 3 });
+        assertEquals("A new signature should be created after a failure.", created + 1, CountingSignatureSpi.created.get());
+    }
+
+    @Test
+    public void testNoPoolForOtherProviders() throws Exception {
+        final ContentSigner contentSigner = P11SignaturePool.buildContentSigner(ALGORITHM, BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate(), 100);
+        assertTrue(contentSigner instanceof P11SignaturePool.TimedContentSigner);
+        assertTrue("Signatures of other providers should not use the pool.",
+                ((P11SignaturePool.TimedContentSigner) contentSigner).getDelegate() instanceof BufferingContentSigner);
+    }
+
+    /** Compares signing with the pool and with a new content signer for each signature, with a PKCS#11 library such as SoftHSMv2 */
+    @Test
+    public void testPkcs11Throughput() throws Exception {
+        assumeTrue("No PKCS#11 library configured", PKCS11TestUtils.getHSMLibrary() != null);
+        assumeTrue("No PKCS#11 Provider configured", PKCS11TestUtils.getHSMProvider() != null);
+        final CryptoToken cryptoToken = PKCS11CryptoTokenTest.createPKCS11Token();
+        cryptoToken.activate(PKCS11TestUtils.getPkcs11SlotPin().toCharArray());
+        final String alias = PKCS11TestUtils.RSA_TEST_KEY_1;
+        try {
+            cryptoToken.generateKeyPair("RSA2048", alias);
+            final PrivateKey privateKey = cryptoToken.getPrivateKey(alias);
+            final String providerName = cryptoToken.getSignProviderName();
+            final P11SignaturePool pool = P11SignaturePool.getInstance(Security.getProvider(providerName));
+            final byte[] data = new byte[1000];
+            final int signatures = 2000;
+            for (final int threads : new int[] { 1, 8, 32, 128 }) {
+                final long poolStart = System.nanoTime();
+                runThreads(threads, signatures, () -> sign(pool.getContentSigner(ALGORITHM, privateKey, data.length), data));
+                final long poolNanos = System.nanoTime() - poolStart;
+                final long builderStart = System.nanoTime();
+                runThreads(threads, signatures, () -> sign(new BufferingContentSigner(
+                        new JcaContentSignerBuilder(ALGORITHM).setProvider(providerName).build(privateKey), data.length), data));
+                final long builderNanos = System.nanoTime() - builderStart;
+                log.info(threads + " threads: " + signatures * 1000000000L / poolNanos + " signatures/s with the pool, "
+                        + signatures * 1000000000L / builderNanos + " signatures/s with a new content signer for each signature.");
+            }
+        } finally {
+            cryptoToken.deleteEntry(alias);
+            cryptoToken.deactivate();
+        }
+    }
+
+    private static void sign(final ContentSigner contentSigner, final byte[] data) throws Exception {
+        contentSigner.getOutputStream().write(data);
+        contentSigner.getSignature();
+    }
+
+    private interface SignOperation {
+        void sign() throws Exception;
+    }
+
+    /** Makes a number of signatures in total, spread over a number of threads, and returns the number of signatures made */
+    private static int runThreads(final int threads, final int signatures, final SignOperation operation) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(signatures);
+        final AtomicInteger signed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        operation.sign();
+                        signed.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return signed.get();
+    }
+}
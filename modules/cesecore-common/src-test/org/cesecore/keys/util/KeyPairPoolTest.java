@@ -0,0 +1,152 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyPairPool}.
+ *
+ * @version $Id$
+ */
+public class KeyPairPoolTest {
+
+    private static final Logger log = Logger.getLogger(KeyPairPoolTest.class);
+    private static final String RSA_512 = AlgorithmConstants.KEYALGORITHM_RSA + "_512";
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    @After
+    public void tearDown() {
+        KeyPairPool.INSTANCE.shutdown();
+    }
+
+    @Test
+    public void testNotStarted() throws Exception {
+        final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        KeyTools.testKey(keyPair.getPrivate(), keyPair.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+        assertTrue(KeyPairPool.INSTANCE.getKeySpecs().isEmpty());
+        assertEquals(0, KeyPairPool.INSTANCE.getHits(RSA_512));
+    }
+
+    @Test
+    public void testPooledKeyPairs() throws Exception {
+        testPooledKeyPairs(false);
+    }
+
+    @Test
+    public void testEncryptedPooledKeyPairs() throws Exception {
+        testPooledKeyPairs(true);
+    }
+
+    @Test
+    public void testUnpooledAndInvalidKeySpecs() throws Exception {
+        KeyPairPool.INSTANCE.start(Arrays.asList("RSA", "_512", RSA_512), 1, 1, true);
+        assertEquals(new HashSet<>(Arrays.asList(RSA_512)), new HashSet<>(KeyPairPool.INSTANCE.getKeySpecs()));
+        final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("secp256r1", AlgorithmConstants.KEYALGORITHM_ECDSA);
+        assertEquals(AlgorithmConstants.KEYALGORITHM_ECDSA, keyPair.getPublic().getAlgorithm());
+        assertEquals(0, KeyPairPool.INSTANCE.getMisses(AlgorithmConstants.KEYALGORITHM_ECDSA + "_secp256r1"));
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        KeyPairPool.INSTANCE.start(Arrays.asList(RSA_512), 2, 1, true);
+        waitForSize(RSA_512, 2);
+        KeyPairPool.INSTANCE.shutdown();
+        assertEquals(0, KeyPairPool.INSTANCE.getSize(RSA_512));
+        assertTrue(KeyPairPool.INSTANCE.getKeySpecs().isEmpty());
+        // Falls back to generating the key pair in the request
+        final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        KeyTools.testKey(keyPair.getPrivate(), keyPair.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    /**
+     * Compares the 99th percentile latency of getting a 3072 bit RSA key pair with and without the pool, when the requests come
+     * slower than the pool is refilled. Run with -Dkeypairpool.benchmark=true
+     */
+    @Test
+    public void testLatency() throws Exception {
+        if (!Boolean.getBoolean("keypairpool.benchmark")) {
+            log.info("Skipping benchmark, enable with -Dkeypairpool.benchmark=true");
+            return;
+        }
+        final int requests = 100;
+        final long[] synchronous = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            final long start = System.nanoTime();
+            KeyPairPool.INSTANCE.getKeyPair("3072", AlgorithmConstants.KEYALGORITHM_RSA);
+            synchronous[i] = System.nanoTime() - start;
+        }
+        final String keySpec = AlgorithmConstants.KEYALGORITHM_RSA + "_3072";
+        KeyPairPool.INSTANCE.start(Arrays.asList(keySpec), 20, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), true);
+        waitForSize(keySpec, 20);
+        final long[] pooled = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            final long start = System.nanoTime();
+            KeyPairPool.INSTANCE.getKeyPair("3072", AlgorithmConstants.KEYALGORITHM_RSA);
+            pooled[i] = System.nanoTime() - start;
+            // An enrolment does more than generating the key pair, which gives the pool time to refill
+            Thread.sleep(500);
+        }
+        log.info("p99 latency of 3072 bit RSA key pairs: " + percentile99(synchronous) / 1000000 + " ms generated in the request, "
+                + percentile99(pooled) / 1000000 + " ms from the pool (" + KeyPairPool.INSTANCE.getHits(keySpec) + " hits, "
+                + KeyPairPool.INSTANCE.getMisses(keySpec) + " misses).");
+    }
+
+    private void testPooledKeyPairs(final boolean encrypt) throws Exception {
+        KeyPairPool.INSTANCE.start(Arrays.asList(RSA_512), 3, 1, encrypt);
+        waitForSize(RSA_512, 3);
+        final Set<String> moduli = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            final KeyPair keyPair = KeyPairPool.INSTANCE.getKeyPair("512", AlgorithmConstants.KEYALGORITHM_RSA);
+            KeyTools.testKey(keyPair.getPrivate(), keyPair.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+            assertTrue("Key pair was returned twice.", moduli.add(keyPair.getPublic().toString()));
+        }
+        assertEquals(3, KeyPairPool.INSTANCE.getHits(RSA_512));
+        assertEquals(0, KeyPairPool.INSTANCE.getMisses(RSA_512));
+        // The pool is refilled in the background
+        waitForSize(RSA_512, 3);
+        assertFalse(moduli.contains(KeyPairPool.INSTANCE.getKeyPair("512", AlgorithmConstants.KEYALGORITHM_RSA).getPublic().toString()));
+    }
+
+    private static void waitForSize(final String keySpec, final int size) throws InterruptedException {
+        for (int i = 0; i < 600 && KeyPairPool.INSTANCE.getSize(keySpec) < size; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(size, KeyPairPool.INSTANCE.getSize(keySpec));
+    }
+
+    private static long percentile99(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+    }
+}
@@ -0,0 +1,59 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SearchTokenizer}
+ *
+ * @version $Id$
+ */
+public class SearchTokenizerTest {
+
+    @Test
+    public void testValueTokens() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("CN=", "N=F", "=FO", "FOO")), SearchTokenizer.getValueTokens("CN=foo"));
+        assertTrue("Short values should not produce any tokens", SearchTokenizer.getValueTokens("ab").isEmpty());
+        assertTrue("Null should not produce any tokens", SearchTokenizer.getValueTokens(null).isEmpty());
+        // Repeated sequences are only returned once
+        assertEquals(new LinkedHashSet<>(Arrays.asList("AAA")), SearchTokenizer.getValueTokens("aaaaaa"));
+    }
+
+    @Test
+    public void testSearchTokensWithWildcards() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("FOO", "BAR")), SearchTokenizer.getSearchTokens("foo%bar"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("ABC")), SearchTokenizer.getSearchTokens("ab_abc"));
+        assertTrue("Only wildcards and short literals should not produce any tokens", SearchTokenizer.getSearchTokens("ab%cd_ef").isEmpty());
+    }
+
+    @Test
+    public void testSubstringTokensAreContainedInValueTokens() {
+        final String value = "CN=Some User,O=Example Organization,C=SE";
+        final Set<String> valueTokens = SearchTokenizer.getValueTokens(value);
+        for (int start = 0; start < value.length(); start++) {
+            for (int end = start + SearchTokenizer.TOKEN_LENGTH; end <= value.length(); end++) {
+                final String searchString = value.substring(start, end).toLowerCase();
+                assertTrue("Tokens of '" + searchString + "' were not all found in value tokens.",
+                        valueTokens.containsAll(SearchTokenizer.getSearchTokens(searchString)));
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Tests the latency histograms and their export in the Prometheus text format.
+ *
+ * @version $Id$
+ */
+public class LatencyMetricsTest {
+
+    private static final Logger log = Logger.getLogger(LatencyMetricsTest.class);
+
+    @Test
+    public void testBuckets() {
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(0, LatencyHistogram.getBucket(1000));
+        assertEquals(1, LatencyHistogram.getBucket(1001));
+        assertEquals(1, LatencyHistogram.getBucket(2000));
+        assertEquals(2, LatencyHistogram.getBucket(2001));
+        assertEquals(10, LatencyHistogram.getBucket(1024000));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(LatencyHistogram.getUpperBoundMicros(LatencyHistogram.BUCKETS - 1) * 1000));
+        assertEquals(LatencyHistogram.BUCKETS, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRecord() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500000);
+        histogram.record(Long.MAX_VALUE / 2);
+        final long[] buckets = histogram.getBucketCounts();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[11]);
+        assertEquals(3, histogram.getCount());
+    }
+
+    @Test
+    public void testWritePrometheus() {
+        final String label = "LatencyMetricsTest.\"testWritePrometheus\"";
+        LatencyMetrics.INSTANCE.record(LatencyMetrics.Type.EJB, label, 3000);
+        LatencyMetrics.INSTANCE.record(LatencyMetrics.Type.EJB, label, 3000000);
+        final StringBuilder sb = new StringBuilder();
+        LatencyMetrics.INSTANCE.writePrometheus(sb);
+        final String text = sb.toString();
+        final String series = "ejbca_ejb_invocation_seconds_bucket{method=\"LatencyMetricsTest.\\\"testWritePrometheus\\\"\",le=";
+        assertTrue(text, text.contains("# TYPE ejbca_ejb_invocation_seconds histogram\n"));
+        assertTrue(text, text.contains(series + "\"2.0E-6\"} 0\n"));
+        assertTrue(text, text.contains(series + "\"4.0E-6\"} 1\n"));
+        assertTrue(text, text.contains(series + "\"0.004096\"} 2\n"));
+        assertTrue(text, text.contains(series + "\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains("ejbca_ejb_invocation_seconds_sum{method=\"LatencyMetricsTest.\\\"testWritePrometheus\\\"\"} 0.003003\n"));
+    }
+
+    /** Measures the cost of timing an operation and recording it, which should be well below a microsecond. */
+    @Test
+    public void testOverhead() {
+        final LatencyHistogram histogram = LatencyMetrics.INSTANCE.getHistogram(LatencyMetrics.Type.EJB, "LatencyMetricsTest.testOverhead");
+        final int iterations = 2000000;
+        for (int round = 0; round < 3; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                final long invocationStart = System.nanoTime();
+                histogram.record(System.nanoTime() - invocationStart);
+            }
+            final long nanosPerRecord = (System.nanoTime() - start) / iterations;
+            log.info("Timing and recording an invocation took " + nanosPerRecord + " ns.");
+            if (round == 2) {
+                // Generous limit, since the test may run on a loaded machine or with code coverage instrumentation
+                assertTrue("Recording took " + nanosPerRecord + " ns.", nanosPerRecord < 5000);
+            }
+        }
+        assertEquals(3L * iterations, histogram.getCount());
+    }
+}
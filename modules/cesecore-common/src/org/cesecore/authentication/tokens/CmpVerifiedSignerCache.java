@@ -0,0 +1,156 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.cesecore.authentication.tokens;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.util.CertTools;
+
+/**
+ * Short lived cache of extraCert signers that have passed the RA mode checks in EndEntityCertificateAuthenticationModule,
+ * i.e. the certificate is in the database and active, verifies up to the configured CA and belongs to an administrator that is
+ * authorized to the request. An RA typically signs all its CMP requests with the same certificate, so this saves the database
+ * lookups and the certificate path validation for almost all messages. The signature of each message is still verified.
+ * <p>
+ * Entries are keyed on the certificate fingerprint together with everything the checks depend on (see
+ * EndEntityCertificateAuthenticationModule), and only positive results are cached. Entries are removed when the status of the
+ * certificate changes on this node, see CertificateStoreSessionBean. Status changes on other cluster nodes, and changes to access
+ * rules, take effect when the entry expires. Configured through CesecoreConfiguration.getCacheCmpVerifiedSignerTime().
+ *
+ * @version $Id$
+ */
+public enum CmpVerifiedSignerCache {
+
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(CmpVerifiedSignerCache.class);
+
+    /** The cache is emptied if it grows larger than this, which only happens with a huge number of different RA certificates */
+    private static final int MAX_ENTRIES = 10000;
+
+    private static class Entry {
+        private final String fingerprint;
+        private final String issuerAndSerialNumber;
+        private final long expireTime;
+
+        private Entry(final String fingerprint, final String issuerAndSerialNumber, final long expireTime) {
+            this.fingerprint = fingerprint;
+            this.issuerAndSerialNumber = issuerAndSerialNumber;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Incremented on every removal, so that verifications that started before a status change are not added afterwards */
+    private final AtomicLong removals = new AtomicLong();
+
+    /** @return true if a signer with the given key has been verified and the result has not expired */
+    public boolean isVerified(final String key) {
+        if (key == null) {
+            return false;
+        }
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.expireTime <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /** @return a value to pass to {@link #addVerified(String, X509Certificate, long)}, read before the signer is verified */
+    public long getRemovalCount() {
+        return removals.get();
+    }
+
+    /**
+     * Adds a verified signer to the cache. Does nothing if caching is disabled, or if any certificate has been removed from the
+     * cache since the verification started, since the verification may then have seen the status before the change.
+     *
+     * @param key the key the signer was verified for
+     * @param certificate the signer certificate. The entry never lives longer than the certificate is valid.
+     * @param removalCount the value of {@link #getRemovalCount()} before the signer was verified
+     */
+    public void addVerified(final String key, final X509Certificate certificate, final long removalCount) {
+        final long cacheTime = CesecoreConfiguration.getCacheCmpVerifiedSignerTime();
+        if (key == null || cacheTime <= 0) {
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            if (log.isDebugEnabled()) {
+                log.debug("CMP verified signer cache has " + entries.size() + " entries, emptying it.");
+            }
+            entries.clear();
+        }
+        final String issuerAndSerialNumber = getIssuerAndSerialNumber(CertTools.getIssuerDN(certificate), CertTools.getSerialNumber(certificate));
+        final long expireTime = Math.min(System.currentTimeMillis() + cacheTime, certificate.getNotAfter().getTime());
+        entries.put(key, new Entry(CertTools.getFingerprintAsString(certificate), issuerAndSerialNumber, expireTime));
+        if (removals.get() != removalCount) {
+            // A removal may have missed the entry just added
+            entries.remove(key);
+        }
+    }
+
+    /** Removes all entries for the certificate with the given fingerprint, for example when it has been revoked. */
+    public void removeCertificate(final String fingerprint) {
+        removals.incrementAndGet();
+        if (entries.isEmpty() || fingerprint == null) {
+            return;
+        }
+        for (final Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().fingerprint.equals(fingerprint)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries for the certificate with the given issuer and serial number, for example when a revocation has been
+     * imported from a CRL.
+     *
+     * @param issuerDn the BC normalized issuer DN
+     * @param serialNumber the serial number of the certificate
+     */
+    public void removeCertificate(final String issuerDn, final BigInteger serialNumber) {
+        removals.incrementAndGet();
+        if (entries.isEmpty()) {
+            return;
+        }
+        final String issuerAndSerialNumber = getIssuerAndSerialNumber(issuerDn, serialNumber);
+        for (final Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().issuerAndSerialNumber.equals(issuerAndSerialNumber)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Removes all entries. */
+    public void flush() {
+        removals.incrementAndGet();
+        entries.clear();
+    }
+
+    private static String getIssuerAndSerialNumber(final String issuerDn, final BigInteger serialNumber) {
+        return issuerDn + ";" + serialNumber.toString(16);
+    }
+}
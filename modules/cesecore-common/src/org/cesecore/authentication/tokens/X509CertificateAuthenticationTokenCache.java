@@ -0,0 +1,158 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authentication.tokens;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.util.CertTools;
+
+/**
+ * Short lived cache of successful client certificate authentications, so that a client that makes many requests with the
+ * same certificate, for example an RA using the web services, is not checked against the database in every request.
+ * <p>
+ * Entries are keyed on the certificate fingerprint and only positive results are cached. An entry never lives longer than the
+ * certificate is valid, and is removed when the status of the certificate is changed on this node. In a multi server
+ * (clustered) environment, status changes on other nodes take effect when the entry expires. Configured through
+ * CesecoreConfiguration.getCacheAuthenticationTime().
+ *
+ * @version $Id$
+ */
+public enum X509CertificateAuthenticationTokenCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(X509CertificateAuthenticationTokenCache.class);
+
+    /** The cache is emptied if it grows larger than this, which only happens with a huge number of different client certificates */
+    private static final int MAX_ENTRIES = 10000;
+
+    private static class Entry {
+        private final X509CertificateAuthenticationToken authenticationToken;
+        private final String issuerAndSerialNumber;
+        private final long expireTime;
+
+        private Entry(final X509CertificateAuthenticationToken authenticationToken, final String issuerAndSerialNumber, final long expireTime) {
+            this.authenticationToken = authenticationToken;
+            this.issuerAndSerialNumber = issuerAndSerialNumber;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Fingerprints by issuer and serial number, for status changes of entries that are only known by issuer and serial number */
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param certificate the client certificate
+     * @return the cached authentication token of the certificate, or null if it has not been authenticated recently
+     */
+    public X509CertificateAuthenticationToken get(final X509Certificate certificate) {
+        if (CesecoreConfiguration.getCacheAuthenticationTime() <= 0) {
+            return null;
+        }
+        final Entry entry = entries.get(CertTools.getFingerprintAsString(certificate));
+        // Compare the whole certificate, so that the result does not depend on the fingerprint being collision free
+        if (entry == null || !entry.authenticationToken.getCertificate().equals(certificate)) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expireTime <= System.currentTimeMillis()) {
+            remove(CertTools.getFingerprintAsString(certificate), entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.authenticationToken;
+    }
+
+    /**
+     * Adds a successful authentication to the cache. Does nothing if caching is disabled.
+     *
+     * @param authenticationToken the authentication token of a client certificate that is valid and not revoked
+     */
+    public void add(final X509CertificateAuthenticationToken authenticationToken) {
+        final long cacheTime = CesecoreConfiguration.getCacheAuthenticationTime();
+        if (cacheTime <= 0) {
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            if (log.isDebugEnabled()) {
+                log.debug("Authentication cache has " + entries.size() + " entries, emptying it.");
+            }
+            flush();
+        }
+        final X509Certificate certificate = authenticationToken.getCertificate();
+        final String fingerprint = CertTools.getFingerprintAsString(certificate);
+        final String issuerAndSerialNumber = getIssuerAndSerialNumber(CertTools.getIssuerDN(certificate), CertTools.getSerialNumber(certificate));
+        final long expireTime = Math.min(System.currentTimeMillis() + cacheTime, certificate.getNotAfter().getTime());
+        fingerprints.put(issuerAndSerialNumber, fingerprint);
+        entries.put(fingerprint, new Entry(authenticationToken, issuerAndSerialNumber, expireTime));
+    }
+
+    /** Removes the entry of the certificate with the given fingerprint, for example when it has been revoked. */
+    public void removeCertificate(final String fingerprint) {
+        if (entries.isEmpty() || fingerprint == null) {
+            return;
+        }
+        final Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            remove(fingerprint, entry);
+        }
+    }
+
+    /**
+     * Removes the entry of the certificate with the given issuer and serial number, for example when a revocation has been
+     * imported from a CRL.
+     *
+     * @param issuerDn the BC normalized issuer DN
+     * @param serialNumber the serial number of the certificate
+     */
+    public void removeCertificate(final String issuerDn, final BigInteger serialNumber) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        removeCertificate(fingerprints.get(getIssuerAndSerialNumber(issuerDn, serialNumber)));
+    }
+
+    /** Removes all entries. */
+    public void flush() {
+        entries.clear();
+        fingerprints.clear();
+    }
+
+    /** @return the number of authentications that were found in the cache */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return the number of authentications that were not found in the cache, while caching was enabled */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private void remove(final String fingerprint, final Entry entry) {
+        entries.remove(fingerprint, entry);
+        fingerprints.remove(entry.issuerAndSerialNumber, fingerprint);
+    }
+
+    private static String getIssuerAndSerialNumber(final String issuerDn, final BigInteger serialNumber) {
+        return issuerDn + ";" + serialNumber.toString(16);
+    }
+}
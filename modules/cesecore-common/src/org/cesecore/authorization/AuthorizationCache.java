@@ -73,6 +73,7 @@ public enum AuthorizationCache {
         int updateNumber = 0;
         long timeOfLastUse = 0L;
         AuthenticationToken authenticationToken;
+        final AuthorizedIdSets authorizedIdSets = new AuthorizedIdSets();
         final CountDownLatch countDownLatch = new CountDownLatch(1);
     }
     
@@ -159,6 +160,23 @@ public enum AuthorizationCache {
         if (authenticationToken==null || authorizationCacheCallback==null) {
             return new AuthorizationResult(new HashMap<String,Boolean>(), 0);
         }
+        final AuthorizationCacheEntry entry = getEntry(authenticationToken, authorizationCacheCallback);
+        return new AuthorizationResult(entry.accessRules, entry.updateNumber);
+    }
+
+    /**
+     * @return the memoised authorized ids of the specified authenticationToken, which are discarded when its access rules are reloaded.
+     * Never null, but not shared between calls if authenticationToken or authorizationCacheCallback is null.
+     */
+    public AuthorizedIdSets getAuthorizedIdSets(final AuthenticationToken authenticationToken, final AuthorizationCacheCallback authorizationCacheCallback) throws AuthenticationFailedException {
+        if (authenticationToken==null || authorizationCacheCallback==null) {
+            return new AuthorizedIdSets();
+        }
+        return getEntry(authenticationToken, authorizationCacheCallback).authorizedIdSets;
+    }
+
+    /** @return the up to date cache entry of the specified authenticationToken using the callback to load it if needed */
+    private AuthorizationCacheEntry getEntry(final AuthenticationToken authenticationToken, final AuthorizationCacheCallback authorizationCacheCallback) throws AuthenticationFailedException {
         final String key = authenticationToken.getUniqueId();
         final AuthorizationCacheEntry authorizationCacheEntry = new AuthorizationCacheEntry();
         AuthorizationCacheEntry ret = cacheMap.putIfAbsent(key, authorizationCacheEntry);
@@ -203,13 +221,13 @@ public enum AuthorizationCache {
                         log.debug("Removed entry for key '" + key + "' since its updateNumber was " + ret.updateNumber + ".");
                     }
                 }
-                return getAuthorizationResult(authenticationToken, authorizationCacheCallback);
+                return getEntry(authenticationToken, authorizationCacheCallback);
             }
             // Don't care about last time of use here, just be happy that it was found if it was found 
         }
         // Weak indication of last use, so rebuild can eventually purge unused entries
         ret.timeOfLastUse = System.currentTimeMillis();
-        return new AuthorizationResult(ret.accessRules, ret.updateNumber);
+        return ret;
     }
     
     public int getLastUpdateNumber() {
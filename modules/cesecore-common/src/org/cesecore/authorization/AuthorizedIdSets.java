@@ -0,0 +1,99 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoised ids of the CAs and profiles that an authentication token is authorized to, so that searches and listings do not have to
+ * evaluate the access rules of every CA and profile each time.
+ * 
+ * Each authentication token in the {@link AuthorizationCache} has its own instance, which is discarded together with the cached access
+ * rules when the access tree update number changes (roles or role members were changed). A set is also recomputed when any of the
+ * sources it was computed from is no longer equal, for example when a CA was added or a profile was edited.
+ * 
+ * Concurrent calls for a set that is not yet known may compute it more than once, the last result is kept.
+ * 
+ * @version $Id$
+ */
+public class AuthorizedIdSets {
+
+    /** Key of the ids of the authorized CAs */
+    public static final String CA_IDS = "caIds";
+    /** Key prefix of the ids of the authorized end entity profiles, followed by the access rule */
+    public static final String END_ENTITY_PROFILE_IDS = "endEntityProfileIds";
+    /** Key prefix of the ids of the authorized end entity profiles that are also viewable, followed by the access rule */
+    public static final String VIEWABLE_END_ENTITY_PROFILE_IDS = "viewableEndEntityProfileIds";
+    /** Key prefix of the ids of the authorized certificate profiles, followed by the certificate type */
+    public static final String CERTIFICATE_PROFILE_IDS = "certificateProfileIds";
+
+    /** Call-back for computing a set on cache miss */
+    public interface IdLoader {
+        /** @return the ids of the authorized CAs or profiles */
+        List<Integer> load();
+    }
+
+    /** Immutable set of authorized ids */
+    public static class IdSet {
+        private final Object[] sources;
+        private final List<Integer> ids;
+        private final int[] sortedIds;
+
+        private IdSet(final Object[] sources, final List<Integer> ids) {
+            this.sources = sources;
+            this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+            this.sortedIds = new int[ids.size()];
+            for (int i = 0; i < sortedIds.length; i++) {
+                sortedIds[i] = this.ids.get(i);
+            }
+            Arrays.sort(sortedIds);
+        }
+
+        /** @return the authorized ids in the order they were loaded. The list is not modifiable. */
+        public List<Integer> getIds() {
+            return ids;
+        }
+
+        /** @return true if the id is one of the authorized ids */
+        public boolean contains(final int id) {
+            return Arrays.binarySearch(sortedIds, id) >= 0;
+        }
+
+        public int size() {
+            return sortedIds.length;
+        }
+    }
+
+    private final ConcurrentHashMap<String, IdSet> idSets = new ConcurrentHashMap<>();
+
+    /**
+     * @param key identifies the kind of ids, for example {@link #CA_IDS}
+     * @param loader computes the authorized ids if they are not known, or were computed from other sources
+     * @param sources the data that the authorized ids are computed from, such as the ids of all CAs or the change count of a profile
+     *      cache. Compared with equals, which is fast for the same instance.
+     * @return the memoised ids, never null
+     */
+    public IdSet get(final String key, final IdLoader loader, final Object... sources) {
+        final IdSet idSet = idSets.get(key);
+        if (idSet != null && Arrays.equals(idSet.sources, sources)) {
+            return idSet;
+        }
+        final IdSet loaded = new IdSet(sources, loader.load());
+        idSets.put(key, loaded);
+        return loaded;
+    }
+}
@@ -15,6 +15,7 @@ package org.cesecore.certificates.ca;
 import java.io.Serializable;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.certificates.ca.internal.SernoGenerator;
 import org.cesecore.certificates.certificatetransparency.CTAuditLogCallback;
 import org.cesecore.certificates.certificatetransparency.CTSubmissionConfigParams;
 import org.cesecore.certificates.certificatetransparency.SctDataCallback;
@@ -49,6 +50,7 @@ public final class CertificateGenerationParams implements Serializable {
     
     private AuthenticationToken authenticationToken;
     private CertificateValidationDomainService certificateValidationDomainService;
+    private SernoGenerator sernoGenerator;
     
     /**
      * Sets CT parameters that are not specific to the certificate profile, for example list of available CT logs.
@@ -114,4 +116,21 @@ public final class CertificateGenerationParams implements Serializable {
     public void setAuthenticationToken(AuthenticationToken authenticationToken) {
         this.authenticationToken = authenticationToken;
     }
+
+    /**
+     * Gets the serial number generator to use instead of the default generator of the CA.
+     * @return the serial number generator, or null to use the default generator.
+     */
+    public SernoGenerator getSernoGenerator() {
+        return sernoGenerator;
+    }
+
+    /**
+     * Sets the serial number generator to use instead of the default generator of the CA, for example to take serial
+     * numbers from a {@link org.cesecore.certificates.ca.internal.SernoPool}.
+     * @param sernoGenerator the serial number generator.
+     */
+    public void setSernoGenerator(SernoGenerator sernoGenerator) {
+        this.sernoGenerator = sernoGenerator;
+    }
 }
@@ -15,9 +15,8 @@ package org.cesecore.certificates.ca.internal;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -88,19 +87,14 @@ public class SernoGeneratorRandom implements SernoGenerator {
     private SecureRandom random;
 
     /** A registry of Singleton instances, to handle multiple octet sizes simultaneously. */
-    private static Map<Integer, SernoGeneratorRandom> instances = new HashMap<>();
+    private static final ConcurrentHashMap<Integer, SernoGeneratorRandom> instances = new ConcurrentHashMap<>();
     /**
      * Creates (if needed) a serial number generator and returns the object.
      *
      * @return An instance of the serial number generator.
      */
-    public static synchronized SernoGenerator instance(Integer noOctets) {
-        SernoGeneratorRandom instance = instances.get(noOctets);
-        if (instance == null) {
-            instance = new SernoGeneratorRandom(noOctets);
-            instances.put(noOctets, instance);
-        }
-        return instance;
+    public static SernoGenerator instance(Integer noOctets) {
+        return instances.computeIfAbsent(noOctets, SernoGeneratorRandom::new);
     }
 
     /** DO NOT USE: Protected only to do testing of this implementation
@@ -125,8 +119,20 @@ public class SernoGeneratorRandom implements SernoGenerator {
     }
 
     private void init() {
+        random = createSecureRandom(algorithm);
+    }
+
+    /**
+     * Creates and seeds a random number generator for serial numbers.
+     *
+     * @param algorithm the algorithm, as configured with ca.rngalgorithm
+     * @return a seeded SecureRandom
+     * @throws IllegalStateException if the algorithm is not available
+     */
+    static SecureRandom createSecureRandom(final String algorithm) {
         // Init random number generator for random serial numbers. 
         // SecureRandom provides a cryptographically strong random number generator (CSPRNG).
+        SecureRandom random = null;
         try {
             // Use a specified algorithm if ca.rngalgorithm is provided and it's not set to default
             if (!StringUtils.isEmpty(algorithm) && !StringUtils.containsIgnoreCase(algorithm, "default")) {
@@ -155,6 +161,7 @@ public class SernoGeneratorRandom implements SernoGenerator {
         }
         // Call nextBytes directly after in order to force seeding if not already done. SecureRandom typically seeds on first call.
         random.nextBytes(new byte[0]);
+        return random;
     }
 
     @Override
@@ -165,6 +172,17 @@ public class SernoGeneratorRandom implements SernoGenerator {
             final Random rand = new Random();
             return BigInteger.valueOf(rand.nextInt(4)+1); // value 1-5
         }
+        return generateSerno(random, noOctets);
+    }
+
+    /**
+     * Generates a random serial number of exactly noOctets octets.
+     *
+     * @param random the random number generator to use
+     * @param noOctets the number of octets, between 1 and 20
+     * @return a positive serial number
+     */
+    static BigInteger generateSerno(final SecureRandom random, final int noOctets) {
         while (true) {
              /*
                 Note that initBitsOfEntropy are not left intact by the following subsequent filtering operations:
@@ -177,7 +195,7 @@ public class SernoGeneratorRandom implements SernoGenerator {
             int initBitsOfEntropy = noOctets * 8 - 1;
             // SecureRanom is thread safe. This will generate from (0 to 2^initBitsOfEntropy -1)
             final BigInteger serno = new BigInteger(initBitsOfEntropy, random);
-            if (checkSernoValidity(serno)) {
+            if (checkSernoValidity(serno, noOctets)) {
                 return serno;
             } else {
                 String msg = intres.getLocalizedMessage("sernogenerator.discarding");
@@ -192,6 +210,10 @@ public class SernoGeneratorRandom implements SernoGenerator {
      * falls within the range 0080000000000000 - 7FFFFFFFFFFFFFFF (both inclusive).
      */
     protected boolean checkSernoValidity(final BigInteger serno) {
+        return checkSernoValidity(serno, noOctets);
+    }
+
+    private static boolean checkSernoValidity(final BigInteger serno, final int noOctets) {
         return serno.compareTo(BigInteger.ZERO) != 0 && serno.bitLength() / 8 + 1 == noOctets;
     }
 
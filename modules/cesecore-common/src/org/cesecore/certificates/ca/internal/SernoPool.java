@@ -0,0 +1,218 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * A pool of random serial numbers for a CA, which have been verified to not be used by any certificate issued by the CA.
+ * <p>
+ * Serial numbers are generated by {@link SernoGeneratorRandom} in a background thread, and are checked against the database
+ * in batches by the thread that takes a serial number from the pool when the pool is half empty. This way a certificate is
+ * only signed with a serial number that is known to be unique, instead of detecting a duplicate when the signed certificate
+ * is stored, and a single query checks many serial numbers.
+ * <p>
+ * Taking a serial number from the pool does not block. If the pool is empty while another thread refills it, a serial number
+ * is generated directly, and a duplicate is detected when the certificate is stored, as without the pool. Duplicates are also
+ * still possible when several nodes issue certificates for the same CA, so the pool does not replace that check.
+ *
+ * @version $Id$
+ */
+public final class SernoPool {
+
+    /** Checks if serial numbers are already used by certificates issued by the CA. */
+    public interface UniquenessChecker {
+        /**
+         * @param sernos serial numbers to check
+         * @return the serial numbers that are already used, never null
+         */
+        Set<BigInteger> findExistingSernos(Collection<BigInteger> sernos);
+    }
+
+    private static final Logger log = Logger.getLogger(SernoPool.class);
+
+    private static final ConcurrentHashMap<String, SernoPool> pools = new ConcurrentHashMap<>();
+
+    private static final ExecutorService generatorExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "SernoPool-generator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Random number generators, one per thread to avoid contention between threads */
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(() -> {
+        final String algorithm = CesecoreConfiguration.getCaSerialNumberAlgorithm();
+        return SernoGeneratorRandom.createSecureRandom(algorithm == null ? "SHA1PRNG" : algorithm);
+    });
+
+    private final String issuerDN;
+    private final int noOctets;
+    private final int capacity;
+
+    /** Generated serial numbers that have not been checked against the database yet */
+    private final ConcurrentLinkedQueue<BigInteger> candidates = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger candidateCount = new AtomicInteger();
+    /** Serial numbers that are not used by any certificate of the CA */
+    private final ConcurrentLinkedQueue<BigInteger> verified = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger verifiedCount = new AtomicInteger();
+
+    private final AtomicBoolean generating = new AtomicBoolean();
+    private final AtomicBoolean verifying = new AtomicBoolean();
+
+    /**
+     * Returns the pool of serial numbers for a CA, with the size configured by ca.serialnumberpoolsize.
+     *
+     * @param issuerDN subject DN of the CA
+     * @param noOctets the serial number octet size of the CA
+     * @return the pool, created if it does not exist
+     */
+    public static SernoPool getInstance(final String issuerDN, final int noOctets) {
+        return pools.computeIfAbsent(noOctets + ";" + issuerDN,
+                key -> new SernoPool(issuerDN, noOctets, CesecoreConfiguration.getSerialNumberPoolSize()));
+    }
+
+    /** Use {@link #getInstance(String, int)} instead, except for testing */
+    SernoPool(final String issuerDN, final int noOctets, final int capacity) {
+        if (noOctets < 1 || noOctets > 20) {
+            throw new IllegalArgumentException("Serial number octet size must be between 1 and 20 for a serial number pool.");
+        }
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Serial number pool size must be at least 2.");
+        }
+        this.issuerDN = issuerDN;
+        this.noOctets = noOctets;
+        this.capacity = capacity;
+        requestGeneration();
+    }
+
+    /**
+     * Takes a serial number from the pool, refilling the pool first if it is half empty.
+     *
+     * @param checker used to check serial numbers against the database when the pool is refilled
+     * @return a serial number, which is normally verified to be unused
+     */
+    public BigInteger getSerno(final UniquenessChecker checker) {
+        if (verifiedCount.get() <= capacity / 2) {
+            refill(checker);
+        }
+        final BigInteger serno = verified.poll();
+        if (serno != null) {
+            verifiedCount.decrementAndGet();
+            return serno;
+        }
+        // Another thread is refilling the pool. Duplicates are detected when the certificate is stored.
+        if (log.isDebugEnabled()) {
+            log.debug("Serial number pool for '" + issuerDN + "' is empty, using a serial number that has not been checked in advance.");
+        }
+        return SernoGeneratorRandom.generateSerno(randoms.get(), noOctets);
+    }
+
+    /**
+     * Returns a serial number generator that takes serial numbers from this pool. The generator references the checker, and
+     * should only be used temporarily.
+     */
+    public SernoGenerator getGenerator(final UniquenessChecker checker) {
+        return new SernoGenerator() {
+            @Override
+            public BigInteger getSerno() {
+                return SernoPool.this.getSerno(checker);
+            }
+
+            @Override
+            public int getNoSernoBytes() {
+                return noOctets;
+            }
+
+            @Override
+            public void setSeed(final long seed) {
+                throw new UnsupportedOperationException("The serial number pool can not be seeded.");
+            }
+
+            @Override
+            public void setAlgorithm(final String algo) {
+                throw new UnsupportedOperationException("The algorithm of the serial number pool is configured with ca.rngalgorithm.");
+            }
+        };
+    }
+
+    /** @return the number of serial numbers in the pool that have been verified to be unused */
+    int getAvailable() {
+        return verifiedCount.get();
+    }
+
+    /** Checks a batch of generated serial numbers with a single query, unless another thread is already doing so */
+    private void refill(final UniquenessChecker checker) {
+        if (!verifying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final int needed = capacity - verifiedCount.get();
+            final Set<BigInteger> batch = new LinkedHashSet<>();
+            BigInteger candidate;
+            while (batch.size() < needed && (candidate = candidates.poll()) != null) {
+                candidateCount.decrementAndGet();
+                batch.add(candidate);
+            }
+            // Used when the generator thread has not kept up
+            while (batch.size() < needed) {
+                batch.add(SernoGeneratorRandom.generateSerno(randoms.get(), noOctets));
+            }
+            requestGeneration();
+            if (batch.isEmpty()) {
+                return;
+            }
+            final Set<BigInteger> existing = checker.findExistingSernos(batch);
+            if (!existing.isEmpty()) {
+                log.info("Discarding " + existing.size() + " generated serial numbers already used by '" + issuerDN + "'.");
+                batch.removeAll(existing);
+            }
+            verified.addAll(batch);
+            verifiedCount.addAndGet(batch.size());
+            if (log.isTraceEnabled()) {
+                log.trace("Added " + batch.size() + " serial numbers to the pool for '" + issuerDN + "'.");
+            }
+        } finally {
+            verifying.set(false);
+        }
+    }
+
+    /** Tops up the generated serial numbers in the background, unless that is already in progress */
+    private void requestGeneration() {
+        if (candidateCount.get() < capacity && generating.compareAndSet(false, true)) {
+            generatorExecutor.execute(() -> {
+                try {
+                    final SecureRandom random = randoms.get();
+                    while (candidateCount.get() < capacity) {
+                        candidates.add(SernoGeneratorRandom.generateSerno(random, noOctets));
+                        candidateCount.incrementAndGet();
+                    }
+                } finally {
+                    generating.set(false);
+                }
+            });
+        }
+    }
+}
@@ -29,8 +29,7 @@ public enum CertificateTransparencyFactory {
     private CertificateTransparencyFactory() {
         CertificateTransparency instance;
         try {
-            // No lock is used since the CertificateTransparencyImpl class has no state
-            // so it's OK with multiple instances.
+            // A single instance is created, which holds the connection pools and SCT cache for all CT logs
             instance = (CertificateTransparency)Class.forName(IMPLEMENTATION_CLASSNAME).getConstructor().newInstance();
         } catch (Exception e) { // NOPMD not a good idea to throw an exception in a enum constructor
             instance = null;
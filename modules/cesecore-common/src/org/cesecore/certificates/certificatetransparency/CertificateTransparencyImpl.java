@@ -0,0 +1,611 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificatetransparency;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.certificates.certificate.CertificateCreateException;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.util.CertTools;
+
+/**
+ * Implementation of Certificate Transparency (RFC 6962), loaded by {@link CertificateTransparencyFactory}.
+ * <p>
+ * The CT logs enabled in the certificate profile are grouped by label, and at most one SCT is fetched from each group. The
+ * (pre-)certificate is submitted to all groups in parallel, using the thread pool from the {@link SctDataCallback}. Within a
+ * group, the logs are tried in the configured order until one of them returns an SCT. As soon as the maximum number of SCTs
+ * for the usage mode has been received, the SCT list is returned without waiting for the remaining logs.
+ * <p>
+ * Each log server is accessed through a {@link CtLogClient}, which limits the number of concurrent requests and stops sending
+ * requests to a log that keeps failing. Received SCTs are kept in an {@link SctCache}, so a retried issuance of the same
+ * pre-certificate does not submit it again.
+ *
+ * @version $Id$
+ */
+public class CertificateTransparencyImpl implements CertificateTransparency {
+
+    private static final Logger log = Logger.getLogger(CertificateTransparencyImpl.class);
+
+    /** Critical extension that makes a pre-certificate unusable, see RFC 6962 section 3.1 */
+    public static final String POISON_OID = "1.3.6.1.4.1.11129.2.4.3";
+
+    private static final int SCT_VERSION_V1 = 0;
+    private static final int SIGNATURE_TYPE_CERTIFICATE_TIMESTAMP = 0;
+    private static final int ENTRY_TYPE_X509 = 0;
+    private static final int ENTRY_TYPE_PRECERT = 1;
+    private static final int HASH_ALGORITHM_SHA256 = 4;
+    private static final int SIGNATURE_ALGORITHM_RSA = 1;
+    private static final int SIGNATURE_ALGORITHM_ECDSA = 3;
+    private static final int LOG_ID_LENGTH = 32;
+    /** Added to the longest time a group of logs may take, before giving up waiting for it */
+    private static final long TIMEOUT_MARGIN = 1000L;
+
+    /** SCT received from one group of logs */
+    private static class GroupResult {
+        private final int groupIndex;
+        private final CTLogInfo ctLog;
+        private final byte[] sct;
+        private final boolean stored;
+
+        private GroupResult(final int groupIndex, final CTLogInfo ctLog, final byte[] sct, final boolean stored) {
+            this.groupIndex = groupIndex;
+            this.ctLog = ctLog;
+            this.sct = sct;
+            this.stored = stored;
+        }
+    }
+
+    private final Map<String, CtLogClient> clients = new ConcurrentHashMap<>();
+    private final SctCache sctCache = new SctCache();
+
+    @Override
+    public byte[] fetchSCTList(final List<Certificate> chain, final CertificateProfile certProfile, final CTSubmissionConfigParams config,
+            final SctDataCallback sctDataCallback) throws CTLogException {
+        return fetchSCTList(chain, certProfile, config, UsageMode.CERTIFICATE, sctDataCallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For OCSP and PUBLISHER, SCTs stored through the {@link SctDataCallback} are used first, and new SCTs are stored. If
+     * {@link CertificateProfile#isUseCTSubmitExisting()} is false, only stored SCTs are used.
+     */
+    @Override
+    public byte[] fetchSCTList(final List<Certificate> chain, final CertificateProfile certProfile, final CTSubmissionConfigParams config,
+            final UsageMode usageMode, final SctDataCallback sctDataCallback) throws CTLogException {
+        final X509Certificate certificate = (X509Certificate) chain.get(0);
+        final List<List<CTLogInfo>> logGroups = getLogGroups(certProfile, config, certificate.getNotAfter());
+        if (logGroups.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No CT logs are enabled in the certificate profile for certificates expiring " + certificate.getNotAfter());
+            }
+            return null;
+        }
+        final int minByValidity = getMinSctsByValidity(config.getValidityPolicy(), certificate);
+        int minScts;
+        int maxScts;
+        switch (usageMode) {
+        case OCSP:
+            minScts = certProfile.isNumberOfSctByValidity() ? minByValidity : certProfile.getCtMinSctsOcsp();
+            maxScts = certProfile.isMaxNumberOfSctByValidity() ? minByValidity : certProfile.getCtMaxSctsOcsp();
+            break;
+        case PUBLISHER:
+            minScts = certProfile.isNumberOfSctByValidity() ? minByValidity : certProfile.getCtMinScts();
+            maxScts = logGroups.size();
+            break;
+        default:
+            minScts = certProfile.isNumberOfSctByValidity() ? minByValidity : certProfile.getCtMinScts();
+            maxScts = certProfile.isMaxNumberOfSctByValidity() ? minByValidity : certProfile.getCtMaxScts();
+            break;
+        }
+        if (minScts > logGroups.size()) {
+            throw new CTLogException("At least " + minScts + " SCTs are required, but only " + logGroups.size()
+                    + " groups of CT logs are enabled for the certificate.");
+        }
+        maxScts = Math.min(Math.max(minScts, maxScts), logGroups.size());
+        if (maxScts == 0) {
+            return null;
+        }
+        final boolean preCertificate = isPreCertificate(certificate);
+        final String fingerprint = CertTools.getFingerprintAsString(certificate);
+        final String certificateHash;
+        try {
+            certificateHash = CertTools.getSHA256FingerprintAsString(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new CTLogException(e);
+        }
+        final Map<Integer, byte[]> storedScts;
+        if (usageMode != UsageMode.CERTIFICATE && sctDataCallback != null) {
+            storedScts = sctDataCallback.findSctData(fingerprint);
+        } else {
+            storedScts = Collections.emptyMap();
+        }
+        final boolean submit = usageMode == UsageMode.CERTIFICATE || certProfile.isUseCTSubmitExisting();
+        final List<GroupResult> results = fetchScts(chain, preCertificate, certificateHash, storedScts, submit, logGroups, maxScts,
+                certProfile.getCTMaxRetries(), sctDataCallback == null ? null : sctDataCallback.getThreadPool());
+        if (results.size() < minScts) {
+            throw new CTLogException("Got " + results.size() + " SCTs, but at least " + minScts + " are required.");
+        }
+        if (results.isEmpty()) {
+            return null;
+        }
+        if (usageMode != UsageMode.CERTIFICATE && sctDataCallback != null) {
+            for (final GroupResult result : results) {
+                if (!result.stored) {
+                    sctDataCallback.saveSctData(fingerprint, result.ctLog.getLogId(), certificate.getNotAfter().getTime(),
+                            Hex.toHexString(result.sct));
+                }
+            }
+        }
+        return encodeSctList(results);
+    }
+
+    /**
+     * Fetches SCTs from the groups of logs in parallel, until maxScts have been received or all groups have completed.
+     *
+     * @return the received SCTs, ordered as the groups
+     */
+    private List<GroupResult> fetchScts(final List<Certificate> chain, final boolean preCertificate, final String certificateHash,
+            final Map<Integer, byte[]> storedScts, final boolean submit, final List<List<CTLogInfo>> logGroups, final int maxScts,
+            final int maxRetries, final ExecutorService executor) throws CTLogException {
+        final List<GroupResult> results = new ArrayList<>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        if (executor == null) {
+            for (int i = 0; i < logGroups.size() && results.size() < maxScts; i++) {
+                final GroupResult result = fetchFromGroup(i, logGroups.get(i), chain, preCertificate, certificateHash, storedScts, submit,
+                        maxRetries, done);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        }
+        final CompletionService<GroupResult> completionService = new ExecutorCompletionService<>(executor);
+        int pending = 0;
+        long maxGroupTime = 0;
+        for (int i = 0; i < logGroups.size(); i++) {
+            final int groupIndex = i;
+            final List<CTLogInfo> logGroup = logGroups.get(i);
+            try {
+                completionService.submit(new Callable<GroupResult>() {
+                    @Override
+                    public GroupResult call() {
+                        return fetchFromGroup(groupIndex, logGroup, chain, preCertificate, certificateHash, storedScts, submit, maxRetries, done);
+                    }
+                });
+                pending++;
+            } catch (RejectedExecutionException e) {
+                log.info("Too many concurrent CT log requests, not submitting to CT log group '" + logGroup.get(0).getLabel() + "'.");
+                continue;
+            }
+            long groupTime = 0;
+            for (final CTLogInfo ctLog : logGroup) {
+                groupTime += (long) ctLog.getTimeout() * (maxRetries + 1);
+            }
+            maxGroupTime = Math.max(maxGroupTime, groupTime);
+        }
+        final long deadline = System.currentTimeMillis() + maxGroupTime + TIMEOUT_MARGIN;
+        try {
+            while (pending > 0 && results.size() < maxScts) {
+                final long remaining = deadline - System.currentTimeMillis();
+                final Future<GroupResult> future = remaining > 0 ? completionService.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (future == null) {
+                    log.info("Timed out waiting for " + pending + " CT log groups.");
+                    break;
+                }
+                pending--;
+                try {
+                    final GroupResult result = future.get();
+                    if (result != null) {
+                        results.add(result);
+                    }
+                } catch (ExecutionException e) {
+                    log.info("Failed to fetch SCT: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CTLogException(e);
+        } finally {
+            // Requests that are already sent will complete in the background, and their SCTs will be cached
+            done.set(true);
+        }
+        Collections.sort(results, new Comparator<GroupResult>() {
+            @Override
+            public int compare(final GroupResult result1, final GroupResult result2) {
+                return Integer.compare(result1.groupIndex, result2.groupIndex);
+            }
+        });
+        return results;
+    }
+
+    /** @return an SCT from the first log in the group that has one or returns one, or null if no log could provide one */
+    private GroupResult fetchFromGroup(final int groupIndex, final List<CTLogInfo> logGroup, final List<Certificate> chain,
+            final boolean preCertificate, final String certificateHash, final Map<Integer, byte[]> storedScts, final boolean submit,
+            final int maxRetries, final AtomicBoolean done) {
+        for (final CTLogInfo ctLog : logGroup) {
+            final byte[] storedSct = storedScts.get(ctLog.getLogId());
+            if (storedSct != null) {
+                return new GroupResult(groupIndex, ctLog, storedSct, true);
+            }
+            final byte[] cachedSct = sctCache.get(certificateHash, ctLog.getLogId());
+            if (cachedSct != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Using cached SCT from CT log " + ctLog.getUrl());
+                }
+                return new GroupResult(groupIndex, ctLog, cachedSct, false);
+            }
+        }
+        if (!submit) {
+            return null;
+        }
+        for (final CTLogInfo ctLog : logGroup) {
+            final CtLogClient client = getClient(ctLog.getUrl());
+            for (int attempt = 0; attempt <= maxRetries; attempt++) {
+                if (done.get()) {
+                    return null;
+                }
+                if (!client.isAvailable()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Skipping CT log " + ctLog.getUrl() + " which has failed recently.");
+                    }
+                    break;
+                }
+                try {
+                    final byte[] sct = client.addChain(chain, preCertificate, ctLog.getTimeout());
+                    sctCache.put(certificateHash, ctLog.getLogId(), sct);
+                    return new GroupResult(groupIndex, ctLog, sct, false);
+                } catch (CTLogException e) {
+                    log.info("Failed to fetch SCT from CT log " + ctLog.getUrl() + " (attempt " + (attempt + 1) + "): " + e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    private CtLogClient getClient(final String url) {
+        CtLogClient client = clients.get(url);
+        if (client == null) {
+            final CtLogClient newClient = new CtLogClient(url);
+            client = clients.putIfAbsent(url, newClient);
+            if (client == null) {
+                client = newClient;
+            } else {
+                newClient.close();
+            }
+        }
+        return client;
+    }
+
+    /**
+     * @return the logs enabled in the certificate profile that accept certificates with the given expiration date, grouped by
+     * label, in the configured order
+     */
+    private static List<List<CTLogInfo>> getLogGroups(final CertificateProfile certProfile, final CTSubmissionConfigParams config,
+            final Date notAfter) {
+        final Set<String> enabledLabels = certProfile.getEnabledCtLabels();
+        final Map<String, List<CTLogInfo>> logGroups = new LinkedHashMap<>();
+        if (config.getConfiguredCTLogs() != null) {
+            for (final CTLogInfo ctLog : config.getConfiguredCTLogs().values()) {
+                if (enabledLabels.contains(ctLog.getLabel()) && isAcceptedByLog(ctLog, notAfter)) {
+                    if (!logGroups.containsKey(ctLog.getLabel())) {
+                        logGroups.put(ctLog.getLabel(), new ArrayList<CTLogInfo>());
+                    }
+                    logGroups.get(ctLog.getLabel()).add(ctLog);
+                }
+            }
+        }
+        return new ArrayList<>(logGroups.values());
+    }
+
+    /** @return true if the log accepts certificates with the given expiration date (log sharding) */
+    private static boolean isAcceptedByLog(final CTLogInfo ctLog, final Date notAfter) {
+        if (ctLog.getExpirationYearRequired() != null) {
+            final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            calendar.setTime(notAfter);
+            if (calendar.get(Calendar.YEAR) != ctLog.getExpirationYearRequired()) {
+                return false;
+            }
+        }
+        if (ctLog.getIntervalStart() != null && notAfter.before(ctLog.getIntervalStart())) {
+            return false;
+        }
+        return ctLog.getIntervalEnd() == null || !notAfter.after(ctLog.getIntervalEnd());
+    }
+
+    /** @return the minimum number of SCTs for the validity of the certificate, according to the policy */
+    private static int getMinSctsByValidity(final GoogleCtPolicy validityPolicy, final X509Certificate certificate) {
+        final GoogleCtPolicy policy = validityPolicy == null ? new GoogleCtPolicy() : validityPolicy;
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < policy.getNumberOfBreakpoints(); i++) {
+            final int lessThanMonths = policy.getLessThanMonthsByIndex(i);
+            if (lessThanMonths == Integer.MAX_VALUE) {
+                return policy.getMinSctsByIndex(i);
+            }
+            calendar.setTime(certificate.getNotBefore());
+            calendar.add(Calendar.MONTH, lessThanMonths);
+            if (certificate.getNotAfter().before(calendar.getTime())) {
+                return policy.getMinSctsByIndex(i);
+            }
+        }
+        return policy.getMinSctsByIndex(policy.getNumberOfBreakpoints() - 1);
+    }
+
+    /** @return the SCTs as a SignedCertificateTimestampList, see RFC 6962 section 3.3 */
+    private static byte[] encodeSctList(final List<GroupResult> results) throws CTLogException {
+        int length = 0;
+        for (final GroupResult result : results) {
+            length += 2 + result.sct.length;
+        }
+        if (length > 0xFFFF) {
+            throw new CTLogException("The SCT list is too large: " + length + " bytes.");
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + length);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(length);
+            for (final GroupResult result : results) {
+                out.writeShort(result.sct.length);
+                out.write(result.sct);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return the SCTs in a SignedCertificateTimestampList */
+    private static List<byte[]> parseSctList(final byte[] sctList) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(sctList));
+        final int length = in.readUnsignedShort();
+        if (length != sctList.length - 2) {
+            throw new IOException("Invalid SCT list length " + length + ", expected " + (sctList.length - 2) + ".");
+        }
+        final List<byte[]> scts = new ArrayList<>();
+        int read = 0;
+        while (read < length) {
+            final byte[] sct = new byte[in.readUnsignedShort()];
+            in.readFully(sct);
+            scts.add(sct);
+            read += 2 + sct.length;
+        }
+        return scts;
+    }
+
+    /** @return the SignedCertificateTimestampList in the certificate, or null if the certificate has no SCT list extension */
+    private static byte[] getSctList(final X509Certificate certificate) {
+        final byte[] extensionValue = certificate.getExtensionValue(SCTLIST_OID);
+        if (extensionValue == null) {
+            return null;
+        }
+        // The extension value is an OCTET STRING containing the DER encoding of an OCTET STRING containing the list
+        return ASN1OctetString.getInstance(ASN1OctetString.getInstance(extensionValue).getOctets()).getOctets();
+    }
+
+    private static boolean isPreCertificate(final X509Certificate certificate) {
+        final Set<String> criticalExtensions = certificate.getCriticalExtensionOIDs();
+        return criticalExtensions != null && criticalExtensions.contains(POISON_OID);
+    }
+
+    @Override
+    public void addPreCertPoison(final X509v3CertificateBuilder precertbuilder) {
+        try {
+            precertbuilder.addExtension(new ASN1ObjectIdentifier(POISON_OID), true, DERNull.INSTANCE);
+        } catch (CertIOException e) {
+            throw new IllegalStateException("Could not add the CT pre-certificate poison extension.", e);
+        }
+    }
+
+    @Override
+    public boolean hasSCTs(final Certificate cert) {
+        if (!(cert instanceof X509Certificate)) {
+            return false;
+        }
+        try {
+            final byte[] sctList = getSctList((X509Certificate) cert);
+            return sctList != null && !parseSctList(sctList).isEmpty();
+        } catch (IOException | IllegalArgumentException e) {
+            log.info("Could not parse SCT list extension: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void clearCaches() {
+        for (final CtLogClient client : clients.values()) {
+            client.reset();
+        }
+        sctCache.clear();
+    }
+
+    @Override
+    public void allSctsAreValidOrThrow(final X509Certificate leafCertificate, final List<Certificate> issuerCertificates,
+            final Collection<CTLogInfo> ctLogs) throws CertificateCreateException {
+        final List<byte[]> scts;
+        try {
+            final byte[] sctList = getSctList(leafCertificate);
+            if (sctList == null) {
+                return;
+            }
+            scts = parseSctList(sctList);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new CertificateCreateException("Could not parse the SCT list extension of the certificate.", e);
+        }
+        if (scts.isEmpty()) {
+            return;
+        }
+        if (issuerCertificates == null || issuerCertificates.isEmpty()) {
+            throw new CertificateCreateException("The issuer certificate is needed to verify the SCTs of the certificate.");
+        }
+        final Map<String, CTLogInfo> logsByKeyId = new HashMap<>();
+        if (ctLogs != null) {
+            for (final CTLogInfo ctLog : ctLogs) {
+                logsByKeyId.put(ctLog.getLogKeyIdString(), ctLog);
+            }
+        }
+        final byte[] signedEntry;
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final byte[] issuerKeyHash = digest.digest(issuerCertificates.get(0).getPublicKey().getEncoded());
+            final byte[] tbsCertificate = getTbsCertificateWithoutSctList(leafCertificate);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(ENTRY_TYPE_PRECERT);
+            out.write(issuerKeyHash);
+            writeUint24(out, tbsCertificate.length);
+            out.write(tbsCertificate);
+            signedEntry = bytes.toByteArray();
+        } catch (NoSuchAlgorithmException | IOException | CertificateEncodingException e) {
+            throw new CertificateCreateException("Could not create the pre-certificate entry to verify the SCTs with.", e);
+        }
+        for (final byte[] sct : scts) {
+            verifySct(sct, signedEntry, logsByKeyId);
+        }
+    }
+
+    /**
+     * Verifies the signature of an SCT.
+     *
+     * @param sct the SCT in TLS encoding
+     * @param signedEntry the entry type and the entry, as included in the signed data
+     * @param logsByKeyId the configured logs by base64 encoded log id
+     */
+    private static void verifySct(final byte[] sct, final byte[] signedEntry, final Map<String, CTLogInfo> logsByKeyId)
+            throws CertificateCreateException {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(sct));
+            final int version = in.readUnsignedByte();
+            if (version != SCT_VERSION_V1) {
+                throw new CertificateCreateException("Unsupported SCT version " + version + ".");
+            }
+            final byte[] logId = new byte[LOG_ID_LENGTH];
+            in.readFully(logId);
+            final long timestamp = in.readLong();
+            final byte[] extensions = new byte[in.readUnsignedShort()];
+            in.readFully(extensions);
+            final int hashAlgorithm = in.readUnsignedByte();
+            final int signatureAlgorithm = in.readUnsignedByte();
+            final byte[] signature = new byte[in.readUnsignedShort()];
+            in.readFully(signature);
+            final CTLogInfo ctLog = logsByKeyId.get(Base64.toBase64String(logId));
+            if (ctLog == null) {
+                throw new CertificateCreateException("The certificate has an SCT from a CT log that is not configured, log id " + Base64.toBase64String(logId) + ".");
+            }
+            final String algorithm;
+            if (hashAlgorithm == HASH_ALGORITHM_SHA256 && signatureAlgorithm == SIGNATURE_ALGORITHM_ECDSA) {
+                algorithm = "SHA256withECDSA";
+            } else if (hashAlgorithm == HASH_ALGORITHM_SHA256 && signatureAlgorithm == SIGNATURE_ALGORITHM_RSA) {
+                algorithm = "SHA256withRSA";
+            } else {
+                throw new CertificateCreateException("Unsupported signature algorithm " + hashAlgorithm + "/" + signatureAlgorithm + " in SCT from CT log " + ctLog.getUrl() + ".");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SCT_VERSION_V1);
+            out.writeByte(SIGNATURE_TYPE_CERTIFICATE_TIMESTAMP);
+            out.writeLong(timestamp);
+            out.write(signedEntry);
+            out.writeShort(extensions.length);
+            out.write(extensions);
+            final Signature verifier = Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+            verifier.initVerify(ctLog.getLogPublicKey());
+            verifier.update(bytes.toByteArray());
+            if (!verifier.verify(signature)) {
+                throw new CertificateCreateException("The SCT from CT log " + ctLog.getUrl() + " does not verify over the certificate.");
+            }
+        } catch (IOException e) {
+            throw new CertificateCreateException("Could not parse SCT in the certificate.", e);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateCreateException("Could not verify SCT in the certificate.", e);
+        }
+    }
+
+    /** @return the DER encoded TBSCertificate of the certificate, without the SCT list extension, as it was in the pre-certificate */
+    private static byte[] getTbsCertificateWithoutSctList(final X509Certificate certificate) throws CertificateEncodingException, IOException {
+        final ASN1Sequence tbsCertificate = ASN1Sequence.getInstance(certificate.getTBSCertificate());
+        final ASN1EncodableVector elements = new ASN1EncodableVector();
+        for (final ASN1Encodable element : tbsCertificate) {
+            if (element instanceof ASN1TaggedObject && ((ASN1TaggedObject) element).getTagNo() == 3) {
+                final Extensions extensions = Extensions.getInstance((ASN1TaggedObject) element, true);
+                final List<Extension> remaining = new ArrayList<>();
+                for (final ASN1ObjectIdentifier oid : extensions.getExtensionOIDs()) {
+                    if (!SCTLIST_OID.equals(oid.getId())) {
+                        remaining.add(extensions.getExtension(oid));
+                    }
+                }
+                if (!remaining.isEmpty()) {
+                    elements.add(new DERTaggedObject(true, 3, new Extensions(remaining.toArray(new Extension[remaining.size()]))));
+                }
+            } else {
+                elements.add(element);
+            }
+        }
+        return new DERSequence(elements).getEncoded(ASN1Encoding.DER);
+    }
+
+    private static void writeUint24(final DataOutputStream out, final int value) throws IOException {
+        out.writeByte(value >>> 16);
+        out.writeShort(value & 0xFFFF);
+    }
+}
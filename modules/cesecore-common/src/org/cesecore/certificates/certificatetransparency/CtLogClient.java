@@ -0,0 +1,189 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificatetransparency;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Submits certificates to one CT log server over a pool of persistent HTTP connections, as specified in RFC 6962 section 4.1
+ * and 4.2.
+ * <p>
+ * The number of concurrent requests to the log is limited by the size of the connection pool. After a number of failures in a
+ * row, the log is considered to be down and requests fail immediately for a while (fast fail), after which a single request is
+ * let through to see if the log is back.
+ *
+ * @version $Id$
+ */
+class CtLogClient {
+
+    private static final Logger log = Logger.getLogger(CtLogClient.class);
+
+    /** Maximum number of concurrent requests to one log server */
+    static final int MAX_CONNECTIONS = 20;
+    /** Number of failed requests in a row after which the log is considered to be down */
+    static final int MAX_FAILURES = 3;
+    /** How long requests fail immediately once a log is considered to be down, in milliseconds */
+    static final long FAST_FAIL_TIME = 60000L;
+
+    private static final int SCT_VERSION_V1 = 0;
+    private static final int LOG_ID_LENGTH = 32;
+
+    private final String url;
+    private final CloseableHttpClient httpClient;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong fastFailUntil = new AtomicLong();
+
+    /** @param url the base URL of the log, ending with /ct/v1/ */
+    CtLogClient(final String url) {
+        this.url = url;
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager).disableCookieManagement().build();
+    }
+
+    /**
+     * @return false if the log is considered to be down, in which case no request should be made. When the fast fail time is over,
+     * this returns true once, and then false again until the result of that request is known.
+     */
+    boolean isAvailable() {
+        final long until = fastFailUntil.get();
+        if (until == 0) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        // Let one request through to see if the log is back up
+        return now >= until && fastFailUntil.compareAndSet(until, now + FAST_FAIL_TIME);
+    }
+
+    /**
+     * Submits a certificate or pre-certificate to the log.
+     *
+     * @param chain the certificate or pre-certificate, followed by the issuer chain
+     * @param preCertificate true to use add-pre-chain, false to use add-chain
+     * @param timeout timeout in milliseconds for connecting, waiting for a free connection and waiting for the response
+     * @return the Signed Certificate Timestamp in the TLS encoding that is used in SCT lists
+     * @throws CTLogException if the request fails or the response is invalid
+     */
+    @SuppressWarnings("unchecked")
+    byte[] addChain(final List<Certificate> chain, final boolean preCertificate, final int timeout) throws CTLogException {
+        final JSONArray certificates = new JSONArray();
+        try {
+            for (final Certificate certificate : chain) {
+                certificates.add(new String(Base64.encode(certificate.getEncoded()), StandardCharsets.US_ASCII));
+            }
+        } catch (CertificateEncodingException e) {
+            throw new CTLogException(e);
+        }
+        final JSONObject request = new JSONObject();
+        request.put("chain", certificates);
+        final HttpPost post = new HttpPost(url + (preCertificate ? "add-pre-chain" : "add-chain"));
+        post.setConfig(RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).setConnectionRequestTimeout(timeout).build());
+        post.setEntity(new StringEntity(request.toJSONString(), ContentType.APPLICATION_JSON));
+        try {
+            final String response;
+            try (final CloseableHttpResponse httpResponse = httpClient.execute(post)) {
+                response = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+                final int statusCode = httpResponse.getStatusLine().getStatusCode();
+                if (statusCode != 200) {
+                    throw new CTLogException("CT log " + url + " returned HTTP status " + statusCode + ": " + response);
+                }
+            }
+            final byte[] sct = parseSct(response);
+            failures.set(0);
+            fastFailUntil.set(0);
+            return sct;
+        } catch (IOException e) {
+            registerFailure();
+            throw new CTLogException(e);
+        } catch (CTLogException e) {
+            registerFailure();
+            throw e;
+        }
+    }
+
+    private void registerFailure() {
+        if (failures.incrementAndGet() >= MAX_FAILURES) {
+            if (log.isDebugEnabled()) {
+                log.debug("CT log " + url + " failed " + failures.get() + " times in a row, not using it for " + FAST_FAIL_TIME + " ms.");
+            }
+            fastFailUntil.set(System.currentTimeMillis() + FAST_FAIL_TIME);
+        }
+    }
+
+    /** Converts the JSON response from the log to an SCT in TLS encoding */
+    private byte[] parseSct(final String response) throws CTLogException {
+        try {
+            final JSONObject json = (JSONObject) new JSONParser().parse(response);
+            final long version = ((Number) json.get("sct_version")).longValue();
+            final byte[] logId = Base64.decode((String) json.get("id"));
+            final long timestamp = ((Number) json.get("timestamp")).longValue();
+            final String extensionsString = (String) json.get("extensions");
+            final byte[] extensions = extensionsString == null ? new byte[0] : Base64.decode(extensionsString);
+            // Already in the TLS encoding of a DigitallySigned struct
+            final byte[] signature = Base64.decode((String) json.get("signature"));
+            if (version != SCT_VERSION_V1 || logId.length != LOG_ID_LENGTH || extensions.length > 0xFFFF || signature.length < 4) {
+                throw new CTLogException("CT log " + url + " returned an invalid SCT: " + response);
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SCT_VERSION_V1);
+            out.write(logId);
+            out.writeLong(timestamp);
+            out.writeShort(extensions.length);
+            out.write(extensions);
+            out.write(signature);
+            return bytes.toByteArray();
+        } catch (ParseException | ClassCastException | NullPointerException | IllegalArgumentException | IllegalStateException | IOException e) {
+            throw new CTLogException("CT log " + url + " returned an invalid response: " + response);
+        }
+    }
+
+    /** Resets the fast fail state */
+    void reset() {
+        failures.set(0);
+        fastFailUntil.set(0);
+    }
+
+    void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.debug("Failed to close HTTP client for CT log " + url + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificatetransparency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short lived in-memory cache of SCTs received from CT logs, keyed by the hash of the submitted (pre-)certificate and the log.
+ * If issuance fails after the SCTs have been fetched, for example because of a database error, and is retried with the same
+ * pre-certificate, the SCTs are taken from here instead of submitting the pre-certificate to the logs again. SCTs that arrive
+ * after enough SCTs have been collected are also kept here.
+ *
+ * @version $Id$
+ */
+class SctCache {
+
+    /** How long SCTs are kept, in milliseconds */
+    static final long CACHE_TIME = 600000L;
+    /** The cache is emptied if it grows larger than this */
+    static final int MAX_ENTRIES = 10000;
+
+    private static class Entry {
+        private final byte[] sct;
+        private final long expireTime;
+
+        private Entry(final byte[] sct, final long expireTime) {
+            this.sct = sct;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param certificateHash hex encoded hash of the submitted certificate
+     * @param logId id of the CT log
+     * @return the SCT, or null if it isn't cached
+     */
+    byte[] get(final String certificateHash, final int logId) {
+        final String key = getKey(certificateHash, logId);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireTime <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.sct;
+    }
+
+    void put(final String certificateHash, final int logId, final byte[] sct) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(getKey(certificateHash, logId), new Entry(sct, System.currentTimeMillis() + CACHE_TIME));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private static String getKey(final String certificateHash, final int logId) {
+        return certificateHash + ';' + logId;
+    }
+}
@@ -0,0 +1,183 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.cesecore.certificates.ca.CA;
+import org.cesecore.certificates.ca.CAFactory;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.PKCS11CryptoToken;
+
+/**
+ * Builds and signs the CRLs of several CRL partitions of a CA at the same time.
+ * <p>
+ * The number of CRLs signed at the same time is configured by crlgeneration.threads. By default it is the number of
+ * processors, limited by pkcs11.maxsignsessions for PKCS#11 crypto tokens, so that the CRLs do not wait for sessions
+ * needed by other signatures. The threads only live while the CRLs are generated.
+ *
+ * @version $Id$
+ */
+public final class CrlPartitionGenerator {
+
+    private static final Logger log = Logger.getLogger(CrlPartitionGenerator.class);
+
+    /** A generated and encoded CRL, with the information needed to store it */
+    public static final class GeneratedCrl {
+        private final int crlPartitionIndex;
+        private final int crlNumber;
+        private final byte[] encoded;
+        private final String issuerDN;
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+
+        private GeneratedCrl(final int crlPartitionIndex, final int crlNumber, final X509CRLHolder crl) throws IOException {
+            this.crlPartitionIndex = crlPartitionIndex;
+            this.crlNumber = crlNumber;
+            this.encoded = crl.getEncoded();
+            this.issuerDN = crl.getIssuer().toString();
+            this.thisUpdate = crl.toASN1Structure().getThisUpdate().getDate();
+            this.nextUpdate = crl.toASN1Structure().getNextUpdate().getDate();
+        }
+
+        public int getCrlPartitionIndex() {
+            return crlPartitionIndex;
+        }
+
+        public int getCrlNumber() {
+            return crlNumber;
+        }
+
+        public byte[] getEncoded() {
+            return encoded;
+        }
+
+        public String getIssuerDN() {
+            return issuerDN;
+        }
+
+        public Date getThisUpdate() {
+            return thisUpdate;
+        }
+
+        public Date getNextUpdate() {
+            return nextUpdate;
+        }
+    }
+
+    private CrlPartitionGenerator() {}
+
+    /**
+     * @param cryptoToken the crypto token that signs the CRLs
+     * @param partitions the number of CRLs to generate
+     * @return the number of CRLs to sign at the same time
+     */
+    public static int getThreads(final CryptoToken cryptoToken, final int partitions) {
+        int threads = CesecoreConfiguration.getCrlGenerationThreads();
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+            final int maxSignSessions = CesecoreConfiguration.getP11MaxSignSessions();
+            if (cryptoToken instanceof PKCS11CryptoToken && maxSignSessions > 0) {
+                threads = Math.min(threads, maxSignSessions);
+            }
+        }
+        return Math.max(1, Math.min(threads, partitions));
+    }
+
+    /**
+     * Generates base CRLs for several CRL partitions at the same time. Each thread generates its CRLs with its own copy of the
+     * CA, since CA objects are not thread safe.
+     *
+     * @param ca the CA issuing the CRLs
+     * @param cryptoToken the crypto token of the CA
+     * @param certsByPartition the revoked certificates to include in the CRL of each partition
+     * @param crlNumbers the CRL number of each partition, with the same keys as certsByPartition
+     * @param threads the maximum number of CRLs generated at the same time
+     * @return the generated CRLs, in the iteration order of certsByPartition
+     * @throws Exception the first exception thrown when generating a CRL, as thrown by {@link CA#generateCRL(CryptoToken, int, Collection, int)}
+     */
+    public static List<GeneratedCrl> generateCrls(final CA ca, final CryptoToken cryptoToken, final Map<Integer, Collection<RevokedCertInfo>> certsByPartition,
+            final Map<Integer, Integer> crlNumbers, final int threads) throws Exception {
+        final List<Integer> partitions = new ArrayList<>(certsByPartition.keySet());
+        final GeneratedCrl[] results = new GeneratedCrl[partitions.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final int workers = Math.max(1, Math.min(threads, partitions.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "CrlPartitionGenerator-" + ca.getCAId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                final CA workerCa = workers == 1 ? ca : copyCa(ca);
+                // Each worker takes the next partition until all are done
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < results.length) {
+                        final int crlPartitionIndex = partitions.get(index);
+                        final int crlNumber = crlNumbers.get(crlPartitionIndex);
+                        final X509CRLHolder crl = workerCa.generateCRL(cryptoToken, crlPartitionIndex, certsByPartition.get(crlPartitionIndex), crlNumber);
+                        results[index] = new GeneratedCrl(crlPartitionIndex, crlNumber, crl);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Make the other workers stop after their current CRL
+                    next.set(results.length);
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Generated " + results.length + " CRLs for CA " + ca.getCAId() + " with " + workers + " threads.");
+        }
+        final List<GeneratedCrl> ret = new ArrayList<>(results.length);
+        Collections.addAll(ret, results);
+        return ret;
+    }
+
+    /** @return a new instance of the CA, created from the data of the CA as when it is read from the database */
+    @SuppressWarnings("unchecked")
+    private static CA copyCa(final CA ca) {
+        return (CA) CAFactory.INSTANCE.getX509CAImpl((HashMap<Object, Object>) ca.saveData(), ca.getCAId(), ca.getSubjectDN(), ca.getName(),
+                ca.getStatus(), ca.getCAInfo().getUpdateTime(), ca.getExpireTime());
+    }
+}
@@ -20,7 +20,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.cesecore.util.CompressedCollection;
 
 /**
  * Holds information about a revoked certificate. The information kept here is the
@@ -98,6 +97,26 @@ public class RevokedCertInfo implements Serializable {
         this.fingerprint = fp == null ? null : fp.getBytes();
     }
     
+    /** @return the fingerprint in byte format, without copying, for {@link RevokedCertInfoCollection} */
+    byte[] getCertificateFingerprintBytes() {
+        return fingerprint;
+    }
+
+    /** @return the serial number in BigInteger.toByteArray() format, without copying, for {@link RevokedCertInfoCollection} */
+    byte[] getUserCertificateBytes() {
+        return userCertificate;
+    }
+
+    /** @return the revocation date in milliseconds, or 0 if not set */
+    long getRevocationDateMillis() {
+        return revocationDate;
+    }
+
+    /** @return the expire date in milliseconds, or 0 if not set */
+    long getExpireDateMillis() {
+        return expireDate;
+    }
+
     /**
      * Certificate serial number
      **/
@@ -234,7 +253,7 @@ public class RevokedCertInfo implements Serializable {
      * @param a First collection of RevokedCertInfo. May <b>not</b> contain duplicates for the same serial number.
      * @param b Second collection of RevokedCertInfo. May contain duplicates
      * @param lastBaseCrlDate Entries in unrevoked state will only be included if they are more recent than this date. (<= 0 means never include them)
-     * @return CompressionCollection of certificates. May simply be a reference to <code>a</code> if <code>b</code> is empty, or a new merged CompressedCollection with any duplicates removed.
+     * @return Collection of certificates. May simply be a reference to <code>a</code> if <code>b</code> is empty, or a new merged RevokedCertInfoCollection with any duplicates removed.
      */
     public static Collection<RevokedCertInfo> mergeByDateAndStatus(final Collection<RevokedCertInfo> a, final Collection<RevokedCertInfo> b, final long lastBaseCrlDate) {
         // We can optimize this case, but not the reverse, since b can contain duplicates that should be filtered.
@@ -276,7 +295,7 @@ public class RevokedCertInfo implements Serializable {
                 tempRevoked.put(serial, revoked);
             }
         }
-        final CompressedCollection<RevokedCertInfo> mergedRevokedData = new CompressedCollection<>(RevokedCertInfo.class);
+        final RevokedCertInfoCollection mergedRevokedData = new RevokedCertInfoCollection(permRevoked.size() + tempRevoked.size());
         mergedRevokedData.addAll(permRevoked.values()); // Permanently revoked entries are always added
         for (final RevokedCertInfo revoked : tempRevoked.values()) {
             if (!revoked.isRevoked() && (lastBaseCrlDate <= 0 || revoked.getRevocationDate().getTime() <= lastBaseCrlDate)) {
@@ -284,7 +303,6 @@ public class RevokedCertInfo implements Serializable {
             }
             mergedRevokedData.add(revoked);
         }
-        mergedRevokedData.closeForWrite();
         if (log.isDebugEnabled()) {
             log.debug("mergeByDateAndStatus: Merged to " + mergedRevokedData.size() + " entries");
         }
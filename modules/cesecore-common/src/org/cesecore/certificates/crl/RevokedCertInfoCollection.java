@@ -0,0 +1,380 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory efficient Collection of {@link RevokedCertInfo}, used when building CRLs with many entries.
+ * <p>
+ * The entries are not stored as objects, but as columns of primitive arrays: the serial numbers and fingerprints are
+ * stored in fixed width slots of byte arrays, with the hex fingerprints packed to two characters per byte, and the
+ * revocation dates, expire dates and reasons are kept in arrays of their own. An entry takes about 60 bytes with a 20 byte
+ * serial number and a SHA-1 fingerprint, and adding and iterating does not serialize anything. The iterator
+ * creates a new RevokedCertInfo for each entry, so changes to the returned objects are not stored in the collection.
+ * <p>
+ * Entries can only be added, or removed all at once with {@link #clear()}. The implementation is not thread safe.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollection extends AbstractCollection<RevokedCertInfo> implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Byte arrays of up to 254 bytes stored in slots of the same width, so that no offsets are needed. The width grows to the
+     * longest value added. Lowercase hex strings, as the fingerprints, are stored with two characters per byte, until a value
+     * that is not a lowercase hex string is added.
+     */
+    private static class ByteColumn implements Serializable {
+        private static final long serialVersionUID = 2L;
+        /** Length of null values */
+        private static final int NULL_LENGTH = 0xff;
+
+        /** true if all values are lowercase hex strings, packed with two characters per byte */
+        private boolean hex;
+        /** Number of bytes in each slot */
+        private int width = 0;
+        private byte[] data;
+        /** Unsigned length of each value, before packing */
+        private byte[] lengths;
+
+        private ByteColumn(final int capacity, final boolean hex) {
+            this.hex = hex;
+            data = new byte[0];
+            lengths = new byte[capacity];
+        }
+
+        private void set(final int index, final byte[] value) {
+            if (value == null) {
+                lengths[index] = (byte) NULL_LENGTH;
+                return;
+            }
+            if (value.length >= NULL_LENGTH) {
+                throw new IllegalArgumentException("Value of " + value.length + " bytes is too long.");
+            }
+            if (hex && !isLowerCaseHex(value)) {
+                unpackAll();
+            }
+            final int storedLength = hex ? (value.length + 1) / 2 : value.length;
+            if (storedLength > width) {
+                setWidth(storedLength);
+            }
+            if (hex) {
+                final int offset = index * width;
+                Arrays.fill(data, offset, offset + storedLength, (byte) 0);
+                for (int i = 0; i < value.length; i++) {
+                    final int nibble = Character.digit(value[i], 16);
+                    data[offset + i / 2] |= (i % 2 == 0) ? nibble << 4 : nibble;
+                }
+            } else {
+                System.arraycopy(value, 0, data, index * width, value.length);
+            }
+            lengths[index] = (byte) value.length;
+        }
+
+        private byte[] get(final int index) {
+            final int length = length(index);
+            if (length < 0) {
+                return null;
+            }
+            final int offset = index * width;
+            if (!hex) {
+                return Arrays.copyOfRange(data, offset, offset + length);
+            }
+            final byte[] value = new byte[length];
+            for (int i = 0; i < length; i++) {
+                final int nibble = (i % 2 == 0) ? (data[offset + i / 2] >> 4) & 0xf : data[offset + i / 2] & 0xf;
+                value[i] = (byte) Character.forDigit(nibble, 16);
+            }
+            return value;
+        }
+
+        /** @return the length of the value, or -1 for null */
+        private int length(final int index) {
+            final int length = lengths[index] & 0xff;
+            return length == NULL_LENGTH ? -1 : length;
+        }
+
+        private static boolean isLowerCaseHex(final byte[] value) {
+            for (final byte b : value) {
+                if ((b < '0' || b > '9') && (b < 'a' || b > 'f')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Stores the packed hex strings as they are, when a value that is not a lowercase hex string is added */
+        private void unpackAll() {
+            final int capacity = lengths.length;
+            final byte[][] values = new byte[capacity][];
+            int newWidth = 0;
+            for (int i = 0; i < capacity; i++) {
+                values[i] = get(i);
+                if (values[i] != null) {
+                    newWidth = Math.max(newWidth, values[i].length);
+                }
+            }
+            hex = false;
+            width = newWidth;
+            data = new byte[capacity * width];
+            for (int i = 0; i < capacity; i++) {
+                if (values[i] != null) {
+                    System.arraycopy(values[i], 0, data, i * width, values[i].length);
+                }
+            }
+        }
+
+        private void setWidth(final int newWidth) {
+            final int capacity = lengths.length;
+            final byte[] newData = new byte[capacity * newWidth];
+            for (int i = 0; i < capacity; i++) {
+                System.arraycopy(data, i * width, newData, i * newWidth, width);
+            }
+            data = newData;
+            width = newWidth;
+        }
+
+        private void resize(final int capacity) {
+            data = Arrays.copyOf(data, capacity * width);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+
+        /** Reorders the entries */
+        private void permute(final int[] order) {
+            final byte[] newData = new byte[data.length];
+            final byte[] newLengths = new byte[lengths.length];
+            for (int i = 0; i < order.length; i++) {
+                System.arraycopy(data, order[i] * width, newData, i * width, width);
+                newLengths[i] = lengths[order[i]];
+            }
+            data = newData;
+            lengths = newLengths;
+        }
+    }
+
+    private int size;
+    private ByteColumn serialNumbers;
+    private ByteColumn fingerprints;
+    private long[] revocationDates;
+    private long[] expireDates;
+    private byte[] reasons;
+    /** Number of changes, used to detect that the collection is changed while it is iterated */
+    private transient int modCount;
+
+    public RevokedCertInfoCollection() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param initialCapacity the number of entries that can be added before the arrays have to grow */
+    public RevokedCertInfoCollection(final int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        allocate(initialCapacity);
+    }
+
+    private void allocate(final int capacity) {
+        size = 0;
+        serialNumbers = new ByteColumn(capacity, false);
+        // Fingerprints are hex strings
+        fingerprints = new ByteColumn(capacity, true);
+        revocationDates = new long[capacity];
+        expireDates = new long[capacity];
+        reasons = new byte[capacity];
+    }
+
+    @Override
+    public boolean add(final RevokedCertInfo revokedCertInfo) {
+        if (revokedCertInfo == null) {
+            return false;
+        }
+        add(revokedCertInfo.getCertificateFingerprintBytes(), revokedCertInfo.getUserCertificateBytes(), revokedCertInfo.getRevocationDateMillis(),
+                revokedCertInfo.getReason(), revokedCertInfo.getExpireDateMillis());
+        return true;
+    }
+
+    /**
+     * Adds an entry without creating a RevokedCertInfo. The parameters are the same as for
+     * {@link RevokedCertInfo#RevokedCertInfo(byte[], byte[], long, int, long)}, and the byte arrays are copied.
+     */
+    public void add(final byte[] fingerprint, final byte[] sernoBigIntegerArray, final long revdate, final int reason, final long expdate) {
+        if (reason < Byte.MIN_VALUE || reason > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal revocation reason " + reason + ".");
+        }
+        if (size == reasons.length) {
+            final int capacity = grow(size, size + 1);
+            serialNumbers.resize(capacity);
+            fingerprints.resize(capacity);
+            revocationDates = Arrays.copyOf(revocationDates, capacity);
+            expireDates = Arrays.copyOf(expireDates, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+        }
+        serialNumbers.set(size, sernoBigIntegerArray);
+        fingerprints.set(size, fingerprint);
+        revocationDates[size] = revdate;
+        expireDates[size] = expdate;
+        reasons[size] = (byte) reason;
+        size++;
+        modCount++;
+    }
+
+    /** @return a new capacity of at least minCapacity, growing by half of the current capacity */
+    private static int grow(final int capacity, final int minCapacity) {
+        final long newCapacity = Math.max(minCapacity, capacity + (capacity >> 1) + 16L);
+        if (minCapacity < 0 || newCapacity > Integer.MAX_VALUE - 8) {
+            if (minCapacity < 0 || minCapacity > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("Too many revoked certificates for one collection.");
+            }
+            return Integer.MAX_VALUE - 8;
+        }
+        return (int) newCapacity;
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        return new Iterator<RevokedCertInfo>() {
+            private final int expectedModCount = modCount;
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                final RevokedCertInfo ret = new RevokedCertInfo(fingerprints.get(next), serialNumbers.get(next), revocationDates[next], reasons[next],
+                        expireDates[next]);
+                next++;
+                return ret;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Releases the memory used by the entries */
+    @Override
+    public void clear() {
+        allocate(0);
+        modCount++;
+    }
+
+    /** Shrinks the arrays to the number of entries, when no more entries will be added */
+    public void trimToSize() {
+        serialNumbers.resize(size);
+        fingerprints.resize(size);
+        revocationDates = Arrays.copyOf(revocationDates, size);
+        expireDates = Arrays.copyOf(expireDates, size);
+        reasons = Arrays.copyOf(reasons, size);
+    }
+
+    /**
+     * Sorts the entries in ascending serial number order, by sorting an index array and then copying each column in that
+     * order. Entries without a serial number are sorted first.
+     */
+    public void sortBySerialNumber() {
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Bottom-up merge sort of the index, which is stable and does not box the indexes
+        int[] from = order;
+        int[] to = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                final int middle = Math.min(low + width, size);
+                final int high = Math.min(low + 2 * width, size);
+                int left = low;
+                int right = middle;
+                for (int i = low; i < high; i++) {
+                    if (left < middle && (right >= high || compareSerialNumbers(from[left], from[right]) <= 0)) {
+                        to[i] = from[left++];
+                    } else {
+                        to[i] = from[right++];
+                    }
+                }
+            }
+            final int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        serialNumbers.permute(from);
+        fingerprints.permute(from);
+        final long[] newRevocationDates = new long[revocationDates.length];
+        final long[] newExpireDates = new long[expireDates.length];
+        final byte[] newReasons = new byte[reasons.length];
+        for (int i = 0; i < size; i++) {
+            newRevocationDates[i] = revocationDates[from[i]];
+            newExpireDates[i] = expireDates[from[i]];
+            newReasons[i] = reasons[from[i]];
+        }
+        revocationDates = newRevocationDates;
+        expireDates = newExpireDates;
+        reasons = newReasons;
+        modCount++;
+    }
+
+    /** Compares two serial numbers in the two's complement format of BigInteger.toByteArray(), without creating BigIntegers */
+    private int compareSerialNumbers(final int a, final int b) {
+        final int lengthA = serialNumbers.length(a);
+        final int lengthB = serialNumbers.length(b);
+        if (lengthA <= 0 || lengthB <= 0) {
+            return Integer.compare(lengthA, lengthB);
+        }
+        final byte[] data = serialNumbers.data;
+        final int offsetA = a * serialNumbers.width;
+        final int offsetB = b * serialNumbers.width;
+        final boolean negativeA = data[offsetA] < 0;
+        final boolean negativeB = data[offsetB] < 0;
+        if (negativeA != negativeB) {
+            return negativeA ? -1 : 1;
+        }
+        if (lengthA != lengthB) {
+            // The encoding is minimal, so a longer positive number is larger, and a longer negative number is smaller
+            return negativeA ? Integer.compare(lengthB, lengthA) : Integer.compare(lengthA, lengthB);
+        }
+        for (int i = 0; i < lengthA; i++) {
+            final int diff = (data[offsetA + i] & 0xff) - (data[offsetB + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        trimToSize();
+        out.defaultWriteObject();
+    }
+}
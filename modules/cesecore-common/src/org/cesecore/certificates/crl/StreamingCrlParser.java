@@ -0,0 +1,475 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+/**
+ * Parser for large DER encoded X.509 CRLs, which walks the encoding instead of building an object for the whole CRL.
+ * <p>
+ * Only the CRL fields are decoded when the parser is created. The revoked certificates are decoded one at a time while
+ * they are iterated over, so the memory used does not grow with the number of entries, apart from the encoded CRL itself.
+ * Each entry has a digest of its encoding, so that the entries of two CRLs can be compared without keeping the entries of
+ * either CRL in memory, see {@link #getSortedEntryDigests()}.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlParser {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_BIT_STRING = 0x03;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_EXTENSIONS = 0xa0;
+
+    /** A revoked certificate of the CRL */
+    public static final class Entry {
+        private final BigInteger serialNumber;
+        private final Date revocationDate;
+        private final int reasonCode;
+        private final X500Name certificateIssuer;
+        private final long digestHigh;
+        private final long digestLow;
+
+        Entry(final BigInteger serialNumber, final Date revocationDate, final int reasonCode, final X500Name certificateIssuer,
+                final long digestHigh, final long digestLow) {
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+            this.reasonCode = reasonCode;
+            this.certificateIssuer = certificateIssuer;
+            this.digestHigh = digestHigh;
+            this.digestLow = digestLow;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        public Date getRevocationDate() {
+            return revocationDate;
+        }
+
+        /** @return the reason code of the entry, or RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED if it has none */
+        public int getReasonCode() {
+            return reasonCode;
+        }
+
+        /** @return the issuer of the certificate if this is an indirect CRL, or null if it is the issuer of the CRL */
+        public X500Name getCertificateIssuer() {
+            return certificateIssuer;
+        }
+
+        /** @return the first 64 bits of the digest of the encoded entry */
+        public long getDigestHigh() {
+            return digestHigh;
+        }
+
+        /** @return the second 64 bits of the digest of the encoded entry */
+        public long getDigestLow() {
+            return digestLow;
+        }
+    }
+
+    private final byte[] encoded;
+    private final int tbsStart;
+    private final int tbsEnd;
+    private final X500Name issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final int entriesStart;
+    private final int entriesEnd;
+    private final Extensions extensions;
+    private final boolean indirect;
+    private final AlgorithmIdentifier signatureAlgorithm;
+    private final AlgorithmIdentifier tbsSignatureAlgorithm;
+    private final byte[] signature;
+
+    /**
+     * @param encoded the DER encoded CRL, which is referenced and not copied
+     * @throws CRLException if the CRL is not a well formed DER encoded CRL
+     */
+    public StreamingCrlParser(final byte[] encoded) throws CRLException {
+        this.encoded = encoded;
+        try {
+            final int[] crl = readTlv(0, encoded.length, TAG_SEQUENCE);
+            if (crl[2] != encoded.length) {
+                throw new CRLException("Unexpected data after the CRL.");
+            }
+            final int[] tbs = readTlv(crl[1], crl[2], TAG_SEQUENCE);
+            tbsStart = crl[1];
+            tbsEnd = tbs[2];
+            final int[] algorithm = readTlv(tbs[2], crl[2], TAG_SEQUENCE);
+            signatureAlgorithm = AlgorithmIdentifier.getInstance(decode(tbs[2], algorithm[2]));
+            final int[] signatureValue = readTlv(algorithm[2], crl[2], TAG_BIT_STRING);
+            signature = DERBitString.getInstance(decode(algorithm[2], signatureValue[2])).getBytes();
+            // TBSCertList ::= SEQUENCE { version OPTIONAL, signature, issuer, thisUpdate, nextUpdate OPTIONAL,
+            //                            revokedCertificates OPTIONAL, crlExtensions [0] EXPLICIT OPTIONAL }
+            int position = tbs[1];
+            int[] field = readTlv(position, tbsEnd, -1);
+            if (field[0] == TAG_INTEGER) {
+                position = field[2];
+                field = readTlv(position, tbsEnd, TAG_SEQUENCE);
+            }
+            tbsSignatureAlgorithm = AlgorithmIdentifier.getInstance(decode(position, field[2]));
+            position = field[2];
+            field = readTlv(position, tbsEnd, TAG_SEQUENCE);
+            issuer = X500Name.getInstance(decode(position, field[2]));
+            position = field[2];
+            field = readTlv(position, tbsEnd, -1);
+            thisUpdate = readTime(position, field);
+            position = field[2];
+            Date next = null;
+            int start = -1;
+            int end = -1;
+            Extensions exts = null;
+            if (position < tbsEnd) {
+                field = readTlv(position, tbsEnd, -1);
+                if (field[0] == TAG_UTC_TIME || field[0] == TAG_GENERALIZED_TIME) {
+                    next = readTime(position, field);
+                    position = field[2];
+                    field = position < tbsEnd ? readTlv(position, tbsEnd, -1) : null;
+                }
+                if (field != null && field[0] == TAG_SEQUENCE) {
+                    start = field[1];
+                    end = field[2];
+                    position = field[2];
+                    field = position < tbsEnd ? readTlv(position, tbsEnd, -1) : null;
+                }
+                if (field != null && field[0] == TAG_EXTENSIONS) {
+                    exts = Extensions.getInstance(decode(field[1], field[2]));
+                    position = field[2];
+                }
+                if (position != tbsEnd) {
+                    throw new CRLException("Unexpected field in the CRL at position " + position + ".");
+                }
+            }
+            nextUpdate = next;
+            entriesStart = start;
+            entriesEnd = end;
+            extensions = exts;
+            boolean indirectCrl = false;
+            if (extensions != null) {
+                final Extension idp = extensions.getExtension(Extension.issuingDistributionPoint);
+                indirectCrl = idp != null && IssuingDistributionPoint.getInstance(idp.getParsedValue()).isIndirectCRL();
+            }
+            indirect = indirectCrl;
+        } catch (IllegalArgumentException | IOException e) {
+            throw new CRLException("Could not parse CRL: " + e.getMessage(), e);
+        }
+    }
+
+    public X500Name getIssuer() {
+        return issuer;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return the next update of the CRL, or null if it is absent */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /** @return the CRL number, or 0 if the CRL has no CRL number (as {@link org.cesecore.certificates.util.cert.CrlExtensions#getCrlNumber}) */
+    public BigInteger getCrlNumber() {
+        return getNumberExtension(Extension.cRLNumber, BigInteger.ZERO);
+    }
+
+    /** @return the base CRL number of a delta CRL, or -1 if this is a full CRL */
+    public BigInteger getDeltaCrlIndicator() {
+        return getNumberExtension(Extension.deltaCRLIndicator, BigInteger.valueOf(-1));
+    }
+
+    private BigInteger getNumberExtension(final ASN1ObjectIdentifier oid, final BigInteger defaultValue) {
+        final Extension extension = extensions == null ? null : extensions.getExtension(oid);
+        return extension == null ? defaultValue : ASN1Integer.getInstance(extension.getParsedValue()).getValue();
+    }
+
+    /** @return the DER encoded CRL, as passed to the constructor */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Verifies the signature of the CRL.
+     *
+     * @param publicKey the public key of the CRL issuer
+     * @throws CRLException if the signature could not be verified, or is not valid
+     */
+    public void verify(final PublicKey publicKey) throws CRLException {
+        if (!signatureAlgorithm.equals(tbsSignatureAlgorithm)) {
+            throw new CRLException("Signature algorithm mismatch between the CRL and its signed content.");
+        }
+        try {
+            final ContentVerifier verifier = new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(publicKey)
+                    .get(signatureAlgorithm);
+            try (final OutputStream out = verifier.getOutputStream()) {
+                out.write(encoded, tbsStart, tbsEnd - tbsStart);
+            }
+            if (!verifier.verify(signature)) {
+                throw new CRLException("CRL signature is not valid.");
+            }
+        } catch (OperatorCreationException | IOException e) {
+            throw new CRLException("Could not verify CRL signature: " + e.getMessage(), e);
+        }
+    }
+
+    /** @return true if the CRL has any revoked certificates */
+    public boolean hasEntries() {
+        return entriesStart != entriesEnd;
+    }
+
+    /** @return the number of revoked certificates, counted without decoding them */
+    public int getEntryCount() throws CRLException {
+        int count = 0;
+        for (int position = entriesStart; position < entriesEnd; position = readTlv(position, entriesEnd, TAG_SEQUENCE)[2]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Iterates over the revoked certificates in the order of the CRL. The entries are decoded while iterating, and a malformed
+     * entry causes an IllegalStateException with the CRLException as cause.
+     *
+     * @return an iterator over the revoked certificates of the CRL
+     */
+    public Iterator<Entry> iterator() {
+        final MessageDigest messageDigest = getMessageDigest();
+        return new Iterator<Entry>() {
+            private int position = entriesStart;
+            private X500Name certificateIssuer = null;
+
+            @Override
+            public boolean hasNext() {
+                return position < entriesEnd;
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    final int[] entry = readTlv(position, entriesEnd, TAG_SEQUENCE);
+                    // CRLEntry ::= SEQUENCE { userCertificate INTEGER, revocationDate Time, crlEntryExtensions OPTIONAL }
+                    final int[] serial = readTlv(entry[1], entry[2], TAG_INTEGER);
+                    final BigInteger serialNumber = new BigInteger(Arrays.copyOfRange(encoded, serial[1], serial[2]));
+                    final int[] time = readTlv(serial[2], entry[2], -1);
+                    final Date revocationDate = readTime(serial[2], time);
+                    int reasonCode = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+                    if (time[2] < entry[2]) {
+                        final Extensions entryExtensions = Extensions.getInstance(decode(time[2], readTlv(time[2], entry[2], TAG_SEQUENCE)[2]));
+                        final Extension reason = entryExtensions.getExtension(Extension.reasonCode);
+                        if (reason != null) {
+                            reasonCode = CRLReason.getInstance(reason.getParsedValue()).getValue().intValue();
+                        }
+                        final Extension issuerExtension = entryExtensions.getExtension(Extension.certificateIssuer);
+                        if (issuerExtension != null && indirect) {
+                            certificateIssuer = null;
+                            for (final GeneralName name : GeneralNames.getInstance(issuerExtension.getParsedValue()).getNames()) {
+                                if (name.getTagNo() == GeneralName.directoryName) {
+                                    certificateIssuer = X500Name.getInstance(name.getName());
+                                }
+                            }
+                        }
+                    }
+                    messageDigest.update(encoded, position, entry[2] - position);
+                    final byte[] digest = messageDigest.digest();
+                    position = entry[2];
+                    return new Entry(serialNumber, revocationDate, reasonCode, certificateIssuer, toLong(digest, 0), toLong(digest, 8));
+                } catch (CRLException | IOException | IllegalArgumentException e) {
+                    throw new IllegalStateException("Could not parse CRL entry at position " + position + ".", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the digests of all entries, sorted so that {@link #containsDigest(long[], long, long)} can be used to find out if
+     * an entry of another CRL is also in this one. This uses 16 bytes per entry.
+     *
+     * @return the first and second 64 bits of the digest of each entry, interleaved and sorted
+     */
+    public long[] getSortedEntryDigests() throws CRLException {
+        final long[] digests = new long[2 * getEntryCount()];
+        int i = 0;
+        try {
+            for (final Iterator<Entry> iterator = iterator(); iterator.hasNext();) {
+                final Entry entry = iterator.next();
+                digests[i++] = entry.getDigestHigh();
+                digests[i++] = entry.getDigestLow();
+            }
+        } catch (IllegalStateException e) {
+            throw (CRLException) e.getCause();
+        }
+        sortPairs(digests);
+        return digests;
+    }
+
+    /**
+     * @param sortedDigests the result of {@link #getSortedEntryDigests()}
+     * @return true if the digest is one of the sorted digests
+     */
+    public static boolean containsDigest(final long[] sortedDigests, final long digestHigh, final long digestLow) {
+        int low = 0;
+        int high = sortedDigests.length / 2 - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int cmp = comparePair(sortedDigests, middle, digestHigh, digestLow);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Heap sort of the pairs of longs in the array, which does not need any memory besides the array */
+    private static void sortPairs(final long[] pairs) {
+        final int n = pairs.length / 2;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(pairs, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swapPairs(pairs, 0, end);
+            siftDown(pairs, 0, end);
+        }
+    }
+
+    private static void siftDown(final long[] pairs, int root, final int n) {
+        while (2 * root + 1 < n) {
+            int child = 2 * root + 1;
+            if (child + 1 < n && comparePair(pairs, child, pairs[2 * (child + 1)], pairs[2 * (child + 1) + 1]) < 0) {
+                child++;
+            }
+            if (comparePair(pairs, root, pairs[2 * child], pairs[2 * child + 1]) >= 0) {
+                return;
+            }
+            swapPairs(pairs, root, child);
+            root = child;
+        }
+    }
+
+    private static int comparePair(final long[] pairs, final int index, final long high, final long low) {
+        final int cmp = Long.compare(pairs[2 * index], high);
+        return cmp != 0 ? cmp : Long.compare(pairs[2 * index + 1], low);
+    }
+
+    private static void swapPairs(final long[] pairs, final int a, final int b) {
+        final long high = pairs[2 * a];
+        final long low = pairs[2 * a + 1];
+        pairs[2 * a] = pairs[2 * b];
+        pairs[2 * a + 1] = pairs[2 * b + 1];
+        pairs[2 * b] = high;
+        pairs[2 * b + 1] = low;
+    }
+
+    private static long toLong(final byte[] bytes, final int offset) {
+        long ret = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            ret = (ret << 8) | (bytes[i] & 0xff);
+        }
+        return ret;
+    }
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private Date readTime(final int position, final int[] field) throws CRLException, IOException {
+        if (field[0] != TAG_UTC_TIME && field[0] != TAG_GENERALIZED_TIME) {
+            throw new CRLException("Expected a time at position " + position + ".");
+        }
+        return Time.getInstance(decode(position, field[2])).getDate();
+    }
+
+    private ASN1Primitive decode(final int start, final int end) throws IOException {
+        return ASN1Primitive.fromByteArray(Arrays.copyOfRange(encoded, start, end));
+    }
+
+    /**
+     * Reads the tag and length of a DER encoded value.
+     *
+     * @param position the position of the tag
+     * @param limit the end of the enclosing value
+     * @param expectedTag the tag that the value must have, or -1 for any tag
+     * @return the tag, the position of the contents and the end of the value
+     * @throws CRLException if the encoding is not DER, or the value does not fit in the enclosing value
+     */
+    private int[] readTlv(final int position, final int limit, final int expectedTag) throws CRLException {
+        if (position + 2 > limit) {
+            throw new CRLException("Truncated CRL at position " + position + ".");
+        }
+        final int tag = encoded[position] & 0xff;
+        if (expectedTag != -1 && tag != expectedTag) {
+            throw new CRLException("Unexpected tag " + tag + " at position " + position + " of the CRL.");
+        }
+        int length = encoded[position + 1] & 0xff;
+        int contents = position + 2;
+        if (length == 0x80) {
+            throw new CRLException("Indefinite length encoding is not allowed in a CRL.");
+        }
+        if (length > 0x7f) {
+            final int lengthBytes = length & 0x7f;
+            if (lengthBytes > 4 || contents + lengthBytes > limit) {
+                throw new CRLException("Invalid length at position " + position + " of the CRL.");
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (encoded[contents++] & 0xff);
+            }
+        }
+        if (length < 0 || length > limit - contents) {
+            throw new CRLException("Truncated CRL at position " + position + ".");
+        }
+        return new int[] { tag, contents, contents + length };
+    }
+}
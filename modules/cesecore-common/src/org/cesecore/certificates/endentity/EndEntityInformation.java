@@ -15,6 +15,7 @@ package org.cesecore.certificates.endentity;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -71,6 +72,8 @@ public class EndEntityInformation implements Serializable {
     private int tokentype;
     /** ExtendedInformation holding extra data of the End entity */
     private ExtendedInformation extendedinformation;
+    /** ExtendedInformation as stored in the database, until it is decoded by {@link #getExtendedInformation()} */
+    private transient String extendedInformationData;
 
     /** Creates new empty EndEntityInformation */
     public EndEntityInformation() {
@@ -97,7 +100,11 @@ public class EndEntityInformation implements Serializable {
         this.timecreated = endEntityInformation.getTimeCreated();
         this.timemodified = endEntityInformation.getTimeModified();
         this.tokentype = endEntityInformation.getTokenType();
-        this.extendedinformation = (endEntityInformation.getExtendedInformation() != null ? new ExtendedInformation(endEntityInformation.getExtendedInformation()) : null);
+        if (endEntityInformation.extendedInformationData != null) {
+            this.extendedInformationData = endEntityInformation.extendedInformationData;
+        } else {
+            this.extendedinformation = (endEntityInformation.getExtendedInformation() != null ? new ExtendedInformation(endEntityInformation.getExtendedInformation()) : null);
+        }
     }
 
     /**
@@ -299,6 +306,10 @@ public class EndEntityInformation implements Serializable {
 	 * @return Returns the extendedinformation or null if no extended information exists.
 	 */
 	public ExtendedInformation getExtendedInformation() {
+	    if (extendedInformationData != null) {
+	        extendedinformation = getExtendedInformationFromStringData(extendedInformationData);
+	        extendedInformationData = null;
+	    }
 		return extendedinformation;
 	}
 	/**
@@ -306,8 +317,21 @@ public class EndEntityInformation implements Serializable {
 	 */
 	public void setExtendedInformation(ExtendedInformation extendedinformation) {
 		this.extendedinformation = extendedinformation;
+		this.extendedInformationData = null;
 	}
 
+    /**
+     * Sets the extended information as stored in the database, which is decoded by {@link #getExtendedInformation()} when first used.
+     * Used when listing end entities, where most callers never use the extended information, to avoid decoding the XML of every row.
+     *
+     * @param extendedInformationData the extended information as returned by {@link #extendedInformationToStringData(ExtendedInformation)},
+     * or null
+     */
+    public void setExtendedInformationStringData(final String extendedInformationData) {
+        this.extendedinformation = null;
+        this.extendedInformationData = extendedInformationData == null || extendedInformationData.isEmpty() ? null : extendedInformationData;
+    }
+
     /**
      * Help Method used to create an ExtendedInformation from String representation.
      * Used when creating an ExtendedInformation from queries.
@@ -376,6 +400,7 @@ public class EndEntityInformation implements Serializable {
         details.put("cardnumber", cardNumber);
         details.put("certificateprofileid", Integer.toString(certificateprofileid));
         details.put("endentityprofileid", Integer.toString(endentityprofileid));
+        final ExtendedInformation extendedinformation = getExtendedInformation();
         if (extendedinformation != null) {
             StringBuilder extendedInformationDump = new StringBuilder("{");
             LinkedHashMap<Object, Object> rawData = extendedinformation.getRawData();
@@ -433,4 +458,10 @@ public class EndEntityInformation implements Serializable {
         }
         return changedValues;
     }
+
+    /** Decodes the extended information before serialization, so that the serialized form is the same as before. */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        getExtendedInformation();
+        out.defaultWriteObject();
+    }
 }
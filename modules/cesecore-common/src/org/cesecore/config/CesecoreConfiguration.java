@@ -97,6 +97,13 @@ public final class CesecoreConfiguration {
         return ConfigurationHolder.getString("ca.rngalgorithm");
     }
 
+    /**
+     * The number of pre-generated serial numbers, already verified to be unused, kept for each CA. 0 disables the pool.
+     */
+    public static int getSerialNumberPoolSize() {
+        return (int) getLongValue("ca.serialnumberpoolsize", 100L, "serial numbers");
+    }
+
     /**
      * The date and time from which an expire date of a certificate is to be considered to be too far in the future.
      */
@@ -228,6 +235,22 @@ public final class CesecoreConfiguration {
         return getLongValue("authorization.cachetime", 30000L, "milliseconds to cache authorization");
     }
 
+    /**
+     * Parameter to specify for how long a successful client certificate authentication (in WS, REST and the Admin Web) is trusted
+     * without checking the certificate status in the database again. 0 or less disables the cache.
+     */
+    public static long getCacheAuthenticationTime() {
+        return getLongValue("authentication.cachetime", 5000L, "milliseconds to cache client certificate authentication");
+    }
+
+    /**
+     * Parameter to specify for how long a CMP RA certificate (extraCert) that has been verified and authorized should be trusted
+     * without checking it against the database again. 0 or less disables the cache.
+     */
+    public static long getCacheCmpVerifiedSignerTime() {
+        return getLongValue("cmpsigner.cachetime", 5000L, "milliseconds to cache verified CMP RA certificates");
+    }
+
     /**
      * Parameter to specify if retrieving GlobalConfiguration (in GlobalConfigurationSessionBean) should be cached, and in that case for how long.
      */
@@ -364,6 +387,28 @@ public final class CesecoreConfiguration {
         return value!=null && Boolean.parseBoolean(value.trim());
     }
 
+    /**
+     * @return true if the SearchTokenData table should be maintained and used for resolving substring searches of certificates and end entities.
+     */
+    public static boolean useSearchTokenIndex() {
+        final String value = ConfigurationHolder.getString("database.useSearchTokenIndex");
+        return value!=null && Boolean.parseBoolean(value.trim());
+    }
+
+    /** @return the maximum number of candidate rows from the search token index, above which a search falls back to a regular query. */
+    public static int getSearchTokenIndexMaxCandidates() {
+        return (int) getLongValue("database.searchTokenIndex.maxCandidates", 1000L, "rows");
+    }
+
+    /**
+     * @return true if changes of revocation status should be logged in the RevocationEventData table, and delta CRLs created from
+     * the logged changes instead of from CertificateData.
+     */
+    public static boolean useRevocationEventLog() {
+        final String value = ConfigurationHolder.getString("database.useRevocationEventLog");
+        return value!=null && Boolean.parseBoolean(value.trim());
+    }
+
     /** If database integrity protection should be used or not. */
     public static boolean useDatabaseIntegrityProtection(final String tableName) {
         // First check if we have explicit configuration for this entity
@@ -386,6 +431,41 @@ public final class CesecoreConfiguration {
         return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("databaseprotection.enableverify"));
     }
 
+    /** @return the fraction (0.0 to 1.0) of rows read from the table that should have their integrity protection verified. */
+    public static double getDatabaseIntegrityVerificationSampleRate(final String tableName) {
+        String value = ConfigurationHolder.getString("databaseprotection.verifysamplerate." + tableName);
+        if (value == null) {
+            value = ConfigurationHolder.getString("databaseprotection.verifysamplerate");
+        }
+        if (value != null) {
+            try {
+                return Math.max(0.0, Math.min(1.0, Double.parseDouble(value.trim())));
+            } catch (NumberFormatException e) {
+                log.error("Invalid value for databaseprotection.verifysamplerate. Using default 1.0. Value must be a decimal number between 0.0 and 1.0: " + e.getMessage());
+            }
+        }
+        return 1.0;
+    }
+
+    /** @return true if reading a row that fails integrity verification should fail, and not only be logged. */
+    public static boolean isDatabaseIntegrityErrorOnVerifyFail() {
+        return !Boolean.FALSE.toString().equalsIgnoreCase(ConfigurationHolder.getString("databaseprotection.erroronverifyfail"));
+    }
+
+    /** @return the id of the key used to protect new or updated rows, or null if no database protection key is configured. */
+    public static Integer getDatabaseProtectionKeyId() {
+        final String value = ConfigurationHolder.getString("databaseprotection.keyid");
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid value for databaseprotection.keyid. Value must be an integer: " + e.getMessage());
+            return null;
+        }
+    }
+
     public static boolean getCaKeepOcspExtendedService() {
         return Boolean.valueOf(ConfigurationHolder.getString("ca.keepocspextendedservice").toLowerCase());
     }
@@ -395,6 +475,11 @@ public final class CesecoreConfiguration {
         return (int) getLongValue("database.crlgenfetchsize", 500000L, "rows");
     }
 
+    /** @return the number of CRL partitions signed at the same time, 0 to use the number of processors, or 1 to create the CRL of each partition on its own. */
+    public static int getCrlGenerationThreads() {
+        return (int) getLongValue("crlgeneration.threads", 0L, "threads");
+    }
+
     /**
      * Used just in {@link #getForbiddenCharacters()}. The method is called very
      * often so we declare this String in the class so it does not have to be
@@ -424,11 +509,26 @@ public final class CesecoreConfiguration {
         return value==null || Boolean.parseBoolean(value.trim());
     }
 
+    /** @return the number of idle signatures kept for each PKCS#11 slot, 0 if signatures should not be pooled. */
+    public static int getP11SignaturePoolSize() {
+        return (int) getLongValue("pkcs11.signaturepoolsize", 64L, "signatures");
+    }
+
+    /** @return the maximum number of signatures made at the same time with each PKCS#11 slot, 0 for no limit. */
+    public static int getP11MaxSignSessions() {
+        return (int) getLongValue("pkcs11.maxsignsessions", 0L, "sessions");
+    }
+
     /** @return true key store content of Crypto Tokens should be cached. */
     public static boolean isKeyStoreCacheEnabled() {
         return Boolean.parseBoolean(ConfigurationHolder.getString("cryptotoken.keystorecache"));
     }
 
+    /** @return true if the decrypted keys of soft Crypto Tokens should be cached, so that they are not decrypted again when the token is reloaded. */
+    public static boolean isSoftCryptoTokenKeyCacheEnabled() {
+        return Boolean.parseBoolean(ConfigurationHolder.getString("cryptotoken.softkeycache"));
+    }
+
     /** @return a list of enabled TLS protocol versions and cipher suites */
     /*
      * Java 6: http://docs.oracle.com/javase/6/docs/technotes/guides/security/SunProviders.html#SunJSSEProvider
@@ -121,7 +121,12 @@ public class SoftCryptoToken extends BaseCryptoToken {
         }
         if (keystoreData != null) {
             try {
-                KeyStore keystore = loadKeyStore(keystoreData, authCode);
+                // Decrypting the keystore is slow by design, so reuse the keys if the same keystore has been decrypted before
+                KeyStore keystore = SoftCryptoTokenKeyCache.INSTANCE.getKeyStore(getId(), keystoreData, authCode);
+                if (keystore == null) {
+                    keystore = loadKeyStore(keystoreData, authCode);
+                    SoftCryptoTokenKeyCache.INSTANCE.put(getId(), keystoreData, authCode, keystore);
+                }
                 setKeyStore(keystore);
                 // If everything was OK we cache the load/save password so we can store the keystore
                 keyStorePass = authCode;
@@ -228,6 +233,7 @@ public class SoftCryptoToken extends BaseCryptoToken {
         	// Exception should only be thrown if loading a non-null KeyStore fails
             throw new IllegalStateException("This should never happen.");
         }
+        SoftCryptoTokenKeyCache.INSTANCE.remove(getId());
         String msg = intres.getLocalizedMessage("token.deactivate", getId());
         log.info(msg);
     }
@@ -239,6 +245,7 @@ public class SoftCryptoToken extends BaseCryptoToken {
             if (keyStore != null) {
                 this.keyStore.store(baos, keyStorePass);
                 this.keystoreData = baos.toByteArray();
+                SoftCryptoTokenKeyCache.INSTANCE.put(getId(), keystoreData, keyStorePass, keyStore.getKeyStore());
             }
         } catch (KeyStoreException e) {
             log.error(e);
@@ -269,7 +276,7 @@ public class SoftCryptoToken extends BaseCryptoToken {
      */
     private boolean checkSoftKeystorePassword(final char[] authenticationCode, int cryptoTokenId) {
         try {
-            if (keystoreData != null) {
+            if (keystoreData != null && !SoftCryptoTokenKeyCache.INSTANCE.isPasswordCorrect(cryptoTokenId, keystoreData, authenticationCode)) {
                 KeyStore keystore = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
                 keystore.load(new java.io.ByteArrayInputStream(keystoreData), authenticationCode);
             }
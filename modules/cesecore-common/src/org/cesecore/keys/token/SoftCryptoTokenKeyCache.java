@@ -0,0 +1,227 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Cache of the decrypted keys of soft crypto tokens, so that a new instance of a token can be activated without decrypting
+ * the PKCS#12 keystore again, which is slow by design since the password based key derivation uses many iterations.
+ * <p>
+ * There is one entry per crypto token, which is only used if the keystore data has the same SHA-256 digest as when the
+ * entry was added, and the same password is used. The password is not kept, only a salted hash of it. Each activation gets
+ * its own keystore, built from the cached entries, so changes to it do not affect other instances.
+ * <p>
+ * The entry of a crypto token is removed when it is deactivated, and the salt and password hash are overwritten. Private key
+ * objects are shared with active instances of the same crypto token, so they are only released, not destroyed.
+ *
+ * @version $Id$
+ */
+public enum SoftCryptoTokenKeyCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(SoftCryptoTokenKeyCache.class);
+
+    private static final class CacheEntry {
+        private final byte[] keystoreDigest;
+        private final byte[] salt;
+        private final byte[] passwordHash;
+        private final Map<String, Key> keys;
+        private final Map<String, Certificate[]> certificateChains;
+        private final Map<String, Certificate> certificates;
+
+        private CacheEntry(final byte[] keystoreDigest, final byte[] salt, final byte[] passwordHash, final Map<String, Key> keys,
+                final Map<String, Certificate[]> certificateChains, final Map<String, Certificate> certificates) {
+            this.keystoreDigest = keystoreDigest;
+            this.salt = salt;
+            this.passwordHash = passwordHash;
+            this.keys = keys;
+            this.certificateChains = certificateChains;
+            this.certificates = certificates;
+        }
+
+        private boolean matches(final byte[] keystoreDigest, final char[] password) {
+            return MessageDigest.isEqual(this.keystoreDigest, keystoreDigest) && MessageDigest.isEqual(passwordHash, hashPassword(salt, password));
+        }
+
+        private void clear() {
+            Arrays.fill(salt, (byte) 0);
+            Arrays.fill(passwordHash, (byte) 0);
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Integer, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a new keystore with the cached keys of a crypto token.
+     *
+     * @param cryptoTokenId the id of the crypto token
+     * @param keystoreData the encoded PKCS#12 keystore of the crypto token
+     * @param password the password of the keystore
+     * @return a keystore with the same entries as the encoded keystore, or null if the keystore or password is not cached
+     */
+    public KeyStore getKeyStore(final int cryptoTokenId, final byte[] keystoreData, final char[] password) {
+        if (!CesecoreConfiguration.isSoftCryptoTokenKeyCacheEnabled() || keystoreData == null || password == null) {
+            return null;
+        }
+        final CacheEntry entry = cache.get(cryptoTokenId);
+        if (entry == null || !entry.matches(digest(keystoreData), password)) {
+            return null;
+        }
+        try {
+            final KeyStore keyStore = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
+            keyStore.load(null, null);
+            for (final Map.Entry<String, Key> key : entry.keys.entrySet()) {
+                keyStore.setKeyEntry(key.getKey(), key.getValue(), password, entry.certificateChains.get(key.getKey()));
+            }
+            for (final Map.Entry<String, Certificate> certificate : entry.certificates.entrySet()) {
+                keyStore.setCertificateEntry(certificate.getKey(), certificate.getValue());
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Using " + entry.keys.size() + " cached keys for soft crypto token " + cryptoTokenId + ".");
+            }
+            return keyStore;
+        } catch (Exception e) {
+            // The keystore will be decoded instead
+            log.debug("Failed to create keystore from cached keys of soft crypto token " + cryptoTokenId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param cryptoTokenId the id of the crypto token
+     * @param keystoreData the encoded PKCS#12 keystore of the crypto token
+     * @param password the password to check
+     * @return true if the keystore and password are cached, false if it is unknown whether the password is correct
+     */
+    public boolean isPasswordCorrect(final int cryptoTokenId, final byte[] keystoreData, final char[] password) {
+        if (!CesecoreConfiguration.isSoftCryptoTokenKeyCacheEnabled() || keystoreData == null || password == null) {
+            return false;
+        }
+        final CacheEntry entry = cache.get(cryptoTokenId);
+        return entry != null && entry.matches(digest(keystoreData), password);
+    }
+
+    /**
+     * Caches the keys of a crypto token, replacing any keys cached for a previous version of its keystore.
+     *
+     * @param cryptoTokenId the id of the crypto token
+     * @param keystoreData the encoded PKCS#12 keystore of the crypto token
+     * @param password the password the keystore was successfully loaded or stored with
+     * @param keyStore the keystore with the decrypted keys
+     */
+    public void put(final int cryptoTokenId, final byte[] keystoreData, final char[] password, final KeyStore keyStore) {
+        if (!CesecoreConfiguration.isSoftCryptoTokenKeyCacheEnabled() || keystoreData == null || password == null || keyStore == null) {
+            return;
+        }
+        final byte[] keystoreDigest = digest(keystoreData);
+        final CacheEntry previous = cache.get(cryptoTokenId);
+        if (previous != null && previous.matches(keystoreDigest, password)) {
+            return;
+        }
+        final Map<String, Key> keys = new HashMap<>();
+        final Map<String, Certificate[]> certificateChains = new HashMap<>();
+        final Map<String, Certificate> certificates = new HashMap<>();
+        try {
+            for (final Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements();) {
+                final String alias = aliases.nextElement();
+                if (keyStore.isKeyEntry(alias)) {
+                    keys.put(alias, keyStore.getKey(alias, password));
+                    certificateChains.put(alias, keyStore.getCertificateChain(alias));
+                } else if (keyStore.isCertificateEntry(alias)) {
+                    certificates.put(alias, keyStore.getCertificate(alias));
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to read keys of soft crypto token " + cryptoTokenId + ", they will not be cached: " + e.getMessage());
+            remove(cryptoTokenId);
+            return;
+        }
+        final byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        final CacheEntry replaced = cache.put(cryptoTokenId, new CacheEntry(keystoreDigest, salt, hashPassword(salt, password), keys, certificateChains,
+                certificates));
+        if (replaced != null) {
+            replaced.clear();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Cached " + keys.size() + " keys of soft crypto token " + cryptoTokenId + ".");
+        }
+    }
+
+    /**
+     * Removes the cached keys of a crypto token, and overwrites the password hash.
+     *
+     * @param cryptoTokenId the id of the crypto token
+     */
+    public void remove(final int cryptoTokenId) {
+        final CacheEntry entry = cache.remove(cryptoTokenId);
+        if (entry != null) {
+            entry.clear();
+            if (log.isDebugEnabled()) {
+                log.debug("Removed cached keys of soft crypto token " + cryptoTokenId + ".");
+            }
+        }
+    }
+
+    /** Removes the cached keys of all crypto tokens. */
+    public void clear() {
+        for (final Integer cryptoTokenId : cache.keySet()) {
+            remove(cryptoTokenId);
+        }
+    }
+
+    private static byte[] digest(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static byte[] hashPassword(final byte[] salt, final char[] password) {
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        final byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        try {
+            final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(salt);
+            return messageDigest.digest(passwordBytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+    }
+}
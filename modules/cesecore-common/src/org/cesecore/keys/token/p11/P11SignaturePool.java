@@ -0,0 +1,299 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token.p11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.ProviderException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.BufferingContentSigner;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.util.metrics.LatencyMetrics;
+
+/**
+ * A bounded pool of initialized {@link Signature} objects for the keys of a PKCS#11 slot.
+ * <p>
+ * Creating a Signature for a provider looks up the provider service, which is synchronized on the provider, and all
+ * signing threads of a slot share the provider. Signatures are therefore created once and reused. The PKCS#11 provider
+ * only holds a session of the token while a signature is made, and the number of signatures made at the same time on
+ * the slot is limited by pkcs11.maxsignsessions, so that the token does not run out of sessions under load.
+ * <p>
+ * A Signature that fails is not returned to the pool. The idle Signatures of the slot are then also dropped, since the
+ * failure is usually caused by the token, for example by a restarted HSM, and the same would happen with them.
+ *
+ * @version $Id$
+ */
+public class P11SignaturePool {
+
+    private static final Logger log = Logger.getLogger(P11SignaturePool.class);
+
+    private static final ConcurrentHashMap<String, P11SignaturePool> pools = new ConcurrentHashMap<>();
+
+    private static final DefaultSignatureAlgorithmIdentifierFinder algorithmIdentifierFinder = new DefaultSignatureAlgorithmIdentifierFinder();
+
+    /** Time to wait for a free session when pkcs11.maxsignsessions signatures are being made */
+    private static final long SESSION_WAIT_SECONDS = 30;
+
+    /** An idle Signature and the key it is initialized with */
+    private static class PooledSignature {
+        private final Signature signature;
+        private PrivateKey key;
+
+        private PooledSignature(final Signature signature) {
+            this.signature = signature;
+        }
+    }
+
+    private final Provider provider;
+    private final int maxIdle;
+    private final Semaphore sessions;
+    /** Idle Signatures per algorithm */
+    private final ConcurrentHashMap<String, ConcurrentLinkedDeque<PooledSignature>> idle = new ConcurrentHashMap<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    /** If the provider can make signatures with an algorithm. Cached, since looking up the provider service is synchronized. */
+    private final ConcurrentHashMap<String, Boolean> supportedAlgorithms = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the pool for a provider, with the sizes configured by pkcs11.signaturepoolsize and pkcs11.maxsignsessions.
+     *
+     * @param provider the PKCS#11 provider of a slot
+     * @return the pool, created if it does not exist
+     */
+    public static P11SignaturePool getInstance(final Provider provider) {
+        return pools.computeIfAbsent(provider.getName(),
+                name -> new P11SignaturePool(provider, CesecoreConfiguration.getP11SignaturePoolSize(), CesecoreConfiguration.getP11MaxSignSessions()));
+    }
+
+    /**
+     * Creates a content signer that signs with the pool of a PKCS#11 slot, if the provider belongs to a slot and supports
+     * the algorithm, and otherwise the same content signer as before the pool was introduced. The duration of the signature
+     * is recorded in the latency metrics.
+     *
+     * @param algorithm signature algorithm
+     * @param providerName name of the provider of the key
+     * @param key the private key
+     * @param bufferSize initial size of the buffer for the data to sign
+     * @return a content signer that can be used once
+     * @throws OperatorCreationException if the content signer can not be created
+     */
+    public static ContentSigner buildContentSigner(final String algorithm, final String providerName, final PrivateKey key, final int bufferSize)
+            throws OperatorCreationException {
+        final P11SignaturePool pool = providerName == null ? null : pools.get(providerName);
+        if (pool != null && pool.maxIdle > 0 && pool.isSupported(algorithm)) {
+            return timed(algorithm, pool.getContentSigner(algorithm, key, bufferSize));
+        }
+        return timed(algorithm, new BufferingContentSigner(new JcaContentSignerBuilder(algorithm).setProvider(providerName).build(key), bufferSize));
+    }
+
+    /** @return a content signer that records the time it takes to make the signature in the latency metrics of the algorithm */
+    private static ContentSigner timed(final String algorithm, final ContentSigner contentSigner) {
+        return new TimedContentSigner(algorithm, contentSigner);
+    }
+
+    /** Content signer that records the time it takes to make the signature in the latency metrics of the algorithm */
+    static final class TimedContentSigner implements ContentSigner {
+        private final String algorithm;
+        private final ContentSigner delegate;
+
+        private TimedContentSigner(final String algorithm, final ContentSigner delegate) {
+            this.algorithm = algorithm;
+            this.delegate = delegate;
+        }
+
+        /** @return the content signer that makes the signature */
+        ContentSigner getDelegate() {
+            return delegate;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return delegate.getAlgorithmIdentifier();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return delegate.getOutputStream();
+        }
+
+        @Override
+        public byte[] getSignature() {
+            final long startTime = System.nanoTime();
+            try {
+                return delegate.getSignature();
+            } finally {
+                LatencyMetrics.INSTANCE.record(LatencyMetrics.Type.SIGN, algorithm, System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    /**
+     * @param provider the provider that makes the signatures
+     * @param maxIdle the maximum number of idle Signatures kept
+     * @param maxSessions the maximum number of signatures made at the same time, or 0 for no limit
+     */
+    P11SignaturePool(final Provider provider, final int maxIdle, final int maxSessions) {
+        this.provider = provider;
+        this.maxIdle = maxIdle;
+        this.sessions = maxSessions > 0 ? new Semaphore(maxSessions, true) : null;
+    }
+
+    /**
+     * @param algorithm signature algorithm
+     * @param key the private key
+     * @param bufferSize initial size of the buffer for the data to sign
+     * @return a content signer that signs with a Signature from this pool, and can be used once
+     * @throws OperatorCreationException if the algorithm is unknown
+     */
+    ContentSigner getContentSigner(final String algorithm, final PrivateKey key, final int bufferSize) throws OperatorCreationException {
+        final AlgorithmIdentifier algorithmIdentifier;
+        try {
+            algorithmIdentifier = algorithmIdentifierFinder.find(algorithm);
+        } catch (IllegalArgumentException e) {
+            throw new OperatorCreationException("Unknown signature algorithm " + algorithm + ".", e);
+        }
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(bufferSize);
+        return new ContentSigner() {
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return algorithmIdentifier;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return data;
+            }
+
+            @Override
+            public byte[] getSignature() {
+                try {
+                    return sign(algorithm, key, data.toByteArray());
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeOperatorException("Exception signing with " + provider.getName() + ": " + e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Signs data with a Signature from the pool.
+     *
+     * @param algorithm signature algorithm
+     * @param key the private key
+     * @param data the data to sign
+     * @return the signature
+     * @throws GeneralSecurityException if signing fails, or no session is available
+     */
+    byte[] sign(final String algorithm, final PrivateKey key, final byte[] data) throws GeneralSecurityException {
+        acquireSession();
+        try {
+            final PooledSignature pooledSignature = borrow(algorithm, key);
+            final byte[] signature;
+            try {
+                pooledSignature.signature.update(data);
+                signature = pooledSignature.signature.sign();
+            } catch (SignatureException | ProviderException e) {
+                log.info("Signing with " + provider.getName() + " failed, dropping " + idleCount.get() + " idle signatures: " + e.getMessage());
+                clear();
+                throw e;
+            }
+            giveBack(algorithm, pooledSignature);
+            return signature;
+        } finally {
+            if (sessions != null) {
+                sessions.release();
+            }
+        }
+    }
+
+    /** Drops all idle Signatures, for example when the slot is reset or logged out */
+    public void clear() {
+        for (final ConcurrentLinkedDeque<PooledSignature> deque : idle.values()) {
+            while (deque.pollFirst() != null) {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+
+    /** @return the number of idle Signatures in the pool */
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private boolean isSupported(final String algorithm) {
+        return supportedAlgorithms.computeIfAbsent(algorithm, name -> {
+            // The content signer of the pool does not set signature parameters, which RSASSA-PSS needs
+            if (name.toUpperCase().contains("MGF1") || name.toUpperCase().contains("PSS")) {
+                return Boolean.FALSE;
+            }
+            return Boolean.valueOf(provider.getService("Signature", name) != null);
+        });
+    }
+
+    private void acquireSession() throws SignatureException {
+        if (sessions == null) {
+            return;
+        }
+        try {
+            if (!sessions.tryAcquire(SESSION_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SignatureException("No PKCS#11 session available for signing with " + provider.getName() + " within " + SESSION_WAIT_SECONDS
+                        + " seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted while waiting for a PKCS#11 session.", e);
+        }
+    }
+
+    private PooledSignature borrow(final String algorithm, final PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+        final ConcurrentLinkedDeque<PooledSignature> deque = idle.get(algorithm);
+        PooledSignature pooledSignature = deque == null ? null : deque.pollFirst();
+        if (pooledSignature == null) {
+            pooledSignature = new PooledSignature(Signature.getInstance(algorithm, provider));
+        } else {
+            idleCount.decrementAndGet();
+        }
+        // A Signature is reset to its initialized state after signing, so it only has to be initialized for a new key
+        if (pooledSignature.key != key) {
+            pooledSignature.signature.initSign(key);
+            pooledSignature.key = key;
+        }
+        return pooledSignature;
+    }
+
+    private void giveBack(final String algorithm, final PooledSignature pooledSignature) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.computeIfAbsent(algorithm, name -> new ConcurrentLinkedDeque<>()).offerFirst(pooledSignature);
+    }
+}
@@ -16,8 +16,8 @@ import java.io.File;
 import java.security.AuthProvider;
 import java.security.Provider;
 import java.security.Security;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.security.auth.login.LoginException;
 
@@ -30,6 +30,9 @@ import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
  * Each instance of this class represents a slot on a P11 module.
  * Use an instance of this class for all your access of a specific P11 slot.
  * Use {@link P11Slot#getProvider()} to get a provider for the slot.
+ * <p>
+ * Slots are kept in a concurrent map, and each slot is only locked while it is created, so activating or using
+ * a slot does not wait for other slots. Signatures made with keys of a slot can be made with a {@link P11SignaturePool}.
  *
  * @version $Id$
  */
@@ -40,14 +43,16 @@ public class P11Slot {
     /** Used for library key map when a sun configuration file is used to specify a token (slot). In this case only one lib could be used. */
     private static final String ONLY_ONE = "onlyOne";
     
-    private final static Map<String,P11Slot> slotMap = new HashMap<>();
-    private final Map<Integer, P11SlotUser> p11SlotUserMap = new HashMap<>();
+    private final static ConcurrentHashMap<String,P11Slot> slotMap = new ConcurrentHashMap<>();
+    private final static ConcurrentHashMap<String,Object> slotCreationLocks = new ConcurrentHashMap<>();
+    private final Map<Integer, P11SlotUser> p11SlotUserMap = new ConcurrentHashMap<>();
     private final Pkcs11SlotLabelType slotLabelType;
     private final String slotLabel;
     private final String sharedLibrary;
     private final String sunP11ConfigFileName;
     private Provider provider;
     private final String libraryFileName;
+    private final P11SignaturePool signaturePool;
     
     private P11Slot(final Pkcs11SlotLabelType slotLabelType, final String slotLabel, final String sharedLibrary, final String attributesFile,
             boolean addProvider) throws NoSuchSlotException {
@@ -61,6 +66,7 @@ public class P11Slot {
             throw new NoSuchSlotException("Slot labeled " + slotLabel + " could not be located.");
         }
         addProviderIfNotExisting(addProvider);
+        this.signaturePool = P11SignaturePool.getInstance(provider);
     }
 
     private P11Slot(final String sunP11ConfigFileName, boolean addProvider) throws NoSuchSlotException {
@@ -74,6 +80,7 @@ public class P11Slot {
             throw new NoSuchSlotException("Slot configured in " + sunP11ConfigFileName + " could not be located.");
         }
         addProviderIfNotExisting(addProvider);
+        this.signaturePool = P11SignaturePool.getInstance(provider);
     }
 
     /** Add a PKCS11 Crypto Provider to Java Security.addProvider, if it is not already added, and add==true.
@@ -118,33 +125,31 @@ public class P11Slot {
 
     /** Reset the HSM. Could be done if it has stopped working in a try to get it working again. */
     public void reset() {
-        synchronized (slotMap) {
-            for (final P11Slot slot : slotMap.values()) {
-                if (slot.libraryFileName.equals(libraryFileName)) {
-                    for (final P11SlotUser p11SlotUser : slot.p11SlotUserMap.values()) {
-                        try {
-                            p11SlotUser.deactivate();
-                        } catch (Exception e) {
-                            log.error("Not possible to deactivate token.", e);
-                        }
-                    }
-                    if (Pkcs11SlotLabelType.SUN_FILE.equals(slotLabelType)) {
-                        break;
+        for (final P11Slot slot : slotMap.values()) {
+            if (slot.libraryFileName.equals(libraryFileName)) {
+                for (final P11SlotUser p11SlotUser : slot.p11SlotUserMap.values()) {
+                    try {
+                        p11SlotUser.deactivate();
+                    } catch (Exception e) {
+                        log.error("Not possible to deactivate token.", e);
                     }
                 }
+                slot.signaturePool.clear();
+                if (Pkcs11SlotLabelType.SUN_FILE.equals(slotLabelType)) {
+                    break;
+                }
             }
         }
     }
 
     /** Unload if last active token on slot */
     public void logoutFromSlotIfNoTokensActive() {
-        synchronized (slotMap) {
-            for (final P11SlotUser p11SlotUser : p11SlotUserMap.values()) {
-                if (p11SlotUser.isActive()) {
-                    return;
-                }
+        for (final P11SlotUser p11SlotUser : p11SlotUserMap.values()) {
+            if (p11SlotUser.isActive()) {
+                return;
             }
         }
+        signaturePool.clear();
         if (provider instanceof AuthProvider) {
             try {
                 ((AuthProvider)provider).logout();
@@ -164,6 +169,11 @@ public class P11Slot {
         return provider;
     }
 
+    /** @return the pool of signatures made with keys of the slot. */
+    public P11SignaturePool getSignaturePool() {
+        return signaturePool;
+    }
+
     /**
      * Get P11 slot instance. Only one instance (provider) will ever be created for each slot regardless of how many times this method is called.
      * @param slotLabel the labeling of the slot, regardless of label type. 
@@ -238,19 +248,23 @@ public class P11Slot {
                 }
                 slotMapKey = friendlyName;
             }
-            P11Slot p11Slot;
-            synchronized (slotMap) {
-                p11Slot = slotMap.get(slotMapKey);
-                if (p11Slot==null) {
-                    if (Pkcs11SlotLabelType.SUN_FILE.equals(slotLabelType)) {
-                        p11Slot = new P11Slot(sunP11ConfigFileName, addProvider);
-                    } else {
-                        p11Slot = new P11Slot(slotLabelType, slotLabel, sharedLibrary, attributesFile, addProvider);
+            P11Slot p11Slot = slotMap.get(slotMapKey);
+            if (p11Slot==null) {
+                // Only the creation of this slot is serialized, other slots can be used meanwhile
+                final Object slotLock = slotCreationLocks.computeIfAbsent(slotMapKey, key -> new Object());
+                synchronized (slotLock) {
+                    p11Slot = slotMap.get(slotMapKey);
+                    if (p11Slot==null) {
+                        if (Pkcs11SlotLabelType.SUN_FILE.equals(slotLabelType)) {
+                            p11Slot = new P11Slot(sunP11ConfigFileName, addProvider);
+                        } else {
+                            p11Slot = new P11Slot(slotLabelType, slotLabel, sharedLibrary, attributesFile, addProvider);
+                        }
+                        slotMap.put(slotMapKey, p11Slot);
                     }
-                    slotMap.put(slotMapKey, p11Slot);
                 }
-                p11Slot.p11SlotUserMap.put(id, p11SlotUser);
             }
+            p11Slot.p11SlotUserMap.put(id, p11SlotUser);
             return p11Slot;
         } catch (NoSuchSlotException e) {
             throw e;
@@ -19,6 +19,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,7 +40,7 @@ import org.apache.log4j.Logger;
 public class Pkcs11Wrapper {
     private static final Logger log = Logger.getLogger(Pkcs11Wrapper.class);
 
-    private static volatile Map<String, Pkcs11Wrapper> instances = new HashMap<>();
+    private static final Map<String, Pkcs11Wrapper> instances = new ConcurrentHashMap<>();
     private static final Lock lock = new ReentrantLock();
     private final Method getSlotListMethod;
     private final Method getTokenInfoMethod;
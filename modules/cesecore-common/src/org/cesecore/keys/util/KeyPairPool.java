@@ -0,0 +1,316 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.util;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Pool of key pairs that are generated in the background, for server side key generation (keystores made by the CA and CMP
+ * server generated keys). Generating a large RSA key takes from hundreds of milliseconds to seconds, which then does not have
+ * to be done while a request waits.
+ * <p>
+ * There is one pool per key specification, and only the configured key specifications are pooled. Each key pair is handed out
+ * once, and the pool is refilled to its depth in the background after every key pair that is taken. If the pool of a key
+ * specification is empty, or the pool is not started, the key pair is generated in the request as before.
+ * <p>
+ * The key pairs are only kept in memory. Optionally, the private keys are kept encrypted with a random AES key that is
+ * generated when the pool is started. The encrypted private keys and the AES key are overwritten when the pool is shut down.
+ * Private key objects can not be reliably overwritten in Java, so this is done on a best effort basis when the keys are not
+ * encrypted.
+ *
+ * @version $Id$
+ */
+public enum KeyPairPool {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(KeyPairPool.class);
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+
+    private static final class PooledKeyPair {
+        private final PublicKey publicKey;
+        private final PrivateKey privateKey;
+        private final String privateKeyAlgorithm;
+        private final byte[] encryptedPrivateKey;
+        private final byte[] iv;
+
+        private PooledKeyPair(final PublicKey publicKey, final PrivateKey privateKey, final String privateKeyAlgorithm, final byte[] encryptedPrivateKey,
+                final byte[] iv) {
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+            this.privateKeyAlgorithm = privateKeyAlgorithm;
+            this.encryptedPrivateKey = encryptedPrivateKey;
+            this.iv = iv;
+        }
+
+        private void clear() {
+            if (encryptedPrivateKey != null) {
+                Arrays.fill(encryptedPrivateKey, (byte) 0);
+            } else if (privateKey instanceof Destroyable) {
+                try {
+                    ((Destroyable) privateKey).destroy();
+                } catch (DestroyFailedException e) {
+                    // Most providers do not support this, the key is left to the garbage collector
+                }
+            }
+        }
+    }
+
+    private static final class Pool {
+        private final String keyAlgorithm;
+        private final String keySpec;
+        private final BlockingQueue<PooledKeyPair> keyPairs = new LinkedBlockingQueue<>();
+        /** Number of key pairs that are being generated for the pool */
+        private final AtomicInteger pending = new AtomicInteger();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private Pool(final String keyAlgorithm, final String keySpec) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.keySpec = keySpec;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private volatile Map<String, Pool> pools = Collections.emptyMap();
+    private volatile ExecutorService executor = null;
+    private volatile byte[] encryptionKey = null;
+    private volatile int depth = 0;
+
+    /**
+     * Starts generating key pairs in the background. Replaces the pools of a previous start, if any.
+     *
+     * @param keySpecs the key specifications to pool, each written as key algorithm and key specification separated by '_',
+     *      for example RSA_4096 or ECDSA_secp256r1
+     * @param depth the number of key pairs to keep in each pool
+     * @param threads the number of threads that generate key pairs
+     * @param encrypt true if the private keys should be kept encrypted
+     */
+    public synchronized void start(final Collection<String> keySpecs, final int depth, final int threads, final boolean encrypt) {
+        shutdown();
+        final Map<String, Pool> newPools = new LinkedHashMap<>();
+        for (final String keySpec : keySpecs) {
+            final int separator = keySpec.indexOf('_');
+            if (separator <= 0 || separator == keySpec.length() - 1) {
+                log.warn("Ignoring invalid key specification '" + keySpec + "' for the key pair pool, expected for example RSA_4096.");
+                continue;
+            }
+            newPools.put(keySpec, new Pool(keySpec.substring(0, separator), keySpec.substring(separator + 1)));
+        }
+        if (newPools.isEmpty() || depth <= 0 || threads <= 0) {
+            return;
+        }
+        if (encrypt) {
+            final byte[] key = new byte[32];
+            random.nextBytes(key);
+            encryptionKey = key;
+        }
+        this.depth = depth;
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "KeyPairPool");
+            thread.setDaemon(true);
+            // Generate keys when the request threads do not need the CPU
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        pools = Collections.unmodifiableMap(newPools);
+        for (final Pool pool : newPools.values()) {
+            refill(pool);
+        }
+        log.info("Started key pair pool with " + depth + " key pairs for each of " + newPools.keySet() + ", generated by " + threads + " threads.");
+    }
+
+    /** Stops generating key pairs, and clears the key pairs in the pools. */
+    public synchronized void shutdown() {
+        final Map<String, Pool> oldPools = pools;
+        pools = Collections.emptyMap();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (final Pool pool : oldPools.values()) {
+            clear(pool);
+        }
+        if (encryptionKey != null) {
+            Arrays.fill(encryptionKey, (byte) 0);
+            encryptionKey = null;
+        }
+    }
+
+    /**
+     * Returns a new key pair, from the pool if the key specification is pooled and a key pair is available, or generated now.
+     *
+     * @param keySpec the key specification, as for {@link KeyTools#genKeys(String, String)}
+     * @param keyAlgorithm the key algorithm, as for {@link KeyTools#genKeys(String, String)}
+     * @return a key pair that has not been returned before
+     * @throws InvalidAlgorithmParameterException if the key specification is not valid for the algorithm
+     */
+    public KeyPair getKeyPair(final String keySpec, final String keyAlgorithm) throws InvalidAlgorithmParameterException {
+        final Pool pool = pools.get(keyAlgorithm + "_" + keySpec);
+        if (pool != null) {
+            final PooledKeyPair pooledKeyPair = pool.keyPairs.poll();
+            refill(pool);
+            if (pooledKeyPair != null) {
+                try {
+                    final KeyPair keyPair = toKeyPair(pooledKeyPair);
+                    pool.hits.increment();
+                    return keyPair;
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    log.warn("Could not use key pair from the pool of " + keyAlgorithm + "_" + keySpec + ", generating a new one: " + e.getMessage());
+                } finally {
+                    pooledKeyPair.clear();
+                }
+            }
+            pool.misses.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("Key pair pool of " + keyAlgorithm + "_" + keySpec + " is empty, generating key pair in the request.");
+            }
+        }
+        return KeyTools.genKeys(keySpec, keyAlgorithm);
+    }
+
+    /** @return the pooled key specifications, for example RSA_4096 */
+    public Collection<String> getKeySpecs() {
+        return pools.keySet();
+    }
+
+    /** @return the number of key pairs of the key specification that were taken from the pool, or 0 if it is not pooled */
+    public long getHits(final String keySpec) {
+        final Pool pool = pools.get(keySpec);
+        return pool == null ? 0 : pool.hits.sum();
+    }
+
+    /** @return the number of key pairs of the key specification that were generated because the pool was empty, or 0 if it is not pooled */
+    public long getMisses(final String keySpec) {
+        final Pool pool = pools.get(keySpec);
+        return pool == null ? 0 : pool.misses.sum();
+    }
+
+    /** @return the number of key pairs of the key specification in the pool */
+    public int getSize(final String keySpec) {
+        final Pool pool = pools.get(keySpec);
+        return pool == null ? 0 : pool.keyPairs.size();
+    }
+
+    /** Schedules the generation of key pairs until the pool will be filled to its depth */
+    private void refill(final Pool pool) {
+        final ExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            return;
+        }
+        while (true) {
+            final int pending = pool.pending.get();
+            if (pool.keyPairs.size() + pending >= depth) {
+                return;
+            }
+            if (pool.pending.compareAndSet(pending, pending + 1)) {
+                try {
+                    currentExecutor.execute(() -> generate(pool, currentExecutor));
+                } catch (RejectedExecutionException e) {
+                    // The pool is shutting down
+                    pool.pending.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void generate(final Pool pool, final ExecutorService generatingExecutor) {
+        try {
+            final KeyPair keyPair = KeyTools.genKeys(pool.keySpec, pool.keyAlgorithm);
+            final PooledKeyPair pooledKeyPair = toPooledKeyPair(keyPair);
+            pool.keyPairs.add(pooledKeyPair);
+            // Do not keep key pairs that were generated while the pool was shut down
+            if (generatingExecutor != executor && pool.keyPairs.remove(pooledKeyPair)) {
+                pooledKeyPair.clear();
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.warn("Could not generate key pair for the pool of " + pool.keyAlgorithm + "_" + pool.keySpec + ": " + e.getMessage());
+        } finally {
+            pool.pending.decrementAndGet();
+        }
+    }
+
+    private PooledKeyPair toPooledKeyPair(final KeyPair keyPair) throws GeneralSecurityException {
+        final byte[] key = encryptionKey;
+        if (key == null) {
+            return new PooledKeyPair(keyPair.getPublic(), keyPair.getPrivate(), null, null, null);
+        }
+        final byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        final byte[] encoded = keyPair.getPrivate().getEncoded();
+        try {
+            return new PooledKeyPair(keyPair.getPublic(), null, keyPair.getPrivate().getAlgorithm(), cipher.doFinal(encoded), iv);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    private KeyPair toKeyPair(final PooledKeyPair pooledKeyPair) throws GeneralSecurityException {
+        if (pooledKeyPair.encryptedPrivateKey == null) {
+            return new KeyPair(pooledKeyPair.publicKey, pooledKeyPair.privateKey);
+        }
+        final byte[] key = encryptionKey;
+        if (key == null) {
+            throw new IllegalStateException("The key pair pool has been shut down.");
+        }
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, pooledKeyPair.iv));
+        final byte[] encoded = cipher.doFinal(pooledKeyPair.encryptedPrivateKey);
+        try {
+            final PrivateKey privateKey = KeyFactory.getInstance(pooledKeyPair.privateKeyAlgorithm, BouncyCastleProvider.PROVIDER_NAME)
+                    .generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            return new KeyPair(pooledKeyPair.publicKey, privateKey);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    private static void clear(final Pool pool) {
+        PooledKeyPair pooledKeyPair;
+        while ((pooledKeyPair = pool.keyPairs.poll()) != null) {
+            pooledKeyPair.clear();
+        }
+    }
+}
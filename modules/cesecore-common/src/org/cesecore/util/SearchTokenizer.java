@@ -0,0 +1,79 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Splits searchable values (Subject DN, Subject Alternative Name, username) into normalized trigram tokens.
+ * <p>
+ * A value is normalized by upper casing it, and every distinct sequence of {@link #TOKEN_LENGTH} consecutive characters is a token.
+ * If a search string is a substring of a value, then every token of the search string is also a token of the value. The
+ * tokens can hence be used to narrow down the rows that may match a "LIKE '%...%'" query, without having to scan the whole table.
+ * <p>
+ * The SQL wildcard characters '%' and '_' are treated as token separators in search strings, since they may match anything.
+ *
+ * @version $Id$
+ */
+public final class SearchTokenizer {
+
+    /** Number of characters in each token */
+    public static final int TOKEN_LENGTH = 3;
+
+    private SearchTokenizer() {}
+
+    /**
+     * Returns the distinct tokens of a stored value.
+     *
+     * @param value the value to tokenize, may be null
+     * @return a set of tokens in order of first appearance, empty if the value is null or shorter than {@link #TOKEN_LENGTH}
+     */
+    public static Set<String> getValueTokens(final String value) {
+        if (value == null || value.length() < TOKEN_LENGTH) {
+            return Collections.emptySet();
+        }
+        final Set<String> tokens = new LinkedHashSet<>();
+        addTokens(tokens, normalize(value));
+        return tokens;
+    }
+
+    /**
+     * Returns the distinct tokens that all must be present in a value that matches the search string as a substring.
+     *
+     * @param searchString the search string, possibly containing SQL wildcards
+     * @return the set of tokens, empty if the search string does not contain any literal sequence of at least {@link #TOKEN_LENGTH} characters
+     */
+    public static Set<String> getSearchTokens(final String searchString) {
+        if (searchString == null || searchString.length() < TOKEN_LENGTH) {
+            return Collections.emptySet();
+        }
+        final Set<String> tokens = new LinkedHashSet<>();
+        for (final String literal : normalize(searchString).split("[%_]")) {
+            addTokens(tokens, literal);
+        }
+        return tokens;
+    }
+
+    /** @return the value in the form that tokens are created from */
+    public static String normalize(final String value) {
+        return value.toUpperCase();
+    }
+
+    private static void addTokens(final Set<String> tokens, final String normalizedValue) {
+        for (int i = 0; i + TOKEN_LENGTH <= normalizedValue.length(); i++) {
+            tokens.add(normalizedValue.substring(i, i + TOKEN_LENGTH));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, with buckets whose upper bounds are powers of two microseconds, from 1 µs to about 67 s.
+ * <p>
+ * Recording a duration only increments two striped counters and adds to a third, so it does not allocate and scales with
+ * the number of concurrent callers. Reading the histogram is not a point in time snapshot, since the counters may be updated
+ * while they are read.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    /** The number of buckets with an upper bound, the last one is 2^(BUCKETS-1) µs. Durations above that are only in the count. */
+    public static final int BUCKETS = 27;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param durationNanos the duration in nanoseconds, as measured with System.nanoTime()
+     */
+    public void record(final long durationNanos) {
+        final int bucket = getBucket(durationNanos);
+        if (bucket < BUCKETS) {
+            buckets[bucket].increment();
+        }
+        count.increment();
+        sumNanos.add(durationNanos);
+    }
+
+    /**
+     * @param durationNanos a duration in nanoseconds
+     * @return the index of the smallest bucket with an upper bound of at least the duration, or BUCKETS if it is above all of them
+     */
+    static int getBucket(final long durationNanos) {
+        final long micros = durationNanos / 1000 + (durationNanos % 1000 > 0 ? 1 : 0);
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(micros - 1));
+    }
+
+    /**
+     * @param bucket the index of a bucket
+     * @return the upper bound of the bucket in microseconds
+     */
+    public static long getUpperBoundMicros(final int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * @return the number of durations in each bucket, not cumulative
+     */
+    public long[] getBucketCounts() {
+        final long[] ret = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            ret[i] = buckets[i].sum();
+        }
+        return ret;
+    }
+
+    /** @return the number of recorded durations */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return the sum of the recorded durations in nanoseconds */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,121 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Always-on latency histograms of EJB methods, protocol requests and signatures made with crypto tokens, which can be
+ * exported in the Prometheus text format.
+ * <p>
+ * Callers that record often should look up their histogram once with {@link #getHistogram(Type, String)} and keep it, so
+ * that recording a duration is only a few counter increments.
+ *
+ * @version $Id$
+ */
+public enum LatencyMetrics {
+    INSTANCE;
+
+    /** The kinds of operations that are measured, each exported as one metric with one label */
+    public enum Type {
+        EJB("ejbca_ejb_invocation_seconds", "Duration of EJB method invocations.", "method"),
+        PROTOCOL("ejbca_protocol_request_seconds", "Duration of requests to protocol endpoints.", "endpoint"),
+        SIGN("ejbca_crypto_token_sign_seconds", "Duration of signatures made with crypto tokens.", "algorithm");
+
+        private final String metricName;
+        private final String help;
+        private final String labelName;
+
+        private Type(final String metricName, final String help, final String labelName) {
+            this.metricName = metricName;
+            this.help = help;
+            this.labelName = labelName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final Map<Type, ConcurrentHashMap<String, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    private LatencyMetrics() {
+        for (final Type type : Type.values()) {
+            histograms.put(type, new ConcurrentHashMap<String, LatencyHistogram>());
+        }
+    }
+
+    /**
+     * @param type the kind of operation
+     * @param label the name of the method, endpoint or algorithm
+     * @return the histogram of the operation, which is created the first time it is requested
+     */
+    public LatencyHistogram getHistogram(final Type type, final String label) {
+        final ConcurrentHashMap<String, LatencyHistogram> histogramsOfType = histograms.get(type);
+        final LatencyHistogram histogram = histogramsOfType.get(label);
+        if (histogram != null) {
+            return histogram;
+        }
+        return histogramsOfType.computeIfAbsent(label, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param type the kind of operation
+     * @param label the name of the method, endpoint or algorithm
+     * @param durationNanos the duration in nanoseconds, as measured with System.nanoTime()
+     */
+    public void record(final Type type, final String label, final long durationNanos) {
+        getHistogram(type, label).record(durationNanos);
+    }
+
+    /**
+     * Writes all histograms in the Prometheus text exposition format (version 0.0.4), with durations in seconds. Since the
+     * counters are not locked while they are read, the output is not a perfect point in time snapshot.
+     *
+     * @param sb the StringBuilder to append to
+     */
+    public void writePrometheus(final StringBuilder sb) {
+        for (final Type type : Type.values()) {
+            final Map<String, LatencyHistogram> sorted = new TreeMap<>(histograms.get(type));
+            if (sorted.isEmpty()) {
+                continue;
+            }
+            sb.append("# HELP ").append(type.metricName).append(' ').append(type.help).append('\n');
+            sb.append("# TYPE ").append(type.metricName).append(" histogram\n");
+            for (final Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+                final String label = type.labelName + "=\"" + escapeLabelValue(entry.getKey()) + "\"";
+                final LatencyHistogram histogram = entry.getValue();
+                final long[] bucketCounts = histogram.getBucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < bucketCounts.length; i++) {
+                    cumulative += bucketCounts[i];
+                    sb.append(type.metricName).append("_bucket{").append(label).append(",le=\"")
+                            .append(LatencyHistogram.getUpperBoundMicros(i) / 1000000.0).append("\"} ").append(cumulative).append('\n');
+                }
+                // The count may have been read before some of the buckets were updated
+                final long count = Math.max(cumulative, histogram.getCount());
+                sb.append(type.metricName).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(count).append('\n');
+                sb.append(type.metricName).append("_sum{").append(label).append("} ").append(histogram.getSumNanos() / 1000000000.0).append('\n');
+                sb.append(type.metricName).append("_count{").append(label).append("} ").append(count).append('\n');
+            }
+        }
+    }
+
+    private static String escapeLabelValue(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
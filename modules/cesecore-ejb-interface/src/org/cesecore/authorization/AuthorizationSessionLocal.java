@@ -38,4 +38,10 @@ public interface AuthorizationSessionLocal extends AuthorizationSession {
 
     /** @return the access rules available to the AuthenticationToken and its nested tokens, taking each such tokens role membership into account */
     HashMap<String, Boolean> getAccessAvailableToAuthenticationToken(AuthenticationToken authenticationToken) throws AuthenticationFailedException;
+
+    /**
+     * @return the memoised ids of the CAs and profiles that the AuthenticationToken is authorized to, which are discarded when its access rules
+     * change. Never null. If the AuthenticationToken can not be authenticated, an empty instance that is not kept is returned.
+     */
+    AuthorizedIdSets getAuthorizedIdSets(AuthenticationToken authenticationToken);
 }
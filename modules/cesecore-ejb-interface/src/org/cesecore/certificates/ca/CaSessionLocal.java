@@ -19,6 +19,7 @@ import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizedIdSets;
 
 /**
  * Local interface for CaSession
@@ -79,6 +80,15 @@ public interface CaSessionLocal extends CaSession {
      * @return the found entity instance or null if the entity does not exist
      */
     CAData findBySubjectDN(String subjectDN);
+
+    /**
+     * Same as {@link #getAuthorizedCaIds(AuthenticationToken)}, but returns the memoised set, which is the same instance as long as
+     * the CAs and the administrator's access rules are unchanged.
+     *
+     * @param admin AuthenticationToken of admin
+     * @return the ids of the CAs that the administrator is authorized to
+     */
+    AuthorizedIdSets.IdSet getAuthorizedCaIdSet(AuthenticationToken admin);
     
     /**
      * Makes sure that no CAs are cached to ensure that we read from database
@@ -16,6 +16,7 @@ import java.math.BigInteger;
 import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -45,6 +46,16 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     /** @return return the query results as a List. */
     List<CertificateData> findByIssuerDNSerialNumber(String issuerDN, String serialNumber);
 
+    /**
+     * Finds the certificates of many serial numbers with a single query. The serial numbers are passed as a parameter, so the
+     * number of them should be limited to what the database allows in an IN list (e.g. 1000 for Oracle).
+     *
+     * @param issuerDN the BC normalized issuer DN
+     * @param serialNumbers the decimal serial numbers
+     * @return the certificates that were found, in no particular order
+     */
+    List<CertificateData> findByIssuerDNSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
     /** @return return the query results as a List. */
     CertificateInfo findFirstCertificateInfo(String issuerDN, String serialNumber);
     
@@ -77,6 +88,9 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     /** @return return the query results as a Collection<RevokedCertInfo>. */
     Collection<RevokedCertInfo> getRevokedCertInfos(String issuerDN, int crlPartitionIndex, long lastbasecrldate);
     
+    /** @return the revoked certificates for base CRLs of all CRL partitions, read in one pass, as a map from CRL partition index to Collection<RevokedCertInfo>. */
+    Map<Integer, Collection<RevokedCertInfo>> getRevokedCertInfosForAllPartitions(String issuerDN);
+    
     /** @return return the query results as a List. */
     List<CertificateData> findByExpireDateWithLimit(long expireDate, int maxNumberOfResults);
 
@@ -146,6 +160,25 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles,
             long activeNotifiedExpireDateMin, long activeNotifiedExpireDateMax, long activeExpireDateMin);
 
+    /**
+     * Fetch a batch of the certificates returned by {@link #findExpirationInfo(Collection, Collection, long, long, long)}, ordered by
+     * expireDate and fingerprint. The next batch is fetched by passing the expireDate and fingerprint of the last certificate of the
+     * previous batch, so that the certificates are read without an offset even if their status is changed between the batches.
+     *
+     * @param cas A list of CAs that the sought certificates should be issued from
+     * @param certificateProfiles A list if certificateprofiles to sort from. Will be ignored if left empty.
+     * @param activeNotifiedExpireDateMin The minimal date for expiration notification
+     * @param activeNotifiedExpireDateMax The maxmimal date for expiration notification
+     * @param activeExpireDateMin the current rune timestamp + the threshold
+     * @param lastExpireDate the expireDate of the last certificate of the previous batch, or Long.MIN_VALUE for the first batch
+     * @param lastFingerprint the fingerprint of the last certificate of the previous batch, or an empty string for the first batch
+     * @param maxResults the maximum number of certificates to return
+     *
+     * @return [0] = (String) fingerprint, [1] = (String) username, [2] = (Long) expireDate
+     */
+    List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin,
+            long activeNotifiedExpireDateMax, long activeExpireDateMin, long lastExpireDate, String lastFingerprint, int maxResults);
+
     
     
 }
@@ -17,12 +17,14 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.certificate.request.RequestMessage;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for CertificateStoreSession.
@@ -134,6 +136,15 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      * @return [0] = (String) fingerprint, [1] = (String) username
      */
     List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin, long activeNotifiedExpireDateMax, long activeExpireDateMin);
+
+    /**
+     * Fetch a batch of certificate fingerprints, usernames and expire dates, ordered by expire date and fingerprint
+     * 
+     * @see CertificateDataSessionLocal#findExpirationInfo(Collection, Collection, long, long, long, long, String, int)
+     * @return [0] = (String) fingerprint, [1] = (String) username, [2] = (Long) expireDate
+     */
+    List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin,
+            long activeNotifiedExpireDateMax, long activeExpireDateMin, long lastExpireDate, String lastFingerprint, int maxResults);
     
     /**
      * Query if we have a clear cut case where no username or the provided username is the only user of the subjectDN and subjectKeyId.
@@ -196,6 +207,24 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      * @see CertificateStoreSessionLocal#updateLimitedCertificateDataStatus(AuthenticationToken, int, String, String, String, BigInteger, int, Date, int, String)
      */
     void updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, BigInteger serialNumber, Date revocationDate, int reasonCode, String caFingerprint) throws AuthorizationDeniedException;
+
+    /**
+     * Batch version of {@link #updateLimitedCertificateDataStatus(AuthenticationToken, int, String, BigInteger, Date, int, String)}, for importing
+     * the revoked certificates of large CRLs. The certificates of all entries are looked up with a single query, and the limited entries are
+     * created, updated or removed and flushed together in a new transaction.
+     * <p>
+     * Certificates that are stored in full are not modified, since they are revoked through the end entity so that the revocation is published.
+     * 
+     * @param admin an admin that is authorized to the CA that issued the certificates
+     * @param caId the CA identifier
+     * @param issuerDn the BC normalized version of the issuer DN
+     * @param revokedCertInfos the serial numbers, revocation dates and reason codes of the revoked certificates. The fingerprint is not used.
+     * @param caFingerprint the SHA-1 of the CA Certificate that issued the entries
+     * @return the entries of certificates that are stored in full, and are not already revoked with the same status
+     * @throws AuthorizationDeniedException
+     */
+    List<RevokedCertInfo> updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, Collection<RevokedCertInfo> revokedCertInfos,
+            String caFingerprint) throws AuthorizationDeniedException;
     
     /**
      * Method for populating the CertificateData table with limited information for example from a CRL, so the OCSP responder can answer if a certificate is revoked.
@@ -288,6 +317,15 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     boolean existsByIssuerAndSerno(String issuerDN, BigInteger serno);
 
+    /** Finds which of a number of serial numbers are already used by certificates of an issuer, with one query per table.
+     * Both CertificateData and NoConflictCertificateData are searched.
+     * 
+     * @param issuerDN issuer DN of the certificates.
+     * @param sernos serial numbers to look for, at most a few hundred.
+     * @return the serial numbers that exist, never null
+     */
+    Set<BigInteger> findExistingSernosByIssuer(String issuerDN, Collection<BigInteger> sernos);
+
     /** Gets the status of the certificate, or -1 if the certificate does not exist. 
      * If more than one certificate exists with the issuerDN/serialNumber, the first one is returned.
      * This query performs limited database read and thus will not verify database integrity protection.
@@ -14,6 +14,7 @@ package org.cesecore.certificates.certificate;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
 
@@ -41,4 +42,11 @@ public interface NoConflictCertificateDataSessionLocal extends NoConflictCertifi
      */
     Collection<RevokedCertInfo> getRevokedCertInfosWithDuplicates(String issuerDN, int crlPartitionIndex, long lastbasecrldate);
     
+    /**
+     * Returns revocation information for base CRLs of all CRL partitions, read in one pass. The entries of each partition
+     * may contain duplicates, as for {@link #getRevokedCertInfosWithDuplicates(String, int, long)}.
+     * @return map from CRL partition index to Collection<RevokedCertInfo>
+     */
+    Map<Integer, Collection<RevokedCertInfo>> getRevokedCertInfosWithDuplicatesForAllPartitions(String issuerDN);
+    
 }
@@ -12,12 +12,15 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for {@link NoConflictCertificateStoreSession}.
@@ -32,4 +35,14 @@ public interface NoConflictCertificateStoreSessionLocal extends NoConflictCertif
     
     /** @see CertificateStoreSessionLocal#getCertificateData(String) */
     public CertificateDataWrapper getCertificateData(final String fingerprint);
+
+    /**
+     * Lists the revoked certificates for base CRLs of all CRL partitions of a CA, read from the database in one pass instead
+     * of one pass per partition.
+     *
+     * @param issuerdn the subject DN of the CA
+     * @return map from CRL partition index to the revoked certificates, as returned by {@link #listRevokedCertInfo(String, int, long)}
+     *         for a base CRL of the partition. Partitions without revoked certificates are not included.
+     */
+    Map<Integer, Collection<RevokedCertInfo>> listRevokedCertInfoForAllPartitions(String issuerdn);
 }
@@ -12,8 +12,16 @@
  *************************************************************************/
 package org.cesecore.certificates.crl;
 
+import java.util.Collection;
+import java.util.Map;
+
 import javax.ejb.Local;
 
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CA;
+import org.cesecore.keys.token.CryptoTokenOfflineException;
+
 /**
  * Local interface for CrlCreateSession
  * 
@@ -23,4 +31,19 @@ import javax.ejb.Local;
 @Local
 public interface CrlCreateSessionLocal extends CrlCreateSession {
 
+    /**
+     * Requests for base CRLs to be created for several CRL partitions. The CRLs are built and signed at the same time, see
+     * {@link CrlPartitionGenerator}, and stored in the database in one transaction after all have been generated.
+     *
+     * @param admin administrator performing the task
+     * @param ca the CA this operation regards
+     * @param certsByPartition map from CRL partition index to the revoked certificates of the CRL
+     * @param nextCrlNumbers map from CRL partition index to the CRL number of the CRL, with the same keys as certsByPartition
+     * @return map from CRL partition index to the newly created CRL in DER encoded byte form
+     * @throws AuthorizationDeniedException
+     * @throws CryptoTokenOfflineException
+     * @see #generateAndStoreCRL(AuthenticationToken, CA, int, Collection, int, int)
+     */
+    Map<Integer, byte[]> generateAndStoreCRLs(AuthenticationToken admin, CA ca, Map<Integer, Collection<RevokedCertInfo>> certsByPartition,
+            Map<Integer, Integer> nextCrlNumbers) throws CryptoTokenOfflineException, AuthorizationDeniedException;
 }
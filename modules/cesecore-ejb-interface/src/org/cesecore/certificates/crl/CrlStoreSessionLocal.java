@@ -12,8 +12,13 @@
  *************************************************************************/
 package org.cesecore.certificates.crl;
 
+import java.util.Collection;
+
 import javax.ejb.Local;
 
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+
 /**
  * Local interface for CreateCRLSession
  * 
@@ -22,5 +27,16 @@ import javax.ejb.Local;
 @Local
 public interface CrlStoreSessionLocal extends CrlStoreSession {
 
-
+    /**
+     * Stores the base CRLs of several CRL partitions in one transaction, so that either all or none of them are stored.
+     * 
+     * @param admin Administrator performing the operation
+     * @param crls the CRLs to store
+     * @param cafp Fingerprint (hex) of the CAs certificate.
+     * 
+     * @throws CrlStoreException (rollback) if an error occured storing a CRL
+     * @throws AuthorizationDeniedException (rollback) if admin was not authorized to store CRL
+     * @see #storeCRL(AuthenticationToken, byte[], String, int, String, int, java.util.Date, java.util.Date, int)
+     */
+    void storeCRLs(AuthenticationToken admin, Collection<CrlPartitionGenerator.GeneratedCrl> crls, String cafp) throws CrlStoreException, AuthorizationDeniedException;
 }
@@ -0,0 +1,58 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.util.Collection;
+
+import javax.ejb.Local;
+
+import org.cesecore.certificates.certificate.BaseCertificateData;
+
+/**
+ * Maintains the log of revocation status changes in RevocationEventData, which is used for creating delta CRLs when
+ * database.useRevocationEventLog is enabled.
+ *
+ * @version $Id$
+ */
+@Local
+public interface RevocationEventDataSessionLocal {
+
+    /**
+     * Logs that the revocation status of a certificate has changed. Called in the same transaction as the change of the certificate row.
+     *
+     * @param certificateData the certificate row, after the revocation status has been changed
+     * @param eventTime the time of the change, in milliseconds since epoch
+     */
+    void addEvent(BaseCertificateData certificateData, long eventTime);
+
+    /**
+     * Returns the revocation information of the certificates whose revocation status has changed after a given time, for example
+     * the time of the last base CRL. If the status of a certificate has changed several times, only the latest change is returned.
+     *
+     * @param issuerDN the issuer DN in the format stored in CertificateData
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if not using CRL partitioning
+     * @param eventTime only changes after this time, in milliseconds since epoch, are returned
+     * @return the revocation information, with reason REVOCATION_REASON_REMOVEFROMCRL for certificates that have been released from hold
+     */
+    Collection<RevokedCertInfo> getRevokedCertInfos(String issuerDN, int crlPartitionIndex, long eventTime);
+
+    /**
+     * Removes the changes that are not needed anymore, since a base CRL including them has been created.
+     *
+     * @param issuerDN the issuer DN in the format stored in CertificateData
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if not using CRL partitioning
+     * @param eventTime changes up to and including this time, in milliseconds since epoch, are removed
+     * @return the number of removed changes
+     */
+    int removeEvents(String issuerDN, int crlPartitionIndex, long eventTime);
+}
@@ -0,0 +1,43 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import java.io.Serializable;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+
+/**
+ * Verification of database integrity protection.
+ *
+ * @version $Id$
+ */
+public interface DatabaseProtectionSession {
+
+    /**
+     * Verifies the integrity protection of a batch of rows in a table, regardless of the verification settings in
+     * databaseprotection.properties. Rows are processed in order of primary key, so the whole table can be verified by calling
+     * this method repeatedly with the returned primary key until null is returned.
+     *
+     * @param authenticationToken a superadministrator
+     * @param entityName the name of the entity class of the table, for example CertificateData
+     * @param afterPrimaryKey the last primary key processed in the previous call, or null to start from the beginning
+     * @param maxRows the maximum number of rows to verify in this call
+     * @return the result of the verification
+     * @throws AuthorizationDeniedException if the administrator is not a superadministrator
+     * @throws DatabaseProtectionException if rows are not integrity protected, because databaseprotection.keyid is not configured
+     * @throws IllegalArgumentException if there is no entity with integrity protection with the given name
+     */
+    DatabaseProtectionVerificationResult verifyProtection(AuthenticationToken authenticationToken, String entityName, Serializable afterPrimaryKey,
+            int maxRows) throws AuthorizationDeniedException, DatabaseProtectionException;
+}
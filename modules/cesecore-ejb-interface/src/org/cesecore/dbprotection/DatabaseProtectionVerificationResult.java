@@ -0,0 +1,52 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of verifying the integrity protection of a batch of rows in a table.
+ *
+ * @version $Id$
+ */
+public class DatabaseProtectionVerificationResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Serializable lastPrimaryKey;
+    private final int verifiedRows;
+    private final List<String> failedRows;
+
+    public DatabaseProtectionVerificationResult(final Serializable lastPrimaryKey, final int verifiedRows, final List<String> failedRows) {
+        this.lastPrimaryKey = lastPrimaryKey;
+        this.verifiedRows = verifiedRows;
+        this.failedRows = new ArrayList<>(failedRows);
+    }
+
+    /** @return the primary key of the last row in the batch, or null if there were no more rows */
+    public Serializable getLastPrimaryKey() {
+        return lastPrimaryKey;
+    }
+
+    /** @return the number of rows in the batch */
+    public int getVerifiedRows() {
+        return verifiedRows;
+    }
+
+    /** @return the primary keys and error messages of the rows that failed verification */
+    public List<String> getFailedRows() {
+        return failedRows;
+    }
+}
@@ -0,0 +1,38 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.search;
+
+import java.util.List;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+
+/**
+ * Maintenance of the search token index in SearchTokenData.
+ *
+ * @version $Id$
+ */
+public interface SearchTokenDataSession {
+
+    /**
+     * Recreates the search tokens of a batch of certificates. Certificates are processed in order of fingerprint, so the whole
+     * CertificateData table can be indexed by calling this method repeatedly with the last returned fingerprint until an empty list is returned.
+     *
+     * @param authenticationToken an administrator authorized to edit the system configuration
+     * @param afterFingerprint the last fingerprint processed in the previous call, or null to start from the beginning
+     * @param maxRows the maximum number of certificates to process in this call
+     * @return the fingerprints of the processed certificates in order, or an empty list if there were no more certificates to process
+     * @throws AuthorizationDeniedException if the administrator is not authorized to edit the system configuration
+     */
+    List<String> rebuildCertificateTokens(AuthenticationToken authenticationToken, String afterFingerprint, int maxRows) throws AuthorizationDeniedException;
+}
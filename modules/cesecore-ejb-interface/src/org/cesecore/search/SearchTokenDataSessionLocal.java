@@ -0,0 +1,58 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.search;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.ejb.Local;
+
+/**
+ * Local interface for SearchTokenDataSession.
+ *
+ * @version $Id$
+ */
+@Local
+public interface SearchTokenDataSessionLocal extends SearchTokenDataSession {
+
+    /**
+     * Stores the search tokens of a newly created row.
+     *
+     * @param referenceType one of the SearchTokenData.REFERENCE_TYPE_ constants
+     * @param referenceId the primary key of the indexed row
+     * @param fieldValues map from SearchTokenData.FIELD_ constants to the values of the fields. Null values are ignored.
+     */
+    void addTokens(int referenceType, String referenceId, Map<Integer, String> fieldValues);
+
+    /**
+     * Replaces all search tokens of an existing row.
+     *
+     * @see #addTokens(int, String, Map)
+     */
+    void replaceTokens(int referenceType, String referenceId, Map<Integer, String> fieldValues);
+
+    /** Removes all search tokens of a row, for example when the row is deleted. */
+    void removeTokens(int referenceType, String referenceId);
+
+    /**
+     * Finds the rows that may match a substring search in at least one of the given fields. The returned candidates are a superset of
+     * the matching rows, so the original search conditions must still be applied to the candidates.
+     *
+     * @param referenceType one of the SearchTokenData.REFERENCE_TYPE_ constants
+     * @param fieldSearchStrings map from SearchTokenData.FIELD_ constants to search strings
+     * @param maxCandidates the maximum number of candidates the caller is willing to handle
+     * @return the set of candidate primary keys, or null if the index could not be used, since a search string was too short or
+     *      since there were more than maxCandidates candidates.
+     */
+    Set<String> findCandidates(int referenceType, Map<Integer, String> fieldSearchStrings, int maxCandidates);
+}
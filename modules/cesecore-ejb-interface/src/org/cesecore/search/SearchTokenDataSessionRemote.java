@@ -0,0 +1,25 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.search;
+
+import javax.ejb.Remote;
+
+/**
+ * Remote interface for SearchTokenDataSession.
+ *
+ * @version $Id$
+ */
+@Remote
+public interface SearchTokenDataSessionRemote extends SearchTokenDataSession {
+
+}
@@ -190,6 +190,17 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
     public HashMap<String, Boolean> getAccessAvailableToAuthenticationToken(final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
         return AuthorizationCache.INSTANCE.get(authenticationToken, authorizationCacheCallback);
     }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public AuthorizedIdSets getAuthorizedIdSets(final AuthenticationToken authenticationToken) {
+        try {
+            return AuthorizationCache.INSTANCE.getAuthorizedIdSets(authenticationToken, authorizationCacheCallback);
+        } catch (AuthenticationFailedException e) {
+            // Authorization checks made while loading the ids will fail and log this as usual
+            return new AuthorizedIdSets();
+        }
+    }
     
     /** Callback for loading cache misses */
     private AuthorizationCacheCallback authorizationCacheCallback = new AuthorizationCacheCallback() {
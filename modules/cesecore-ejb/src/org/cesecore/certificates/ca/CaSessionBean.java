@@ -53,6 +53,7 @@ import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.AuthorizedIdSets;
 import org.cesecore.authorization.control.CryptoTokenRules;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.catoken.CAToken;
@@ -614,25 +615,30 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public List<Integer> getAuthorizedCaIds(final AuthenticationToken admin) {
-        final Collection<Integer> availableCaIds = getAllCaIds();
-        final ArrayList<Integer> returnval = new ArrayList<>();
-        for (Integer caid : availableCaIds) {
-            if (authorizedToCANoLogging(admin, caid)) {
-                returnval.add(caid);
+        return new ArrayList<>(getAuthorizedCaIdSet(admin).getIds());
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public AuthorizedIdSets.IdSet getAuthorizedCaIdSet(final AuthenticationToken admin) {
+        final List<Integer> availableCaIds = getAllCaIds();
+        return authorizationSession.getAuthorizedIdSets(admin).get(AuthorizedIdSets.CA_IDS, () -> {
+            final ArrayList<Integer> returnval = new ArrayList<>();
+            for (Integer caid : availableCaIds) {
+                if (authorizedToCANoLogging(admin, caid)) {
+                    returnval.add(caid);
+                }
             }
-        }
-        return returnval;
+            return returnval;
+        }, availableCaIds);
     }
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public Collection<String> getAuthorizedCaNames(final AuthenticationToken admin) {
-        final Collection<Integer> availableCaIds = getAllCaIds();
         final TreeSet<String> names = new TreeSet<>();
-        for (Integer caid : availableCaIds) {
-            if (authorizedToCANoLogging(admin, caid)) {
-                names.add(getCAInfoInternal(caid).getName());
-            }
+        for (Integer caid : getAuthorizedCaIdSet(admin).getIds()) {
+            names.add(getCAInfoInternal(caid).getName());
         }
         return names;
     }
@@ -640,14 +646,11 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public TreeMap<String,Integer> getAuthorizedCaNamesToIds(final AuthenticationToken admin) {
-        final Collection<Integer> availableCaIds = getAllCaIds();
         final TreeMap<String,Integer> names = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        for (Integer caid : availableCaIds) {
-            if (authorizedToCANoLogging(admin, caid)) {
-                final CAInfo caInfo = getCAInfoInternal(caid);
-                if (caInfo != null) {
-                    names.put(caInfo.getName(), caInfo.getCAId());
-                }
+        for (Integer caid : getAuthorizedCaIdSet(admin).getIds()) {
+            final CAInfo caInfo = getCAInfoInternal(caid);
+            if (caInfo != null) {
+                names.put(caInfo.getName(), caInfo.getCAId());
             }
         }
         return names;
@@ -15,14 +15,16 @@ package org.cesecore.certificates.certificate;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.ValueExtractor;
 
 /**
@@ -37,6 +39,9 @@ public abstract class BaseCertificateDataSessionBean {
     /** Returns the name of the table in the database. Either "CertificateData" or "NoConflictCertificateData" */
     protected abstract String getTableName();
     
+    /** Returns the name of the primary key column of the table. Either "fingerprint" or "id" */
+    protected abstract String getPrimaryKeyColumn();
+    
     /** Returns the entity manager to use. */
     protected abstract EntityManager getEntityManager();
     
@@ -85,11 +90,80 @@ public abstract class BaseCertificateDataSessionBean {
         return getRevokedCertInfosInternal(query);
     }
     
+    /**
+     * Returns information about revoked certificates for base CRLs of all CRL partitions, read in one pass ordered by the
+     * primary key, so that each batch continues after the last row of the previous one instead of skipping rows.
+     * 
+     * @return map from CRL partition index to the revoked certificates in the partition. The entries of certificates without
+     * a CRL partition index are mapped to 0, as in {@link #getRevokedCertInfosInternal(String, int, long, boolean)}.
+     */
+    protected Map<Integer, Collection<RevokedCertInfo>> getRevokedCertInfosForAllPartitionsInternal(final String issuerDN, final boolean forceGetAll) {
+        final String keyColumn = getPrimaryKeyColumn();
+        final String statusExpression;
+        if (forceGetAll) {
+            statusExpression = "(a.status=:status1 OR a.status=:status2 OR a.status=:status3)";
+        } else {
+            statusExpression = "a.status=:status1";
+        }
+        final String selectExpression = "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, "
+                + "a.crlPartitionIndex as crlPartitionIndex, a." + keyColumn + " as rowKey FROM " + getTableName() + " a WHERE "
+                + "a.issuerDN=:issuerDN AND " + statusExpression;
+        final Map<Integer, RevokedCertInfoCollection> revokedCertInfos = new TreeMap<>();
+        String lastRowKey = null;
+        while (true) {
+            // The first batch has no lower bound on the key, since Oracle treats an empty string as NULL, and nothing is greater than NULL
+            final Query query = getEntityManager().createNativeQuery(selectExpression + (lastRowKey == null ? "" : " AND a." + keyColumn + ">:lastRowKey")
+                    + " ORDER BY a." + keyColumn, "RevokedCertInfoPartitionSubset");
+            query.setParameter("issuerDN", issuerDN);
+            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+            if (forceGetAll) {
+                query.setParameter("status2", CertificateConstants.CERT_ACTIVE);
+                query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+            }
+            if (lastRowKey != null) {
+                query.setParameter("lastRowKey", lastRowKey);
+            }
+            query.setMaxResults(CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize());
+            @SuppressWarnings("unchecked")
+            final List<Object[]> incompleteCertificateDatas = query.getResultList();
+            if (incompleteCertificateDatas.isEmpty()) {
+                break;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo for all CRL partitions.");
+            }
+            for (final Object[] current : incompleteCertificateDatas) {
+                final Integer crlPartitionIndex = current[5] == null ? 0 : ValueExtractor.extractIntValue(current[5]);
+                addRevokedCertInfo(revokedCertInfos.computeIfAbsent(crlPartitionIndex, key -> new RevokedCertInfoCollection()), current);
+            }
+            lastRowKey = (String) incompleteCertificateDatas.get(incompleteCertificateDatas.size() - 1)[6];
+        }
+        final Map<Integer, Collection<RevokedCertInfo>> ret = new TreeMap<>();
+        for (final Map.Entry<Integer, RevokedCertInfoCollection> entry : revokedCertInfos.entrySet()) {
+            entry.getValue().trimToSize();
+            ret.put(entry.getKey(), entry.getValue());
+        }
+        return ret;
+    }
+    
+    /** Adds a row, with the columns in the order defined by the RevokedCertInfoSubset SqlResultSetMapping annotation */
+    private void addRevokedCertInfo(final RevokedCertInfoCollection revokedCertInfos, final Object[] current) {
+        final byte[] fingerprint = ((String)current[0]).getBytes();
+        final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
+        final long expireDate = ValueExtractor.extractLongValue(current[2]);
+        final long revocationDate = ValueExtractor.extractLongValue(current[3]);
+        int revocationReason = ValueExtractor.extractIntValue(current[4]);
+        if (revocationReason == -1) {
+            revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+        }
+        revokedCertInfos.add(fingerprint, serialNumber, revocationDate, revocationReason, expireDate);
+    }
+    
     private Collection<RevokedCertInfo> getRevokedCertInfosInternal(final Query query) {
         final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
         query.setMaxResults(maxResults);
         int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.class);
+        final RevokedCertInfoCollection revokedCertInfos = new RevokedCertInfoCollection();
         while (true) {
             query.setFirstResult(firstResult);
             @SuppressWarnings("unchecked")
@@ -101,20 +175,11 @@ public abstract class BaseCertificateDataSessionBean {
                 log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo.");
             }
             for (final Object[] current : incompleteCertificateDatas) {
-                // The order of the results are defined by the SqlResultSetMapping annotation
-                final byte[] fingerprint = ((String)current[0]).getBytes();
-                final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
-                final long expireDate = ValueExtractor.extractLongValue(current[2]);
-                final long revocationDate = ValueExtractor.extractLongValue(current[3]);
-                int revocationReason = ValueExtractor.extractIntValue(current[4]);
-                if (revocationReason == -1) {
-                    revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
-                }
-                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate));
+                addRevokedCertInfo(revokedCertInfos, current);
             }
             firstResult += maxResults;
         }
-        revokedCertInfos.closeForWrite();
+        revokedCertInfos.trimToSize();
         return revokedCertInfos;
     }
     
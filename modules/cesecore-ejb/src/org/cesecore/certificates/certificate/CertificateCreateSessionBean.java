@@ -71,6 +71,7 @@ import org.cesecore.certificates.ca.IllegalValidityException;
 import org.cesecore.certificates.ca.InvalidAlgorithmException;
 import org.cesecore.certificates.ca.SignRequestSignatureException;
 import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.internal.SernoPool;
 import org.cesecore.certificates.ca.catoken.CAToken;
 import org.cesecore.certificates.ca.catoken.CATokenConstants;
 import org.cesecore.certificates.ca.internal.RequestAndPublicKeySelector;
@@ -96,6 +97,7 @@ import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityTypes;
 import org.cesecore.certificates.endentity.ExtendedInformation;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
@@ -475,6 +477,17 @@ public class CertificateCreateSessionBean implements CertificateCreateSessionLoc
                 }
             }
             
+            // Take random serial numbers from a pool where they have been checked against the database in advance, so a
+            // certificate is not signed again if the serial number is already used
+            if (!useCustomSN && ca.getCAType() == CAInfo.CATYPE_X509 && ca.isUseCertificateStorage() && certProfile.getUseCertificateStorage()
+                    && CesecoreConfiguration.getSerialNumberPoolSize() > 1 && ((X509CA) ca).getSerialNumberOctetSize() > 0) {
+                final String caSubjectDN = CertTools.getSubjectDN(ca.getCACertificate());
+                certGenParams.setSernoGenerator(SernoPool.getInstance(caSubjectDN, ((X509CA) ca).getSerialNumberOctetSize())
+                        .getGenerator(sernos -> certificateStoreSession.findExistingSernosByIssuer(caSubjectDN, sernos)));
+            } else {
+                certGenParams.setSernoGenerator(null);
+            }
+            
             CTLogException ctLogException = null;
             CertificateSerialNumberException storeEx = null; // this will not be null if stored == false after the below passage
             String serialNo = "unknown";
@@ -14,10 +14,12 @@ package org.cesecore.certificates.certificate;
 
 import java.math.BigInteger;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -48,6 +50,9 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
 
     private static final Logger log = Logger.getLogger(CertificateDataSessionBean.class);
 
+    /** The maximum number of serial numbers in an IN list, which Oracle limits to 1000 expressions */
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
@@ -56,6 +61,11 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return "CertificateData";
     }
 
+    @Override
+    protected String getPrimaryKeyColumn() {
+        return "fingerprint";
+    }
+
     @Override
     protected EntityManager getEntityManager() {
         return entityManager;
@@ -105,6 +115,21 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
 
+    @Override
+    public List<CertificateData> findByIssuerDNSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        final List<CertificateData> ret = new ArrayList<>();
+        final List<String> serialNumberList = new ArrayList<>(serialNumbers);
+        // Longer lists are looked up in several queries
+        for (int start = 0; start < serialNumberList.size(); start += MAX_IN_LIST_SIZE) {
+            final TypedQuery<CertificateData> query = entityManager.createQuery(
+                    "SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", CertificateData.class);
+            query.setParameter("issuerDN", issuerDN);
+            query.setParameter("serialNumbers", serialNumberList.subList(start, Math.min(start + MAX_IN_LIST_SIZE, serialNumberList.size())));
+            ret.addAll(query.getResultList());
+        }
+        return ret;
+    }
+
     @Override
     public CertificateInfo findFirstCertificateInfo(final String issuerDN, final String serialNumber) {
         CertificateInfo ret = null;
@@ -240,6 +265,14 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return getRevokedCertInfosInternal(issuerDN, crlPartitionIndex, lastbasecrldate, false);
     }
 
+    @Override
+    public Map<Integer, Collection<RevokedCertInfo>> getRevokedCertInfosForAllPartitions(final String issuerDN) {
+        if (log.isDebugEnabled()) {
+            log.debug("Quering for revoked certificates in all CRL partitions. IssuerDN: '" + issuerDN + "'");
+        }
+        return getRevokedCertInfosForAllPartitionsInternal(issuerDN, false);
+    }
+
     @Override
     public List<CertificateData> findByExpireDateWithLimit(final long expireDate, final int maxNumberOfResults) {
         final long now = System.currentTimeMillis();
@@ -471,5 +504,34 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
 
+    @Override
+    public List<Object[]> findExpirationInfo(final Collection<String> cas, final Collection<Integer> certificateProfiles,
+            final long activeNotifiedExpireDateMin, final long activeNotifiedExpireDateMax, final long activeExpireDateMin, final long lastExpireDate,
+            final String lastFingerprint, final int maxResults) {
+        // Same conditions as above, but continues after the (expireDate, fingerprint) of the last row of the previous batch instead of
+        // using an offset, since the status of the rows already read is changed by the caller.
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.fingerprint, a.username, a.expireDate FROM CertificateData a WHERE "
+                + "a.issuerDN IN (:cas) AND "
+                // If the list of certificate profiles is empty, ignore it as a parameter
+                + (!certificateProfiles.isEmpty() ? "a.certificateProfileId IN (:certificateProfiles) AND " : "")
+                + "a.expireDate>:activeNotifiedExpireDateMin AND a.expireDate<:activeNotifiedExpireDateMax AND (a.status=:status1"
+                + " OR a.status=:status2) AND (a.expireDate>=:activeExpireDateMin OR a.status=:status3) AND (a.expireDate>:lastExpireDate"
+                + " OR (a.expireDate=:lastExpireDate AND a.fingerprint>:lastFingerprint)) ORDER BY a.expireDate, a.fingerprint", Object[].class);
+        query.setParameter("cas", cas);
+        if (!certificateProfiles.isEmpty()) {
+            query.setParameter("certificateProfiles", certificateProfiles);
+        }
+        query.setParameter("activeNotifiedExpireDateMin", activeNotifiedExpireDateMin);
+        query.setParameter("activeNotifiedExpireDateMax", activeNotifiedExpireDateMax);
+        query.setParameter("status1", CertificateConstants.CERT_ACTIVE);
+        query.setParameter("status2", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+        query.setParameter("activeExpireDateMin", activeExpireDateMin);
+        query.setParameter("status3", CertificateConstants.CERT_ACTIVE);
+        query.setParameter("lastExpireDate", lastExpireDate);
+        query.setParameter("lastFingerprint", lastFingerprint);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
 
 }
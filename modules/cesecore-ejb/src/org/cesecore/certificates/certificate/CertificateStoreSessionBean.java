@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -46,6 +47,10 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -57,6 +62,8 @@ import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authentication.tokens.CmpVerifiedSignerCache;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationTokenCache;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
@@ -65,6 +72,7 @@ import org.cesecore.certificates.certificate.request.RequestMessage;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
 import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.config.CesecoreConfiguration;
@@ -74,6 +82,8 @@ import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.util.KeyTools;
+import org.cesecore.search.SearchTokenData;
+import org.cesecore.search.SearchTokenDataSessionLocal;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.EJBTools;
@@ -92,6 +102,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    /** The maximum number of values in an IN list, which Oracle limits to 1000 expressions */
+    private static final int MAX_IN_LIST_SIZE = 1000;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -105,10 +117,16 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
     @EJB
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @EJB
+    private SearchTokenDataSessionLocal searchTokenDataSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal logSession;
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining.
@@ -229,6 +247,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         final CertificateData certificateData = new CertificateData(incert, pubk, username, cafp, certificateRequest, status, type, certificateProfileId, endEntityProfileId,
                 crlPartitionIndex, tag, updateTime, !useBase64CertTable && storeCertificateData, storeSubjectAlternativeName);
         entityManager.persist(certificateData);
+        if (CesecoreConfiguration.useSearchTokenIndex()) {
+            searchTokenDataSession.addTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, certificateData.getFingerprint(), getSearchTokenFieldValues(certificateData));
+        }
         if (doAuditLog) {
             final String serialNo = CertTools.getSerialNumberAsString(incert);
             final String msg = INTRES.getLocalizedMessage("store.storecert", username, certificateData.getFingerprint(), certificateData.getSubjectDnNeverNull(), certificateData.getIssuerDN(), serialNo);
@@ -725,6 +746,35 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     }
 
 
+    @Override
+    public Set<BigInteger> findExistingSernosByIssuer(final String issuerDN, final Collection<BigInteger> sernos) {
+        final Set<BigInteger> ret = new HashSet<>();
+        if (sernos.isEmpty()) {
+            return ret;
+        }
+        final String dn = CertTools.stringToBCDNString(StringTools.strip(issuerDN));
+        final List<String> serialNumbers = new ArrayList<>(sernos.size());
+        for (final BigInteger serno : sernos) {
+            serialNumbers.add(serno.toString());
+        }
+        for (final String table : new String[] { "CertificateData", "NoConflictCertificateData" }) {
+            // Longer lists are looked up in several queries
+            for (int start = 0; start < serialNumbers.size(); start += MAX_IN_LIST_SIZE) {
+                final TypedQuery<String> query = entityManager.createQuery("SELECT a.serialNumber FROM " + table
+                        + " a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", String.class);
+                query.setParameter("issuerDN", dn);
+                query.setParameter("serialNumbers", serialNumbers.subList(start, Math.min(start + MAX_IN_LIST_SIZE, serialNumbers.size())));
+                for (final String serialNumber : query.getResultList()) {
+                    ret.add(new BigInteger(serialNumber));
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + ret.size() + " of " + sernos.size() + " serial numbers in use for issuer '" + dn + "'.");
+        }
+        return ret;
+    }
+
     @Override
     public Certificate findCertificateByIssuerAndSerno(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -1139,12 +1189,16 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             returnVal = false; // we did _not_ change status in the database
         }
         if (returnVal) {
+            removeFromAuthenticationCaches(certificateData.getFingerprint());
             // Persist changes
             if (certificateData instanceof NoConflictCertificateData) {
                 entityManager.persist(certificateData); // Ensure append-only operation
             } else {
                 entityManager.merge(certificateData);
             }
+            if (CesecoreConfiguration.useRevocationEventLog()) {
+                revocationEventDataSession.addEvent(certificateData, now.getTime());
+            }
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1175,11 +1229,21 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
                 	d.setRevocationDate(System.currentTimeMillis());
                 	d.setRevocationReason(reason);
+                	if (CesecoreConfiguration.useRevocationEventLog()) {
+                	    revocationEventDataSession.addEvent(d, d.getRevocationDate());
+                	}
                 	revoked++;
             	}
             	firstResult += maxRows;
             	list = findAllNonRevokedCertificates(bcdn, firstResult, maxRows);
             }
+            runNowAndAfterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    X509CertificateAuthenticationTokenCache.INSTANCE.flush();
+                    CmpVerifiedSignerCache.INSTANCE.flush();
+                }
+            });
             final String msg = INTRES.getLocalizedMessage("store.revokedallbyca", issuerdn, Integer.valueOf(revoked), Integer.valueOf(reason));
     		Map<String, Object> details = new LinkedHashMap<>();
     		details.put("msg", msg);
@@ -1313,6 +1377,13 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 activeExpireDateMin);
     }
 
+    @Override
+    public List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin,
+            long activeNotifiedExpireDateMax, long activeExpireDateMin, long lastExpireDate, String lastFingerprint, int maxResults) {
+        return certificateDataSession.findExpirationInfo(cas, certificateProfiles, activeNotifiedExpireDateMin, activeNotifiedExpireDateMax,
+                activeExpireDateMin, lastExpireDate, lastFingerprint, maxResults);
+    }
+
     private void changeStatus(AuthenticationToken admin, CertificateData certificateData, int status) throws AuthorizationDeniedException {
         if (log.isDebugEnabled()) {
             log.debug("Set status " + status + " for certificate with fp: " + certificateData.getFingerprint());
@@ -1324,6 +1395,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        removeFromAuthenticationCaches(certificateData.getFingerprint());
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1524,6 +1596,10 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         final String fingerprint2 = CertTools.getFingerprintAsString(x509Certificate2);
         entityManager.createNativeQuery("DELETE FROM Base64CertData WHERE fingerprint IN ('"+fingerprint1+"', '"+fingerprint2+"')").executeUpdate();
         entityManager.createNativeQuery("DELETE FROM CertificateData WHERE fingerprint IN ('"+fingerprint1+"', '"+fingerprint2+"')").executeUpdate();
+        if (CesecoreConfiguration.useSearchTokenIndex()) {
+            searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint1);
+            searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint2);
+        }
     }
 
     @Override
@@ -1547,6 +1623,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
         final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
         final CertificateDataWrapper cdw = getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
+        // A client certificate that is not stored in full is authenticated with the status of the limited entry
+        removeFromAuthenticationCaches(issuerDn, Collections.singletonList(serialNumber));
         if (cdw==null) {
             if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
                 deleteLimitedCertificateData(limitedFingerprint);
@@ -1566,6 +1644,12 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 limitedCertificateData.setCaFingerprint(caFingerprint);
                 log.info("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
                 entityManager.persist(limitedCertificateData);
+                if (CesecoreConfiguration.useRevocationEventLog()) {
+                    revocationEventDataSession.addEvent(limitedCertificateData, limitedCertificateData.getUpdateTime());
+                }
+                if (CesecoreConfiguration.useSearchTokenIndex()) {
+                    searchTokenDataSession.addTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, limitedFingerprint, getSearchTokenFieldValues(limitedCertificateData));
+                }
             }
         } else if (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint())) {
         	if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
@@ -1580,6 +1664,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                     limitedCertificateData.setRevocationDate(revocationDate);
                     limitedCertificateData.setUpdateTime(System.currentTimeMillis());
                     entityManager.merge(limitedCertificateData);
+                    if (CesecoreConfiguration.useRevocationEventLog()) {
+                        revocationEventDataSession.addEvent(limitedCertificateData, limitedCertificateData.getUpdateTime());
+                    }
         	    } else {
         	        if (log.isDebugEnabled()) {
                         log.debug("Limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"' was already up to date.");
@@ -1592,6 +1679,185 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<RevokedCertInfo> updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn,
+            final Collection<RevokedCertInfo> revokedCertInfos, final String caFingerprint) throws AuthorizationDeniedException {
+        if (!authorizationSession.isAuthorizedNoLogging(admin, StandardRules.CAACCESS.resource() + caId)) {
+            final String msg = INTRES.getLocalizedMessage("caadmin.notauthorizedtoca", admin.toString(), caId);
+            throw new AuthorizationDeniedException(msg);
+        }
+        // A CRL should not have the same serial number twice, but if it does the last entry wins as when the entries are imported one by one
+        final Map<String, RevokedCertInfo> entries = new LinkedHashMap<>();
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            entries.put(revokedCertInfo.getUserCertificate().toString(), revokedCertInfo);
+        }
+        final String dn = CertTools.stringToBCDNString(StringTools.strip(issuerDn));
+        final Map<String, List<CertificateData>> existing = new HashMap<>();
+        for (final CertificateData certificateData : certificateDataSession.findByIssuerDNSerialNumbers(dn, entries.keySet())) {
+            List<CertificateData> certificateDatas = existing.get(certificateData.getSerialNumber());
+            if (certificateDatas == null) {
+                certificateDatas = new ArrayList<>(1);
+                existing.put(certificateData.getSerialNumber(), certificateDatas);
+            }
+            certificateDatas.add(certificateData);
+        }
+        final List<RevokedCertInfo> fullEntries = new ArrayList<>();
+        final List<String> removedFingerprints = new ArrayList<>();
+        final List<BigInteger> serialNumbers = new ArrayList<>(entries.size());
+        int created = 0;
+        int updated = 0;
+        for (final RevokedCertInfo entry : entries.values()) {
+            final BigInteger serialNumber = entry.getUserCertificate();
+            final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
+            serialNumbers.add(serialNumber);
+            final List<CertificateData> certificateDatas = existing.get(serialNumber.toString());
+            CertificateData limitedCertificateData = null;
+            CertificateData fullCertificateData = null;
+            if (certificateDatas != null) {
+                for (final CertificateData certificateData : certificateDatas) {
+                    if (limitedFingerprint.equals(certificateData.getFingerprint())) {
+                        limitedCertificateData = certificateData;
+                    } else {
+                        fullCertificateData = certificateData;
+                    }
+                }
+            }
+            if (fullCertificateData != null) {
+                if (isRevocationNeeded(fullCertificateData, entry.getReason())) {
+                    fullEntries.add(entry);
+                }
+            } else if (entry.getReason() == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                if (limitedCertificateData != null) {
+                    removedFingerprints.add(limitedFingerprint);
+                }
+            } else if (limitedCertificateData == null) {
+                limitedCertificateData = new CertificateData();
+                limitedCertificateData.setFingerprint(limitedFingerprint);
+                limitedCertificateData.setSerialNumber(serialNumber.toString());
+                limitedCertificateData.setIssuer(issuerDn);
+                // See updateLimitedCertificateDataStatus for why this is not an empty String
+                limitedCertificateData.setSubjectDN("CN=limited");
+                limitedCertificateData.setCertificateProfileId(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
+                limitedCertificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                limitedCertificateData.setRevocationReason(entry.getReason());
+                limitedCertificateData.setRevocationDate(entry.getRevocationDate());
+                limitedCertificateData.setUpdateTime(System.currentTimeMillis());
+                limitedCertificateData.setCaFingerprint(caFingerprint);
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber="
+                            + serialNumber.toString(16).toUpperCase() + ", issuerDn='" + issuerDn + "'");
+                }
+                entityManager.persist(limitedCertificateData);
+                if (CesecoreConfiguration.useRevocationEventLog()) {
+                    revocationEventDataSession.addEvent(limitedCertificateData, limitedCertificateData.getUpdateTime());
+                }
+                if (CesecoreConfiguration.useSearchTokenIndex()) {
+                    searchTokenDataSession.addTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, limitedFingerprint, getSearchTokenFieldValues(limitedCertificateData));
+                }
+                created++;
+            } else if (limitedCertificateData.getRevocationDate() != entry.getRevocationDate().getTime()
+                    || limitedCertificateData.getRevocationReason() != entry.getReason()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Updating limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber="
+                            + serialNumber.toString(16).toUpperCase() + ", issuerDn='" + issuerDn + "'");
+                }
+                // The entity is managed since it was found in this transaction, so the update is flushed with the inserts
+                limitedCertificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                limitedCertificateData.setRevocationReason(entry.getReason());
+                limitedCertificateData.setRevocationDate(entry.getRevocationDate());
+                limitedCertificateData.setUpdateTime(System.currentTimeMillis());
+                if (CesecoreConfiguration.useRevocationEventLog()) {
+                    revocationEventDataSession.addEvent(limitedCertificateData, limitedCertificateData.getUpdateTime());
+                }
+                updated++;
+            }
+        }
+        int removed = 0;
+        if (!removedFingerprints.isEmpty()) {
+            for (int start = 0; start < removedFingerprints.size(); start += MAX_IN_LIST_SIZE) {
+                final Query query = entityManager.createQuery("DELETE FROM CertificateData a WHERE a.fingerprint IN (:fingerprints) AND subjectKeyId IS NULL");
+                query.setParameter("fingerprints", removedFingerprints.subList(start, Math.min(start + MAX_IN_LIST_SIZE, removedFingerprints.size())));
+                removed += query.executeUpdate();
+            }
+            if (CesecoreConfiguration.useSearchTokenIndex()) {
+                for (final String fingerprint : removedFingerprints) {
+                    searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint);
+                }
+            }
+        }
+        // Write the batch now, so that the inserts and updates are sent in JDBC batches (hibernate.jdbc.batch_size)
+        entityManager.flush();
+        removeFromAuthenticationCaches(issuerDn, serialNumbers);
+        if (log.isDebugEnabled()) {
+            log.debug("Imported " + entries.size() + " revoked certificates issued by '" + issuerDn + "': " + created + " limited entries created, "
+                    + updated + " updated, " + removed + " removed and " + fullEntries.size() + " certificates to revoke.");
+        }
+        return fullEntries;
+    }
+
+    /**
+     * Removes the certificate from the caches of authenticated client certificates and verified CMP RA certificates. This is done at
+     * once, and again when the transaction has committed, since an authentication in another thread may read the old status and cache
+     * it until then.
+     */
+    private void removeFromAuthenticationCaches(final String fingerprint) {
+        runNowAndAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                X509CertificateAuthenticationTokenCache.INSTANCE.removeCertificate(fingerprint);
+                CmpVerifiedSignerCache.INSTANCE.removeCertificate(fingerprint);
+            }
+        });
+    }
+
+    /**
+     * Removes certificates that may not be stored in full from the authentication caches, by issuer and serial number.
+     * @see #removeFromAuthenticationCaches(String)
+     */
+    private void removeFromAuthenticationCaches(final String issuerDn, final Collection<BigInteger> serialNumbers) {
+        runNowAndAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (final BigInteger serialNumber : serialNumbers) {
+                    X509CertificateAuthenticationTokenCache.INSTANCE.removeCertificate(issuerDn, serialNumber);
+                    CmpVerifiedSignerCache.INSTANCE.removeCertificate(issuerDn, serialNumber);
+                }
+            }
+        });
+    }
+
+    /** Runs the cache update now, and again after the current transaction (if any) has committed. */
+    private void runNowAndAfterCommit(final Runnable cacheUpdate) {
+        cacheUpdate.run();
+        if (transactionSynchronizationRegistry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // NOOP
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    cacheUpdate.run();
+                }
+            }
+        });
+    }
+
+    /** @return true if the status of the certificate differs from a revocation with the given reason */
+    private boolean isRevocationNeeded(final CertificateData certificateData, final int reasonCode) {
+        if (certificateData.getStatus() != CertificateConstants.CERT_REVOKED) {
+            return true;
+        }
+        // A certificate on hold can be revoked permanently, or released from hold (REMOVEFROMCRL)
+        return certificateData.getRevocationReason() == RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD
+                && reasonCode != RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD;
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public void reloadCaCertificateCache() {
@@ -1692,6 +1958,18 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         if (log.isDebugEnabled()) {
             log.debug("Deleted "+deletedRows+" rows with fingerprint " + fingerprint);
         }
+        if (deletedRows > 0 && CesecoreConfiguration.useSearchTokenIndex()) {
+            searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint);
+        }
         return deletedRows == 1;
     }
+
+    /** @return the values of the searchable fields of the certificate, for use with {@link SearchTokenDataSessionLocal} */
+    private Map<Integer, String> getSearchTokenFieldValues(final CertificateData certificateData) {
+        final Map<Integer, String> fieldValues = new HashMap<>();
+        fieldValues.put(SearchTokenData.FIELD_SUBJECTDN, certificateData.getSubjectDN());
+        fieldValues.put(SearchTokenData.FIELD_SUBJECTALTNAME, certificateData.getSubjectAltName());
+        fieldValues.put(SearchTokenData.FIELD_USERNAME, certificateData.getUsername());
+        return fieldValues;
+    }
 }
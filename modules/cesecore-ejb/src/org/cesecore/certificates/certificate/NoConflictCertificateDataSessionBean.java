@@ -14,6 +14,7 @@ package org.cesecore.certificates.certificate;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.ejb.Stateless;
@@ -47,6 +48,11 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
     protected String getTableName() {
         return "NoConflictCertificateData";
     }
+
+    @Override
+    protected String getPrimaryKeyColumn() {
+        return "id";
+    }
     
     @Override
     protected EntityManager getEntityManager() {
@@ -99,4 +105,12 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         return getRevokedCertInfosInternal(issuerDN, crlPartitionIndex, lastbasecrldate, true);
     }
     
+    @Override
+    public Map<Integer, Collection<RevokedCertInfo>> getRevokedCertInfosWithDuplicatesForAllPartitions(final String issuerDN) {
+        if (log.isDebugEnabled()) {
+            log.debug("Quering for revoked certificates in all CRL partitions in append-only table. IssuerDN: '" + issuerDN + "'");
+        }
+        return getRevokedCertInfosForAllPartitionsInternal(issuerDN, true);
+    }
+    
 }
@@ -19,6 +19,7 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import javax.ejb.EJB;
@@ -46,6 +47,7 @@ import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
@@ -82,6 +84,8 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
     @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
     @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+    @EJB
     private CertificateStoreSessionLocal certificateStoreSession;
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
@@ -208,6 +212,31 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
         return RevokedCertInfo.mergeByDateAndStatus(revokedInCertData, revokedInNoConflictData, lastbasecrldate);
     }
     
+    @Override
+    public Map<Integer, Collection<RevokedCertInfo>> listRevokedCertInfoForAllPartitions(final String issuerdn) {
+        if (log.isTraceEnabled()) {
+            log.trace(">listRevokedCertInfoForAllPartitions('" + issuerdn + "')");
+        }
+        final Map<Integer, Collection<RevokedCertInfo>> revokedInCertData = certificateDataSession.getRevokedCertInfosForAllPartitions(
+                CertTools.stringToBCDNString(StringTools.strip(issuerdn)));
+        final Map<Integer, Collection<RevokedCertInfo>> revokedInNoConflictData = noConflictCertificateDataSession.getRevokedCertInfosWithDuplicatesForAllPartitions(issuerdn);
+        final Map<Integer, Collection<RevokedCertInfo>> ret = new TreeMap<>(revokedInCertData);
+        for (final Map.Entry<Integer, Collection<RevokedCertInfo>> entry : revokedInNoConflictData.entrySet()) {
+            final Collection<RevokedCertInfo> revokedInPartition = ret.getOrDefault(entry.getKey(), new RevokedCertInfoCollection(0));
+            final Collection<RevokedCertInfo> merged = RevokedCertInfo.mergeByDateAndStatus(revokedInPartition, entry.getValue(), -1);
+            if (merged.isEmpty()) {
+                ret.remove(entry.getKey());
+            } else {
+                ret.put(entry.getKey(), merged);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("listRevokedCertInfoForAllPartitions: Got entries for " + revokedInCertData.size() + " CRL partitions from CertificateData and "
+                    + revokedInNoConflictData.size() + " CRL partitions from NoConflictCertificateData");
+        }
+        return ret;
+    }
+    
     /**
      * Locates the most recent entry in NoConflictCertificateData for a given issuerdn/serial number combination.
      * @param issuerdn Issuer DN
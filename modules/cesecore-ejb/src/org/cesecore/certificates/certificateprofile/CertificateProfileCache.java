@@ -15,6 +15,7 @@ package org.cesecore.certificates.certificateprofile;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.persistence.EntityManager;
@@ -56,6 +57,10 @@ public enum CertificateProfileCache {
     private volatile Map<String, Integer> nameIdMapCache = null;
     /** Cache of certificate profiles, with Id as keys */
     private volatile Map<Integer, CertificateProfile> profileCache = null;
+    /** Row versions of the cached profiles, with Id as keys, used to detect changes when the cache is updated */
+    private volatile Map<Integer, Integer> rowVersionCache = null;
+    /** Incremented whenever the cached profiles may have changed */
+    private final AtomicLong changeCount = new AtomicLong();
 
     private volatile long lastUpdate = 0;
 
@@ -106,6 +111,7 @@ public enum CertificateProfileCache {
         final Map<Integer, String> idNameCache = new HashMap<Integer, String>(idNameMapCacheTemplate);
         final Map<String, Integer> nameIdCache = new HashMap<String, Integer>(nameIdMapCacheTemplate);
         final Map<Integer, CertificateProfile> profCache = new HashMap<Integer, CertificateProfile>();
+        final Map<Integer, Integer> rowVersions = new HashMap<Integer, Integer>();
         try {
             final List<CertificateProfileData> result = CertificateProfileData.findAll(entityManager);
             for (final CertificateProfileData current : result) {
@@ -114,6 +120,7 @@ public enum CertificateProfileCache {
                 idNameCache.put(id, certificateProfileName);
                 nameIdCache.put(certificateProfileName, id);
                 profCache.put(id, current.getCertificateProfile());
+                rowVersions.put(id, current.getRowVersion());
             }
         } catch (Exception e) {
             LOG.error("Error reading certificate profiles: ", e);
@@ -121,6 +128,11 @@ public enum CertificateProfileCache {
         idNameMapCache = idNameCache;
         nameIdMapCache = nameIdCache;
         profileCache = profCache;
+        // A forced update is made when a profile is changed, possibly before the new row version has been written
+        if (force || !rowVersions.equals(rowVersionCache)) {
+            changeCount.incrementAndGet();
+        }
+        rowVersionCache = rowVersions;
         if (LOG.isTraceEnabled()) {
             LOG.trace("<updateProfileCache");
         }
@@ -132,6 +144,15 @@ public enum CertificateProfileCache {
         return profileCache;
     }
 
+    /**
+     * @return a number that changes whenever the cached profiles may have changed, for results computed from the profiles. Read it before
+     *      {@link #getProfileCache(EntityManager)}, so that the profiles are at least as recent as the number.
+     */
+    public long getChangeCount(final EntityManager entityManager) {
+        updateProfileCache(entityManager, false);
+        return changeCount.get();
+    }
+
     /** @return the latest object from the cache or a current database representation if no caching is used. */
     public Map<Integer, String> getIdNameMapCache(final EntityManager entityManager) {
         updateProfileCache(entityManager, false);
@@ -41,6 +41,7 @@ import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.AuthorizedIdSets;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.certificate.CertificateConstants;
@@ -228,26 +229,32 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
     
     @Override
     public List<Integer> getAuthorizedCertificateProfileIds(final AuthenticationToken admin, final int certprofiletype) {
-        final ArrayList<Integer> returnval = new ArrayList<Integer>();
-        final HashSet<Integer> authorizedcaids = new HashSet<Integer>(caSession.getAuthorizedCaIds(admin));
-        final HashSet<Integer> allcaids = new HashSet<Integer>(caSession.getAllCaIds());
-
-        // Add fixed certificate profiles.
-        if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_ENDENTITY) {
-            returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER));
-            returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_OCSPSIGNER));
-            returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_SERVER));
-        }
-        if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_SUBCA) {
-            returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_SUBCA));
-        }
-        if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_ROOTCA) {
-            returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA));
-        }
-        final boolean rootAccess = authorizationSession.isAuthorizedNoLogging(admin, StandardRules.ROLE_ROOT.resource());
-        for (final Entry<Integer,CertificateProfile> cpEntry : CertificateProfileCache.INSTANCE.getProfileCache(entityManager).entrySet()) {
+        // The result is memoised until the access rules, the CAs or the profiles change
+        final AuthorizedIdSets.IdSet authorizedCaIdSet = caSession.getAuthorizedCaIdSet(admin);
+        final List<Integer> allCaIdList = caSession.getAllCaIds();
+        final long profileChangeCount = CertificateProfileCache.INSTANCE.getChangeCount(entityManager);
+        final Map<Integer, CertificateProfile> profileCache = CertificateProfileCache.INSTANCE.getProfileCache(entityManager);
+        return new ArrayList<>(authorizationSession.getAuthorizedIdSets(admin).get(AuthorizedIdSets.CERTIFICATE_PROFILE_IDS + certprofiletype, () -> {
+            final ArrayList<Integer> returnval = new ArrayList<Integer>();
+            final HashSet<Integer> authorizedcaids = new HashSet<Integer>(authorizedCaIdSet.getIds());
+            final HashSet<Integer> allcaids = new HashSet<Integer>(allCaIdList);
+
+            // Add fixed certificate profiles.
+            if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_ENDENTITY) {
+                returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER));
+                returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_OCSPSIGNER));
+                returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_SERVER));
+            }
+            if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_SUBCA) {
+                returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_SUBCA));
+            }
+            if (certprofiletype == CertificateConstants.CERTTYPE_UNKNOWN || certprofiletype == CertificateConstants.CERTTYPE_ROOTCA) {
+                returnval.add(Integer.valueOf(CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA));
+            }
+            final boolean rootAccess = authorizationSession.isAuthorizedNoLogging(admin, StandardRules.ROLE_ROOT.resource());
+            for (final Entry<Integer,CertificateProfile> cpEntry : profileCache.entrySet()) {
                 final CertificateProfile profile = cpEntry.getValue();
-                // Check if all profiles available CAs exists in authorizedcaids.          
+                // Check if all profiles available CAs exists in authorizedcaids.
                 if (certprofiletype == 0 || certprofiletype == profile.getType()) {
                     boolean allexists = true;
                     for (final Integer nextcaid : profile.getAvailableCAs()) {
@@ -265,8 +272,9 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
                         returnval.add(cpEntry.getKey());
                     }
                 }
-        }
-        return returnval;
+            }
+            return returnval;
+        }, authorizedCaIdSet, allCaIdList, profileChangeCount).getIds());
     } 
     
     @Override
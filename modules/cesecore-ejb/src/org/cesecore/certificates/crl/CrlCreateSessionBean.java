@@ -14,6 +14,7 @@ package org.cesecore.certificates.crl;
 
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.PostConstruct;
@@ -151,6 +152,61 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     	return crlBytes;
     }
 
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS) // The CRLs are stored in one transaction after they have been created
+    @Override
+    public Map<Integer, byte[]> generateAndStoreCRLs(final AuthenticationToken admin, final CA ca, final Map<Integer, Collection<RevokedCertInfo>> certsByPartition,
+            final Map<Integer, Integer> nextCrlNumbers) throws CryptoTokenOfflineException, AuthorizationDeniedException {
+        if (log.isTraceEnabled()) {
+            log.trace(">generateAndStoreCRLs(" + certsByPartition.size() + " partitions)");
+        }
+        final int caid = ca.getCAId();
+        authorizedToCreateCRL(admin, caid);
+        final Map<Integer, byte[]> ret = new LinkedHashMap<>();
+        try {
+            if ((ca.getStatus() != CAConstants.CA_ACTIVE) && (ca.getStatus() != CAConstants.CA_WAITING_CERTIFICATE_RESPONSE)) {
+                String msg = intres.getLocalizedMessage("createcert.canotactive", ca.getSubjectDN());
+                throw new CryptoTokenOfflineException(msg);
+            }
+            final CryptoToken cryptoToken = cryptoTokenManagementSession.getCryptoToken(ca.getCAToken().getCryptoTokenId());
+            if (cryptoToken == null) {
+                throw new CryptoTokenOfflineException("Could not find CryptoToken with id " + ca.getCAToken().getCryptoTokenId());
+            }
+            final int threads = CrlPartitionGenerator.getThreads(cryptoToken, certsByPartition.size());
+            final List<CrlPartitionGenerator.GeneratedCrl> crls = CrlPartitionGenerator.generateCrls(ca, cryptoToken, certsByPartition, nextCrlNumbers, threads);
+            // Store all CRLs in one transaction, this can still fail so the whole thing is rolled back
+            crlSession.storeCRLs(admin, crls, CertTools.getFingerprintAsString(ca.getCACertificate()));
+            for (final CrlPartitionGenerator.GeneratedCrl crl : crls) {
+                String msg = intres.getLocalizedMessage("createcrl.createdcrl", Integer.valueOf(crl.getCrlNumber()), ca.getName(), ca.getSubjectDN());
+                Map<String, Object> details = new LinkedHashMap<String, Object>();
+                details.put("msg", msg);
+                logSession.log(EventTypes.CRL_CREATION, EventStatus.SUCCESS, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+                ret.put(crl.getCrlPartitionIndex(), crl.getEncoded());
+            }
+        } catch (CryptoTokenOfflineException ctoe) {
+            String msg = intres.getLocalizedMessage("error.catokenoffline", ca.getSubjectDN());
+            log.info(msg, ctoe);
+            String auditmsg = intres.getLocalizedMessage("createcrl.errorcreate", ca.getName(), ctoe.getMessage());
+            Map<String, Object> details = new LinkedHashMap<String, Object>();
+            details.put("msg", auditmsg);
+            logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+            throw ctoe;
+        } catch (Exception e) {
+            log.info("Error generating CRLs: ", e);
+            String msg = intres.getLocalizedMessage("createcrl.errorcreate", ca.getName(), e.getMessage());
+            Map<String, Object> details = new LinkedHashMap<String, Object>();
+            details.put("msg", msg);
+            logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+            if (e instanceof EJBException) {
+                throw (EJBException) e;
+            }
+            throw new EJBException(msg, e);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<generateAndStoreCRLs()");
+        }
+        return ret;
+    }
+
     private void authorizedToCreateCRL(final AuthenticationToken admin, final int caid) throws AuthorizationDeniedException {
     	if (!authorizationSession.isAuthorized(admin, StandardRules.CREATECRL.resource())) {
     		final String msg = intres.getLocalizedMessage("createcrl.notauthorized", admin.toString(), caid);
@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.certificates.crl;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -98,6 +99,14 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
         }
     }
 
+    @Override
+    public void storeCRLs(final AuthenticationToken admin, final Collection<CrlPartitionGenerator.GeneratedCrl> crls, final String cafp)
+            throws CrlStoreException, AuthorizationDeniedException {
+        for (final CrlPartitionGenerator.GeneratedCrl crl : crls) {
+            storeCRL(admin, crl.getEncoded(), cafp, crl.getCrlNumber(), crl.getIssuerDN(), crl.getCrlPartitionIndex(), crl.getThisUpdate(), crl.getNextUpdate(), -1);
+        }
+    }
+
 
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
@@ -0,0 +1,112 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * @see RevocationEventDataSessionLocal
+ *
+ * @version $Id$
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class RevocationEventDataSessionBean implements RevocationEventDataSessionLocal {
+
+    private static final Logger log = Logger.getLogger(RevocationEventDataSessionBean.class);
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public void addEvent(final BaseCertificateData certificateData, final long eventTime) {
+        entityManager.persist(new RevocationEventData(certificateData, eventTime));
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getRevokedCertInfos(final String issuerDN, final int crlPartitionIndex, final long eventTime) {
+        final TypedQuery<RevocationEventData> query = entityManager.createQuery("SELECT a FROM RevocationEventData a WHERE a.issuerDNHash=:issuerDNHash"
+                + " AND a.crlPartitionIndex=:crlPartitionIndex AND a.eventTime>:eventTime ORDER BY a.eventTime, a.id", RevocationEventData.class);
+        query.setParameter("issuerDNHash", issuerDN.hashCode());
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        query.setParameter("eventTime", eventTime);
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        query.setMaxResults(maxResults);
+        // The events are read in the order they happened, so the latest change of each certificate replaces the earlier ones
+        final Map<String, RevocationEventData> latestEvents = new LinkedHashMap<>();
+        int firstResult = 0;
+        int events = 0;
+        while (true) {
+            query.setFirstResult(firstResult);
+            final List<RevocationEventData> result = query.getResultList();
+            for (final RevocationEventData event : result) {
+                // Different issuer DNs may have the same hash
+                if (issuerDN.equals(event.getIssuerDN())) {
+                    latestEvents.put(event.getFingerprint(), event);
+                }
+            }
+            events += result.size();
+            if (result.size() < maxResults) {
+                break;
+            }
+            firstResult += maxResults;
+        }
+        final RevokedCertInfoCollection ret = new RevokedCertInfoCollection(latestEvents.size());
+        for (final RevocationEventData event : latestEvents.values()) {
+            int revocationReason = event.getRevocationReason();
+            if (revocationReason == RevokedCertInfo.NOT_REVOKED) {
+                revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+            }
+            ret.add(event.getFingerprint().getBytes(), new BigInteger(event.getSerialNumber()).toByteArray(), event.getRevocationDate(), revocationReason,
+                    event.getExpireDate());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read " + events + " revocation events for " + ret.size() + " certificates of issuer '" + issuerDN + "' in CRL partition "
+                    + crlPartitionIndex + ".");
+        }
+        return ret;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public int removeEvents(final String issuerDN, final int crlPartitionIndex, final long eventTime) {
+        final Query query = entityManager.createQuery("DELETE FROM RevocationEventData a WHERE a.issuerDNHash=:issuerDNHash AND a.issuerDN=:issuerDN"
+                + " AND a.crlPartitionIndex=:crlPartitionIndex AND a.eventTime<=:eventTime");
+        query.setParameter("issuerDNHash", issuerDN.hashCode());
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        query.setParameter("eventTime", eventTime);
+        final int removed = query.executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + removed + " revocation events of issuer '" + issuerDN + "' in CRL partition " + crlPartitionIndex + ".");
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,109 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.control.StandardRules;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.InternalResources;
+import org.cesecore.jndi.JndiConstants;
+
+/**
+ * Verifies database integrity protection of whole tables.
+ *
+ * @version $Id$
+ */
+@Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "DatabaseProtectionSessionRemote")
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class DatabaseProtectionSessionBean implements DatabaseProtectionSessionLocal, DatabaseProtectionSessionRemote {
+
+    private static final Logger log = Logger.getLogger(DatabaseProtectionSessionBean.class);
+    private static final InternalResources intres = InternalResources.getInstance();
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @EJB
+    private AuthorizationSessionLocal authorizationSession;
+
+    @Override
+    public DatabaseProtectionVerificationResult verifyProtection(final AuthenticationToken authenticationToken, final String entityName,
+            final Serializable afterPrimaryKey, final int maxRows) throws AuthorizationDeniedException, DatabaseProtectionException {
+        if (!authorizationSession.isAuthorized(authenticationToken, StandardRules.ROLE_ROOT.resource())) {
+            final String msg = intres.getLocalizedMessage("authorization.notauthorizedtoresource", StandardRules.ROLE_ROOT.resource(), null);
+            throw new AuthorizationDeniedException(msg);
+        }
+        if (!ProtectedData.isProtectionEnabled()) {
+            // Without protection every row would pass verification
+            throw new DatabaseProtectionException(ProtectedData.NOT_ENABLED_MESSAGE);
+        }
+        final EntityType<?> entityType = getProtectedEntityType(entityName);
+        final String idName = entityType.getId(entityType.getIdType().getJavaType()).getName();
+        final TypedQuery<? extends ProtectedData> query = entityManager.createQuery("SELECT a FROM " + entityType.getName() + " a"
+                + (afterPrimaryKey == null ? "" : " WHERE a." + idName + ">:afterPrimaryKey") + " ORDER BY a." + idName + " ASC",
+                entityType.getJavaType().asSubclass(ProtectedData.class));
+        if (afterPrimaryKey != null) {
+            query.setParameter("afterPrimaryKey", afterPrimaryKey);
+        }
+        query.setMaxResults(maxRows);
+        final List<? extends ProtectedData> rows;
+        // Rows are verified below, where a failure does not prevent the remaining rows from being verified
+        ProtectedDataHmacImpl.suspendVerification();
+        try {
+            rows = query.getResultList();
+        } finally {
+            ProtectedDataHmacImpl.resumeVerification();
+        }
+        final PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        final List<String> failedRows = new ArrayList<>();
+        Serializable lastPrimaryKey = null;
+        for (final ProtectedData row : rows) {
+            lastPrimaryKey = (Serializable) persistenceUnitUtil.getIdentifier(row);
+            try {
+                row.verifyProtection();
+            } catch (DatabaseProtectionException e) {
+                failedRows.add(lastPrimaryKey + ": " + e.getMessage());
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Verified " + rows.size() + " rows in " + entityName + " after primary key " + afterPrimaryKey + ", " + failedRows.size() + " failed.");
+        }
+        return new DatabaseProtectionVerificationResult(lastPrimaryKey, rows.size(), failedRows);
+    }
+
+    private EntityType<?> getProtectedEntityType(final String entityName) {
+        for (final EntityType<?> entityType : entityManager.getMetamodel().getEntities()) {
+            if (entityType.getName().equals(entityName) && ProtectedData.class.isAssignableFrom(entityType.getJavaType())) {
+                return entityType;
+            }
+        }
+        throw new IllegalArgumentException("There is no entity with database integrity protection named '" + entityName + "'.");
+    }
+}
@@ -0,0 +1,148 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.control.StandardRules;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.InternalResources;
+import org.cesecore.jndi.JndiConstants;
+import org.cesecore.util.SearchTokenizer;
+
+/**
+ * Maintains and queries the search token index in SearchTokenData.
+ *
+ * @version $Id$
+ */
+@Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "SearchTokenDataSessionRemote")
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class SearchTokenDataSessionBean implements SearchTokenDataSessionLocal, SearchTokenDataSessionRemote {
+
+    private static final Logger log = Logger.getLogger(SearchTokenDataSessionBean.class);
+    private static final InternalResources intres = InternalResources.getInstance();
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+
+    @EJB
+    private AuthorizationSessionLocal authorizationSession;
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public void addTokens(final int referenceType, final String referenceId, final Map<Integer, String> fieldValues) {
+        for (final Entry<Integer, String> entry : fieldValues.entrySet()) {
+            for (final String token : SearchTokenizer.getValueTokens(entry.getValue())) {
+                entityManager.persist(new SearchTokenData(referenceType, referenceId, entry.getKey(), token));
+            }
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public void replaceTokens(final int referenceType, final String referenceId, final Map<Integer, String> fieldValues) {
+        removeTokens(referenceType, referenceId);
+        // Make sure that the removal is executed before re-inserting rows with the same primary keys
+        entityManager.flush();
+        addTokens(referenceType, referenceId, fieldValues);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public void removeTokens(final int referenceType, final String referenceId) {
+        final Query query = entityManager.createQuery("DELETE FROM SearchTokenData a WHERE a.referenceType=:referenceType AND a.referenceId=:referenceId");
+        query.setParameter("referenceType", referenceType);
+        query.setParameter("referenceId", referenceId);
+        query.executeUpdate();
+    }
+
+    @Override
+    public Set<String> findCandidates(final int referenceType, final Map<Integer, String> fieldSearchStrings, final int maxCandidates) {
+        final Set<String> candidates = new HashSet<>();
+        for (final Entry<Integer, String> entry : fieldSearchStrings.entrySet()) {
+            final Set<String> tokens = SearchTokenizer.getSearchTokens(entry.getValue());
+            if (tokens.isEmpty()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Search string '" + entry.getValue() + "' is too short to use the search token index.");
+                }
+                return null;
+            }
+            // A row is a candidate if it has all the tokens of the search string for this field
+            final TypedQuery<String> query = entityManager.createQuery("SELECT a.referenceId FROM SearchTokenData a WHERE a.referenceType=:referenceType"
+                    + " AND a.fieldType=:fieldType AND a.token IN (:tokens) GROUP BY a.referenceId HAVING COUNT(a.referenceId)=:tokenCount", String.class);
+            query.setParameter("referenceType", referenceType);
+            query.setParameter("fieldType", entry.getKey());
+            query.setParameter("tokens", tokens);
+            query.setParameter("tokenCount", Long.valueOf(tokens.size()));
+            query.setMaxResults(maxCandidates + 1);
+            candidates.addAll(query.getResultList());
+            if (candidates.size() > maxCandidates) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Search string '" + entry.getValue() + "' has more than " + maxCandidates + " candidates in the search token index.");
+                }
+                return null;
+            }
+        }
+        return candidates;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public List<String> rebuildCertificateTokens(final AuthenticationToken authenticationToken, final String afterFingerprint, final int maxRows)
+            throws AuthorizationDeniedException {
+        if (!authorizationSession.isAuthorized(authenticationToken, StandardRules.SYSTEMCONFIGURATION_EDIT.resource())) {
+            final String msg = intres.getLocalizedMessage("authorization.notauthorizedtoresource", StandardRules.SYSTEMCONFIGURATION_EDIT.resource(), null);
+            throw new AuthorizationDeniedException(msg);
+        }
+        final TypedQuery<Object[]> query = entityManager.createQuery("SELECT a.fingerprint, a.subjectDN, a.subjectAltName, a.username FROM CertificateData a"
+                + (afterFingerprint == null ? "" : " WHERE a.fingerprint>:afterFingerprint") + " ORDER BY a.fingerprint ASC", Object[].class);
+        if (afterFingerprint != null) {
+            query.setParameter("afterFingerprint", afterFingerprint);
+        }
+        query.setMaxResults(maxRows);
+        final List<Object[]> rows = query.getResultList();
+        final List<String> fingerprints = new ArrayList<>(rows.size());
+        for (final Object[] row : rows) {
+            final String fingerprint = (String) row[0];
+            fingerprints.add(fingerprint);
+            final Map<Integer, String> fieldValues = new HashMap<>();
+            fieldValues.put(SearchTokenData.FIELD_SUBJECTDN, (String) row[1]);
+            fieldValues.put(SearchTokenData.FIELD_SUBJECTALTNAME, (String) row[2]);
+            fieldValues.put(SearchTokenData.FIELD_USERNAME, (String) row[3]);
+            replaceTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint, fieldValues);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Rebuilt search tokens for " + rows.size() + " certificates after fingerprint " + afterFingerprint + ".");
+        }
+        return fingerprints;
+    }
+}
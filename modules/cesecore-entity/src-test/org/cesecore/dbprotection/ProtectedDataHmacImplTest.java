@@ -0,0 +1,241 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ProtectedDataHmacImpl}.
+ *
+ * @version $Id$
+ */
+public class ProtectedDataHmacImplTest {
+
+    private static final Logger log = Logger.getLogger(ProtectedDataHmacImplTest.class);
+
+    private static final SecretKey KEY_1 = new SecretKeySpec("first database protection key 32".getBytes(), "HmacSHA256");
+    private static final SecretKey KEY_2 = new SecretKeySpec("second database protection key32".getBytes(), "HmacSHA256");
+
+    /** Entity with integrity protection, as JPA entities extending ProtectedData */
+    private static class TestData extends ProtectedData {
+        private final String id;
+        private String value;
+        private String rowProtection;
+
+        private TestData(final String id, final String value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        protected String getProtectString(final int version) {
+            final ProtectionStringBuilder build = new ProtectionStringBuilder();
+            build.append(id).append(value);
+            return build.toString();
+        }
+
+        @Override
+        protected int getProtectVersion() {
+            return 1;
+        }
+
+        @Override
+        public void setRowProtection(final String rowProtection) {
+            this.rowProtection = rowProtection;
+        }
+
+        @Override
+        public String getRowProtection() {
+            return rowProtection;
+        }
+
+        @Override
+        protected String getRowId() {
+            return id;
+        }
+    }
+
+    @Before
+    public void before() {
+        ConfigurationHolder.instance().clear();
+        ConfigurationHolder.updateConfiguration("databaseprotection.enablesign", "true");
+        ConfigurationHolder.updateConfiguration("databaseprotection.enableverify", "true");
+        ConfigurationHolder.updateConfiguration("databaseprotection.erroronverifyfail", "true");
+        ConfigurationHolder.updateConfiguration("databaseprotection.keyid", "1");
+        setKeys(1, KEY_1);
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.instance().clear();
+        DatabaseProtectionKeyCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testProtectAndVerify() throws Exception {
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        assertTrue("Unexpected row protection: " + data.getRowProtection(), data.getRowProtection().matches("1:1:1:[0-9a-f]{64}"));
+        data.verifyData();
+        data.verifyProtection();
+        final TestData other = new TestData("row2", "value");
+        other.protectData();
+        assertNotEquals(data.getRowProtection(), other.getRowProtection());
+    }
+
+    @Test
+    public void testModifiedRowFails() throws Exception {
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        data.value = "modified";
+        assertVerificationFails(data);
+        data.value = "value";
+        data.verifyData();
+        data.setRowProtection(null);
+        assertVerificationFails(data);
+        data.setRowProtection("1:1:1:0011");
+        assertVerificationFails(data);
+        data.setRowProtection("garbage");
+        assertVerificationFails(data);
+    }
+
+    @Test
+    public void testKeyRotation() throws Exception {
+        final TestData oldData = new TestData("row1", "value");
+        oldData.protectData();
+        setKeys(2, KEY_1, KEY_2);
+        final TestData newData = new TestData("row2", "value");
+        newData.protectData();
+        assertTrue(newData.getRowProtection().startsWith("1:2:"));
+        newData.verifyData();
+        oldData.verifyData();
+        // Without the old key, old rows can not be verified
+        setKeys(2, null, KEY_2);
+        assertVerificationFails(oldData);
+        newData.verifyData();
+    }
+
+    @Test
+    public void testSampledVerification() throws Exception {
+        ConfigurationHolder.updateConfiguration("databaseprotection.verifysamplerate.TestData", "0.0");
+        setKeys(1, KEY_1);
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        data.value = "modified";
+        // Not verified on read, but explicit verification of the row still fails
+        data.verifyData();
+        try {
+            data.verifyProtection();
+            fail("Verification of a modified row should fail.");
+        } catch (DatabaseProtectionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testNoErrorOnVerifyFail() throws Exception {
+        ConfigurationHolder.updateConfiguration("databaseprotection.erroronverifyfail", "false");
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        data.value = "modified";
+        // Only logged
+        data.verifyData();
+    }
+
+    @Test
+    public void testProtectionDisabled() throws Exception {
+        ConfigurationHolder.updateConfiguration("databaseprotection.enablesign", "false");
+        setKeys(1, KEY_1);
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        assertEquals(null, data.getRowProtection());
+    }
+
+    @Test
+    public void testVerifyProtectionWithoutKey() throws Exception {
+        ConfigurationHolder.instance().clear();
+        DatabaseProtectionKeyCache.INSTANCE.flush();
+        assertFalse("Rows should not be protected without databaseprotection.keyid.", ProtectedData.isProtectionEnabled());
+        final TestData data = new TestData("row1", "value");
+        data.protectData();
+        // Nothing to verify on read, but explicit verification must not report unprotected rows as verified
+        data.verifyData();
+        try {
+            data.verifyProtection();
+            fail("Explicit verification without protection should fail.");
+        } catch (DatabaseProtectionException e) {
+            assertEquals(ProtectedData.NOT_ENABLED_MESSAGE, e.getMessage());
+        }
+    }
+
+    /** Measures the time to protect and verify a row, which should be a few microseconds */
+    @Test
+    public void testPerformance() throws Exception {
+        final TestData data = new TestData("5A1F2B3C4D5E6F708192A3B4C5D6E7F8091A2B3C", "CN=Performance Test,O=PrimeKey,C=SE");
+        final int rows = 200000;
+        // Warm up
+        for (int i = 0; i < rows / 10; i++) {
+            data.protectData();
+            data.verifyData();
+        }
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            data.protectData();
+            data.verifyData();
+        }
+        final long nanosPerRow = (System.nanoTime() - startTime) / rows;
+        log.info("Protecting and verifying a row took " + nanosPerRow + " ns.");
+        assertTrue("Protecting and verifying a row took " + nanosPerRow + " ns.", nanosPerRow < 50000);
+    }
+
+    private static void setKeys(final int currentKeyId, final SecretKey key1) {
+        setKeys(currentKeyId, key1, null);
+    }
+
+    private static void setKeys(final int currentKeyId, final SecretKey key1, final SecretKey key2) {
+        DatabaseProtectionKeyCache.INSTANCE.flush();
+        final Map<Integer, SecretKey> keys = new HashMap<>();
+        if (key1 != null) {
+            keys.put(1, key1);
+        }
+        if (key2 != null) {
+            keys.put(2, key2);
+        }
+        DatabaseProtectionKeyCache.INSTANCE.setKeys(currentKeyId, keys);
+    }
+
+    private static void assertVerificationFails(final TestData data) {
+        try {
+            data.verifyData();
+            fail("Verification should fail for row protection " + data.getRowProtection());
+        } catch (DatabaseProtectionException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+
+/**
+ * A change of the revocation status of a certificate, i.e. a revocation, a change of revocation reason or a release from hold.
+ * <p>
+ * The table is an append-only log of the revocation information that has changed since the last base CRL of each issuer and
+ * CRL partition, so that delta CRLs can be created without querying CertificateData. Rows are looked up by the issuerDN hash,
+ * CRL partition index and event time, and are removed when a new base CRL is created.
+ *
+ * @version $Id$
+ */
+@Entity
+@Table(name = "RevocationEventData")
+public class RevocationEventData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LATEST_PROTECT_VERSON = 1;
+
+    private String id;
+    private int issuerDNHash;
+    private String issuerDN;
+    private int crlPartitionIndex;
+    private long eventTime;
+    private String fingerprint;
+    private String serialNumber;
+    private long revocationDate;
+    private int revocationReason;
+    private long expireDate;
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    /**
+     * Creates an event with the current revocation information of a certificate.
+     *
+     * @param certificateData the certificate row, after the revocation status has been changed
+     * @param eventTime the time of the change, in milliseconds since epoch
+     */
+    public RevocationEventData(final BaseCertificateData certificateData, final long eventTime) {
+        setId(UUID.randomUUID().toString());
+        setIssuerDN(certificateData.getIssuerDN());
+        setIssuerDNHash(certificateData.getIssuerDN().hashCode());
+        // Rows created before CRL partitioning was introduced have no CRL partition index, and are read as partition 0 from CertificateData
+        setCrlPartitionIndex(certificateData.getCrlPartitionIndex() == null ? 0 : certificateData.getCrlPartitionIndex());
+        setEventTime(eventTime);
+        setFingerprint(certificateData.getFingerprint());
+        setSerialNumber(certificateData.getSerialNumber());
+        setRevocationDate(certificateData.getRevocationDate());
+        setRevocationReason(certificateData.getRevocationReason());
+        setExpireDate(certificateData.getExpireDate());
+    }
+
+    /** Empty constructor used by EJBCA and JPA. */
+    public RevocationEventData() {}
+
+    // @Id @Column
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    /** @return the hash code of the issuer DN, which is the CA id of the issuing CA */
+    // @Column
+    public int getIssuerDNHash() {
+        return issuerDNHash;
+    }
+
+    public void setIssuerDNHash(final int issuerDNHash) {
+        this.issuerDNHash = issuerDNHash;
+    }
+
+    // @Column
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    public void setIssuerDN(final String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    // @Column
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public void setCrlPartitionIndex(final int crlPartitionIndex) {
+        this.crlPartitionIndex = crlPartitionIndex;
+    }
+
+    /** @return the time the revocation status was changed, which orders the events of an issuer */
+    // @Column
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    public void setEventTime(final long eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    // @Column
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(final String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /** @return the serial number in decimal form, as in CertificateData */
+    // @Column
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(final String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    // @Column
+    public long getRevocationDate() {
+        return revocationDate;
+    }
+
+    public void setRevocationDate(final long revocationDate) {
+        this.revocationDate = revocationDate;
+    }
+
+    /** @return the revocation reason, or -1 if the certificate was released from hold */
+    // @Column
+    public int getRevocationReason() {
+        return revocationReason;
+    }
+
+    public void setRevocationReason(final int revocationReason) {
+        this.revocationReason = revocationReason;
+    }
+
+    // @Column
+    public long getExpireDate() {
+        return expireDate;
+    }
+
+    public void setExpireDate(final long expireDate) {
+        this.expireDate = expireDate;
+    }
+
+    // @Version @Column
+    public int getRowVersion() {
+        return rowVersion;
+    }
+
+    public void setRowVersion(final int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+
+    // @Column @Lob
+    @Override
+    public String getRowProtection() {
+        return rowProtection;
+    }
+
+    @Override
+    public void setRowProtection(final String rowProtection) {
+        this.rowProtection = rowProtection;
+    }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        build.append(getId()).append(getIssuerDNHash()).append(getIssuerDN()).append(getCrlPartitionIndex()).append(getEventTime())
+                .append(getFingerprint()).append(getSerialNumber()).append(getRevocationDate()).append(getRevocationReason()).append(getExpireDate());
+        return build.toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return LATEST_PROTECT_VERSON;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() throws DatabaseProtectionException {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() throws DatabaseProtectionException {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return getId();
+    }
+
+    //
+    // End Database integrity protection methods
+    //
+}
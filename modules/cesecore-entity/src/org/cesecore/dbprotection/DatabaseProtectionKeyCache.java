@@ -0,0 +1,276 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Base64;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenAuthenticationFailedException;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.CryptoTokenOfflineException;
+import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
+import org.cesecore.util.StringTools;
+
+/**
+ * Holds the HMAC keys used for database integrity protection by {@link ProtectedDataHmacImpl}, and a pool of initialized
+ * Mac instances per thread, so protecting or verifying a row costs a single HMAC computation.
+ * <p>
+ * The keys are read once from the crypto tokens configured in databaseprotection.properties, and kept in memory until
+ * {@link #flush()} is called. Each key has an id, which is stored in the row protection, so rows protected with an older key
+ * still verify after the key used for new rows (databaseprotection.keyid) has been changed.
+ *
+ * @version $Id$
+ */
+public enum DatabaseProtectionKeyCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(DatabaseProtectionKeyCache.class);
+
+    /** The only supported protection version, HMAC-SHA256 with a secret key */
+    static final int PROTECTION_VERSION_HMAC = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String CONFIG_PREFIX = "databaseprotection.";
+    /** The highest index of key configurations that is read, i.e. databaseprotection.keyid.0 to databaseprotection.keyid.255 */
+    private static final int MAX_KEY_INDEX = 255;
+
+    /** Settings from databaseprotection.properties for one table */
+    static final class TableSettings {
+        final boolean protect;
+        final boolean verify;
+        final double sampleRate;
+
+        private TableSettings(final String tableName) {
+            protect = CesecoreConfiguration.useDatabaseIntegrityProtection(tableName);
+            verify = CesecoreConfiguration.useDatabaseIntegrityVerification(tableName);
+            sampleRate = CesecoreConfiguration.getDatabaseIntegrityVerificationSampleRate(tableName);
+        }
+    }
+
+    private static final class KeyEntry {
+        private final Key key;
+        private final String providerName;
+
+        private KeyEntry(final Key key, final String providerName) {
+            this.key = key;
+            this.providerName = providerName;
+        }
+    }
+
+    private static final class Keys {
+        private final int currentKeyId;
+        private final Map<Integer, KeyEntry> keys;
+
+        private Keys(final int currentKeyId, final Map<Integer, KeyEntry> keys) {
+            this.currentKeyId = currentKeyId;
+            this.keys = keys;
+        }
+    }
+
+    /** Mac instance initialized with a specific key */
+    private static final class PooledMac {
+        private final KeyEntry keyEntry;
+        private final Mac mac;
+
+        private PooledMac(final KeyEntry keyEntry, final Mac mac) {
+            this.keyEntry = keyEntry;
+            this.mac = mac;
+        }
+    }
+
+    private final Map<String, TableSettings> tableSettings = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Integer, PooledMac>> macPool = new ThreadLocal<Map<Integer, PooledMac>>() {
+        @Override
+        protected Map<Integer, PooledMac> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    private volatile Boolean enabled = null;
+    private volatile Keys keys = null;
+
+    /** @return true if a database protection key is configured, in which case rows are protected and verified according to the configuration */
+    public boolean isEnabled() {
+        Boolean ret = enabled;
+        if (ret == null) {
+            ret = CesecoreConfiguration.getDatabaseProtectionKeyId() != null;
+            enabled = ret;
+        }
+        return ret;
+    }
+
+    /** @return the protection and verification settings for a table */
+    TableSettings getTableSettings(final String tableName) {
+        TableSettings settings = tableSettings.get(tableName);
+        if (settings == null) {
+            settings = new TableSettings(tableName);
+            tableSettings.put(tableName, settings);
+        }
+        return settings;
+    }
+
+    /** @return the id of the key to protect new and updated rows with */
+    int getCurrentKeyId() throws DatabaseProtectionException {
+        return getKeys().currentKeyId;
+    }
+
+    /**
+     * Computes the HMAC of the protect string of a row.
+     *
+     * @param keyId the id of the key to use
+     * @param tableName name of the table, included in the HMAC so a row can not be moved to another table
+     * @param protectString the protect string of the row
+     * @return the HMAC
+     * @throws DatabaseProtectionException if there is no key with the given id
+     */
+    byte[] computeHmac(final int keyId, final String tableName, final String protectString) throws DatabaseProtectionException {
+        final Mac mac = getMac(keyId);
+        mac.update(tableName.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        if (protectString != null) {
+            mac.update(protectString.getBytes(StandardCharsets.UTF_8));
+        }
+        return mac.doFinal();
+    }
+
+    private Mac getMac(final int keyId) throws DatabaseProtectionException {
+        final KeyEntry keyEntry = getKeys().keys.get(keyId);
+        if (keyEntry == null) {
+            throw new DatabaseProtectionException("No database protection key with id " + keyId + " is configured.");
+        }
+        final Map<Integer, PooledMac> macs = macPool.get();
+        final PooledMac pooledMac = macs.get(keyId);
+        // The key may have been reloaded since the Mac was created
+        if (pooledMac != null && pooledMac.keyEntry == keyEntry) {
+            return pooledMac.mac;
+        }
+        try {
+            final Mac mac = keyEntry.providerName == null ? Mac.getInstance(MAC_ALGORITHM) : Mac.getInstance(MAC_ALGORITHM, keyEntry.providerName);
+            mac.init(keyEntry.key);
+            macs.put(keyId, new PooledMac(keyEntry, mac));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new DatabaseProtectionException("Could not initialize " + MAC_ALGORITHM + " with database protection key " + keyId + ".", e);
+        }
+    }
+
+    private Keys getKeys() throws DatabaseProtectionException {
+        Keys ret = keys;
+        if (ret == null) {
+            synchronized (this) {
+                ret = keys;
+                if (ret == null) {
+                    ret = loadKeys();
+                    keys = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** Reads the keys from the crypto tokens configured in databaseprotection.properties */
+    private Keys loadKeys() throws DatabaseProtectionException {
+        final Integer currentKeyId = CesecoreConfiguration.getDatabaseProtectionKeyId();
+        if (currentKeyId == null) {
+            throw new DatabaseProtectionException("No database protection key is configured (" + CONFIG_PREFIX + "keyid).");
+        }
+        final Map<Integer, KeyEntry> loadedKeys = new HashMap<>();
+        for (int i = 0; i <= MAX_KEY_INDEX; i++) {
+            final String keyIdString = ConfigurationHolder.getString(CONFIG_PREFIX + "keyid." + i);
+            if (StringUtils.isEmpty(keyIdString)) {
+                continue;
+            }
+            final int keyId;
+            try {
+                keyId = Integer.parseInt(keyIdString.trim());
+            } catch (NumberFormatException e) {
+                throw new DatabaseProtectionException("Invalid key id '" + keyIdString + "' in " + CONFIG_PREFIX + "keyid." + i + ".");
+            }
+            final String version = ConfigurationHolder.getString(CONFIG_PREFIX + "version." + i);
+            if (version != null && !String.valueOf(PROTECTION_VERSION_HMAC).equals(version.trim())) {
+                log.error("Database protection key " + keyId + " has version " + version + ". Only version " + PROTECTION_VERSION_HMAC
+                        + " (" + MAC_ALGORITHM + ") is supported. The key will not be used.");
+                continue;
+            }
+            loadedKeys.put(keyId, loadKey(i, keyId));
+        }
+        if (!loadedKeys.containsKey(currentKeyId)) {
+            throw new DatabaseProtectionException("The database protection key " + currentKeyId + " (" + CONFIG_PREFIX + "keyid) is not configured.");
+        }
+        log.info("Loaded " + loadedKeys.size() + " database protection keys. Protecting rows with key " + currentKeyId + ".");
+        return new Keys(currentKeyId, Collections.unmodifiableMap(loadedKeys));
+    }
+
+    private KeyEntry loadKey(final int index, final int keyId) throws DatabaseProtectionException {
+        final String className = ConfigurationHolder.getString(CONFIG_PREFIX + "classname." + index);
+        final String keyLabel = ConfigurationHolder.getString(CONFIG_PREFIX + "keylabel." + index);
+        final String propertiesString = ConfigurationHolder.getString(CONFIG_PREFIX + "properties." + index);
+        final String data = ConfigurationHolder.getString(CONFIG_PREFIX + "data." + index);
+        final String pin = ConfigurationHolder.getString(CONFIG_PREFIX + "tokenpin." + index);
+        try {
+            final Properties properties = new Properties();
+            if (propertiesString != null) {
+                properties.load(new StringReader(propertiesString));
+            }
+            final CryptoToken cryptoToken = CryptoTokenFactory.createCryptoToken(className, properties, data == null ? null : Base64.decode(data.trim()),
+                    keyId, "Database protection key " + keyId);
+            if (cryptoToken == null) {
+                throw new DatabaseProtectionException("Could not create crypto token " + className + " for database protection key " + keyId + ".");
+            }
+            cryptoToken.activate(pin == null ? null : StringTools.passwordDecryption(pin, CONFIG_PREFIX + "tokenpin." + index).toCharArray());
+            final Key key = cryptoToken.getKey(keyLabel);
+            if (!(key instanceof SecretKey)) {
+                throw new DatabaseProtectionException("Database protection key " + keyId + " with label '" + keyLabel + "' is not a secret key.");
+            }
+            return new KeyEntry(key, cryptoToken.getSignProviderName());
+        } catch (IOException | NoSuchSlotException | CryptoTokenOfflineException | CryptoTokenAuthenticationFailedException | RuntimeException e) {
+            throw new DatabaseProtectionException("Could not load database protection key " + keyId + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sets the keys directly, instead of reading them from crypto tokens. Used by tests.
+     *
+     * @param currentKeyId the id of the key to protect new rows with
+     * @param secretKeys HMAC keys by id, used with the default JCE provider
+     */
+    void setKeys(final int currentKeyId, final Map<Integer, ? extends Key> secretKeys) {
+        final Map<Integer, KeyEntry> keyEntries = new HashMap<>();
+        for (final Map.Entry<Integer, ? extends Key> entry : secretKeys.entrySet()) {
+            keyEntries.put(entry.getKey(), new KeyEntry(entry.getValue(), null));
+        }
+        keys = new Keys(currentKeyId, Collections.unmodifiableMap(keyEntries));
+    }
+
+    /** Forgets the keys and the table settings, so they are read again from the configuration when needed */
+    public void flush() {
+        enabled = null;
+        keys = null;
+        tableSettings.clear();
+    }
+}
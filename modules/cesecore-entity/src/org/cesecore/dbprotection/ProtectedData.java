@@ -76,6 +76,9 @@ public abstract class ProtectedData {
     /** Optimization variable so we don't have to check for existence of implClass for every construction of an entity object */
     private static volatile boolean integrityExists = true;
 
+    /** Message of the error when rows are verified explicitly, but rows are not integrity protected */
+    public static final String NOT_ENABLED_MESSAGE = "Database integrity protection is not enabled. Configure databaseprotection.keyid to protect rows with HMAC.";
+
     /** A default constructor is needed by JPA.
      * This constructor initializes the available database integrity protection module, if any is available
      */
@@ -93,16 +96,30 @@ public abstract class ProtectedData {
             } catch (ClassNotFoundException e) {
                 // We only end up here once, if the class does not exist, we will never end up here again
                 integrityExists = false;
-                log.info("No database integrity protection available in this version of EJBCA.");
-                impl = new ProtectedDataNoopImpl();
+                if (DatabaseProtectionKeyCache.INSTANCE.isEnabled()) {
+                    log.info("Using HMAC database integrity protection.");
+                } else {
+                    log.info("No database integrity protection available in this version of EJBCA.");
+                }
+                impl = createDefaultImpl();
             } catch (InstantiationException e) {
                 log.error("Error intitilizing database integrity protection: ", e);
             } catch (IllegalAccessException e) {
                 log.error("Error intitilizing database integrity protection: ", e);
             }
         } else {
-            impl = new ProtectedDataNoopImpl();
+            impl = createDefaultImpl();
+        }
+    }
+
+    /** @return HMAC database integrity protection if a database protection key is configured, otherwise no protection */
+    private ProtectedDataImpl createDefaultImpl() {
+        if (DatabaseProtectionKeyCache.INSTANCE.isEnabled()) {
+            final ProtectedDataImpl hmacImpl = new ProtectedDataHmacImpl();
+            hmacImpl.setTableName(getTableName());
+            return hmacImpl;
         }
+        return new ProtectedDataNoopImpl();
     }
 
     /**
@@ -171,6 +188,40 @@ public abstract class ProtectedData {
         }
     }
 
+    /**
+     * Verifies the integrity protection of this entity, also if verification is disabled or only done for a sample of the rows
+     * read from the table. Used to verify whole tables.
+     *
+     * @throws DatabaseProtectionException if the integrity protection is invalid or can not be verified
+     */
+    public void verifyProtection() throws DatabaseProtectionException {
+        if (impl instanceof ProtectedDataHmacImpl) {
+            ((ProtectedDataHmacImpl) impl).verifyProtection(this);
+        } else if (impl == null || impl instanceof ProtectedDataNoopImpl) {
+            throw new DatabaseProtectionException(NOT_ENABLED_MESSAGE, this);
+        } else {
+            impl.verifyData(this);
+        }
+    }
+
+    /**
+     * @return true if rows are integrity protected, by the optional database integrity protection module or with HMAC because
+     *      databaseprotection.keyid is configured
+     */
+    public static boolean isProtectionEnabled() {
+        if (DatabaseProtectionKeyCache.INSTANCE.isEnabled()) {
+            return true;
+        }
+        if (integrityExists && implClass == null) {
+            try {
+                Class.forName(implClassName);
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+        return integrityExists;
+    }
+
     /** Method that calculates integrity protection of an entity, but does not store it anywhere. Used primarily to make test protection
      * in order to exercise the CryptoToken.
      * @return the calculated protection string
@@ -0,0 +1,135 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.dbprotection;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.dbprotection.DatabaseProtectionKeyCache.TableSettings;
+
+/**
+ * Database integrity protection with HMAC-SHA256, used when no other database protection implementation is available and a
+ * database protection key is configured in databaseprotection.properties.
+ * <p>
+ * The row protection has the format <code>1:keyId:protectVersion:hmac</code>, where 1 is the protection version (HMAC), keyId
+ * identifies the key in databaseprotection.properties, protectVersion is the version of the protect string of the entity, and
+ * hmac is the hex encoded HMAC of the table name and the protect string.
+ * <p>
+ * Rows are verified when they are read, for the fraction of reads configured with databaseprotection.verifysamplerate. Whole
+ * tables can be verified with {@link #verifyProtection(ProtectedData)}.
+ *
+ * @version $Id$
+ */
+public class ProtectedDataHmacImpl implements ProtectedDataImpl {
+
+    private static final Logger log = Logger.getLogger(ProtectedDataHmacImpl.class);
+
+    private static final char SEPARATOR = ':';
+
+    /** Set while rows are read for verification of a whole table, where verification is done explicitly instead */
+    private static final ThreadLocal<Boolean> verificationSuspended = new ThreadLocal<>();
+
+    private String tableName;
+    private TableSettings settings;
+
+    @Override
+    public void setTableName(final String table) {
+        this.tableName = table;
+        this.settings = DatabaseProtectionKeyCache.INSTANCE.getTableSettings(table);
+    }
+
+    @Override
+    public void protectData(final ProtectedData obj) throws DatabaseProtectionException {
+        if (settings.protect) {
+            obj.setRowProtection(calculateProtection(obj));
+        }
+    }
+
+    @Override
+    public void verifyData(final ProtectedData obj) throws DatabaseProtectionException {
+        if (!settings.verify || verificationSuspended.get() != null) {
+            return;
+        }
+        if (settings.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= settings.sampleRate) {
+            return;
+        }
+        verifyProtection(obj);
+    }
+
+    /**
+     * Verifies the row protection of an entity, regardless of the verification settings for the table.
+     *
+     * @throws DatabaseProtectionException if the row protection is missing or invalid, or can not be verified
+     */
+    public void verifyProtection(final ProtectedData obj) throws DatabaseProtectionException {
+        final String rowProtection = obj.getRowProtection();
+        if (rowProtection == null || rowProtection.isEmpty()) {
+            throw new DatabaseProtectionException("Row protection is missing for " + tableName + " row " + obj.getRowId() + ".", obj);
+        }
+        final String[] parts = rowProtection.split(String.valueOf(SEPARATOR));
+        final byte[] expected;
+        final byte[] actual;
+        try {
+            if (parts.length != 4 || Integer.parseInt(parts[0]) != DatabaseProtectionKeyCache.PROTECTION_VERSION_HMAC) {
+                throw new DatabaseProtectionException("Unsupported row protection format for " + tableName + " row " + obj.getRowId() + ".", obj);
+            }
+            final int keyId = Integer.parseInt(parts[1]);
+            final int protectVersion = Integer.parseInt(parts[2]);
+            expected = Hex.decode(parts[3]);
+            actual = DatabaseProtectionKeyCache.INSTANCE.computeHmac(keyId, tableName, obj.getProtectString(protectVersion));
+        } catch (NumberFormatException | DecoderException e) {
+            throw new DatabaseProtectionException("Invalid row protection for " + tableName + " row " + obj.getRowId() + ".", obj);
+        }
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new DatabaseProtectionException("Row protection failed for " + tableName + " row " + obj.getRowId() + ".", obj);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Verified row protection for " + tableName + " row " + obj.getRowId() + ".");
+        }
+    }
+
+    @Override
+    public String calculateProtection(final ProtectedData obj) throws DatabaseProtectionException {
+        final DatabaseProtectionKeyCache keyCache = DatabaseProtectionKeyCache.INSTANCE;
+        final int keyId = keyCache.getCurrentKeyId();
+        final int protectVersion = obj.getProtectVersion();
+        final byte[] hmac = keyCache.computeHmac(keyId, tableName, obj.getProtectString(protectVersion));
+        return new StringBuilder(80).append(DatabaseProtectionKeyCache.PROTECTION_VERSION_HMAC).append(SEPARATOR).append(keyId).append(SEPARATOR)
+                .append(protectVersion).append(SEPARATOR).append(Hex.toHexString(hmac)).toString();
+    }
+
+    @Override
+    public void onDataVerificationError(final DatabaseProtectionException e) throws DatabaseProtectionException {
+        log.error(e.getMessage());
+        if (CesecoreConfiguration.isDatabaseIntegrityErrorOnVerifyFail()) {
+            throw e;
+        }
+    }
+
+    /**
+     * Disables verification when rows are read in the current thread, until {@link #resumeVerification()} is called. Used when
+     * reading rows to verify them explicitly with {@link #verifyProtection(ProtectedData)}, so a failing row does not fail the read.
+     */
+    public static void suspendVerification() {
+        verificationSuspended.set(Boolean.TRUE);
+    }
+
+    /** Enables verification of rows read in the current thread again */
+    public static void resumeVerification() {
+        verificationSuspended.remove();
+    }
+}
@@ -0,0 +1,147 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.search;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+import org.cesecore.util.CertTools;
+
+/**
+ * One search token (see {@link org.cesecore.util.SearchTokenizer}) of a searchable field of a CertificateData or UserData row.
+ * <p>
+ * The table works as an inverted index used to find candidate rows for substring searches, so that the RA searches does not
+ * have to do full table scans with "LIKE '%...%'" predicates.
+ *
+ * @version $Id$
+ */
+@Entity
+@Table(name = "SearchTokenData")
+public class SearchTokenData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LATEST_PROTECT_VERSON = 1;
+
+    /** The reference is a CertificateData fingerprint */
+    public static final int REFERENCE_TYPE_CERTIFICATE = 1;
+    /** The reference is a UserData username */
+    public static final int REFERENCE_TYPE_END_ENTITY = 2;
+
+    public static final int FIELD_SUBJECTDN = 1;
+    public static final int FIELD_SUBJECTALTNAME = 2;
+    public static final int FIELD_USERNAME = 3;
+
+    private String pk;
+    private int referenceType;
+    private String referenceId;
+    private int fieldType;
+    private String token;
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    public SearchTokenData(final int referenceType, final String referenceId, final int fieldType, final String token) {
+        setPk(generatePk(referenceType, referenceId, fieldType, token));
+        setReferenceType(referenceType);
+        setReferenceId(referenceId);
+        setFieldType(fieldType);
+        setToken(token);
+    }
+
+    /** Empty constructor used by EJBCA and JPA. */
+    public SearchTokenData() {}
+
+    /** @return a deterministic primary key, so a token is never stored twice for the same row and field */
+    public static String generatePk(final int referenceType, final String referenceId, final int fieldType, final String token) {
+        final String value = referenceType + ";" + fieldType + ";" + referenceId + ";" + token;
+        return CertTools.getFingerprintAsString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getPk() { return pk; }
+    public void setPk(final String pk) { this.pk = pk; }
+
+    /** @return one of the REFERENCE_TYPE_ constants */
+    public int getReferenceType() { return referenceType; }
+    public void setReferenceType(final int referenceType) { this.referenceType = referenceType; }
+
+    /** @return the primary key of the indexed row, i.e. a certificate fingerprint or an end entity username */
+    public String getReferenceId() { return referenceId; }
+    public void setReferenceId(final String referenceId) { this.referenceId = referenceId; }
+
+    /** @return one of the FIELD_ constants */
+    public int getFieldType() { return fieldType; }
+    public void setFieldType(final int fieldType) { this.fieldType = fieldType; }
+
+    public String getToken() { return token; }
+    public void setToken(final String token) { this.token = token; }
+
+    public int getRowVersion() { return rowVersion; }
+    public void setRowVersion(final int rowVersion) { this.rowVersion = rowVersion; }
+
+    @Override
+    public String getRowProtection() { return rowProtection; }
+    @Override
+    public void setRowProtection(final String rowProtection) { this.rowProtection = rowProtection; }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        build.append(getPk()).append(getReferenceType()).append(getReferenceId()).append(getFieldType()).append(getToken());
+        return build.toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return LATEST_PROTECT_VERSON;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() throws DatabaseProtectionException {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() throws DatabaseProtectionException {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return getPk();
+    }
+
+    //
+    // End Database integrity protection methods
+    //
+}
@@ -145,6 +145,7 @@ import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.keys.token.IllegalCryptoTokenException;
 import org.cesecore.keys.token.NullCryptoToken;
+import org.cesecore.keys.token.p11.P11SignaturePool;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.keys.validation.IssuancePhase;
 import org.cesecore.keys.validation.ValidationException;
@@ -735,6 +736,15 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         return (Integer)getMapValueWithDefault(SERIALNUMBEROCTETSIZE, CesecoreConfiguration.getSerialNumberOctetSizeForNewCa());
     }
 
+    /** @return the serial number generator given in the certificate generation parameters, if any, or the default generator */
+    private SernoGenerator getSernoGenerator(final CertificateGenerationParams certGenParams) {
+        final int noOctets = getSerialNumberOctetSize();
+        if (certGenParams != null && certGenParams.getSernoGenerator() != null && certGenParams.getSernoGenerator().getNoSernoBytes() == noOctets) {
+            return certGenParams.getSernoGenerator();
+        }
+        return SernoGeneratorRandom.instance(noOctets);
+    }
+
     /* (non-Javadoc)
      * @see org.cesecore.certificates.ca.X509CA#setCaSerialNumberOctetSize(int)
      */
@@ -1166,12 +1176,10 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                 if (ei != null && ei.certificateSerialNumber()!=null) {
                     serno = ei.certificateSerialNumber();
                 } else {
-                    SernoGenerator instance = SernoGeneratorRandom.instance(getSerialNumberOctetSize());
-                    serno = instance.getSerno();
+                    serno = getSernoGenerator(certGenParams).getSerno();
                 }
             } else {
-                SernoGenerator instance = SernoGeneratorRandom.instance(getSerialNumberOctetSize());
-                serno = instance.getSerno();
+                serno = getSernoGenerator(certGenParams).getSerno();
                 if ((ei != null) && (ei.certificateSerialNumber() != null)) {
                     final String msg = intres.getLocalizedMessage("createcert.certprof_not_allowing_cert_sn_override_using_normal", ei.certificateSerialNumber().toString(16));
                     log.info(msg);
@@ -1589,8 +1597,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
                  *  It should have CA=true and ExtKeyUsage=PRECERTIFICATE_SIGNING_OID
                  *  and should not have any other key usages (see RFC 6962, section 3.1)
                  */
-                final ContentSigner signer = new BufferingContentSigner(
-                        new JcaContentSignerBuilder(sigAlg).setProvider(provider).build(caPrivateKey), X509CAImpl.SIGN_BUFFER_SIZE);
+                final ContentSigner signer = P11SignaturePool.buildContentSigner(sigAlg, provider, caPrivateKey, X509CAImpl.SIGN_BUFFER_SIZE);
                 // TODO: with the new BC methods remove- and replaceExtension we can get rid of the precertbuilder and only use one builder to save some time and space 
                 final X509CertificateHolder certHolder = precertbuilder.build(signer);
                 final X509Certificate cert = CertTools.getCertfromByteArray(certHolder.getEncoded(), X509Certificate.class);
@@ -1663,7 +1670,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         if (log.isTraceEnabled()) {
             log.trace(">certgen.generate");
         }
-        final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(provider).build(caPrivateKey), X509CAImpl.SIGN_BUFFER_SIZE);
+        final ContentSigner signer = P11SignaturePool.buildContentSigner(sigAlg, provider, caPrivateKey, X509CAImpl.SIGN_BUFFER_SIZE);
         final X509CertificateHolder certHolder = certbuilder.build(signer);
         X509Certificate cert;
         try {
@@ -2094,7 +2101,7 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         }
         final String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
         try {
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
+            final ContentSigner signer = P11SignaturePool.buildContentSigner(sigAlg, cryptoToken.getSignProviderName(), cryptoToken.getPrivateKey(alias), X509CAImpl.SIGN_BUFFER_SIZE);
             crl = crlgen.build(signer);
         } catch (OperatorCreationException e) {
             // Very fatal error
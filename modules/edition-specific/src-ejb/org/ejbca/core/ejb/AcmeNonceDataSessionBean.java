@@ -16,11 +16,16 @@ package org.ejbca.core.ejb;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
 
+import org.apache.log4j.Logger;
+import org.ejbca.acme.AcmeNonceData;
 import org.ejbca.core.protocol.acme.AcmeNonceDataSessionLocal;
 
 /**
- * Not available in Community Edition
+ * Stores used ACME replay nonces in the database, so that they are rejected on all nodes in a cluster.
  *
  * @version $Id$
  */
@@ -28,13 +33,43 @@ import org.ejbca.core.protocol.acme.AcmeNonceDataSessionLocal;
 @TransactionAttribute(TransactionAttributeType.SUPPORTS)
 public class AcmeNonceDataSessionBean implements AcmeNonceDataSessionLocal {
 
+    private static final Logger log = Logger.getLogger(AcmeNonceDataSessionBean.class);
+
+    /** Expired nonces are kept this long, to account for clock drift between the nodes */
+    private static final long CLEANUP_MARGIN = 3600000L;
+
+    @PersistenceContext(unitName = "ejbca")
+    private EntityManager entityManager;
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
     @Override
     public boolean useNonce(final String nonce, final long timeCreated, final long timeExpires) {
-        throw new UnsupportedOperationException("ACME calls are only supported in EJBCA Enterprise");
+        if (timeExpires <= System.currentTimeMillis()) {
+            return false;
+        }
+        if (entityManager.find(AcmeNonceData.class, nonce) != null) {
+            return false;
+        }
+        // The nonce is the primary key, so inserting it fails if another node has used it since the find above
+        try {
+            entityManager.persist(new AcmeNonceData(nonce, timeExpires));
+            entityManager.flush();
+        } catch (PersistenceException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay nonce '" + nonce + "' could not be stored: " + e.getMessage());
+            }
+            return false;
+        }
+        return true;
     }
 
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
     @Override
     public void cleanUpExpired() {
-        throw new UnsupportedOperationException("ACME calls are only supported in EJBCA Enterprise");
+        final int removed = entityManager.createQuery("DELETE FROM AcmeNonceData a WHERE a.timeExpires<:timeExpires")
+                .setParameter("timeExpires", System.currentTimeMillis() - CLEANUP_MARGIN).executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + removed + " expired ACME replay nonces from the database.");
+        }
     }
 }
@@ -12,16 +12,41 @@
  *************************************************************************/
 package org.ejbca.core.ejb;
 
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.Singleton;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
 
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.config.GlobalAcmeConfiguration;
+import org.ejbca.core.protocol.acme.AcmeNonceDataSessionLocal;
+import org.ejbca.core.protocol.acme.AcmeNonceReplayWindow;
 import org.ejbca.core.protocol.acme.AcmeNonceSingletonLocal;
+import org.ejbca.core.protocol.acme.AcmeReplayNonceFactory;
+import org.ejbca.core.protocol.acme.AcmeReplayNonceFactory.ReplayNonce;
 
 /**
- * Not available in Community Edition
+ * Issues and redeems ACME replay nonces without any database access, see {@link AcmeNonceSingletonLocal}.
+ * <p>
+ * Nonces are signed with the replay nonce secrets in the global ACME configuration, so that all nodes sharing the database accept
+ * each other's nonces. If no secret has been configured, a random secret is generated in memory and replaced every hour, which
+ * only works if each client always talks to the same node.
+ * <p>
+ * Used nonces are kept in an {@link AcmeNonceReplayWindow} until they expire. If the nodes in a cluster share the secrets,
+ * acme.replaynonce.databasesync in ejbca.properties can be enabled to also store used nonces in the database.
  *
  * @version $Id$
  */
@@ -31,15 +56,170 @@ import org.ejbca.core.protocol.acme.AcmeNonceSingletonLocal;
 @TransactionManagement(TransactionManagementType.BEAN)
 public class AcmeNonceSingletonBean implements AcmeNonceSingletonLocal {
 
+    private static final Logger log = Logger.getLogger(AcmeNonceSingletonBean.class);
+
+    private static final String HMAC_OID = PKCSObjectIdentifiers.id_hmacWithSHA256.getId();
+    /** Size of secrets generated when no shared secret is configured */
+    private static final int LOCAL_SECRET_SIZE = 32;
+    /** How often a generated secret is replaced. The previous one is kept for verification, so this must be longer than the nonce validity */
+    private static final long LOCAL_SECRET_ROTATION_INTERVAL = 3600000L;
+    /** How often expired nonces are removed from the database, when used nonces are stored there */
+    private static final long DATABASE_CLEANUP_INTERVAL = 600000L;
+
+    /** Nonce factory together with what it was created from */
+    private static class NonceFactoryHolder {
+        private final List<String> sharedSecrets;
+        private final long expireTime;
+        private final AcmeReplayNonceFactory factory;
+
+        private NonceFactoryHolder(final List<String> sharedSecrets, final long expireTime, final AcmeReplayNonceFactory factory) {
+            this.sharedSecrets = sharedSecrets;
+            this.expireTime = expireTime;
+            this.factory = factory;
+        }
+
+        private boolean isValidFor(final List<String> currentSharedSecrets, final long now) {
+            if (currentSharedSecrets == null) {
+                return sharedSecrets == null && now < expireTime;
+            }
+            return currentSharedSecrets.equals(sharedSecrets);
+        }
+    }
+
+    @EJB
+    private AcmeNonceDataSessionLocal acmeNonceDataSession;
+    @EJB
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final AtomicLong counter = new AtomicLong();
+    private final AtomicLong lastDatabaseCleanUp = new AtomicLong();
+    private final List<byte[]> localSecrets = new ArrayList<>();
+    private byte[] nodeId;
+    private volatile NonceFactoryHolder nonceFactoryHolder = null;
+    private volatile AcmeNonceReplayWindow replayWindow = null;
+
+    @PostConstruct
+    public void postConstruct() {
+        nodeId = new byte[AcmeReplayNonceFactory.NODE_ID_SIZE];
+        secureRandom.nextBytes(nodeId);
+    }
+
     @Override
     public boolean isNonceValid(final String nonce) {
-        throw new UnsupportedOperationException("ACME calls are only supported in EJBCA Enterprise");
+        final long now = System.currentTimeMillis();
+        final GlobalAcmeConfiguration globalAcmeConfiguration = getGlobalAcmeConfiguration();
+        final ReplayNonce replayNonce = getNonceFactory(globalAcmeConfiguration, now).parse(nonce);
+        if (replayNonce == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay nonce '" + nonce + "' was not created by this system.");
+            }
+            return false;
+        }
+        final long validity = globalAcmeConfiguration.getReplayNonceValidity();
+        final long timeExpires = replayNonce.getTimeCreated() + validity;
+        if (timeExpires <= now) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay nonce '" + nonce + "' expired " + (now - timeExpires) + " ms ago.");
+            }
+            return false;
+        }
+        if (!getReplayWindow(validity).markUsed(replayNonce.getReplayKey(), timeExpires)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay nonce '" + nonce + "' has already been used.");
+            }
+            return false;
+        }
+        if (EjbcaConfiguration.isAcmeReplayNonceDatabaseSync()) {
+            cleanUpDatabase(now);
+            try {
+                return acmeNonceDataSession.useNonce(nonce, replayNonce.getTimeCreated(), timeExpires);
+            } catch (EJBException e) {
+                // The nonce could not be stored, for example if another node stored it at the same time. Don't accept it.
+                if (log.isDebugEnabled()) {
+                    log.debug("Replay nonce '" + nonce + "' could not be marked as used in the database: " + e.getMessage());
+                }
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public String getReplayNonce() throws IllegalStateException {
-        throw new UnsupportedOperationException("ACME calls are only supported in EJBCA Enterprise");
+        final long now = System.currentTimeMillis();
+        return getNonceFactory(getGlobalAcmeConfiguration(), now).createNonce(now);
+    }
+
+    private GlobalAcmeConfiguration getGlobalAcmeConfiguration() {
+        return (GlobalAcmeConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalAcmeConfiguration.ACME_CONFIGURATION_ID);
     }
 
+    private AcmeReplayNonceFactory getNonceFactory(final GlobalAcmeConfiguration globalAcmeConfiguration, final long now) {
+        List<String> sharedSecrets;
+        try {
+            sharedSecrets = globalAcmeConfiguration.getReplayNonceSharedSecrets(HMAC_OID);
+        } catch (IllegalStateException e) {
+            // No secret has been configured
+            sharedSecrets = null;
+        }
+        final NonceFactoryHolder current = nonceFactoryHolder;
+        if (current != null && current.isValidFor(sharedSecrets, now)) {
+            return current.factory;
+        }
+        synchronized (this) {
+            if (nonceFactoryHolder != null && nonceFactoryHolder.isValidFor(sharedSecrets, now)) {
+                return nonceFactoryHolder.factory;
+            }
+            final List<byte[]> secrets = new ArrayList<>();
+            final long expireTime;
+            if (sharedSecrets != null) {
+                for (final String sharedSecret : sharedSecrets) {
+                    secrets.add(Hex.decode(sharedSecret));
+                }
+                expireTime = Long.MAX_VALUE;
+                sharedSecrets = new ArrayList<>(sharedSecrets);
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("No shared ACME replay nonce secret has been configured, generating a new secret for this node.");
+                }
+                final byte[] localSecret = new byte[LOCAL_SECRET_SIZE];
+                secureRandom.nextBytes(localSecret);
+                localSecrets.add(localSecret);
+                while (localSecrets.size() > 2) {
+                    localSecrets.remove(0);
+                }
+                secrets.addAll(localSecrets);
+                expireTime = now + Math.max(LOCAL_SECRET_ROTATION_INTERVAL, globalAcmeConfiguration.getReplayNonceValidity());
+            }
+            nonceFactoryHolder = new NonceFactoryHolder(sharedSecrets, expireTime, new AcmeReplayNonceFactory(nodeId, secrets, counter));
+            return nonceFactoryHolder.factory;
+        }
+    }
+
+    private AcmeNonceReplayWindow getReplayWindow(final long validity) {
+        final AcmeNonceReplayWindow current = replayWindow;
+        if (current != null && current.getValidity() == validity) {
+            return current;
+        }
+        synchronized (this) {
+            if (replayWindow == null || replayWindow.getValidity() != validity) {
+                replayWindow = new AcmeNonceReplayWindow(validity);
+            }
+            return replayWindow;
+        }
+    }
 
+    /** Removes expired nonces from the database, at most once every {@value #DATABASE_CLEANUP_INTERVAL} ms on each node */
+    private void cleanUpDatabase(final long now) {
+        final long lastCleanUp = lastDatabaseCleanUp.get();
+        if (now - lastCleanUp < DATABASE_CLEANUP_INTERVAL || !lastDatabaseCleanUp.compareAndSet(lastCleanUp, now)) {
+            return;
+        }
+        try {
+            acmeNonceDataSession.cleanUpExpired();
+        } catch (RuntimeException e) {
+            log.info("Failed to remove expired ACME replay nonces from the database: " + e.getMessage());
+        }
+    }
 }
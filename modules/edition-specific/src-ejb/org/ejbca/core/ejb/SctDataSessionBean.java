@@ -12,34 +12,75 @@
  *************************************************************************/
 package org.ejbca.core.ejb;
 
-import org.cesecore.certificates.certificatetransparency.SctData;
-import org.cesecore.certificates.certificatetransparency.SctDataSessionLocal;
-import org.cesecore.jndi.JndiConstants;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.cesecore.certificates.certificatetransparency.SctData;
+import org.cesecore.certificates.certificatetransparency.SctDataSessionLocal;
+import org.cesecore.jndi.JndiConstants;
 
 /**
+ * Stores SCTs that are used in OCSP responses and by publishers, and provides the thread pool that is used to fetch SCTs from
+ * several CT logs in parallel.
+ *
  * @version $Id$
  */
 @Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "SctDataSession")
 @TransactionAttribute(TransactionAttributeType.REQUIRED)
 public class SctDataSessionBean implements SctDataSessionLocal {
+
+    /** Maximum number of concurrent requests to CT logs, over all logs */
+    private static final int MAX_THREADS = 64;
+    /** Maximum number of requests waiting for a thread. Requests beyond this are rejected, and count as failed. */
+    private static final int MAX_QUEUED = 1000;
+
+    private static final ExecutorService threadPool;
+    static {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "CtLogSubmission-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        threadPool = executor;
+    }
+
+    @PersistenceContext(unitName = "ejbca")
+    private EntityManager entityManager;
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
-    public List<SctData> findSctData(String fingerprint) {
-        throw new UnsupportedOperationException("SCT calls are only supported in EJBCA Enterprise");
+    public List<SctData> findSctData(final String fingerprint) {
+        final TypedQuery<SctData> query = entityManager.createQuery("SELECT a FROM SctData a WHERE a.fingerprint=:fingerprint", SctData.class);
+        query.setParameter("fingerprint", fingerprint);
+        return query.getResultList();
     }
 
     @Override
-    public void addSctData(SctData sctData) {
-        throw new UnsupportedOperationException("SCT calls are only supported in EJBCA Enterprise");
+    public void addSctData(final SctData sctData) {
+        entityManager.persist(sctData);
     }
 
     @Override
     public ExecutorService getThreadPool() {
-        throw new UnsupportedOperationException("SCT calls are only supported in EJBCA Enterprise");
+        return threadPool;
     }
 }
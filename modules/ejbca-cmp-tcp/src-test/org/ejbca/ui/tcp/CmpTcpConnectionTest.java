@@ -0,0 +1,234 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.junit.Test;
+
+/**
+ * Tests the decoding of the TCP messages framing in {@link CmpTcpConnection} and {@link TcpReceivedMessage}, with channels that only
+ * deliver part of the data at a time, as non-blocking socket channels do.
+ *
+ * @version $Id$
+ */
+public class CmpTcpConnectionTest {
+
+    private static final int MAX_MESSAGE_SIZE = 5000;
+    /** Version of the TCP messages, 10 as in draft 5 of the CMP transport protocols */
+    private static final int VERSION = 10;
+
+    /** Channel that returns the queued chunks one read at a time, and 0 bytes when there is no chunk */
+    private static class ChunkedChannel implements ReadableByteChannel, WritableByteChannel {
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int maxWrite;
+        private boolean endOfStream = false;
+
+        private ChunkedChannel(final int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        private void add(final byte[] data, final int from, final int to) {
+            chunks.add(Arrays.copyOfRange(data, from, to));
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (chunks.isEmpty()) {
+                return endOfStream ? -1 : 0;
+            }
+            final byte[] chunk = chunks.poll();
+            final int length = Math.min(chunk.length, dst.remaining());
+            dst.put(chunk, 0, length);
+            if (length < chunk.length) {
+                chunks.addFirst(Arrays.copyOfRange(chunk, length, chunk.length));
+            }
+            return length;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final int length = Math.min(maxWrite, src.remaining());
+            final byte[] bytes = new byte[length];
+            src.get(bytes);
+            written.write(bytes, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testPartialReads() throws IOException {
+        final byte[] message = getMessage(VERSION, 0, new byte[] { 0x30, 0x03, 0x02, 0x01, 0x05 });
+        final ChunkedChannel channel = new ChunkedChannel(Integer.MAX_VALUE);
+        final CmpTcpConnection connection = new CmpTcpConnection("127.0.0.1");
+        // Split both the length field and the message
+        channel.add(message, 0, 2);
+        assertNull("Message with half the length field should not be complete.", connection.read(channel, MAX_MESSAGE_SIZE));
+        assertNull("Nothing to read should not complete the message.", connection.read(channel, MAX_MESSAGE_SIZE));
+        channel.add(message, 2, 5);
+        assertNull(connection.read(channel, MAX_MESSAGE_SIZE));
+        channel.add(message, 5, message.length - 1);
+        assertNull("Message without its last byte should not be complete.", connection.read(channel, MAX_MESSAGE_SIZE));
+        assertFalse(connection.isProcessing());
+        channel.add(message, message.length - 1, message.length);
+        final byte[] result = connection.read(channel, MAX_MESSAGE_SIZE);
+        assertArrayEquals(message, result);
+        assertTrue(connection.isProcessing());
+    }
+
+    @Test
+    public void testSeveralMessagesOnOneConnection() throws IOException {
+        final byte[] first = getMessage(VERSION, 0, new byte[] { 1, 2, 3, 4, 5 });
+        final byte[] second = getMessage(VERSION, 1, new byte[] { 6, 7, 8 });
+        final ChunkedChannel channel = new ChunkedChannel(Integer.MAX_VALUE);
+        final CmpTcpConnection connection = new CmpTcpConnection("127.0.0.1");
+        channel.add(first, 0, first.length);
+        channel.add(second, 0, second.length);
+        assertArrayEquals(first, connection.read(channel, MAX_MESSAGE_SIZE));
+        assertArrayEquals("The length field should be read again for the next message.", second, connection.read(channel, MAX_MESSAGE_SIZE));
+    }
+
+    @Test
+    public void testOversizedLengthField() throws IOException {
+        final ChunkedChannel channel = new ChunkedChannel(Integer.MAX_VALUE);
+        final CmpTcpConnection connection = new CmpTcpConnection("127.0.0.1");
+        channel.add(ByteBuffer.allocate(4).putInt(MAX_MESSAGE_SIZE).array(), 0, 4);
+        try {
+            connection.read(channel, MAX_MESSAGE_SIZE);
+            fail("A length field at the maximum message size should not be accepted.");
+        } catch (IOException e) {
+            assertFalse(e instanceof EOFException);
+        }
+        final CmpTcpConnection otherConnection = new CmpTcpConnection("127.0.0.1");
+        channel.add(ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array(), 0, 4);
+        try {
+            otherConnection.read(channel, MAX_MESSAGE_SIZE);
+            fail("A length field larger than the maximum message size should not be accepted, nor allocated.");
+        } catch (IOException e) {
+            assertFalse(e instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void testTooShortLengthField() throws IOException {
+        for (final int length : new int[] { -1, 0, 2 }) {
+            final ChunkedChannel channel = new ChunkedChannel(Integer.MAX_VALUE);
+            channel.add(ByteBuffer.allocate(4).putInt(length).array(), 0, 4);
+            try {
+                new CmpTcpConnection("127.0.0.1").read(channel, MAX_MESSAGE_SIZE);
+                fail("A length field of " + length + " should not be accepted.");
+            } catch (IOException e) {
+                assertFalse(e instanceof EOFException);
+            }
+        }
+    }
+
+    @Test
+    public void testEndOfStream() throws IOException {
+        final byte[] message = getMessage(VERSION, 0, new byte[] { 1, 2, 3 });
+        final ChunkedChannel channel = new ChunkedChannel(Integer.MAX_VALUE);
+        final CmpTcpConnection connection = new CmpTcpConnection("127.0.0.1");
+        channel.add(message, 0, 6);
+        assertNull(connection.read(channel, MAX_MESSAGE_SIZE));
+        assertNull(connection.read(channel, MAX_MESSAGE_SIZE));
+        channel.endOfStream = true;
+        try {
+            connection.read(channel, MAX_MESSAGE_SIZE);
+            fail("A client that closes the connection in the middle of a message should be detected.");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPartialWrites() throws IOException {
+        final byte[] request = getMessage(VERSION, 0, new byte[] { 1, 2, 3 });
+        final ChunkedChannel channel = new ChunkedChannel(4);
+        final CmpTcpConnection connection = new CmpTcpConnection("127.0.0.1");
+        channel.add(request, 0, request.length);
+        assertNotNull(connection.read(channel, MAX_MESSAGE_SIZE));
+        final TcpReturnMessage response = TcpReturnMessage.createMessage(new byte[] { 0x30, 0x03, 0x02, 0x01, 0x05 }, true);
+        connection.setResponse(response.message, response.doClose);
+        assertFalse(connection.write(channel));
+        assertFalse(connection.write(channel));
+        assertTrue(connection.isProcessing());
+        assertTrue("The whole response should be written at last.", connection.write(channel));
+        assertFalse(connection.isProcessing());
+        assertTrue(connection.isCloseAfterResponse());
+        assertArrayEquals(response.message, channel.written.toByteArray());
+    }
+
+    @Test
+    public void testCloseFlag() throws IOException {
+        final byte[] payload = new byte[] { 0x30, 0x03, 0x02, 0x01, 0x05 };
+        final TcpReceivedMessage keepOpen = TcpReceivedMessage.getTcpMessage(getMessage(VERSION, 0, payload));
+        assertArrayEquals(payload, keepOpen.message);
+        assertFalse("Connection should be kept open when the close flag is not set.", keepOpen.doClose);
+        final TcpReceivedMessage close = TcpReceivedMessage.getTcpMessage(getMessage(VERSION, 1, payload));
+        assertArrayEquals(payload, close.message);
+        assertTrue("Connection should be closed when the close flag is set.", close.doClose);
+        final TcpReceivedMessage otherFlags = TcpReceivedMessage.getTcpMessage(getMessage(VERSION, 0xfe, payload));
+        assertFalse("Only the lowest bit of the flags should close the connection.", otherFlags.doClose);
+        final TcpReturnMessage response = TcpReturnMessage.createMessage(payload, true);
+        assertEquals("Response should have the close flag set.", 1, response.message[5]);
+    }
+
+    @Test
+    public void testWrongLength() throws IOException {
+        final byte[] message = getMessage(VERSION, 0, new byte[] { 1, 2, 3, 4, 5 });
+        ByteBuffer.wrap(message).putInt(message.length);
+        assertNull("Message whose length field does not match the message should not be accepted.",
+                TcpReceivedMessage.getTcpMessage(message).message);
+        assertNull(TcpReceivedMessage.getTcpMessage(new byte[] { 0, 0, 0, 3, 10, 0, 0 }).message);
+    }
+
+    /** @return a TCP message with the length field, version, flags, message type 0 (pkiReq) and payload */
+    private static byte[] getMessage(final int version, final int flags, final byte[] payload) throws IOException {
+        final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(bao);
+        dos.writeInt(payload.length + 3);
+        dos.writeByte(version);
+        dos.writeByte(flags);
+        dos.writeByte(0);
+        dos.write(payload);
+        dos.flush();
+        return bao.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CmpTcpServer} keeps serving clients when a connection fails. The CMP messages are answered by a command handler
+ * that returns the received message.
+ *
+ * @version $Id$
+ */
+public class CmpTcpServerTest {
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final byte[] FIRST_PAYLOAD = new byte[] { 0x30, 0x03, 0x02, 0x01, 0x01 };
+    private static final byte[] SECOND_PAYLOAD = new byte[] { 0x30, 0x03, 0x02, 0x01, 0x02 };
+
+    /** Released when the first client has closed its connection */
+    private final CountDownLatch firstClientClosed = new CountDownLatch(1);
+    /** Released when the first message is being processed */
+    private final CountDownLatch firstMessageReceived = new CountDownLatch(1);
+    private CmpTcpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.portno", "0");
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.bindadress", LOCALHOST);
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.workerthreads", "2");
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.workerqueuesize", "10");
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.maxconnections", "10");
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.readtimeout", "30000");
+        EjbcaConfigurationHolder.updateConfiguration("cmp.tcp.maxmessagesize", "5000");
+        server = new CmpTcpServer(new CmpTcpCommandHandler() {
+            @Override
+            public TcpReturnMessage handleMessage(final String hostAddress, final byte[] command) throws IOException {
+                final TcpReceivedMessage received = TcpReceivedMessage.getTcpMessage(command);
+                if (received.message[received.message.length - 1] == FIRST_PAYLOAD[FIRST_PAYLOAD.length - 1]) {
+                    // Answer the first client when it has gone away
+                    firstMessageReceived.countDown();
+                    try {
+                        firstClientClosed.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return TcpReturnMessage.createMessage(received.message, false);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        EjbcaConfigurationHolder.restoreConfiguration();
+    }
+
+    @Test(timeout = 30000)
+    public void testClientClosedDuringRequest() throws Exception {
+        try (final Socket first = new Socket(LOCALHOST, server.getLocalPort())) {
+            // Reset the connection when closed, so that writing the response fails
+            first.setSoLinger(true, 0);
+            first.getOutputStream().write(getMessage(FIRST_PAYLOAD));
+            assertTrue("First message was not received.", firstMessageReceived.await(10, TimeUnit.SECONDS));
+        } finally {
+            firstClientClosed.countDown();
+        }
+        // Give the server time to write to the closed connection
+        Thread.sleep(500);
+        for (int i = 0; i < 2; i++) {
+            try (final Socket second = new Socket(LOCALHOST, server.getLocalPort())) {
+                second.setSoTimeout(10000);
+                second.getOutputStream().write(getMessage(SECOND_PAYLOAD));
+                final DataInputStream in = new DataInputStream(second.getInputStream());
+                final byte[] response = new byte[in.readInt() - 3];
+                in.readByte(); // version
+                in.readByte(); // flags
+                in.readByte(); // message type
+                in.readFully(response);
+                assertArrayEquals("Client after the closed connection should get a response.", SECOND_PAYLOAD, response);
+            }
+        }
+    }
+
+    /** @return a TCP message with the length field, version 10, no flags, message type 0 (pkiReq) and payload */
+    private static byte[] getMessage(final byte[] payload) throws IOException {
+        final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(bao);
+        dos.writeInt(payload.length + 3);
+        dos.writeByte(10);
+        dos.writeByte(0);
+        dos.writeByte(0);
+        dos.write(payload);
+        dos.flush();
+        return bao.toByteArray();
+    }
+}
@@ -0,0 +1,140 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.ui.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.ejbca.core.model.InternalEjbcaResources;
+
+/**
+ * State of one client connection to the {@link CmpTcpServer}. Decodes the TCP messages framing (a 32 bit length followed by the
+ * version, flags, message type and CMP message) from the non-blocking channel, and holds the response while it is being written.
+ * <p>
+ * Only one message per connection is processed at a time, so the connection is either reading a message, waiting for the
+ * response from a worker thread, or writing the response. All methods are called from the selector thread only.
+ *
+ * @version $Id$
+ */
+class CmpTcpConnection {
+
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+
+    private static final int LENGTH_FIELD_SIZE = 4;
+    /** Version, flags and message type follow the length field */
+    private static final int MIN_MESSAGE_LENGTH = 3;
+
+    private final String hostAddress;
+    private final ByteBuffer lengthField = ByteBuffer.allocate(LENGTH_FIELD_SIZE);
+    private ByteBuffer message = null;
+    private ByteBuffer response = null;
+    private boolean closeAfterResponse = false;
+    private boolean processing = false;
+    private long lastActivity;
+
+    CmpTcpConnection(final String hostAddress) {
+        this.hostAddress = hostAddress;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    String getHostAddress() {
+        return hostAddress;
+    }
+
+    /** @return true while the message is being processed or the response is being written */
+    boolean isProcessing() {
+        return processing;
+    }
+
+    /** @return the time of the last read or write on the connection */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Reads available data from the channel.
+     *
+     * @param channel the channel of this connection
+     * @param maxMessageSize the maximum allowed value of the length field
+     * @return the complete message including the length field, or null if more data is needed
+     * @throws IOException if the client closed the connection, the message is too long, or on a network error
+     */
+    byte[] read(final ReadableByteChannel channel, final int maxMessageSize) throws IOException {
+        if (message == null) {
+            if (channel.read(lengthField) < 0) {
+                throw new EOFException();
+            }
+            lastActivity = System.currentTimeMillis();
+            if (lengthField.hasRemaining()) {
+                return null;
+            }
+            final int length = lengthField.getInt(0);
+            if (length >= maxMessageSize) {
+                throw new IOException(intres.getLocalizedMessage("cmp.errortcptoolongmsg", Integer.valueOf(length)));
+            }
+            if (length < MIN_MESSAGE_LENGTH) {
+                throw new IOException("Received a TCP message with invalid length " + length + " from " + hostAddress);
+            }
+            message = ByteBuffer.allocate(LENGTH_FIELD_SIZE + length);
+            message.putInt(length);
+        }
+        if (channel.read(message) < 0) {
+            throw new EOFException();
+        }
+        lastActivity = System.currentTimeMillis();
+        if (message.hasRemaining()) {
+            return null;
+        }
+        final byte[] result = message.array();
+        message = null;
+        lengthField.clear();
+        processing = true;
+        return result;
+    }
+
+    /**
+     * Sets the response to write to the client.
+     * @param response the encoded response
+     * @param close true if the connection should be closed when the response has been written
+     */
+    void setResponse(final byte[] response, final boolean close) {
+        this.response = ByteBuffer.wrap(response);
+        this.closeAfterResponse = close;
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts.
+     *
+     * @return true if the whole response has been written
+     * @throws IOException on network errors
+     */
+    boolean write(final WritableByteChannel channel) throws IOException {
+        channel.write(response);
+        lastActivity = System.currentTimeMillis();
+        if (response.hasRemaining()) {
+            return false;
+        }
+        response = null;
+        processing = false;
+        return true;
+    }
+
+    /** @return true if the connection should be closed now that the response has been written */
+    boolean isCloseAfterResponse() {
+        return closeAfterResponse;
+    }
+}
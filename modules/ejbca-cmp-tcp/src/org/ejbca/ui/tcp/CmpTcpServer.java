@@ -13,101 +13,326 @@
 
 package org.ejbca.ui.tcp;
 
-import java.io.File;
-import java.net.UnknownHostException;
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.ejbca.config.CmpTcpConfiguration;
-import org.quickserver.net.AppException;
-import org.quickserver.net.server.QuickServer;
 
 /**
- * Starts and stops the CMP TCP listener service
- * 
+ * Starts and stops the CMP TCP listener service.
+ * <p>
+ * All connections are handled by a single selector thread using non-blocking I/O, so idle connections only cost a buffer of a few
+ * bytes. Complete messages are handed to a bounded pool of worker threads that call the CMP message dispatcher. While a message
+ * is processed, no more data is read from that connection.
+ *
  * @version $Id$
  */
 public class CmpTcpServer {
 
-	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(CmpTcpServer.class);
-	private static final String VER = "1.0";
-
-	private transient QuickServer myServer = null;
-	
-	public void start() throws UnknownHostException	{
-		final String cmdHandle = org.ejbca.ui.tcp.CmpTcpCommandHandler.class.getName();
-
-		myServer = new QuickServer();
-		myServer.setClientAuthenticationHandler(null);
-		myServer.setBindAddr(CmpTcpConfiguration.getTCPBindAdress());
-		myServer.setPort(CmpTcpConfiguration.getTCPPortNumber());
-		myServer.setName("CMP TCP Server v " + VER);
-		if(QuickServer.getVersionNo() >= 1.2) {
-			LOG.info("Using 1.2 feature");
-			myServer.setClientBinaryHandler(cmdHandle);
-			myServer.setClientEventHandler(cmdHandle);
-
-			//reduce info to Console
-			myServer.setConsoleLoggingToMicro();
-		}
-
-		//setup logger to log to file
-		Logger logger = null;
-		FileHandler txtLog = null;
-		final String logDir = CmpTcpConfiguration.getTCPLogDir();
-		final File logFile = new File(logDir + "/");
-		if(!logFile.canRead()) {
-			logFile.mkdir();
-		}
-		try	{
-			logger = Logger.getLogger("");
-			logger.setLevel(Level.INFO);
-
-			logger = Logger.getLogger("cmptcpserver");
-			logger.setLevel(Level.FINEST); 
-			txtLog = new FileHandler(logDir+"/cmptcpserver.log");
-			//reduce info 
-			txtLog.setFormatter(new org.quickserver.util.logging.MicroFormatter());
-			logger.addHandler(txtLog);
-
-			myServer.setAppLogger(logger); //imp
-
-			//myServer.setConsoleLoggingToMicro();
-			myServer.setConsoleLoggingFormatter("org.quickserver.util.logging.SimpleTextFormatter");
-			myServer.setConsoleLoggingLevel(Level.INFO);
-		} catch(Exception e){
-			LOG.error("Could not create xmlLog FileHandler : ", e);
-		}
-		try	{
-			final String confFile = CmpTcpConfiguration.getTCPConfigFile();
-			if (!StringUtils.isEmpty(confFile)) {
-				final Object config[] = new Object[] {confFile};
-				if (!myServer.initService(config)) {
-					LOG.error("Configuration from config file "+confFile+" failed!");
-				}
-			}
-			myServer.startServer();	
-			//myServer.getQSAdminServer().setShellEnable(true);
-			//myServer.startQSAdminServer();			
-		} catch(AppException e){
-			LOG.error("Error in server : ", e);
-		}
-	}
-
-	public void stop() {
-		if (myServer != null) {
-			try {
-				myServer.stopService();
-				myServer.closeAllPools();
-			} catch (AppException e) {
-				LOG.error("Error in server : ", e);
-			} catch (Exception e) {
-				LOG.error("Error in server : ", e);
-			}
-		}
-	}
-}
+    private static final Logger LOG = Logger.getLogger(CmpTcpServer.class);
+
+    /** How often idle connections are looked for, in milliseconds */
+    private static final long SELECT_TIMEOUT = 1000L;
+    /** Length of the queue of connections not yet accepted, so that a burst of new clients is not refused (capped by the OS) */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final CmpTcpCommandHandler commandHandler;
+    /** Changes to selection keys requested by the worker threads, which must be done by the selector thread */
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor workers;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+    private int maxMessageSize;
+    private long readTimeout;
+    private int maxConnections;
+    private int connectionCount = 0;
+    private long lastIdleCheck = 0L;
+
+    public CmpTcpServer() {
+        this(new CmpTcpCommandHandler());
+    }
+
+    /** @param commandHandler the handler of the received messages, for tests */
+    CmpTcpServer(final CmpTcpCommandHandler commandHandler) {
+        this.commandHandler = commandHandler;
+    }
+
+    public void start() throws IOException {
+        maxMessageSize = CmpTcpConfiguration.getTCPMaxMessageSize();
+        readTimeout = CmpTcpConfiguration.getTCPReadTimeout();
+        maxConnections = CmpTcpConfiguration.getTCPMaxConnections();
+        final int workerThreads = CmpTcpConfiguration.getTCPWorkerThreads();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(CmpTcpConfiguration.getTCPWorkerQueueSize()), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "CmpTcpWorker-" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        final InetSocketAddress address = new InetSocketAddress(CmpTcpConfiguration.getTCPBindAdress(), CmpTcpConfiguration.getTCPPortNumber());
+        serverChannel.bind(address, ACCEPT_BACKLOG);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "CmpTcpServer");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        LOG.info("CMP TCP Server listening on " + serverChannel.getLocalAddress() + " with " + workerThreads + " worker threads.");
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(SELECT_TIMEOUT * 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
 
+    /** @return the port that the server listens on, for tests using an ephemeral port */
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
 
+    private void runSelector() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOG.error("Error in CMP TCP Server task: ", e);
+                    }
+                }
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (RuntimeException e) {
+                        // For example a CancelledKeyException, only this connection is affected
+                        LOG.info("Error handling CMP TCP connection: " + e.getMessage(), e);
+                        if (key.attachment() instanceof CmpTcpConnection) {
+                            close(key);
+                        }
+                    }
+                }
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            LOG.error("CMP TCP Server failed: ", e);
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing selector: " + e.getMessage());
+            }
+            LOG.info("CMP TCP Server stopped.");
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            final String hostAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            if (connectionCount >= maxConnections) {
+                LOG.info("Maximum number of CMP TCP connections (" + maxConnections + ") reached, rejecting connection from " + hostAddress);
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new CmpTcpConnection(hostAddress));
+            connectionCount++;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("CMP connection opened: " + hostAddress);
+            }
+        } catch (IOException e) {
+            LOG.info("Failed to accept CMP TCP connection: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                    LOG.debug("Error closing connection: " + e2.getMessage());
+                }
+            }
+        }
+    }
+
+    private void read(final SelectionKey key) {
+        final CmpTcpConnection connection = (CmpTcpConnection) key.attachment();
+        final byte[] message;
+        try {
+            message = connection.read((SocketChannel) key.channel(), maxMessageSize);
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connection lost: " + connection.getHostAddress() + (e.getMessage() == null ? "" : " - " + e.getMessage()));
+            }
+            close(key);
+            return;
+        }
+        if (message == null) {
+            return;
+        }
+        // Don't read the next message until this one has been answered
+        key.interestOps(0);
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleMessage(key, connection, message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("All CMP TCP worker threads are busy, closing connection from " + connection.getHostAddress());
+            close(key);
+        }
+    }
+
+    /** Called by a worker thread */
+    private void handleMessage(final SelectionKey key, final CmpTcpConnection connection, final byte[] message) {
+        TcpReturnMessage response = null;
+        try {
+            response = commandHandler.handleMessage(connection.getHostAddress(), message);
+        } catch (Exception e) { // NOPMD: any error closes the connection
+            LOG.info("Error handling CMP TCP message from " + connection.getHostAddress() + ": " + e.getMessage(), e);
+        }
+        final TcpReturnMessage result = response;
+        selectorTasks.add(new Runnable() {
+            @Override
+            public void run() {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (result == null) {
+                    close(key);
+                    return;
+                }
+                try {
+                    connection.setResponse(result.message, result.doClose);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } catch (RuntimeException e) {
+                    LOG.info("Error sending CMP TCP response to " + connection.getHostAddress() + ": " + e.getMessage(), e);
+                    close(key);
+                }
+            }
+        });
+        selector.wakeup();
+    }
+
+    private void write(final SelectionKey key) {
+        final CmpTcpConnection connection = (CmpTcpConnection) key.attachment();
+        try {
+            if (!connection.write((SocketChannel) key.channel())) {
+                return;
+            }
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connection lost: " + connection.getHostAddress() + " - " + e.getMessage());
+            }
+            close(key);
+            return;
+        }
+        if (connection.isCloseAfterResponse()) {
+            // It's time to say good bye
+            close(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /** Closes connections where the client has not sent anything within the read timeout */
+    private void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        if (readTimeout <= 0 || now - lastIdleCheck < SELECT_TIMEOUT) {
+            return;
+        }
+        lastIdleCheck = now;
+        final long idleSince = now - readTimeout;
+        for (final SelectionKey key : selector.keys()) {
+            final Object attachment = key.attachment();
+            if (attachment instanceof CmpTcpConnection) {
+                final CmpTcpConnection connection = (CmpTcpConnection) attachment;
+                if (!connection.isProcessing() && connection.getLastActivity() < idleSince) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Closing idle CMP TCP connection from " + connection.getHostAddress());
+                    }
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void close(final SelectionKey key) {
+        if (key.attachment() instanceof CmpTcpConnection && key.isValid()) {
+            connectionCount--;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connection closed: " + ((CmpTcpConnection) key.attachment()).getHostAddress());
+            }
+        }
+        closeQuietly(key);
+    }
+
+    private static void closeQuietly(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOG.debug("Error closing channel: " + e.getMessage());
+        }
+    }
+}
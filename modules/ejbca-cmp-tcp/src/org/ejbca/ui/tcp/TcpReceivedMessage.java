@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import org.apache.log4j.Logger;
 import org.cesecore.util.Base64;
+import org.ejbca.config.CmpTcpConfiguration;
 import org.ejbca.core.model.InternalEjbcaResources;
 
 /**
@@ -93,7 +94,7 @@ public class TcpReceivedMessage {
 			log.error( intres.getLocalizedMessage("cmp.errortcpwronglen", Integer.valueOf(msgLen), Integer.valueOf(len)) );
 			return new TcpReceivedMessage();// This is something malicious
 		}
-		if ( msgLen>=5000 ) {
+		if ( msgLen>=CmpTcpConfiguration.getTCPMaxMessageSize() ) {
 			log.error( intres.getLocalizedMessage("cmp.errortcptoolongmsg", Integer.valueOf(msgLen)) );
 			return new TcpReceivedMessage();// This is something malicious
 		}
@@ -0,0 +1,111 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.ejbca.core.model.services.ActionException;
+import org.ejbca.core.model.services.ActionInfo;
+import org.ejbca.core.model.services.IAction;
+import org.ejbca.core.model.services.actions.MailActionInfo;
+import org.ejbca.core.model.services.workers.EmailSendingWorker.EmailCertData;
+import org.junit.Test;
+
+/**
+ * Tests that notifications about expiring certificates to the same receiver are sent as one mail, and that a receiver that can not
+ * be reached does not stop the notifications to others.
+ *
+ * @version $Id$
+ */
+public class CertificateExpirationNotifierWorkerTest {
+
+    @Test
+    public void testGroupByReceiverAndSubject() {
+        final List<EmailCertData> queue = Arrays.asList(mail("fp1", "alice@example.com", "Expiring", "1"),
+                mail("fp2", null, "Expiring", "2"), mail("fp3", "alice@example.com", "Expiring", "3"),
+                mail("fp4", "alice@example.com", "Other", "4"), mail("fp5", null, "Expiring", "5"));
+        final Iterator<List<EmailCertData>> groups = CertificateExpirationNotifierWorker.groupByReceiverAndSubject(queue).iterator();
+        assertEquals(Arrays.asList("fp1", "fp3"), fingerprints(groups.next()));
+        assertEquals(Arrays.asList("fp2", "fp5"), fingerprints(groups.next()));
+        assertEquals(Arrays.asList("fp4"), fingerprints(groups.next()));
+        assertFalse(groups.hasNext());
+    }
+
+    @Test
+    public void testAggregate() {
+        final EmailCertData single = mail("fp1", null, "Expiring", "1");
+        assertSame(single.getActionInfo(), CertificateExpirationNotifierWorker.aggregate(Arrays.asList(single)));
+        final MailActionInfo aggregated = CertificateExpirationNotifierWorker.aggregate(Arrays.asList(single, mail("fp2", null, "Expiring", "2")));
+        assertNull(aggregated.getReciever());
+        assertEquals("Expiring", aggregated.getSubject());
+        assertEquals("1\n\n2", aggregated.getMessage());
+    }
+
+    @Test
+    public void testFailingReceiverIsSkipped() {
+        final List<String> notified = new ArrayList<>();
+        final IAction action = new IAction() {
+            @Override
+            public void init(final Properties properties, final String serviceName) {
+            }
+
+            @Override
+            public void performAction(final ActionInfo actionInfo, final Map<Class<?>, Object> ejbs) throws ActionException {
+                if ("unreachable@example.com".equals(((MailActionInfo) actionInfo).getReciever())) {
+                    throw new ActionException("Mail server rejected the receiver.");
+                }
+            }
+        };
+        final CertificateExpirationNotifierWorker worker = new CertificateExpirationNotifierWorker() {
+            @Override
+            protected IAction getAction() {
+                return action;
+            }
+
+            @Override
+            protected void updateStatus(final String pk, final int status) {
+                notified.add(pk);
+            }
+        };
+        // The certificates are found in expire date order, so the failing one would be found first on every run
+        final List<EmailCertData> queue = Arrays.asList(mail("fp1", "unreachable@example.com", "Expiring", "1"),
+                mail("fp2", "alice@example.com", "Expiring", "2"), mail("fp3", "bob@example.com", "Expiring", "3"));
+        for (int run = 0; run < 3; run++) {
+            notified.clear();
+            worker.sendEmails(queue, null);
+            assertEquals("Certificates after the failing receiver should be notified about.", Arrays.asList("fp2", "fp3"), notified);
+        }
+    }
+
+    private static EmailCertData mail(final String fingerprint, final String receiver, final String subject, final String message) {
+        return new EmailCertData(fingerprint, new MailActionInfo(receiver, subject, message));
+    }
+
+    private static List<String> fingerprints(final List<EmailCertData> mails) {
+        final List<String> ret = new ArrayList<>();
+        for (final EmailCertData mail : mails) {
+            ret.add(mail.getFingerPrint());
+        }
+        return ret;
+    }
+}
@@ -15,6 +15,7 @@ package org.ejbca.core.model.ra;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ import java.util.TreeMap;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.AuthorizedIdSets;
 import org.cesecore.certificates.ca.CaSession;
 import org.cesecore.configuration.GlobalConfigurationSession;
 import org.ejbca.config.GlobalConfiguration;
@@ -60,6 +62,15 @@ public class RAAuthorization implements Serializable {
         return authorizationSession.isAuthorizedNoLogging(admin, resources);
     }
 
+    /**
+     * Method that checks the administrators CA privileges, for use with {@link org.ejbca.util.query.QueryBuilder#andIn(String, java.util.Collection)}.
+     *
+     * @return the ids of the CAs that the administrator is authorized to.
+     */
+    public List<Integer> getAuthorizedCaIds() {
+        return caSession.getAuthorizedCaIds(admin);
+    }
+
     /**
      * Method that checks the administrators CA privileges and returns a string that should be used in where clause of userdata SQL queries.
      *
@@ -67,12 +78,12 @@ public class RAAuthorization implements Serializable {
      */
     public String getCAAuthorizationString() {
         String authcastring = "";
-        final List<Integer> authorizedCaIds = caSession.getAuthorizedCaIds(admin);
+        final List<Integer> authorizedCaIds = getAuthorizedCaIds();
         if (authorizedCaIds.isEmpty()) {
             // Setup a condition that can never be true if there are no authorized CAs
             authcastring = "(0=1)";
         } else {
-            for (final Integer caId : caSession.getAuthorizedCaIds(admin)) {
+            for (final Integer caId : authorizedCaIds) {
                 if (authcastring.equals("")) {
                     authcastring = " cAId = " + caId.toString();
                 } else {
@@ -86,6 +97,38 @@ public class RAAuthorization implements Serializable {
         return authcastring;
     }
 
+    /**
+     * Returns the end entity profile ids of the approvals that the administrator may query for, as {@link #getEndEntityProfileAuthorizationString(String)}
+     * does.
+     *
+     * @return the end entity profile ids, including {@link ApprovalDataVO#ANY_ENDENTITYPROFILE} for approvals of CA actions, or null if the
+     *      approvals should not be limited by end entity profile.
+     * @throws AuthorizationDeniedException if the current requester isn't authorized to query for approvals
+     */
+    public List<Integer> getApprovalEndEntityProfileIds(final String endentityAccessRule) throws AuthorizationDeniedException {
+        final boolean authorizedToApproveCAActions = isAuthorizedNoLogging(admin, AccessRulesConstants.REGULAR_APPROVECAACTION);
+        final boolean authorizedToApproveRAActions = isAuthorizedNoLogging(admin, AccessRulesConstants.REGULAR_APPROVEENDENTITY);
+        if (!authorizedToApproveCAActions && !authorizedToApproveRAActions) {
+            throw new AuthorizationDeniedException("Not authorized to query for approvals: "+authorizedToApproveCAActions+", "+authorizedToApproveRAActions);
+        }
+        final GlobalConfiguration globalconfiguration = (GlobalConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
+        if (!globalconfiguration.getEnableEndEntityProfileLimitations()) {
+            return null;
+        }
+        if (!authorizedToApproveRAActions) {
+            return new ArrayList<>(Arrays.asList(ApprovalDataVO.ANY_ENDENTITYPROFILE));
+        }
+        final List<Integer> profileIds = getAuthorizedEndEntityProfileIds(endentityAccessRule);
+        if (profileIds.isEmpty()) {
+            // As with the authorization string, no authorized end entity profiles does not limit the query
+            return null;
+        }
+        if (authorizedToApproveCAActions) {
+            profileIds.add(ApprovalDataVO.ANY_ENDENTITYPROFILE);
+        }
+        return profileIds;
+    }
+
     /**
      * @return a string of end entity profile privileges that should be used in the where clause of SQL queries, or null if no authorized end entity profiles exist.
      * @throws AuthorizationDeniedException if the current requester isn't authorized to query for approvals
@@ -128,16 +171,7 @@ public class RAAuthorization implements Serializable {
      */
     public String getEndEntityProfileAuthorizationString(boolean includeparanteses, String endentityAccessRule){
         if (authendentityprofilestring==null) {
-            final List<Integer> profileIds = new ArrayList<Integer>(endEntityProfileSession.getAuthorizedEndEntityProfileIds(admin, endentityAccessRule));
-            if (!endentityAccessRule.startsWith(AccessRulesConstants.VIEW_END_ENTITY)) {
-                // Additionally require view access to all the profiles
-                for (final Integer profileid : new ArrayList<Integer>(profileIds)) {
-                    if (!isAuthorizedNoLogging(admin, AccessRulesConstants.ENDENTITYPROFILEPREFIX + profileid + AccessRulesConstants.VIEW_END_ENTITY)) {
-                        profileIds.remove(profileid);
-                    }
-                }
-            }
-            for (final int profileId : profileIds) {
+            for (final int profileId : getAuthorizedEndEntityProfileIds(endentityAccessRule)) {
                 if (authendentityprofilestring == null) {
                     authendentityprofilestring = " endEntityProfileId = " + profileId;
                 } else {
@@ -151,6 +185,29 @@ public class RAAuthorization implements Serializable {
         return authendentityprofilestring;
     }
 
+    /**
+     * Method that checks the administrators end entity profile privileges, for use with
+     * {@link org.ejbca.util.query.QueryBuilder#andIn(String, java.util.Collection)}.
+     *
+     * @return the ids of the end entity profiles that the administrator is authorized to with the access rule, and to view.
+     */
+    public List<Integer> getAuthorizedEndEntityProfileIds(final String endentityAccessRule) {
+        final List<Integer> profileIds = new ArrayList<Integer>(endEntityProfileSession.getAuthorizedEndEntityProfileIds(admin, endentityAccessRule));
+        if (endentityAccessRule.startsWith(AccessRulesConstants.VIEW_END_ENTITY)) {
+            return profileIds;
+        }
+        // Additionally require view access to all the profiles. Memoised until the access rules or the profiles change.
+        return new ArrayList<Integer>(authorizationSession.getAuthorizedIdSets(admin).get(AuthorizedIdSets.VIEWABLE_END_ENTITY_PROFILE_IDS + endentityAccessRule, () -> {
+            final List<Integer> viewableProfileIds = new ArrayList<Integer>();
+            for (final Integer profileid : profileIds) {
+                if (isAuthorizedNoLogging(admin, AccessRulesConstants.ENDENTITYPROFILEPREFIX + profileid + AccessRulesConstants.VIEW_END_ENTITY)) {
+                    viewableProfileIds.add(profileid);
+                }
+            }
+            return viewableProfileIds;
+        }, profileIds).getIds());
+    }
+
     public TreeMap<String, String> getAuthorizedEndEntityProfileNames(final String endentityAccessRule) {
     	if (authprofilenames==null){
             authprofilenames = new TreeMap<String, String>(new Comparator<String>() {
@@ -14,8 +14,10 @@ package org.ejbca.core.model.services.workers;
 
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +47,9 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
 
     private static final Logger log = Logger.getLogger(CertificateExpirationNotifierWorker.class);
 
+    /** The number of certificates that are read, and notified about, at a time */
+    private static final int BATCH_SIZE = 500;
+
     private CertificateStoreSessionLocal certificateStoreSession;
     private transient List<Integer> certificateProfileIds;
 
@@ -66,8 +71,9 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
         certificateStoreSession = ((CertificateStoreSessionLocal) ejbs.get(CertificateStoreSessionLocal.class));
         final EndEntityAccessSessionLocal endEntityAccessSession = ((EndEntityAccessSessionLocal) ejbs.get(EndEntityAccessSessionLocal.class));
 
-        List<EmailCertData> userEmailQueue = new ArrayList<EmailCertData>();
-        List<EmailCertData> adminEmailQueue = new ArrayList<EmailCertData>();
+        int count = 0;
+        int userNotifications = 0;
+        int adminNotifications = 0;
 
         // Build Query
         Collection<String> cas = new ArrayList<String>();
@@ -141,64 +147,85 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
                             ". activeNotifiedExpireDateMin: "+now+", activeNotifiedExpireDateMax: "+(nextRunTimeStamp + thresHold)+", activeExpireDateMin: "+(runTimeStamp + thresHold));
                 }
                 try {
-                    List<Object[]> fingerprintUsernameList = certificateStoreSession.findExpirationInfo(cas, certificateProfileIds, now, (nextRunTimeStamp + thresHold),
-                            (runTimeStamp + thresHold));
-                    int count = 0;
-                    for (Object[] next : fingerprintUsernameList) {
-                        count++;
-                        // For each certificate update status.
-                        String fingerprint = (String) next[0];
-                        String username = (String) next[1];
-                        // Get the certificate through a session bean
-                        if(log.isDebugEnabled()) {
-                            log.debug("Found a certificate we should notify. Username=" + username + ", fp=" + fingerprint);
-                        }
-                        Certificate cert = certificateStoreSession.findCertificateByFingerprint(fingerprint);
-                        EndEntityInformation userData = endEntityAccessSession.findUser(getAdmin(), username);
-                        if (userData != null) {
-                            if (isSendToEndUsers()) {
-                                if (userData.getEmail() == null || userData.getEmail().trim().equals("")) {
-                                    log.info(InternalEjbcaResources.getInstance().getLocalizedMessage("services.errorworker.errornoemail", username));
-                                } else {
-                                    // Populate end user message
-                                    if(log.isDebugEnabled()) {
-                                        log.debug("Adding to email queue for user: " + userData.getEmail());
+                    // Read the certificates in batches, and send the notifications of each batch before reading the next one. Since the
+                    // status of notified certificates is changed as we go, the batches continue after the last certificate of the
+                    // previous batch instead of using an offset.
+                    long lastExpireDate = Long.MIN_VALUE;
+                    String lastFingerprint = "";
+                    while (true) {
+                        final List<Object[]> fingerprintUsernameList = certificateStoreSession.findExpirationInfo(cas, certificateProfileIds, now,
+                                (nextRunTimeStamp + thresHold), (runTimeStamp + thresHold), lastExpireDate, lastFingerprint, BATCH_SIZE);
+                        final List<EmailCertData> userEmailQueue = new ArrayList<EmailCertData>();
+                        final List<EmailCertData> adminEmailQueue = new ArrayList<EmailCertData>();
+                        for (Object[] next : fingerprintUsernameList) {
+                            count++;
+                            // For each certificate update status.
+                            String fingerprint = (String) next[0];
+                            String username = (String) next[1];
+                            lastFingerprint = fingerprint;
+                            lastExpireDate = (Long) next[2];
+                            // Get the certificate through a session bean
+                            if(log.isDebugEnabled()) {
+                                log.debug("Found a certificate we should notify. Username=" + username + ", fp=" + fingerprint);
+                            }
+                            Certificate cert = certificateStoreSession.findCertificateByFingerprint(fingerprint);
+                            EndEntityInformation userData = endEntityAccessSession.findUser(getAdmin(), username);
+                            if (userData != null) {
+                                if (isSendToEndUsers()) {
+                                    if (userData.getEmail() == null || userData.getEmail().trim().equals("")) {
+                                        log.info(InternalEjbcaResources.getInstance().getLocalizedMessage("services.errorworker.errornoemail", username));
+                                    } else {
+                                        // Populate end user message
+                                        if(log.isDebugEnabled()) {
+                                            log.debug("Adding to email queue for user: " + userData.getEmail());
+                                        }
+                                        final UserNotificationParamGen userNotificationParamGen = new UserNotificationParamGen(userData, cert);
+                                        final String message = userNotificationParamGen.interpolate(getEndUserMessage());
+                                        final String subject = userNotificationParamGen.interpolate(getEndUserSubject());
+                                        final MailActionInfo mailActionInfo = new MailActionInfo(userData.getEmail(), subject, message);
+                                        userEmailQueue.add(new EmailCertData(fingerprint, mailActionInfo));
                                     }
-                                    final UserNotificationParamGen userNotificationParamGen = new UserNotificationParamGen(userData, cert);
-                                    final String message = userNotificationParamGen.interpolate(getEndUserMessage());
-                                    final String subject = userNotificationParamGen.interpolate(getEndUserSubject());
-                                    final MailActionInfo mailActionInfo = new MailActionInfo(userData.getEmail(), subject, message);
-                                    userEmailQueue.add(new EmailCertData(fingerprint, mailActionInfo));
+                                }
+                            } else {
+                                if(log.isDebugEnabled()) {
+                                    log.debug("Trying to send notification to user, but no UserData can be found for user '" + username
+                                        + "', will only send to admin if admin notifications are defined.");
                                 }
                             }
-                        } else {
-                            if(log.isDebugEnabled()) {
-                                log.debug("Trying to send notification to user, but no UserData can be found for user '" + username
-                                    + "', will only send to admin if admin notifications are defined.");
+                            if (isSendToAdmins()) {
+                                // If we did not have any user for this, we will simply use empty values for substitution
+                                if (userData == null) {
+                                    userData = new EndEntityInformation();
+                                    userData.setUsername(username);
+                                }
+                                // Populate admin message
+                                if(log.isDebugEnabled()) {
+                                    log.debug("Adding to email queue for admin");
+                                }
+                                final UserNotificationParamGen userNotificationParamGen = new UserNotificationParamGen(userData, cert);
+                                final String message = userNotificationParamGen.interpolate(getAdminMessage());
+                                final String subject = userNotificationParamGen.interpolate(getAdminSubject());
+                                final MailActionInfo mailActionInfo = new MailActionInfo(null, subject, message);
+                                adminEmailQueue.add(new EmailCertData(fingerprint, mailActionInfo));
                             }
+                            if (!isSendToEndUsers() && !isSendToAdmins()) {
+                                // a little bit of a kludge to make JUnit testing feasible...
+                                if(log.isDebugEnabled()) {
+                                    log.debug("nobody to notify for cert with fp:" + fingerprint);
+                                }
+                                updateStatus(fingerprint, CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+                            }
+                        }
+                        if (isSendToEndUsers()) {
+                            sendEmails(userEmailQueue, ejbs);
                         }
                         if (isSendToAdmins()) {
-                            // If we did not have any user for this, we will simply use empty values for substitution
-                            if (userData == null) {
-                                userData = new EndEntityInformation();
-                                userData.setUsername(username);
-                            }
-                            // Populate admin message
-                            if(log.isDebugEnabled()) {
-                                log.debug("Adding to email queue for admin");
-                            }
-                            final UserNotificationParamGen userNotificationParamGen = new UserNotificationParamGen(userData, cert);
-                            final String message = userNotificationParamGen.interpolate(getAdminMessage());
-                            final String subject = userNotificationParamGen.interpolate(getAdminSubject());
-                            final MailActionInfo mailActionInfo = new MailActionInfo(null, subject, message);
-                            adminEmailQueue.add(new EmailCertData(fingerprint, mailActionInfo));
+                            sendEmails(adminEmailQueue, ejbs);
                         }
-                        if (!isSendToEndUsers() && !isSendToAdmins()) {
-                            // a little bit of a kludge to make JUnit testing feasible...
-                            if(log.isDebugEnabled()) {
-                                log.debug("nobody to notify for cert with fp:" + fingerprint);
-                            }
-                            updateStatus(fingerprint, CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+                        userNotifications += userEmailQueue.size();
+                        adminNotifications += adminEmailQueue.size();
+                        if (fingerprintUsernameList.size() < BATCH_SIZE) {
+                            break;
                         }
                     }
                     if (count == 0) {
@@ -211,12 +238,6 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
                     log.error("Error running service work: ", fe);
                     throw new IllegalStateException("Internal admin was denied access.", fe);
                 }
-                if (isSendToEndUsers()) {
-                    sendEmails(userEmailQueue, ejbs);
-                }
-                if (isSendToAdmins()) {
-                    sendEmails(adminEmailQueue, ejbs);
-                }
             } else {
                 log.info("CAs select collection is empty, there were ids but no names?");
             }
@@ -225,13 +246,67 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
             
         }
         log.trace("<CertificateExpirationNotifierWorker.work ended");
-        if (userEmailQueue.isEmpty() && adminEmailQueue.isEmpty()) {
+        if (userNotifications == 0 && adminNotifications == 0) {
             return new ServiceExecutionResult(Result.NO_ACTION, "Certificate Expiration Worker ran, but no notifications were needed to be sent out.");
         } else {
             return new ServiceExecutionResult(Result.SUCCESS, "Notifications were sent out to "
-                    + (userEmailQueue.isEmpty() ? "" : userEmailQueue.size() + " users")
-                    + (userEmailQueue.isEmpty() ? "" : " and" + (adminEmailQueue.isEmpty() ? "" : adminEmailQueue.size() + " administators") + "."));
+                    + (userNotifications == 0 ? "" : userNotifications + " users")
+                    + (userNotifications == 0 ? "" : " and" + (adminNotifications == 0 ? "" : adminNotifications + " administators") + "."));
+        }
+    }
+
+    /**
+     * Sends the mails in the queue, and updates the status of the certificates when their mail has been sent. Notifications about
+     * several certificates to the same receiver with the same subject are sent as one mail, with the messages separated by an empty line.
+     * If a mail can not be sent, the certificates of that mail are skipped and notified about again on the next run, and the other
+     * mails are still sent.
+     */
+    @Override
+    protected void sendEmails(List<EmailCertData> queue, Map<Class<?>, Object> ejbs) {
+        for (final List<EmailCertData> mails : groupByReceiverAndSubject(queue)) {
+            try {
+                getAction().performAction(aggregate(mails), ejbs);
+            } catch (Exception e) {
+                log.error("Error sending notification about " + mails.size() + " expiring certificates to '" + mails.get(0).getActionInfo().getReciever()
+                        + "', will try again on the next run: ", e);
+                continue;
+            }
+            for (final EmailCertData next : mails) {
+                updateStatus(next.getFingerPrint(), CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+            }
+        }
+    }
+
+    /** @return the mails in the queue grouped by receiver and subject, in the order of the first mail of each group */
+    static Collection<List<EmailCertData>> groupByReceiverAndSubject(final List<EmailCertData> queue) {
+        final Map<List<String>, List<EmailCertData>> groups = new LinkedHashMap<>();
+        for (final EmailCertData next : queue) {
+            final MailActionInfo actionInfo = next.getActionInfo();
+            final List<String> key = Arrays.asList(actionInfo.getReciever(), actionInfo.getSubject());
+            List<EmailCertData> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(next);
+        }
+        return groups.values();
+    }
+
+    /** @return a mail with the messages of a group of mails with the same receiver and subject */
+    static MailActionInfo aggregate(final List<EmailCertData> mails) {
+        final MailActionInfo first = mails.get(0).getActionInfo();
+        if (mails.size() == 1) {
+            return first;
+        }
+        final StringBuilder message = new StringBuilder();
+        for (final EmailCertData next : mails) {
+            if (message.length() > 0) {
+                message.append("\n\n");
+            }
+            message.append(next.getActionInfo().getMessage());
         }
+        return new MailActionInfo(first.getReciever(), first.getSubject(), message.toString());
     }
 
     /**
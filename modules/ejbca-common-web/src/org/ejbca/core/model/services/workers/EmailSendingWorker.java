@@ -39,7 +39,7 @@ public abstract class EmailSendingWorker extends BaseWorker {
 		super();
 	}
 
-	class EmailCertData{
+	static class EmailCertData{
 		
 		private String fingerPrint = null;
 		private MailActionInfo actionInfo = null;
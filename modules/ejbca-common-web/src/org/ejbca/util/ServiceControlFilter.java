@@ -26,6 +26,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.util.metrics.LatencyHistogram;
+import org.cesecore.util.metrics.LatencyMetrics;
 import org.ejbca.config.AvailableProtocolsConfiguration;
 import org.ejbca.core.model.util.EjbLocalHelper;
 
@@ -51,6 +53,9 @@ public class ServiceControlFilter implements Filter {
     
     private String serviceName;
 
+    /** Duration of the requests to the service, exported by the metrics servlet of the health check */
+    private LatencyHistogram latencyHistogram;
+
     private GlobalConfigurationSessionLocal globalConfigurationSession;
 
     @Override
@@ -60,6 +65,7 @@ public class ServiceControlFilter implements Filter {
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         serviceName = filterConfig.getInitParameter("serviceName");
+        latencyHistogram = LatencyMetrics.INSTANCE.getHistogram(LatencyMetrics.Type.PROTOCOL, serviceName);
         // Since this filter is referenced in ejbca-common-web module and that module is referenced by 
         // cmpHttpProxy module, to make cmpHttpProxy module deploy-able in JEE servers we initialize 
         // the globalConfigurationSession bean here instead of using the EJB annotation.
@@ -88,6 +94,11 @@ public class ServiceControlFilter implements Filter {
         if (log.isDebugEnabled()) {
             log.debug("Access to service " + serviceName + " is allowed. HTTP request " + httpRequest.getRequestURL() + " is let through.");
         }
-        chain.doFilter(request, response);
+        final long startTime = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            latencyHistogram.record(System.nanoTime() - startTime);
+        }
     }
 }
@@ -0,0 +1,179 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.approval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.util.Base64;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.ejbca.core.model.approval.profile.AccumulativeApprovalProfile;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ApprovalDataCodec}.
+ *
+ * @version $Id$
+ */
+public class ApprovalDataCodecTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("ApprovalDataCodecTest"));
+
+    @Test
+    public void testReadLegacyEncoding() throws Exception {
+        final String legacyRequest = encodeLegacy(getApprovalRequest());
+        assertEquals(1, ApprovalDataCodec.getVersion(legacyRequest));
+        final ApprovalRequest approvalRequest = ApprovalDataCodec.decodeApprovalRequest(legacyRequest);
+        assertEquals(1, approvalRequest.getCAId());
+        assertEquals(2, approvalRequest.getEndEntityProfileId());
+        assertEquals("AccumulativeApprovalProfile", approvalRequest.getApprovalProfile().getProfileName());
+        final String legacyApprovals = encodeLegacy(getApprovals());
+        assertEquals(1, ApprovalDataCodec.getVersion(legacyApprovals));
+        final List<Approval> approvals = ApprovalDataCodec.decodeApprovals(legacyApprovals);
+        assertEquals(2, approvals.size());
+        assertEquals("second", approvals.get(1).getComment());
+    }
+
+    @Test
+    public void testEncodeWithDefaultVersion() throws Exception {
+        assertEquals("Default encoding version should be readable by earlier versions.", ApprovalDataCodec.LEGACY,
+                ApprovalDataCodec.getConfiguredCodec());
+        final String encodedRequest = ApprovalDataCodec.encodeApprovalRequest(getApprovalRequest());
+        assertFalse("Legacy encoding should not have a version tag.", encodedRequest.startsWith("$"));
+        assertEquals(1, ApprovalDataCodec.getVersion(encodedRequest));
+        assertEquals(2, ApprovalDataCodec.decodeApprovalRequest(encodedRequest).getEndEntityProfileId());
+        final String encodedApprovals = ApprovalDataCodec.encodeApprovals(getApprovals());
+        assertEquals(1, ApprovalDataCodec.getVersion(encodedApprovals));
+        assertEquals("second", ApprovalDataCodec.decodeApprovals(encodedApprovals).get(1).getComment());
+    }
+
+    @Test
+    public void testEncodeWithConfiguredVersion() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration("approval.encodingversion", "2");
+        try {
+            assertEquals(ApprovalDataCodec.DEFLATE, ApprovalDataCodec.getConfiguredCodec());
+            final String encodedRequest = ApprovalDataCodec.encodeApprovalRequest(getApprovalRequest());
+            assertTrue(encodedRequest.startsWith("$2$"));
+            assertEquals(2, ApprovalDataCodec.getVersion(encodedRequest));
+            assertEquals(2, ApprovalDataCodec.decodeApprovalRequest(encodedRequest).getEndEntityProfileId());
+            final String encodedApprovals = ApprovalDataCodec.encodeApprovals(getApprovals());
+            assertEquals(2, ApprovalDataCodec.getVersion(encodedApprovals));
+            assertEquals("first", ApprovalDataCodec.decodeApprovals(encodedApprovals).get(0).getComment());
+            assertTrue(ApprovalDataCodec.decodeApprovals(ApprovalDataCodec.encodeApprovals(new ArrayList<Approval>())).isEmpty());
+        } finally {
+            EjbcaConfigurationHolder.restoreConfiguration();
+        }
+    }
+
+    @Test
+    public void testTranscode() throws Exception {
+        final String legacyRequest = encodeLegacy(getApprovalRequest());
+        final String compressedRequest = ApprovalDataCodec.transcode(legacyRequest, 2);
+        assertEquals(2, ApprovalDataCodec.getVersion(compressedRequest));
+        assertTrue("Compressed data should be smaller.", compressedRequest.length() < legacyRequest.length());
+        assertEquals(legacyRequest, ApprovalDataCodec.transcode(compressedRequest, 1));
+        assertTrue("Data with the requested version should be returned as is.", compressedRequest == ApprovalDataCodec.transcode(compressedRequest, 2));
+        final String legacyApprovals = encodeLegacy(getApprovals());
+        assertEquals(legacyApprovals, ApprovalDataCodec.transcode(ApprovalDataCodec.transcode(legacyApprovals, 2), 1));
+    }
+
+    @Test
+    public void testUnknownVersion() {
+        try {
+            ApprovalDataCodec.decodeApprovalRequest("$99$AAAA");
+            fail("Unknown encoding version should not be decoded.");
+        } catch (IllegalStateException e) {
+            // NOPMD expected
+        }
+        try {
+            ApprovalDataCodec.getVersion("$2");
+            fail("Malformed version tag should not be accepted.");
+        } catch (IllegalStateException e) {
+            // NOPMD expected
+        }
+    }
+
+    @Test
+    public void testLazyApprovalDataVO() throws Exception {
+        final ApprovalDataVO approvalDataVO = new ApprovalDataVO(1, 2, ApprovalDataVO.APPROVALTYPE_DUMMY, 2, 1, null, null,
+                ApprovalDataVO.STATUS_WAITINGFORAPPROVAL, ApprovalDataCodec.encodeApprovals(getApprovals()),
+                ApprovalDataCodec.encodeApprovalRequest(getApprovalRequest()), new Date(), new Date());
+        // Serialization should write the decoded objects, like before
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(approvalDataVO);
+        }
+        final ApprovalDataVO readApprovalDataVO;
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            readApprovalDataVO = (ApprovalDataVO) ois.readObject();
+        }
+        for (final ApprovalDataVO vo : new ApprovalDataVO[] { approvalDataVO, readApprovalDataVO }) {
+            assertEquals(2, vo.getApprovals().size());
+            assertNotNull(vo.getApprovalRequest());
+            assertEquals("AccumulativeApprovalProfile", vo.getApprovalProfile().getProfileName());
+        }
+    }
+
+    private static ApprovalRequest getApprovalRequest() throws Exception {
+        final AccumulativeApprovalProfile approvalProfile = new AccumulativeApprovalProfile("AccumulativeApprovalProfile");
+        approvalProfile.initialize();
+        approvalProfile.setNumberOfApprovalsRequired(2);
+        return new DummyApprovalRequest(admin, null, 1, 2, false, approvalProfile);
+    }
+
+    private static List<Approval> getApprovals() {
+        final List<Approval> approvals = new ArrayList<>();
+        final Approval first = new Approval("first", 0, 0);
+        first.setApprovalAdmin(true, admin);
+        approvals.add(first);
+        final Approval second = new Approval("second", 0, 0);
+        second.setApprovalAdmin(true, admin);
+        approvals.add(second);
+        return approvals;
+    }
+
+    /** @return the approval request encoded as by EJBCA 7.4.0 and earlier */
+    private static String encodeLegacy(final ApprovalRequest approvalRequest) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(approvalRequest);
+        oos.flush();
+        return new String(Base64.encode(baos.toByteArray(), false));
+    }
+
+    /** @return the approvals encoded as by EJBCA 7.4.0 and earlier */
+    private static String encodeLegacy(final List<Approval> approvals) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeInt(approvals.size());
+        for (final Approval approval : approvals) {
+            oos.writeObject(approval);
+        }
+        oos.flush();
+        return new String(Base64.encode(baos.toByteArray(), false));
+    }
+}
@@ -0,0 +1,120 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.model.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.CertTools;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PublicKeyBlacklistFingerprintSet}.
+ *
+ * @version $Id$
+ */
+public class PublicKeyBlacklistFingerprintSetTest {
+
+    private static final Logger log = Logger.getLogger(PublicKeyBlacklistFingerprintSetTest.class);
+
+    private static final String SHA256_FINGERPRINT = "a2b1c3d4e5f60718293a4b5c6d7e8f90a1b2c3d4e5f60718293a4b5c6d7e8f90";
+    private static final String DEBIAN_FINGERPRINT = "add2d8bc7fed9c871977";
+
+    @Test
+    public void testContains() {
+        final PublicKeyBlacklistFingerprintSet fingerprints = new PublicKeyBlacklistFingerprintSet(2);
+        assertFalse("Empty set should not contain anything.", fingerprints.contains(SHA256_FINGERPRINT));
+        fingerprints.add(SHA256_FINGERPRINT);
+        fingerprints.add(DEBIAN_FINGERPRINT);
+        fingerprints.add(null);
+        assertEquals(2, fingerprints.size());
+        assertTrue("SHA-256 fingerprint should be found.", fingerprints.contains(SHA256_FINGERPRINT));
+        assertTrue("Debian fingerprint should be found.", fingerprints.contains(DEBIAN_FINGERPRINT));
+        assertTrue("Lookup should be case insensitive.", fingerprints.contains(DEBIAN_FINGERPRINT.toUpperCase()));
+        assertFalse("Other fingerprint should not be found.", fingerprints.contains(DEBIAN_FINGERPRINT.substring(1)));
+        assertFalse("Null should not be found.", fingerprints.contains(null));
+    }
+
+    @Test
+    public void testDuplicatesAndGrowth() {
+        final PublicKeyBlacklistFingerprintSet fingerprints = new PublicKeyBlacklistFingerprintSet(0);
+        final long initialMemoryUsage = fingerprints.getMemoryUsage();
+        for (int i = 0; i < 1000; i++) {
+            fingerprints.add(createFingerprint(i));
+            fingerprints.add(createFingerprint(i));
+        }
+        assertEquals("Duplicates should only be counted once.", 1000, fingerprints.size());
+        assertTrue("Set should have grown.", fingerprints.getMemoryUsage() > initialMemoryUsage);
+        assertTrue("Set that has grown should use at most 24 bytes per entry.", fingerprints.getMemoryUsage() <= 24L * 1000 + 24);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("Fingerprint " + i + " should be found after the set has grown.", fingerprints.contains(createFingerprint(i)));
+        }
+        assertFalse(fingerprints.contains(createFingerprint(1000)));
+    }
+
+    /**
+     * Compares lookups in a set of one million fingerprints with lookups in a HashMap of the same fingerprints, which is
+     * how they are held in {@link PublicKeyBlacklistEntryCache}.
+     */
+    @Test
+    public void testMillionEntries() {
+        final int count = 1000000;
+        final int lookups = 200000;
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        final PublicKeyBlacklistFingerprintSet fingerprints = new PublicKeyBlacklistFingerprintSet(count);
+        for (int i = 0; i < count; i++) {
+            fingerprints.add(createFingerprint(i));
+        }
+        System.gc();
+        final long heapAfterSet = runtime.totalMemory() - runtime.freeMemory();
+        final Map<String, Integer> nameToIdMap = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            nameToIdMap.put(createFingerprint(i), i);
+        }
+        System.gc();
+        final long heapAfterMap = runtime.totalMemory() - runtime.freeMemory();
+        assertEquals(count, fingerprints.size());
+        // Lookups of fingerprints that are not blacklisted, which is the normal case
+        long startTime = System.nanoTime();
+        for (int i = count; i < count + lookups; i++) {
+            assertFalse(fingerprints.contains(createFingerprint(i)));
+        }
+        final long setTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int i = count; i < count + lookups; i++) {
+            assertFalse(nameToIdMap.containsKey(createFingerprint(i)));
+        }
+        final long mapTime = System.nanoTime() - startTime;
+        for (int i = 0; i < count; i += 997) {
+            assertTrue(fingerprints.contains(createFingerprint(i)));
+        }
+        log.info("Fingerprint set with " + count + " entries: " + fingerprints.getMemoryUsage() + " bytes off heap, "
+                + (heapAfterSet - heapBefore) + " bytes heap, " + (setTime / lookups) + " ns per lookup (including fingerprint creation).");
+        log.info("HashMap with " + count + " entries: " + (heapAfterMap - heapAfterSet) + " bytes heap, " + (mapTime / lookups)
+                + " ns per lookup (including fingerprint creation).");
+        assertTrue("Set should use at most 16 bytes per entry.", fingerprints.getMemoryUsage() <= 16L * count + 16);
+    }
+
+    private static String createFingerprint(final int i) {
+        return CertTools.getSHA256FingerprintAsString(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+    }
+}
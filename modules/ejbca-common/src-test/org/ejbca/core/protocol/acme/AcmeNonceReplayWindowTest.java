@@ -0,0 +1,116 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.acme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ejbca.core.protocol.acme.AcmeReplayNonceFactory.ReplayNonce;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AcmeNonceReplayWindow}.
+ *
+ * @version $Id$
+ */
+public class AcmeNonceReplayWindowTest {
+
+    private static final Logger log = Logger.getLogger(AcmeNonceReplayWindowTest.class);
+
+    private static final long VALIDITY = 600000L;
+
+    @Test
+    public void testReplay() {
+        final AcmeNonceReplayWindow window = new AcmeNonceReplayWindow(VALIDITY);
+        final long timeExpires = System.currentTimeMillis() + VALIDITY;
+        assertTrue("First use should be accepted.", window.markUsed(1L, timeExpires));
+        assertFalse("Second use should be rejected.", window.markUsed(1L, timeExpires));
+        assertTrue("Other nonce should be accepted.", window.markUsed(2L, timeExpires));
+        assertTrue("Other nonce in another bucket should be accepted.", window.markUsed(3L, timeExpires - VALIDITY / 2));
+    }
+
+    @Test
+    public void testBucketReuse() {
+        final AcmeNonceReplayWindow window = new AcmeNonceReplayWindow(VALIDITY);
+        final long timeExpires = System.currentTimeMillis() + VALIDITY;
+        assertTrue(window.markUsed(1L, timeExpires));
+        // With 16 buckets per validity period and two extra, a nonce expiring 18 bucket widths later ends up in the same bucket and stripe
+        final long muchLater = timeExpires + 18 * (VALIDITY / 16);
+        assertTrue("Bucket should have been emptied for later nonces.", window.markUsed(1L, muchLater));
+        assertFalse(window.markUsed(1L, muchLater));
+        assertFalse("Nonce from a reused bucket has expired and should be rejected.", window.markUsed(1L, timeExpires));
+    }
+
+    /** Issues and redeems nonces from many threads, and checks that each nonce is accepted exactly once. */
+    @Test
+    public void testConcurrentIssueAndRedeem() throws Exception {
+        final int noncesPerThread = 50000;
+        final long singleThreadTime = runIssueAndRedeem(1, noncesPerThread);
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        final long multiThreadTime = runIssueAndRedeem(threads, noncesPerThread);
+        log.info("Issue and redeem: " + singleThreadTime / noncesPerThread + " ns per nonce with 1 thread, "
+                + multiThreadTime / noncesPerThread + " ns per nonce and thread with " + threads + " threads.");
+    }
+
+    /** @return the total time in nanoseconds */
+    private long runIssueAndRedeem(final int threads, final int noncesPerThread) throws Exception {
+        final AcmeReplayNonceFactory factory = new AcmeReplayNonceFactory(new byte[AcmeReplayNonceFactory.NODE_ID_SIZE],
+                Collections.singletonList("secret".getBytes()), new AtomicLong());
+        final AcmeNonceReplayWindow window = new AcmeNonceReplayWindow(VALIDITY);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int accepted = 0;
+                        for (int j = 0; j < noncesPerThread; j++) {
+                            final long now = System.currentTimeMillis();
+                            final String nonce = factory.createNonce(now);
+                            final ReplayNonce replayNonce = factory.parse(nonce);
+                            assertNotNull(replayNonce);
+                            if (window.markUsed(replayNonce.getReplayKey(), replayNonce.getTimeCreated() + VALIDITY)) {
+                                accepted++;
+                            }
+                            assertFalse("Replay should be rejected.", window.markUsed(replayNonce.getReplayKey(), replayNonce.getTimeCreated() + VALIDITY));
+                        }
+                        return accepted;
+                    }
+                });
+            }
+            final long startTime = System.nanoTime();
+            int accepted = 0;
+            for (final Future<Integer> result : executor.invokeAll(tasks)) {
+                accepted += result.get();
+            }
+            final long time = System.nanoTime() - startTime;
+            assertEquals("Each nonce should be accepted once.", threads * noncesPerThread, accepted);
+            return time;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.acme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ejbca.core.protocol.acme.AcmeReplayNonceFactory.ReplayNonce;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AcmeReplayNonceFactory}.
+ *
+ * @version $Id$
+ */
+public class AcmeReplayNonceFactoryTest {
+
+    private static final byte[] NODE_ID = new byte[AcmeReplayNonceFactory.NODE_ID_SIZE];
+    private static final byte[] SECRET_1 = "first secret for replay nonces".getBytes();
+    private static final byte[] SECRET_2 = "second secret for replay nonces".getBytes();
+
+    @Test
+    public void testCreateAndParse() {
+        final AcmeReplayNonceFactory factory = new AcmeReplayNonceFactory(NODE_ID, Collections.singletonList(SECRET_1), new AtomicLong());
+        final String nonce1 = factory.createNonce(1234567L);
+        final String nonce2 = factory.createNonce(1234567L);
+        assertTrue("Nonce should be base64url encoded without padding: " + nonce1, nonce1.matches("[A-Za-z0-9_-]{86}"));
+        assertNotEquals("Nonces created at the same time should differ.", nonce1, nonce2);
+        final ReplayNonce replayNonce1 = factory.parse(nonce1);
+        final ReplayNonce replayNonce2 = factory.parse(nonce2);
+        assertNotNull("Nonce should be accepted.", replayNonce1);
+        assertNotNull("Nonce should be accepted.", replayNonce2);
+        assertEquals(1234567L, replayNonce1.getTimeCreated());
+        assertNotEquals(replayNonce1.getReplayKey(), replayNonce2.getReplayKey());
+    }
+
+    @Test
+    public void testRejectInvalid() {
+        final AcmeReplayNonceFactory factory = new AcmeReplayNonceFactory(NODE_ID, Collections.singletonList(SECRET_1), new AtomicLong());
+        final String nonce = factory.createNonce(System.currentTimeMillis());
+        assertNull(factory.parse(null));
+        assertNull(factory.parse(""));
+        assertNull(factory.parse("D8s4D2mLs8Vn-goWuPQeKA"));
+        assertNull("Nonce with invalid characters should be rejected.", factory.parse(nonce.substring(1) + "*"));
+        final char[] modified = nonce.toCharArray();
+        modified[5] = modified[5] == 'A' ? 'B' : 'A';
+        assertNull("Nonce with a modified timestamp should be rejected.", factory.parse(new String(modified)));
+        final AcmeReplayNonceFactory otherFactory = new AcmeReplayNonceFactory(NODE_ID, Collections.singletonList(SECRET_2), new AtomicLong());
+        assertNull("Nonce created with another secret should be rejected.", otherFactory.parse(nonce));
+    }
+
+    @Test
+    public void testSecretRollover() {
+        final AtomicLong counter = new AtomicLong();
+        final AcmeReplayNonceFactory oldFactory = new AcmeReplayNonceFactory(NODE_ID, Collections.singletonList(SECRET_1), counter);
+        final AcmeReplayNonceFactory newFactory = new AcmeReplayNonceFactory(NODE_ID, Arrays.asList(SECRET_1, SECRET_2), counter);
+        final String oldNonce = oldFactory.createNonce(System.currentTimeMillis());
+        final String newNonce = newFactory.createNonce(System.currentTimeMillis());
+        assertNotNull("Nonce created with the previous secret should still be accepted.", newFactory.parse(oldNonce));
+        assertNotNull(newFactory.parse(newNonce));
+        assertNull("New nonces should be created with the last secret.", oldFactory.parse(newNonce));
+    }
+}
@@ -0,0 +1,190 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link QueryBuilder}.
+ *
+ * @version $Id$
+ */
+public class QueryBuilderTest {
+
+    private static final Logger log = Logger.getLogger(QueryBuilderTest.class);
+
+    @Test
+    public void testNoConditions() {
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        assertTrue(queryBuilder.isEmpty());
+        assertEquals("1=1", queryBuilder.getWhereClause());
+        assertTrue(queryBuilder.getParameters().isEmpty());
+    }
+
+    @Test
+    public void testCanonicalInList() {
+        final QueryBuilder queryBuilder1 = new QueryBuilder().andIn("cAId", Arrays.asList(7, 3, 5, 3));
+        final QueryBuilder queryBuilder2 = new QueryBuilder().andIn("cAId", Arrays.asList(5, 7, 3));
+        assertEquals("(cAId IN (:cAId0))", queryBuilder1.getWhereClause());
+        assertEquals("The values should be sorted, without duplicates and padded to 4.", Arrays.asList(3, 5, 7, 7),
+                queryBuilder1.getParameters().get("cAId0"));
+        assertEquals(queryBuilder1.getParameters(), queryBuilder2.getParameters());
+        assertEquals(Arrays.asList(1), new QueryBuilder().andIn("cAId", Arrays.asList(1)).getParameters().get("cAId0"));
+        assertEquals("(a.id IN (:id0))", new QueryBuilder().andIn("a.id", Arrays.asList(1)).getWhereClause());
+    }
+
+    @Test
+    public void testEmptyInList() {
+        final QueryBuilder queryBuilder = new QueryBuilder().andIn("cAId", Collections.<Integer>emptyList());
+        assertEquals("(0=1)", queryBuilder.getWhereClause());
+        assertTrue(queryBuilder.getParameters().isEmpty());
+    }
+
+    @Test
+    public void testLongInList() {
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            values.add(i);
+        }
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        queryBuilder.and("status = " + queryBuilder.parameter("status", 10)).andIn("cAId", values);
+        assertEquals("(status = :status0) AND (cAId IN (:cAId0) OR cAId IN (:cAId1) OR cAId IN (:cAId2))", queryBuilder.getWhereClause());
+        assertEquals(1000, ((List<?>) queryBuilder.getParameters().get("cAId0")).size());
+        assertEquals(1000, ((List<?>) queryBuilder.getParameters().get("cAId1")).size());
+        assertEquals(512, ((List<?>) queryBuilder.getParameters().get("cAId2")).size());
+    }
+
+    @Test
+    public void testParameterNames() {
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        assertEquals(":expireDate0", queryBuilder.parameter("expireDate", 1L));
+        assertEquals(":expireDate1", queryBuilder.parameter("expireDate", 2L));
+        assertEquals(":status0", queryBuilder.parameter("status", 10));
+        assertEquals(Long.valueOf(2L), queryBuilder.getParameters().get("expireDate1"));
+    }
+
+    /**
+     * Compares the statement cache hit rate and the time to build the query, for 4000 administrators authorized to random subsets
+     * of 10000 CAs and end entity profiles, with the authorization strings of RAAuthorization and with bound IN lists. The statement
+     * cache is a LRU cache of 2048 statements, like the default query plan cache of Hibernate, and a statement with IN lists is
+     * identified by its text and the number of values in each list, as the JPA provider expands the lists. Run with
+     * -Dquerybuilder.benchmark=true
+     */
+    @Test
+    public void testStatementCacheBenchmark() {
+        if (!Boolean.getBoolean("querybuilder.benchmark")) {
+            log.info("Skipping benchmark, enable with -Dquerybuilder.benchmark=true");
+            return;
+        }
+        final int ids = 10000;
+        final int administrators = 4000;
+        final int queries = 20000;
+        final Random random = new Random(1);
+        final StatementCache legacyCache = new StatementCache(2048);
+        final StatementCache boundCache = new StatementCache(2048);
+        long legacyTime = 0;
+        long boundTime = 0;
+        long legacyLength = 0;
+        for (int i = 0; i < queries; i++) {
+            // The same administrator is always authorized to the same CAs and profiles
+            final int administrator = random.nextInt(administrators);
+            final Random administratorRandom = new Random(administrator);
+            final List<Integer> caIds = randomIds(administratorRandom, ids);
+            final List<Integer> profileIds = randomIds(administratorRandom, ids);
+            long start = System.nanoTime();
+            final String legacyStatement = "(status = 10) AND " + getAuthorizationString("cAId", caIds) + " AND "
+                    + getAuthorizationString("endEntityProfileId", profileIds);
+            legacyTime += System.nanoTime() - start;
+            legacyLength += legacyStatement.length();
+            legacyCache.execute(legacyStatement);
+            start = System.nanoTime();
+            final QueryBuilder queryBuilder = new QueryBuilder();
+            queryBuilder.and("status = " + queryBuilder.parameter("status", 10));
+            queryBuilder.andIn("cAId", caIds).andIn("endEntityProfileId", profileIds);
+            final StringBuilder boundStatement = new StringBuilder(queryBuilder.getWhereClause());
+            for (final Object value : queryBuilder.getParameters().values()) {
+                if (value instanceof List) {
+                    boundStatement.append(' ').append(((List<?>) value).size());
+                }
+            }
+            boundTime += System.nanoTime() - start;
+            boundCache.execute(boundStatement.toString());
+        }
+        log.info("Authorization strings: " + legacyCache.getHitRate() + "% statement cache hits, " + legacyTime / queries / 1000 + " us to build, "
+                + legacyLength / queries + " characters.");
+        log.info("Bound IN lists: " + boundCache.getHitRate() + "% statement cache hits, " + boundTime / queries / 1000 + " us to build.");
+        assertTrue(boundCache.getHitRate() > legacyCache.getHitRate());
+    }
+
+    /** @return a random subset of the ids, of random size, in random order */
+    private static List<Integer> randomIds(final Random random, final int ids) {
+        final List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < ids; i++) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        return new ArrayList<>(all.subList(0, 1 + random.nextInt(ids)));
+    }
+
+    /** @return the condition as written by RAAuthorization, with a StringBuilder instead of concatenating strings */
+    private static String getAuthorizationString(final String column, final List<Integer> ids) {
+        final StringBuilder authorizationString = new StringBuilder("( ");
+        for (final Integer id : ids) {
+            if (authorizationString.length() > 2) {
+                authorizationString.append(" OR ");
+            }
+            authorizationString.append(column).append(" = ").append(id);
+        }
+        return authorizationString.append(" )").toString();
+    }
+
+    private static class StatementCache {
+        private final Map<String, Boolean> statements;
+        private int hits = 0;
+        private int executions = 0;
+
+        private StatementCache(final int size) {
+            statements = new LinkedHashMap<String, Boolean>(size, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                    return size() > size;
+                }
+            };
+        }
+
+        private void execute(final String statement) {
+            executions++;
+            if (statements.put(statement, Boolean.TRUE) != null) {
+                hits++;
+            }
+        }
+
+        private long getHitRate() {
+            return 100L * hits / executions;
+        }
+    }
+}
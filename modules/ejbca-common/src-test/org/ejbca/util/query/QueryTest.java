@@ -15,6 +15,8 @@ package org.ejbca.util.query;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Date;
+
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.junit.Test;
@@ -70,4 +72,33 @@ public class QueryTest {
         assertEquals("UPPER(username) LIKE 'D''''GREATEST%'", query3.getQueryString());
         log.trace("<testUserQuerySingleQuote");
     }
+
+    @Test
+    public void testParameterizedUserQuery() throws Exception {
+        log.trace(">testParameterizedUserQuery");
+        final Query query = new Query(Query.TYPE_USERQUERY);
+        query.add(UserMatch.MATCH_WITH_STATUS, BasicMatch.MATCH_TYPE_EQUALS, Integer.toString(EndEntityConstants.STATUS_NEW), Query.CONNECTOR_AND);
+        query.add(UserMatch.MATCH_WITH_USERNAME, BasicMatch.MATCH_TYPE_BEGINSWITH, "D'Greatest ", Query.CONNECTOR_OR);
+        query.add(UserMatch.MATCH_WITH_COMMONNAME, BasicMatch.MATCH_TYPE_BEGINSWITH, "foo");
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        assertEquals("status = :status0 AND UPPER(username) LIKE :username0 OR UPPER(subjectDN) LIKE :subjectDN0", query.getQueryString(queryBuilder));
+        assertEquals(Integer.valueOf(EndEntityConstants.STATUS_NEW), queryBuilder.getParameters().get("status0"));
+        assertEquals("D'GREATEST %", queryBuilder.getParameters().get("username0"));
+        assertEquals("%CN=FOO%", queryBuilder.getParameters().get("subjectDN0"));
+        log.trace("<testParameterizedUserQuery");
+    }
+
+    @Test
+    public void testParameterizedApprovalQuery() throws Exception {
+        log.trace(">testParameterizedApprovalQuery");
+        final Query query = new Query(Query.TYPE_APPROVALQUERY);
+        query.add(ApprovalMatch.MATCH_WITH_STATUS, BasicMatch.MATCH_TYPE_EQUALS, "-1", Query.CONNECTOR_AND);
+        query.add(TimeMatch.MATCH_WITH_EXPIRETIME, new Date(1000L), new Date(2000L));
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        assertEquals("status = :status0 AND ( expireDate >= :expireDate0  AND expireDate <= :expireDate1  )", query.getQueryString(queryBuilder));
+        assertEquals(Integer.valueOf(-1), queryBuilder.getParameters().get("status0"));
+        assertEquals(Long.valueOf(1000L), queryBuilder.getParameters().get("expireDate0"));
+        assertEquals(Long.valueOf(2000L), queryBuilder.getParameters().get("expireDate1"));
+        log.trace("<testParameterizedApprovalQuery");
+    }
 }
@@ -6,15 +6,32 @@ public class CmpTcpConfiguration {
         return Integer.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.portno"));
     }
     
-    public static String getTCPLogDir() {
-        return EjbcaConfigurationHolder.getString("cmp.tcp.logdir");
-    }
-    
-    public static String getTCPConfigFile() {
-        return EjbcaConfigurationHolder.getString("cmp.tcp.conffile");
-    }
-    
     public static String getTCPBindAdress() {
         return EjbcaConfigurationHolder.getString("cmp.tcp.bindadress");
     }
+
+    /** @return the number of threads processing CMP messages received over TCP */
+    public static int getTCPWorkerThreads() {
+        return Integer.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.workerthreads"));
+    }
+
+    /** @return the number of received CMP messages that can wait for a worker thread, before new messages are rejected */
+    public static int getTCPWorkerQueueSize() {
+        return Integer.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.workerqueuesize"));
+    }
+
+    /** @return the maximum number of simultaneous TCP connections */
+    public static int getTCPMaxConnections() {
+        return Integer.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.maxconnections"));
+    }
+
+    /** @return milliseconds a connection may be idle before it is closed, 0 for no timeout */
+    public static long getTCPReadTimeout() {
+        return Long.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.readtimeout"));
+    }
+
+    /** @return the maximum length of a received TCP message in bytes */
+    public static int getTCPMaxMessageSize() {
+        return Integer.valueOf(EjbcaConfigurationHolder.getString("cmp.tcp.maxmessagesize"));
+    }
 }
\ No newline at end of file
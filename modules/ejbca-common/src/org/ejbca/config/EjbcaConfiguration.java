@@ -137,6 +137,27 @@ public final class EjbcaConfiguration {
         return TRUE.equalsIgnoreCase(EjbcaConfigurationHolder.getString("healthcheck.publisherconnections"));
     }
 
+    /**
+     * @return the interval in milliseconds between the background health checks, or 0 if the checks are made in each health check request
+     */
+    public static long getHealthCheckProbeInterval() {
+        return getLongProperty("healthcheck.probe.interval", 5000L);
+    }
+
+    /**
+     * @return the time in milliseconds a background health check may take before it is considered failed
+     */
+    public static long getHealthCheckProbeTimeout() {
+        return getLongProperty("healthcheck.probe.timeout", 10000L);
+    }
+
+    /**
+     * @return the age in milliseconds after which the result of a background health check is considered stale, and reported as an error
+     */
+    public static long getHealthCheckProbeMaxAge() {
+        return getLongProperty("healthcheck.probe.maxage", 30000L);
+    }
+
     /**
      * Parameter to specify location of file containing information about maintenance
      */
@@ -248,6 +269,11 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("ejbca.nodetracking", true);
     }
 
+    /** @return true if used ACME replay nonces should also be stored in the database, so that they are rejected on all nodes in a cluster */
+    public static boolean isAcmeReplayNonceDatabaseSync() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(EjbcaConfigurationHolder.getString("acme.replaynonce.databasesync"));
+    }
+
     public static String getCliDefaultUser() {
         return EjbcaConfigurationHolder.getString("ejbca.cli.defaultusername");
     }
@@ -266,6 +292,26 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return true if certificates should be published to the publishers that are invoked directly after the issuing transaction has committed */
+    public static boolean isPublishAsyncEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(EjbcaConfigurationHolder.getString("publish.async.enabled"));
+    }
+
+    /** @return the number of certificates that can wait to be published after commit, for each publisher */
+    public static int getPublishAsyncQueueSize() {
+        return Math.max(1, getIntProperty("publish.async.queuesize", 1000));
+    }
+
+    /** @return the number of threads that publish certificates after commit, for each publisher */
+    public static int getPublishAsyncThreads() {
+        return Math.max(1, getIntProperty("publish.async.threads", 1));
+    }
+
+    /** @return the time in milliseconds after which certificates that have not been published after commit are published by the recovery */
+    public static long getPublishAsyncRecoveryTime() {
+        return Math.max(1000L, getLongProperty("publish.async.recoverytime", 300000L));
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
@@ -318,6 +364,37 @@ public final class EjbcaConfiguration {
         return getLongProperty("peerconnector.cachetime", 60000L);
     }
 
+    /** @return the number of entries of a downloaded CRL that are looked up and stored together when it is imported */
+    public static int getCrlImportBatchSize() {
+        return Math.max(1, getIntProperty("crlimport.batchsize", 1000));
+    }
+
+    /** @return the key specifications of server generated key pairs that are generated in advance, for example RSA_4096, or an empty array */
+    public static String[] getKeyPairPoolKeySpecs() {
+        final String[] keySpecs = StringUtils.split(EjbcaConfigurationHolder.getString("keypairpool.keyspecs"), ", ");
+        return keySpecs == null ? new String[0] : keySpecs;
+    }
+
+    /** @return the number of key pairs that are generated in advance for each key specification */
+    public static int getKeyPairPoolDepth() {
+        return getIntProperty("keypairpool.depth", 10);
+    }
+
+    /** @return the number of threads that generate key pairs in advance */
+    public static int getKeyPairPoolThreads() {
+        return getIntProperty("keypairpool.threads", 1);
+    }
+
+    /** @return true if the private keys that are generated in advance should be kept encrypted in memory */
+    public static boolean isKeyPairPoolEncrypted() {
+        return getBooleanProperty("keypairpool.encrypt", true);
+    }
+
+    /** @return the version of org.ejbca.core.model.approval.ApprovalDataCodec that approval requests and approvals are stored with */
+    public static int getApprovalEncodingVersion() {
+        return getIntProperty("approval.encodingversion", 1);
+    }
+
     /** @return the value as a boolean or the default otherwise. */
     private static boolean getBooleanProperty(final String key, final boolean defaultValue) {
         final String value = EjbcaConfigurationHolder.getString(key);
@@ -0,0 +1,225 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.approval;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.cesecore.util.Base64;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Encodings of the approval request and the list of approvals stored in the requestData and approvalData columns of ApprovalData.
+ * <p>
+ * The payload is always the serialized ApprovalRequest, or the number of approvals followed by the serialized Approvals. These classes are
+ * Externalizable and write their own version numbers, which is what allows old rows to be read after the classes have changed. The encoding
+ * only determines how the payload is stored:
+ * <ul>
+ * <li>Version 1: Base64 encoded payload, as written by EJBCA 7.4.0 and earlier. Recognized by the missing version tag.
+ * <li>Version 2: "$2$" followed by the Base64 encoded Deflate compressed payload. Base64 never contains '$', so the tag is unambiguous.
+ * </ul>
+ * New data is written with the version configured by approval.encodingversion, 1 by default so that nodes of earlier versions
+ * sharing the database can read it. Data of any known version can be read, and converted to another version without deserializing the
+ * payload, see {@link #transcode(String, int)}.
+ *
+ * @version $Id$
+ */
+public enum ApprovalDataCodec {
+    LEGACY(1) {
+        @Override
+        protected OutputStream wrap(final OutputStream out) {
+            return out;
+        }
+
+        @Override
+        protected InputStream unwrap(final InputStream in) {
+            return in;
+        }
+    },
+    DEFLATE(2) {
+        @Override
+        protected OutputStream wrap(final OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED));
+        }
+
+        @Override
+        protected InputStream unwrap(final InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    };
+
+    public static final int LATEST_VERSION = 2;
+
+    private static final char TAG = '$';
+    private static final Map<Integer, ApprovalDataCodec> codecsByVersion = new HashMap<>();
+    static {
+        for (final ApprovalDataCodec codec : values()) {
+            codecsByVersion.put(codec.getVersion(), codec);
+        }
+    }
+
+    private final int version;
+
+    private ApprovalDataCodec(final int version) {
+        this.version = version;
+    }
+
+    /** @return the stream that the payload of this version is written to */
+    protected abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    /** @return the stream that the payload of this version is read from */
+    protected abstract InputStream unwrap(InputStream in) throws IOException;
+
+    public int getVersion() {
+        return version;
+    }
+
+    /** @return the codec of the given version */
+    public static ApprovalDataCodec getCodec(final int version) {
+        final ApprovalDataCodec codec = codecsByVersion.get(version);
+        if (codec == null) {
+            throw new IllegalStateException("Unsupported approval data encoding version " + version + ".");
+        }
+        return codec;
+    }
+
+    /** @return the codec configured with approval.encodingversion, that new data is written with */
+    public static ApprovalDataCodec getConfiguredCodec() {
+        return getCodec(EjbcaConfiguration.getApprovalEncodingVersion());
+    }
+
+    /** @return the encoding version of the encoded data, without decoding it */
+    public static int getVersion(final String encoded) {
+        if (encoded.length() == 0 || encoded.charAt(0) != TAG) {
+            return LEGACY.getVersion();
+        }
+        final int end = encoded.indexOf(TAG, 1);
+        if (end == -1) {
+            throw new IllegalStateException("Malformed approval data encoding version tag.");
+        }
+        try {
+            return Integer.parseInt(encoded.substring(1, end));
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Malformed approval data encoding version tag.", e);
+        }
+    }
+
+    /** @return the approval request encoded with the configured version */
+    public static String encodeApprovalRequest(final ApprovalRequest approvalRequest) {
+        return getConfiguredCodec().encode(serializeApprovalRequest(approvalRequest));
+    }
+
+    /** @return the list of approvals encoded with the configured version */
+    public static String encodeApprovals(final Collection<Approval> approvals) {
+        return getConfiguredCodec().encode(serializeApprovals(approvals));
+    }
+
+    /** @return the approval request decoded from data of any known encoding version */
+    public static ApprovalRequest decodeApprovalRequest(final String encoded) {
+        try (final ObjectInputStream ois = new ObjectInputStream(open(encoded))) {
+            return (ApprovalRequest) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Error building approval request.", e);
+        }
+    }
+
+    /** @return the list of approvals decoded from data of any known encoding version */
+    public static List<Approval> decodeApprovals(final String encoded) {
+        try (final ObjectInputStream ois = new ObjectInputStream(open(encoded))) {
+            final int size = ois.readInt();
+            final List<Approval> approvals = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                approvals.add((Approval) ois.readObject());
+            }
+            return approvals;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Error building approvals.", e);
+        }
+    }
+
+    /**
+     * Converts encoded data to another encoding version. The payload is copied as is, so the approval request or approvals are neither
+     * deserialized nor upgraded.
+     *
+     * @return the data encoded with the given version, or the same string if it already has that version
+     */
+    public static String transcode(final String encoded, final int version) {
+        if (getVersion(encoded) == version) {
+            return encoded;
+        }
+        try (final InputStream in = open(encoded)) {
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream(encoded.length());
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                payload.write(buffer, 0, read);
+            }
+            return getCodec(version).encode(payload.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Error converting approval data.", e);
+        }
+    }
+
+    private String encode(final byte[] payload) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length);
+        try (final OutputStream out = wrap(baos)) {
+            out.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final String base64 = new String(Base64.encode(baos.toByteArray(), false));
+        return this == LEGACY ? base64 : TAG + String.valueOf(version) + TAG + base64;
+    }
+
+    private static InputStream open(final String encoded) throws IOException {
+        final int version = getVersion(encoded);
+        final String base64 = version == LEGACY.getVersion() ? encoded : encoded.substring(encoded.indexOf(TAG, 1) + 1);
+        return getCodec(version).unwrap(new ByteArrayInputStream(Base64.decode(base64.getBytes())));
+    }
+
+    private static byte[] serializeApprovalRequest(final ApprovalRequest approvalRequest) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(approvalRequest);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error building approval request.", e);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] serializeApprovals(final Collection<Approval> approvals) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeInt(approvals.size());
+            for (final Approval approval : approvals) {
+                oos.writeObject(approval);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error building approvals.", e);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.ejbca.core.model.approval;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Date;
@@ -90,6 +92,9 @@ public class ApprovalDataVO implements Serializable {
     private int status = 0;
     private Collection<Approval> approvals = null;
     private ApprovalRequest approvalRequest = null;
+    /** The approvals and the approval request as stored in ApprovalData, until they are decoded by the getters */
+    private transient String encodedApprovals = null;
+    private transient String encodedApprovalRequest = null;
     private Date requestDate = null;
     private Date expireDate = null;
 
@@ -130,6 +135,22 @@ public class ApprovalDataVO implements Serializable {
 		this.requestDate = requestDate;
 		this.expireDate = expireDate;
 	}
+    /**
+     * Creates a value object that decodes the approvals and the approval request with {@link ApprovalDataCodec} when they are first used,
+     * so that listings that only use the other fields do not decode them.
+     *
+     * @param encodedApprovals the approvals as stored in ApprovalData
+     * @param encodedApprovalRequest the approval request as stored in ApprovalData
+     * @see #ApprovalDataVO(int, int, int, int, int, String, String, int, Collection, ApprovalRequest, Date, Date)
+     */
+    public ApprovalDataVO(int id, int approvalId, int approvalType, int endEntityProfileiId, int cAId, String reqadmincertissuerdn,
+            String reqadmincertsn, int status, String encodedApprovals, String encodedApprovalRequest, Date requestDate, Date expireDate) {
+        this(id, approvalId, approvalType, endEntityProfileiId, cAId, reqadmincertissuerdn, reqadmincertsn, status, (Collection<Approval>) null, null, requestDate,
+                expireDate);
+        this.encodedApprovals = encodedApprovals;
+        this.encodedApprovalRequest = encodedApprovalRequest;
+    }
+
 	/**
 	 *  Constructed from action data as actiontype, admin, username etc. It should
      *  result in the same approvalid if the admin tries to request the same action twice.
@@ -145,11 +166,16 @@ public class ApprovalDataVO implements Serializable {
 	 * @return Returns the approvalRequest.
 	 */
 	public ApprovalRequest getApprovalRequest() {
+	    if (encodedApprovalRequest != null) {
+	        approvalRequest = ApprovalDataCodec.decodeApprovalRequest(encodedApprovalRequest);
+	        encodedApprovalRequest = null;
+	    }
 		return approvalRequest;
 	}
 
 	public void setApprovalRequest(ApprovalRequest approvalRequest) {
 	    this.approvalRequest = approvalRequest;
+	    this.encodedApprovalRequest = null;
 	}
 
 	/**
@@ -158,6 +184,10 @@ public class ApprovalDataVO implements Serializable {
 	 * @return Returns the approvals.
 	 */
 	public Collection<Approval> getApprovals() {
+	    if (encodedApprovals != null) {
+	        approvals = ApprovalDataCodec.decodeApprovals(encodedApprovals);
+	        encodedApprovals = null;
+	    }
 		return approvals;
 	}
 
@@ -209,7 +239,7 @@ public class ApprovalDataVO implements Serializable {
 	}
 
 	public ApprovalProfile getApprovalProfile() {
-	    return approvalRequest.getApprovalProfile();
+	    return getApprovalRequest().getApprovalProfile();
 	}
 
     public int getRemainingApprovals() {
@@ -259,4 +289,11 @@ public class ApprovalDataVO implements Serializable {
 	public int getStatus() {
 		return status;
 	}
+
+    /** Decodes the approvals and the approval request before serialization, so that the serialized form is the same as before. */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        getApprovals();
+        getApprovalRequest();
+        out.defaultWriteObject();
+    }
 }
@@ -52,6 +52,9 @@ public class PublisherConst {
     
     /**Publishing failed*/
     public static final int STATUS_FAILED = 30; // If publishing failed completely so we will not try again
+
+    /**Publishing directly after the issuing transaction has committed, see publish.async.enabled. Not processed by the publisher queue*/
+    public static final int STATUS_OUTBOX = 40; // If the entry is published asynchronously after commit, or recovered if that did not happen
     
     
     
@@ -61,4 +64,7 @@ public class PublisherConst {
     /**A CRL published*/
     public static final int PUBLISH_TYPE_CRL  = 2; // Is it a CRL we publish
 
+    /**Certificates revoked together published, see {@link PublisherQueueVolatileInformation#getFingerprints()}*/
+    public static final int PUBLISH_TYPE_CERT_BATCH = 3; // Is it a batch of revoked certificates we publish
+
 }
@@ -14,9 +14,14 @@
 package org.ejbca.core.model.ca.publisher;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.ExtendedInformation;
@@ -52,6 +57,8 @@ public class PublisherQueueVolatileInformation extends UpgradeableDataHashMap im
     private static final String USERDN = "userdn";
     /** ExtendedInformation from UserData */
     private static final String EXTENDEDINFORMATION = "extendedinformation";
+    /** Fingerprints of the certificates in an entry of type {@link PublisherConst#PUBLISH_TYPE_CERT_BATCH} */
+    private static final String FINGERPRINTS = "fingerprints";
         
     
     // Public constants
@@ -120,6 +127,23 @@ public class PublisherQueueVolatileInformation extends UpgradeableDataHashMap im
     	}
     }
     
+    /**
+     * @return the fingerprints of the certificates to publish, or an empty list if this is not a batch of certificates
+     */
+    public List<String> getFingerprints() {
+        final String fingerprints = (String) data.get(FINGERPRINTS);
+        if (StringUtils.isEmpty(fingerprints)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(fingerprints.split(",")));
+    }
+
+    public void setFingerprints(final Collection<String> fingerprints) {
+        if (fingerprints != null) {
+            data.put(FINGERPRINTS, StringUtils.join(fingerprints, ','));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public Object clone() throws CloneNotSupportedException {
       PublisherQueueVolatileInformation clone = new PublisherQueueVolatileInformation();
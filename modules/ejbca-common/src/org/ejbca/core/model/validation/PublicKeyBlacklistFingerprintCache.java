@@ -0,0 +1,87 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.model.validation;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Holds the {@link PublicKeyBlacklistFingerprintSet} of all public key blacklist entries. The set is rebuilt from the database
+ * by BlacklistSessionBean and replaced atomically, so lookups never wait for a rebuild in progress.
+ * Configured through CesecoreConfiguration.getCachePublicKeyBlacklistTime().
+ *
+ * @version $Id$
+ */
+public enum PublicKeyBlacklistFingerprintCache {
+
+    INSTANCE;
+
+    private volatile PublicKeyBlacklistFingerprintSet fingerprints = null;
+    /** Summary of the database content the current set was built from, see {@link #getSignature()} */
+    private volatile String signature = null;
+    private volatile long lastUpdate = 0L;
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    /** @return the current set of fingerprints, or null if it has not been loaded yet */
+    public PublicKeyBlacklistFingerprintSet getFingerprints() {
+        return fingerprints;
+    }
+
+    /** @return true if the set has not been loaded, or has not been checked against the database within the cache time */
+    public boolean shouldCheckForUpdates() {
+        return fingerprints == null || lastUpdate + Math.max(CesecoreConfiguration.getCachePublicKeyBlacklistTime(), 0) <= System.currentTimeMillis();
+    }
+
+    /** @return the summary of the database content that the current set was built from, or null if not loaded */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Lock that should be held while checking for updates and rebuilding the set, so that only one thread at a time
+     * rebuilds it. Threads that fail to acquire it can keep using the current set (if any).
+     */
+    public ReentrantLock getUpdateLock() {
+        return updateLock;
+    }
+
+    /** Marks the current set as checked against the database now, without replacing it. */
+    public void touch() {
+        lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Replaces the current set of fingerprints.
+     * @param fingerprints the new set, which must not be modified after this call.
+     * @param signature summary of the database content the set was built from.
+     */
+    public void replaceWith(final PublicKeyBlacklistFingerprintSet fingerprints, final String signature) {
+        this.fingerprints = fingerprints;
+        this.signature = signature;
+        touch();
+    }
+
+    /** Forces a check against the database on the next lookup, while still allowing the current set to be used. */
+    public void setStale() {
+        lastUpdate = 0L;
+        signature = null;
+    }
+
+    /** Removes the current set, so it is loaded again on the next lookup. */
+    public void flush() {
+        fingerprints = null;
+        setStale();
+    }
+}
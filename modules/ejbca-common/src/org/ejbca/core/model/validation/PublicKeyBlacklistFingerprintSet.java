@@ -0,0 +1,173 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.model.validation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Compact set of public key blacklist fingerprints (see {@link PublicKeyBlacklistEntry#getFingerprint()}), used to quickly
+ * tell if a public key is not blacklisted without looking up the full blacklist entry.
+ * <p>
+ * Each fingerprint is stored as the first 64 bits of its SHA-256 hash, in an open-addressing hash table with linear probing
+ * kept in a direct (off-heap) buffer. The table is at most half full, and is sized exactly rather than to a power of two. This uses
+ * 16 bytes per entry when the set is created with the number of fingerprints it will hold, and up to 24 bytes per entry after it has
+ * grown, regardless of the fingerprint format. This compares to several hundred bytes per entry for the String keys and entry
+ * objects in {@link PublicKeyBlacklistEntryCache}.
+ * <p>
+ * Since the hashes are truncated, {@link #contains(String)} can give false positives (with a probability of about
+ * size/2^64), so a match must be confirmed against the actual blacklist entry. It never gives false negatives.
+ * <p>
+ * The set is filled with {@link #add(String)} while it is being built, and is only read after that, so that it can be
+ * shared between threads without locking once it has been safely published.
+ *
+ * @version $Id$
+ */
+public final class PublicKeyBlacklistFingerprintSet {
+
+    /** Value of an empty slot. A hash with this value is stored as {@link #ZERO_HASH} instead. */
+    private static final long EMPTY = 0L;
+    private static final long ZERO_HASH = 1L;
+    /** The table is grown when it is more than half full, which keeps the average probe length for misses below 2.5 */
+    private static final int MAX_LOAD_PERCENT = 50;
+    private static final int MIN_CAPACITY = 16;
+    /** 2^27 slots use 1 GiB of memory, which is also about the maximum size of a direct buffer */
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private LongBuffer table;
+    private int capacity;
+    private int size = 0;
+
+    /**
+     * Creates an empty set.
+     * @param expectedSize the number of fingerprints expected to be added. The set grows if more are added.
+     */
+    public PublicKeyBlacklistFingerprintSet(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Adds a fingerprint to the set.
+     * @param fingerprint a fingerprint in the format of {@link PublicKeyBlacklistEntry#getFingerprint()}, null is ignored.
+     */
+    public void add(final String fingerprint) {
+        if (fingerprint == null) {
+            return;
+        }
+        if ((size + 1) * 100L > (long) capacity * MAX_LOAD_PERCENT) {
+            // Grow by half, so that adding many fingerprints one at a time does not rehash too often
+            rehash(capacityFor(size + 1 + size / 2));
+        }
+        if (insert(table, capacity, hash(fingerprint))) {
+            size++;
+        }
+    }
+
+    /**
+     * @param fingerprint a fingerprint in the format of {@link PublicKeyBlacklistEntry#getFingerprint()}
+     * @return true if the fingerprint may be in the set, false if it is definitely not in the set.
+     */
+    public boolean contains(final String fingerprint) {
+        if (fingerprint == null) {
+            return false;
+        }
+        final long hash = hash(fingerprint);
+        int index = indexFor(hash, capacity);
+        while (true) {
+            final long value = table.get(index);
+            if (value == hash) {
+                return true;
+            } else if (value == EMPTY) {
+                return false;
+            }
+            if (++index == capacity) {
+                index = 0;
+            }
+        }
+    }
+
+    /** @return the number of distinct fingerprints in the set */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes used by the hash table, outside of the Java heap */
+    public long getMemoryUsage() {
+        return (long) capacity * Long.BYTES;
+    }
+
+    /** @return the first 64 bits of the SHA-256 hash of the fingerprint, which is never {@link #EMPTY} */
+    static long hash(final String fingerprint) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(fingerprint.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create SHA-256 hash. Is the algorithm supported on this system?", e);
+        }
+        final long hash = ByteBuffer.wrap(digest).getLong();
+        return hash == EMPTY ? ZERO_HASH : hash;
+    }
+
+    /** @return the smallest table size that holds the expected number of fingerprints without exceeding the maximum load */
+    private static int capacityFor(final int expectedSize) {
+        final long minCapacity = Math.max(MIN_CAPACITY, (Math.max(expectedSize, 0) * 100L) / MAX_LOAD_PERCENT + 1);
+        if (minCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Too many public key blacklist entries: " + expectedSize);
+        }
+        return (int) minCapacity;
+    }
+
+    /** @return the slot of the hash, from its upper 32 bits scaled to the table size, since the table size is not a power of two */
+    private static int indexFor(final long hash, final int capacity) {
+        return (int) (((hash >>> 32) * capacity) >>> 32);
+    }
+
+    private void allocate(final int newCapacity) {
+        table = ByteBuffer.allocateDirect(newCapacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        capacity = newCapacity;
+    }
+
+    private void rehash(final int newCapacity) {
+        final LongBuffer oldTable = table;
+        allocate(newCapacity);
+        for (int i = 0; i < oldTable.capacity(); i++) {
+            final long value = oldTable.get(i);
+            if (value != EMPTY) {
+                insert(table, capacity, value);
+            }
+        }
+    }
+
+    /** @return true if the hash was inserted, or false if it was already present */
+    private static boolean insert(final LongBuffer table, final int capacity, final long hash) {
+        int index = indexFor(hash, capacity);
+        while (true) {
+            final long value = table.get(index);
+            if (value == hash) {
+                return false;
+            } else if (value == EMPTY) {
+                table.put(index, hash);
+                return true;
+            }
+            if (++index == capacity) {
+                index = 0;
+            }
+        }
+    }
+}
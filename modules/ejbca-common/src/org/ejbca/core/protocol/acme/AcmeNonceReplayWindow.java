@@ -0,0 +1,86 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.acme;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * In-memory set of used replay nonces that have not yet expired.
+ * <p>
+ * Nonces are put in time buckets by expiration time. The buckets form a ring that covers the nonce validity, so a bucket is
+ * reused (and emptied) only when all nonces in it have expired, and memory use follows the number of nonces used within one
+ * validity period. Each bucket is split into stripes with separate locks, chosen by the nonce, so concurrent requests rarely
+ * wait for each other.
+ *
+ * @version $Id$
+ */
+public class AcmeNonceReplayWindow {
+
+    /** Number of buckets within the validity period */
+    private static final int BUCKETS_PER_VALIDITY = 16;
+    private static final long MIN_BUCKET_WIDTH = 1000L;
+    private static final int STRIPES = 64;
+
+    /** Nonces expiring within one bucket width, with one epoch per stripe so that stripes can be emptied independently */
+    private static class Stripe {
+        private long epoch = Long.MIN_VALUE;
+        private final Set<Long> replayKeys = new HashSet<>();
+    }
+
+    private final long validity;
+    private final long bucketWidth;
+    private final Stripe[][] ring;
+
+    /** @param validity the validity of nonces in milliseconds */
+    public AcmeNonceReplayWindow(final long validity) {
+        this.validity = validity;
+        this.bucketWidth = Math.max(MIN_BUCKET_WIDTH, validity / BUCKETS_PER_VALIDITY);
+        // Two extra buckets, for the partially filled bucket at each end of the validity period
+        final int bucketCount = (int) (validity / bucketWidth) + 2;
+        ring = new Stripe[bucketCount][STRIPES];
+        for (final Stripe[] bucket : ring) {
+            for (int i = 0; i < STRIPES; i++) {
+                bucket[i] = new Stripe();
+            }
+        }
+    }
+
+    /** @return the nonce validity this window was created for */
+    public long getValidity() {
+        return validity;
+    }
+
+    /**
+     * Marks a nonce as used. The caller must have checked that the nonce has not expired.
+     *
+     * @param replayKey value identifying the nonce
+     * @param timeExpires the time when the nonce expires
+     * @return true if the nonce had not been used before, false if it is a replay
+     */
+    public boolean markUsed(final long replayKey, final long timeExpires) {
+        final long epoch = timeExpires / bucketWidth;
+        final Stripe stripe = ring[(int) (epoch % ring.length)][(int) ((replayKey ^ (replayKey >>> 32)) & (STRIPES - 1))];
+        synchronized (stripe) {
+            if (stripe.epoch != epoch) {
+                if (stripe.epoch > epoch) {
+                    // The bucket has been reused for later nonces, so this one has expired by now
+                    return false;
+                }
+                stripe.epoch = epoch;
+                stripe.replayKeys.clear();
+            }
+            return stripe.replayKeys.add(replayKey);
+        }
+    }
+}
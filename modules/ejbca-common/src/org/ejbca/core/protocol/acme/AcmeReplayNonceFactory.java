@@ -0,0 +1,159 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.acme;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Creates and verifies self-authenticating ACME replay nonces, so that issuing a nonce requires no storage at all.
+ * <p>
+ * The format is described in AcmeNonceSingletonLocal: a 32 byte message with the creation time, a counter and the node
+ * id, followed by an HMAC-SHA256 of the message. New nonces are signed with the last of the given secrets, and nonces signed with
+ * any of the secrets are accepted, so a secret can be rolled over without rejecting nonces that are already handed out.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @version $Id$
+ */
+public class AcmeReplayNonceFactory {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int TIMESTAMP_SIZE = 8;
+    private static final int COUNTER_SIZE = 8;
+    public static final int NODE_ID_SIZE = 16;
+    private static final int MESSAGE_SIZE = TIMESTAMP_SIZE + COUNTER_SIZE + NODE_ID_SIZE;
+    private static final int HMAC_SIZE = 32;
+    private static final int NONCE_SIZE = MESSAGE_SIZE + HMAC_SIZE;
+    /** Length of the base64url encoding of a nonce, without padding */
+    private static final int ENCODED_NONCE_LENGTH = (NONCE_SIZE * 8 + 5) / 6;
+
+    /** A nonce that has been verified to be created by one of our nodes. */
+    public static class ReplayNonce {
+        private final long timeCreated;
+        private final long replayKey;
+
+        private ReplayNonce(final long timeCreated, final long replayKey) {
+            this.timeCreated = timeCreated;
+            this.replayKey = replayKey;
+        }
+
+        /** @return the time when the nonce was created */
+        public long getTimeCreated() { return timeCreated; }
+
+        /** @return a 64 bit value identifying the nonce, derived from the HMAC */
+        public long getReplayKey() { return replayKey; }
+    }
+
+    private final byte[] nodeId;
+    private final List<SecretKeySpec> secrets;
+    private final AtomicLong counter;
+    /** Mac instances are not thread safe and expensive to create, so each thread keeps one per secret */
+    private final ThreadLocal<Mac[]> macs = new ThreadLocal<Mac[]>() {
+        @Override
+        protected Mac[] initialValue() {
+            return new Mac[secrets.size()];
+        }
+    };
+
+    /**
+     * @param nodeId {@value #NODE_ID_SIZE} bytes identifying this node, so that nonces from different nodes never collide
+     * @param secrets the HMAC secrets, with the one to use for new nonces last
+     * @param counter counter of nonces created by this node, which should be shared when a new factory replaces an old one
+     */
+    public AcmeReplayNonceFactory(final byte[] nodeId, final List<byte[]> secrets, final AtomicLong counter) {
+        if (nodeId == null || nodeId.length != NODE_ID_SIZE) {
+            throw new IllegalArgumentException("The node id must be " + NODE_ID_SIZE + " bytes.");
+        }
+        if (secrets == null || secrets.isEmpty()) {
+            throw new IllegalArgumentException("At least one replay nonce secret is required.");
+        }
+        this.nodeId = nodeId.clone();
+        this.secrets = new ArrayList<>(secrets.size());
+        for (final byte[] secret : secrets) {
+            this.secrets.add(new SecretKeySpec(secret, HMAC_ALGORITHM));
+        }
+        this.counter = counter;
+    }
+
+    /**
+     * @param timeCreated the current time
+     * @return a new nonce as a base64url encoded String without padding
+     */
+    public String createNonce(final long timeCreated) {
+        final ByteBuffer buffer = ByteBuffer.allocate(NONCE_SIZE);
+        buffer.putLong(timeCreated);
+        buffer.putLong(counter.incrementAndGet());
+        buffer.put(nodeId);
+        final Mac mac = getMac(secrets.size() - 1);
+        mac.update(buffer.array(), 0, MESSAGE_SIZE);
+        buffer.put(mac.doFinal());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Verifies that a nonce has been created with one of the secrets. Does not check if the nonce has expired or has been used.
+     *
+     * @param nonce a base64url encoded nonce
+     * @return the verified nonce, or null if the nonce is malformed or has not been created by us
+     */
+    public ReplayNonce parse(final String nonce) {
+        if (nonce == null || nonce.length() != ENCODED_NONCE_LENGTH) {
+            return null;
+        }
+        final byte[] decoded;
+        try {
+            decoded = Base64.getUrlDecoder().decode(nonce);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (decoded.length != NONCE_SIZE) {
+            return null;
+        }
+        final byte[] hmac = new byte[HMAC_SIZE];
+        System.arraycopy(decoded, MESSAGE_SIZE, hmac, 0, HMAC_SIZE);
+        // Try the current secret first, since almost all nonces are created with it
+        for (int i = secrets.size() - 1; i >= 0; i--) {
+            final Mac mac = getMac(i);
+            mac.update(decoded, 0, MESSAGE_SIZE);
+            if (MessageDigest.isEqual(hmac, mac.doFinal())) {
+                final ByteBuffer buffer = ByteBuffer.wrap(decoded);
+                return new ReplayNonce(buffer.getLong(0), buffer.getLong(MESSAGE_SIZE));
+            }
+        }
+        return null;
+    }
+
+    private Mac getMac(final int index) {
+        final Mac[] threadMacs = macs.get();
+        if (threadMacs[index] == null) {
+            try {
+                final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(secrets.get(index));
+                threadMacs[index] = mac;
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return threadMacs[index];
+    }
+}
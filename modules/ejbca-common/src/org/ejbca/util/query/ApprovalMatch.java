@@ -88,6 +88,28 @@ public class ApprovalMatch extends BasicMatch {
         return returnval;
     }
 
+    @Override
+    public String getQueryString(final QueryBuilder queryBuilder) {
+        final String column = MATCH_WITH_SQLNAMES[matchwith];
+        if (matchtype == BasicMatch.MATCH_TYPE_EQUALS) {
+            // Integer columns are matched with an integer parameter, see getQueryString()
+            final Object value;
+            if ((matchwith >= MATCH_WITH_UNIQUEID && matchwith <= MATCH_WITH_CAID) || (matchwith == MATCH_WITH_STATUS) || (matchwith == MATCH_WITH_REMAININGAPPROVALS)) {
+                value = Integer.valueOf(matchvalue.trim());
+            } else {
+                value = matchvalue.trim();
+            }
+            return column + " = " + queryBuilder.parameter(column, value);
+        }
+        if (matchtype == BasicMatch.MATCH_TYPE_BEGINSWITH) {
+            return column + " LIKE " + queryBuilder.parameter(column, matchvalue + "%");
+        }
+        if (matchtype == BasicMatch.MATCH_TYPE_CONTAINS) {
+            return column + " LIKE " + queryBuilder.parameter(column, "%" + matchvalue + "%");
+        }
+        return "";
+    }
+
     @Override
     public boolean isLegalQuery() {
         return StringUtils.isNotBlank(matchvalue);
@@ -36,6 +36,12 @@ public abstract class BasicMatch implements Serializable {
     /** @return a SQL statement fragment from the given data (with escaped single quotes). */
     public abstract String getQueryString();
 
+    /**
+     * @param queryBuilder the builder that the match value is stored in as a parameter
+     * @return a SQL statement fragment from the given data, with the match value as a bound parameter.
+     */
+    public abstract String getQueryString(QueryBuilder queryBuilder);
+
     /** @return true if query is legal, false otherwise */
     public abstract boolean isLegalQuery();
 
@@ -178,6 +178,22 @@ public class Query implements Serializable {
         return returnval;
     }
 
+    /**
+     * Gives the string to be used in the 'WHERE' clause in the SQL-statement, with the match values as bound parameters.
+     *
+     * @param queryBuilder the builder that the match values are stored in as parameters
+     * @return the string to be used in the 'WHERE'-clause.
+     */
+    public String getQueryString(final QueryBuilder queryBuilder) {
+        final StringBuilder returnval = new StringBuilder();
+        for (int i = 0; i < (matches.size() - 1); i++) {
+            returnval.append(matches.get(i).getQueryString(queryBuilder));
+            returnval.append(CONNECTOR_SQL_NAMES[connectors.get(i).intValue()]);
+        }
+        returnval.append(matches.get(matches.size() - 1).getQueryString(queryBuilder));
+        return returnval.toString();
+    }
+
     /**
      * Checks if the present query is legal by checking if every match is legal and that the number
      * of connectors is one less than matches.
@@ -0,0 +1,140 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the 'WHERE' clause of end entity and approval searches with all values as bound parameters, so that searches with the
+ * same conditions give the same statement, which the JPA provider and the database can reuse the parsed statement and plan of.
+ * <p>
+ * Lists of authorized CA and end entity profile ids are written as IN conditions in a canonical form, see
+ * {@link #andIn(String, Collection)}.
+ * <p>
+ * Parameter names are generated from the given names in the same way as by org.cesecore.util.query.QueryGenerator.
+ *
+ * @version $Id$
+ */
+public class QueryBuilder {
+
+    /** Oracle allows at most 1000 expressions in an IN list */
+    static final int MAX_IN_LIST_SIZE = 1000;
+
+    private final StringBuilder whereClause = new StringBuilder();
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+    /**
+     * Adds a condition, that is combined with the previous conditions with AND.
+     *
+     * @param condition a condition with parameters from {@link #parameter(String, Object)}
+     * @return this builder
+     */
+    public QueryBuilder and(final String condition) {
+        if (whereClause.length() > 0) {
+            whereClause.append(" AND ");
+        }
+        whereClause.append('(').append(condition).append(')');
+        return this;
+    }
+
+    /**
+     * Adds a condition that the column is one of the values, that is combined with the previous conditions with AND. The
+     * values are sorted and duplicates removed, and the list is padded to the next power of two by repeating the last value, so
+     * that the statement is the same for any order of the values and only a few different statements are made for different
+     * numbers of values. Lists longer than {@value #MAX_IN_LIST_SIZE} are split into several IN conditions.
+     *
+     * @param column the column or field name, for example cAId or a.id
+     * @param values the values, a condition that is never true if empty
+     * @return this builder
+     */
+    public QueryBuilder andIn(final String column, final Collection<Integer> values) {
+        final String name = column.substring(column.lastIndexOf('.') + 1);
+        if (values.isEmpty()) {
+            // Setup a condition that can never be true if there are no values
+            return and("0=1");
+        }
+        final int[] sortedValues = new int[values.size()];
+        int size = 0;
+        for (final Integer value : values) {
+            sortedValues[size++] = value;
+        }
+        Arrays.sort(sortedValues);
+        // Remove duplicates
+        size = 0;
+        for (int i = 0; i < sortedValues.length; i++) {
+            if (i == 0 || sortedValues[i] != sortedValues[i - 1]) {
+                sortedValues[size++] = sortedValues[i];
+            }
+        }
+        final StringBuilder condition = new StringBuilder();
+        for (int start = 0; start < size; start += MAX_IN_LIST_SIZE) {
+            final int end = Math.min(start + MAX_IN_LIST_SIZE, size);
+            final int paddedSize = Math.min(Integer.highestOneBit(end - start - 1) << 1, MAX_IN_LIST_SIZE);
+            final List<Integer> chunk = new ArrayList<>(Math.max(paddedSize, end - start));
+            for (int i = start; i < end; i++) {
+                chunk.add(sortedValues[i]);
+            }
+            while (chunk.size() < paddedSize) {
+                chunk.add(sortedValues[end - 1]);
+            }
+            if (condition.length() > 0) {
+                condition.append(" OR ");
+            }
+            condition.append(column).append(" IN (").append(parameter(name, chunk)).append(')');
+        }
+        return and(condition.toString());
+    }
+
+    /**
+     * Stores a parameter value.
+     *
+     * @param name the name to generate the parameter name from, for example the column name. Must be alphanumeric.
+     * @param value the value of the parameter
+     * @return the parameter reference to use in the condition, for example ':status0'
+     */
+    public String parameter(final String name, final Object value) {
+        int i = 0;
+        while (true) {
+            final String parameter = name + i++;
+            if (!parameters.containsKey(parameter)) {
+                parameters.put(parameter, value);
+                return ":" + parameter;
+            }
+        }
+    }
+
+    /** @return true if no conditions have been added */
+    public boolean isEmpty() {
+        return whereClause.length() == 0;
+    }
+
+    /** @return the conditions to use in the 'WHERE' clause, or "1=1" if there are none */
+    public String getWhereClause() {
+        return isEmpty() ? "1=1" : whereClause.toString();
+    }
+
+    /** @return the parameter values by parameter name, without the ':' */
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return getWhereClause() + " " + parameters;
+    }
+}
@@ -97,6 +97,23 @@ public class TimeMatch extends BasicMatch {
         return returnval;
     }
 
+    @Override
+    public String getQueryString(final QueryBuilder queryBuilder) {
+        final String column = MATCH_WITH_SQLNAMES[(type * 2) + matchwith];
+        final StringBuilder returnval = new StringBuilder("( ");
+        if (startdate != null) {
+            returnval.append(column).append(" >= ").append(queryBuilder.parameter(column, startdate.getTime())).append(' ');
+            if (enddate != null) {
+                returnval.append(" AND ");
+            }
+        }
+        if (enddate != null) {
+            returnval.append(column).append(" <= ").append(queryBuilder.parameter(column, enddate.getTime())).append(' ');
+        }
+        returnval.append(" )");
+        return returnval.toString();
+    }
+
     @Override
     public boolean isLegalQuery() {
         return startdate != null || enddate != null;
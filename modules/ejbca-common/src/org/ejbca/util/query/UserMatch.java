@@ -152,6 +152,50 @@ public class UserMatch extends BasicMatch {
         return returnval;
     }
 
+    @Override
+    public String getQueryString(final QueryBuilder queryBuilder) {
+        String returnval = "";
+        final String matchvalue = this.matchvalue.toUpperCase();
+        if (isSubjectDNMatch()) {
+            // Ignore MATCH_TYPE_EQUALS.
+            returnval = MATCH_WITH_SUBJECTDN + " LIKE " + queryBuilder.parameter("subjectDN", "%" + MATCH_WITH_SUBJECTDN_NAMES[matchwith - 100] + matchvalue + "%");
+        } else if (isSubjectAltNameMatch()) {
+            returnval = MATCH_WITH_SUBJECTALTNAME + " LIKE "
+                    + queryBuilder.parameter(MATCH_WITH_SUBJECTALTNAME, "%" + MATCH_WITH_SUBJECTALTNAME_NAMES[matchwith - 200] + matchvalue + "%");
+        } else if (matchwith == MATCH_WITH_DN) {
+            returnval = getStringMatch(queryBuilder, MATCH_WITH_SUBJECTDN, "subjectDN", matchvalue);
+        } else if (matchwith == MATCH_WITH_USERNAME) {
+            returnval = getStringMatch(queryBuilder, MATCH_WITH_USERNAMESTRING, "username", matchvalue);
+        } else if (matchwith == MATCH_WITH_EMAIL) {
+            returnval = getStringMatch(queryBuilder, MATCH_WITH_EMAILSTRING, "subjectEmail", matchvalue);
+        } else if (matchtype == BasicMatch.MATCH_TYPE_EQUALS) {
+            // Integer columns are matched with an integer parameter, see getQueryString()
+            final Object value;
+            if (matchwith == MATCH_WITH_STATUS || matchwith == MATCH_WITH_CA || matchwith == MATCH_WITH_CERTIFICATEPROFILE ||
+                    matchwith == MATCH_WITH_ENDENTITYPROFILE || matchwith == MATCH_WITH_TOKEN) {
+                value = Integer.valueOf(this.matchvalue.trim());
+            } else {
+                value = matchvalue.trim();
+            }
+            returnval = MATCH_WITH_SQLNAMES[matchwith] + " = " + queryBuilder.parameter(MATCH_WITH_SQLNAMES[matchwith], value);
+        } else if (matchtype == BasicMatch.MATCH_TYPE_BEGINSWITH) {
+            returnval = MATCH_WITH_SQLNAMES[matchwith] + " LIKE " + queryBuilder.parameter(MATCH_WITH_SQLNAMES[matchwith], matchvalue + "%");
+        }
+        return returnval;
+    }
+
+    /** @return the condition for a match on an upper cased string column */
+    private String getStringMatch(final QueryBuilder queryBuilder, final String column, final String name, final String matchvalue) {
+        if (matchtype == BasicMatch.MATCH_TYPE_EQUALS) {
+            return column + " = " + queryBuilder.parameter(name, matchvalue.trim());
+        } else if (matchtype == BasicMatch.MATCH_TYPE_BEGINSWITH) {
+            return column + " LIKE " + queryBuilder.parameter(name, matchvalue + "%");
+        } else if (matchtype == BasicMatch.MATCH_TYPE_CONTAINS) {
+            return column + " LIKE " + queryBuilder.parameter(name, "%" + matchvalue + "%");
+        }
+        return "";
+    }
+
     @Override
     public boolean isLegalQuery() {
         return StringUtils.isNotBlank(matchvalue);
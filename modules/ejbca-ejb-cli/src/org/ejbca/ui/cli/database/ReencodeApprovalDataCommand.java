@@ -0,0 +1,102 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.cli.database;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.core.ejb.approval.ApprovalSessionRemote;
+import org.ejbca.ui.cli.infrastructure.command.CommandResult;
+import org.ejbca.ui.cli.infrastructure.command.EjbcaCliUserCommandBase;
+import org.ejbca.ui.cli.infrastructure.parameter.Parameter;
+import org.ejbca.ui.cli.infrastructure.parameter.ParameterContainer;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.MandatoryMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.ParameterMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.StandaloneMode;
+
+/**
+ * Converts the stored approval requests and approvals in ApprovalData to the encoding configured with approval.encodingversion.
+ *
+ * @version $Id$
+ */
+public class ReencodeApprovalDataCommand extends EjbcaCliUserCommandBase {
+
+    private static final Logger log = Logger.getLogger(ReencodeApprovalDataCommand.class);
+
+    private static final String BATCH_SIZE_KEY = "--batchsize";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    {
+        registerParameter(new Parameter(BATCH_SIZE_KEY, "Batch size", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.ARGUMENT,
+                "Number of rows to process in each transaction. Default is " + DEFAULT_BATCH_SIZE + "."));
+    }
+
+    @Override
+    public String[] getCommandPath() {
+        return new String[] { "database" };
+    }
+
+    @Override
+    public String getMainCommand() {
+        return "reencodeapprovals";
+    }
+
+    @Override
+    public CommandResult execute(ParameterContainer parameters) {
+        final int batchSize;
+        try {
+            batchSize = parameters.get(BATCH_SIZE_KEY) == null ? DEFAULT_BATCH_SIZE : Integer.parseInt(parameters.get(BATCH_SIZE_KEY));
+        } catch (NumberFormatException e) {
+            log.error("ERROR: " + parameters.get(BATCH_SIZE_KEY) + " was not a number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        if (batchSize < 1) {
+            log.error("ERROR: Batch size must be a positive number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        final ApprovalSessionRemote approvalSession = EjbRemoteHelper.INSTANCE.getRemoteSession(ApprovalSessionRemote.class);
+        try {
+            long count = 0;
+            Integer lastId = null;
+            do {
+                lastId = approvalSession.reencodeApprovalData(getAuthenticationToken(), lastId, batchSize);
+                if (lastId != null) {
+                    count += batchSize;
+                    log.info("Processed approval requests up to id " + lastId + " (about " + count + " approval requests).");
+                }
+            } while (lastId != null);
+        } catch (AuthorizationDeniedException e) {
+            log.error("ERROR: CLI user not authorized to convert approval requests: " + e.getMessage());
+            return CommandResult.AUTHORIZATION_FAILURE;
+        }
+        log.info("All approval requests have been converted.");
+        return CommandResult.SUCCESS;
+    }
+
+    @Override
+    public String getCommandDescription() {
+        return "Converts the stored approval requests and approvals to the configured encoding";
+    }
+
+    @Override
+    public String getFullHelpText() {
+        return getCommandDescription() + ". New and changed approval requests are stored with the encoding configured with "
+                + "approval.encodingversion in ejbca.properties, and all encodings can be read. Run this command once after all nodes "
+                + "have been upgraded and the encoding version has been changed, to also convert the existing approval requests. The command can be safely run again if interrupted.";
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return log;
+    }
+}
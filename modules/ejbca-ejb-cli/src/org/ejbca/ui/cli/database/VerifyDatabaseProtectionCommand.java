@@ -0,0 +1,124 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.cli.database;
+
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.DatabaseProtectionSessionRemote;
+import org.cesecore.dbprotection.DatabaseProtectionVerificationResult;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.ui.cli.infrastructure.command.CommandResult;
+import org.ejbca.ui.cli.infrastructure.command.EjbcaCliUserCommandBase;
+import org.ejbca.ui.cli.infrastructure.parameter.Parameter;
+import org.ejbca.ui.cli.infrastructure.parameter.ParameterContainer;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.MandatoryMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.ParameterMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.StandaloneMode;
+
+/**
+ * Verifies the database integrity protection of all rows in a table.
+ *
+ * @version $Id$
+ */
+public class VerifyDatabaseProtectionCommand extends EjbcaCliUserCommandBase {
+
+    private static final Logger log = Logger.getLogger(VerifyDatabaseProtectionCommand.class);
+
+    private static final String TABLE_KEY = "--table";
+    private static final String BATCH_SIZE_KEY = "--batchsize";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    {
+        registerParameter(new Parameter(TABLE_KEY, "Table", MandatoryMode.MANDATORY, StandaloneMode.ALLOW, ParameterMode.ARGUMENT,
+                "Name of the table to verify, for example CertificateData or AuditRecordData."));
+        registerParameter(new Parameter(BATCH_SIZE_KEY, "Batch size", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.ARGUMENT,
+                "Number of rows to verify in each call. Default is " + DEFAULT_BATCH_SIZE + "."));
+    }
+
+    @Override
+    public String[] getCommandPath() {
+        return new String[] { "database" };
+    }
+
+    @Override
+    public String getMainCommand() {
+        return "verifyprotection";
+    }
+
+    @Override
+    public CommandResult execute(ParameterContainer parameters) {
+        final String table = parameters.get(TABLE_KEY);
+        final int batchSize;
+        try {
+            batchSize = parameters.get(BATCH_SIZE_KEY) == null ? DEFAULT_BATCH_SIZE : Integer.parseInt(parameters.get(BATCH_SIZE_KEY));
+        } catch (NumberFormatException e) {
+            log.error("ERROR: " + parameters.get(BATCH_SIZE_KEY) + " was not a number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        if (batchSize < 1) {
+            log.error("ERROR: Batch size must be a positive number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        final DatabaseProtectionSessionRemote databaseProtectionSession = EjbRemoteHelper.INSTANCE.getRemoteSession(DatabaseProtectionSessionRemote.class);
+        long verified = 0;
+        long failed = 0;
+        Serializable lastPrimaryKey = null;
+        try {
+            do {
+                final DatabaseProtectionVerificationResult result = databaseProtectionSession.verifyProtection(getAuthenticationToken(), table,
+                        lastPrimaryKey, batchSize);
+                for (final String failedRow : result.getFailedRows()) {
+                    log.error("Verification failed: " + failedRow);
+                }
+                verified += result.getVerifiedRows();
+                failed += result.getFailedRows().size();
+                lastPrimaryKey = result.getLastPrimaryKey();
+                if (lastPrimaryKey != null) {
+                    log.info("Verified " + verified + " rows in " + table + ", " + failed + " failed.");
+                }
+            } while (lastPrimaryKey != null);
+        } catch (AuthorizationDeniedException e) {
+            log.error("ERROR: CLI user not authorized to verify database protection: " + e.getMessage());
+            return CommandResult.AUTHORIZATION_FAILURE;
+        } catch (DatabaseProtectionException e) {
+            log.error("ERROR: " + e.getMessage());
+            return CommandResult.FUNCTIONAL_FAILURE;
+        }
+        if (failed > 0) {
+            log.error("Verification of " + failed + " of " + verified + " rows in " + table + " failed.");
+            return CommandResult.FUNCTIONAL_FAILURE;
+        }
+        log.info("All " + verified + " rows in " + table + " were verified successfully.");
+        return CommandResult.SUCCESS;
+    }
+
+    @Override
+    public String getCommandDescription() {
+        return "Verifies the database integrity protection of all rows in a table";
+    }
+
+    @Override
+    public String getFullHelpText() {
+        return getCommandDescription() + ". All rows are verified, also if verification on read is disabled or only done for a sample of "
+                + "the rows (databaseprotection.verifysamplerate). The command exits with an error if any row fails verification, or if database "
+                + "integrity protection is not enabled (databaseprotection.keyid).";
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return log;
+    }
+}
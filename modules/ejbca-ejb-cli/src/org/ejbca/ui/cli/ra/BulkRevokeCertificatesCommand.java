@@ -0,0 +1,168 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.ui.cli.ra;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.core.ejb.ca.revoke.BulkRevocationRequest;
+import org.ejbca.core.ejb.ca.revoke.BulkRevocationResult;
+import org.ejbca.core.ejb.ca.revoke.BulkRevocationSessionRemote;
+import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionRemote;
+import org.ejbca.core.model.approval.ApprovalException;
+import org.ejbca.core.model.ra.raadmin.EndEntityProfileNotFoundException;
+import org.ejbca.ui.cli.infrastructure.command.CommandResult;
+import org.ejbca.ui.cli.infrastructure.parameter.Parameter;
+import org.ejbca.ui.cli.infrastructure.parameter.ParameterContainer;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.MandatoryMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.ParameterMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.StandaloneMode;
+
+/**
+ * Revokes many certificates issued by the same CA in one operation.
+ *
+ * @version $Id$
+ */
+public class BulkRevokeCertificatesCommand extends BaseRaCommand {
+
+    private static final Logger log = Logger.getLogger(BulkRevokeCertificatesCommand.class);
+
+    private static final String DN_KEY = "--dn";
+    private static final String REASON_KEY = "-r";
+    private static final String FILE_KEY = "-f";
+    private static final String EEP_KEY = "--eep";
+    private static final String ALL_KEY = "-all";
+    private static final String CRL_KEY = "-crl";
+
+    {
+        registerParameter(new Parameter(DN_KEY, "Issuer DN", MandatoryMode.MANDATORY, StandaloneMode.ALLOW, ParameterMode.ARGUMENT, "Issuer DN"));
+        registerParameter(new Parameter(REASON_KEY, "Reason", MandatoryMode.MANDATORY, StandaloneMode.ALLOW, ParameterMode.ARGUMENT,
+                "Reason integer value: unused(0), keyCompromise(1), cACompromise(2), affiliationChanged(3),"
+                        + " superseded(4), cessationOfOperation(5), certficateHold(6), privilegeWithdrawn(9), aACompromise(10). Normal reason is 0"));
+        registerParameter(new Parameter(FILE_KEY, "File", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.ARGUMENT,
+                "File with the serial numbers in HEX of the certificates to revoke, one per line."));
+        registerParameter(new Parameter(EEP_KEY, "End Entity Profile", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.ARGUMENT,
+                "Only revoke certificates issued with this end entity profile."));
+        registerParameter(Parameter.createFlag(ALL_KEY, "Revoke all active certificates issued by the CA (or by the CA with the given end entity profile)."
+                + " Required if no file with serial numbers is given."));
+        registerParameter(Parameter.createFlag(CRL_KEY, "Generate a new CRL when the certificates have been revoked."));
+    }
+
+    @Override
+    public String getMainCommand() {
+        return "bulkrevoke";
+    }
+
+    @Override
+    public CommandResult execute(ParameterContainer parameters) {
+        final int reason;
+        try {
+            reason = Integer.parseInt(parameters.get(REASON_KEY));
+        } catch (NumberFormatException e) {
+            log.error("ERROR: " + parameters.get(REASON_KEY) + " was not a number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        if (!RevokedCertInfo.isRevoked(reason) || reason == 7 || reason < 0 || reason > 10) {
+            log.error("ERROR: Reason must be an integer between 0 and 10 except 7 and 8.");
+            return CommandResult.CLI_FAILURE;
+        }
+        final String filename = parameters.get(FILE_KEY);
+        if (filename == null && !parameters.containsKey(ALL_KEY)) {
+            log.error("ERROR: Either a file with serial numbers or " + ALL_KEY + " must be given.");
+            return CommandResult.CLI_FAILURE;
+        }
+        final BulkRevocationRequest request = new BulkRevocationRequest(parameters.get(DN_KEY), reason);
+        if (filename != null) {
+            final List<BigInteger> serialNumbers = new ArrayList<>();
+            try {
+                for (final String line : Files.readAllLines(new File(filename).toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        serialNumbers.add(new BigInteger(line.trim(), 16));
+                    }
+                }
+            } catch (IOException e) {
+                log.error("ERROR: Could not read file " + filename + ": " + e.getMessage());
+                return CommandResult.CLI_FAILURE;
+            } catch (NumberFormatException e) {
+                log.error("ERROR: File " + filename + " contains an invalid hexadecimal certificate serial number: " + e.getMessage());
+                return CommandResult.CLI_FAILURE;
+            }
+            if (serialNumbers.isEmpty()) {
+                log.error("ERROR: File " + filename + " does not contain any serial numbers.");
+                return CommandResult.CLI_FAILURE;
+            }
+            request.addSerialNumbers(serialNumbers);
+        }
+        final String endEntityProfileName = parameters.get(EEP_KEY);
+        if (endEntityProfileName != null) {
+            try {
+                request.setEndEntityProfileId(EjbRemoteHelper.INSTANCE.getRemoteSession(EndEntityProfileSessionRemote.class).getEndEntityProfileId(endEntityProfileName));
+            } catch (EndEntityProfileNotFoundException e) {
+                log.error("ERROR: End entity profile " + endEntityProfileName + " does not exist.");
+                return CommandResult.FUNCTIONAL_FAILURE;
+            }
+        }
+        request.setGenerateCrl(parameters.containsKey(CRL_KEY));
+        try {
+            final BulkRevocationResult result = EjbRemoteHelper.INSTANCE.getRemoteSession(BulkRevocationSessionRemote.class).revokeCertificates(
+                    getAuthenticationToken(), request);
+            log.info("Revoked " + result.getRevokedCount() + " certificates with reason " + reason + ".");
+            if (result.getIgnoredCount() > 0) {
+                log.info(result.getIgnoredCount() + " certificates were not revoked, since they were already revoked, could not be found, require approval"
+                        + " or the CLI user is not authorized to their end entity profile.");
+            }
+            if (result.isCrlGenerated()) {
+                log.info("A new CRL was generated.");
+            }
+            return CommandResult.SUCCESS;
+        } catch (AuthorizationDeniedException e) {
+            log.error("ERROR: CLI user not authorized to revoke certificates: " + e.getMessage());
+            return CommandResult.AUTHORIZATION_FAILURE;
+        } catch (CADoesntExistsException e) {
+            log.error("ERROR: " + e.getMessage());
+            return CommandResult.FUNCTIONAL_FAILURE;
+        } catch (ApprovalException e) {
+            log.error("ERROR: " + e.getMessage());
+            return CommandResult.FUNCTIONAL_FAILURE;
+        }
+    }
+
+    @Override
+    public String getCommandDescription() {
+        return "Revokes many certificates issued by the same CA";
+    }
+
+    @Override
+    public String getFullHelpText() {
+        return getCommandDescription() + ". The certificates are either listed in a file, or selected by issuer and optionally end entity profile.\n"
+                + "Certificates are revoked in batches. The revocations are written to the queues of the publishers that use the queue for "
+                + "certificates, where they are processed by the Publisher Queue Process Service, and are published directly to the other "
+                + "publishers. The command can safely be run again if interrupted.";
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return log;
+    }
+}
@@ -0,0 +1,116 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.ui.cli.ra;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.search.SearchTokenDataSessionRemote;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.core.ejb.ra.EndEntityManagementSessionRemote;
+import org.ejbca.ui.cli.infrastructure.command.CommandResult;
+import org.ejbca.ui.cli.infrastructure.parameter.Parameter;
+import org.ejbca.ui.cli.infrastructure.parameter.ParameterContainer;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.MandatoryMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.ParameterMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.StandaloneMode;
+
+/**
+ * Rebuilds the search token index used by the RA certificate and end entity searches when database.useSearchTokenIndex is enabled.
+ *
+ * @version $Id$
+ */
+public class RebuildSearchIndexCommand extends BaseRaCommand {
+
+    private static final Logger log = Logger.getLogger(RebuildSearchIndexCommand.class);
+
+    private static final String COMMAND = "rebuildsearchindex";
+
+    private static final String BATCH_SIZE_KEY = "--batchsize";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    {
+        registerParameter(new Parameter(BATCH_SIZE_KEY, "Batch size", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.ARGUMENT,
+                "Number of rows to process in each transaction. Default is " + DEFAULT_BATCH_SIZE + "."));
+    }
+
+    @Override
+    public String getMainCommand() {
+        return COMMAND;
+    }
+
+    @Override
+    public CommandResult execute(ParameterContainer parameters) {
+        final int batchSize;
+        try {
+            batchSize = parameters.get(BATCH_SIZE_KEY) == null ? DEFAULT_BATCH_SIZE : Integer.parseInt(parameters.get(BATCH_SIZE_KEY));
+        } catch (NumberFormatException e) {
+            log.error("ERROR: " + parameters.get(BATCH_SIZE_KEY) + " was not a number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        if (batchSize < 1) {
+            log.error("ERROR: Batch size must be a positive number.");
+            return CommandResult.CLI_FAILURE;
+        }
+        try {
+            final SearchTokenDataSessionRemote searchTokenDataSession = EjbRemoteHelper.INSTANCE.getRemoteSession(SearchTokenDataSessionRemote.class);
+            long count = 0;
+            String lastFingerprint = null;
+            List<String> fingerprints;
+            do {
+                fingerprints = searchTokenDataSession.rebuildCertificateTokens(getAuthenticationToken(), lastFingerprint, batchSize);
+                if (!fingerprints.isEmpty()) {
+                    count += fingerprints.size();
+                    lastFingerprint = fingerprints.get(fingerprints.size() - 1);
+                    log.info("Processed " + count + " certificates, up to fingerprint " + lastFingerprint + ".");
+                }
+            } while (!fingerprints.isEmpty());
+            final EndEntityManagementSessionRemote endEntityManagementSession = EjbRemoteHelper.INSTANCE.getRemoteSession(EndEntityManagementSessionRemote.class);
+            count = 0;
+            String lastUsername = null;
+            List<String> usernames;
+            do {
+                usernames = endEntityManagementSession.rebuildSearchTokens(getAuthenticationToken(), lastUsername, batchSize);
+                if (!usernames.isEmpty()) {
+                    count += usernames.size();
+                    lastUsername = usernames.get(usernames.size() - 1);
+                    log.info("Processed " + count + " end entities, up to username '" + lastUsername + "'.");
+                }
+            } while (!usernames.isEmpty());
+            log.info("Search token index has been rebuilt.");
+            return CommandResult.SUCCESS;
+        } catch (AuthorizationDeniedException e) {
+            log.error("ERROR: CLI user not authorized to rebuild the search token index: " + e.getMessage());
+            return CommandResult.AUTHORIZATION_FAILURE;
+        }
+    }
+
+    @Override
+    public String getCommandDescription() {
+        return "Rebuilds the search token index of certificates and end entities";
+    }
+
+    @Override
+    public String getFullHelpText() {
+        return getCommandDescription() + ". The index is used to speed up substring searches in the RA, when database.useSearchTokenIndex=true "
+                + "is configured. Run this command after enabling the index on an installation that already has certificates or end entities. "
+                + "The command can be safely run again if interrupted.";
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return log;
+    }
+}
@@ -15,6 +15,7 @@ package org.ejbca.core.ejb.approval;
 import java.util.List;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
 import org.ejbca.core.model.approval.ApprovalDataVO;
 import org.ejbca.core.model.approval.ApprovalException;
 import org.ejbca.core.model.approval.ApprovalRequest;
@@ -165,5 +166,18 @@ public interface ApprovalSession {
      */
     ApprovalDataVO findApprovalDataByRequestId(int requestId);
 
+    /**
+     * Converts the stored approval requests and approvals of a batch of approval requests, in id order, to the encoding configured with
+     * approval.encodingversion (see org.ejbca.core.model.approval.ApprovalDataCodec). The stored data is converted without being deserialized.
+     * Used to convert existing rows after all nodes have been upgraded.
+     *
+     * @param admin administrator performing the operation, must be authorized to edit the system configuration
+     * @param afterId the last id of the previous batch, or null to start from the beginning
+     * @param maxRows the maximum number of approval requests to process in this batch
+     * @return the last processed id, or null if there were no more approval requests to process
+     * @throws AuthorizationDeniedException if the administrator is not authorized to edit the system configuration
+     */
+    Integer reencodeApprovalData(AuthenticationToken admin, Integer afterId, int maxRows) throws AuthorizationDeniedException;
+
 
 }
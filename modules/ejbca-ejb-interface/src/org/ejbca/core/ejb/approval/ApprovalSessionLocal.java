@@ -113,6 +113,22 @@ public interface ApprovalSessionLocal extends ApprovalSession {
       */
      List<ApprovalDataVO> query(final Query query, int index, int numberofrows, String caAuthorizationString,
              String endEntityProfileAuthorizationString) throws IllegalQueryException;
+
+     /**
+      * Method returning a list of approvals from the given query, with the authorized CAs and end entity profiles as bound
+      * parameters, so that the database can reuse the statement.
+      *
+      * @param query should be a Query object containing ApprovalMatch and TimeMatch
+      * @param index where the ResultSet should start
+      * @param numberofrows maximum number of rows
+      * @param caIds the ids of the authorized CAs, or null to not limit the query by CA
+      * @param endEntityProfileIds the ids of the authorized end entity profiles, or null to not limit the query by end entity profile
+      * @return a List of ApprovalDataVO, never null
+      * @throws IllegalQueryException if the query is not legal
+      * @see org.ejbca.core.model.ra.RAAuthorization#getApprovalEndEntityProfileIds(String)
+      */
+     List<ApprovalDataVO> query(Query query, int index, int numberofrows, Collection<Integer> caIds, Collection<Integer> endEntityProfileIds)
+             throws IllegalQueryException;
      
      /**
       * Returns a list of non-expired approvals with the given statuses.
@@ -136,4 +152,17 @@ public interface ApprovalSessionLocal extends ApprovalSession {
              final Date startDate, final Date endDate, final Date expiresBefore, int index, int numberofrows, String caAuthorizationString,
              String endEntityProfileAuthorizationString);
 
+     /**
+      * Returns a list of non-expired approvals with the given statuses, with the authorized CAs and end entity profiles as bound
+      * parameters, so that the database can reuse the statement.
+      *
+      * @param caIds the ids of the authorized CAs, or null to not limit the query by CA
+      * @param endEntityProfileIds the ids of the authorized end entity profiles, or null to not limit the query by end entity profile
+      * @return a List of ApprovalDataVO, never null
+      * @see #queryByStatus(boolean, boolean, boolean, Date, Date, Date, int, int, String, String)
+      */
+     List<ApprovalDataVO> queryByStatus(boolean includeUnfinished, boolean includeProcessed, boolean includeExpired,
+             Date startDate, Date endDate, Date expiresBefore, int index, int numberofrows, Collection<Integer> caIds,
+             Collection<Integer> endEntityProfileIds);
+
 }
@@ -13,6 +13,7 @@
 
 package org.ejbca.core.ejb.ca.caadmin;
 
+import java.util.Collection;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -49,6 +50,15 @@ public interface CAAdminSessionLocal extends CAAdminSession {
      */
     String healthCheck();
 
+    /**
+     * Used by health-check. Validate that the given CAs are online and optionally performs
+     * a signature test.
+     * 
+     * @param caIds the IDs of the CAs to check, CAs that are not active or not included in health checks are skipped
+     * @return an error message or an empty String if all are ok.
+     */
+    String healthCheck(Collection<Integer> caIds);
+
     /**
      * Regenerates the CMS certificate for a CA.
      */
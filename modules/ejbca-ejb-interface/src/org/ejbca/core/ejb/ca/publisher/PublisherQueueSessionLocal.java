@@ -22,6 +22,7 @@ import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
 import org.ejbca.core.model.ca.publisher.PublisherException;
 import org.ejbca.core.model.ca.publisher.PublisherQueueData;
 import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
@@ -42,9 +43,30 @@ public interface PublisherQueueSessionLocal {
     void addQueueData(int publisherId, int publishType, String fingerprint,
             PublisherQueueVolatileInformation queueData, int publishStatus) throws CreateException;
 
+    /**
+     * Adds an entry with status {@link PublisherConst#STATUS_OUTBOX} to the publisher queue, recording that the certificate should be published
+     * directly after the current transaction has committed.
+     *
+     * @param publisherId the publisher that this should be published to
+     * @param publishType the type of entry it is, {@link PublisherQueueData#PUBLISH_TYPE_CERT} or CRL
+     * @return the primary key of the entry
+     * @throws CreateException if the entry can not be created
+     */
+    String addOutboxData(int publisherId, int publishType, String fingerprint, PublisherQueueVolatileInformation queueData) throws CreateException;
+
     /** Removes an entry from the publisher queue. */
     void removeQueueData(String pk);
 
+    /**
+     * Finds entries with status {@link PublisherConst#STATUS_OUTBOX} that were created and last claimed before the given time, and claims them
+     * by updating their last update time, so that they are not claimed again by another node until that time has passed again.
+     *
+     * @param before time in milliseconds
+     * @param maxRows the maximum number of entries to claim
+     * @return Collection of PublisherQueueData, never null
+     */
+    Collection<PublisherQueueData> claimOutboxEntries(long before, int maxRows);
+
     /**
      * Finds all entries with status PublisherQueueData.STATUS_PENDING for a
      * specific publisherId.
@@ -134,4 +134,41 @@ public interface PublisherSessionLocal extends PublisherSession {
      */
     boolean storeCertificateNewTransaction(AuthenticationToken admin, Collection<Integer> publisherids, CertificateDataWrapper certWrapper,
             String password, String userDN, ExtendedInformation extendedinformation) throws AuthorizationDeniedException;
+
+    /**
+     * Stores the certificate to the given collection of publishers, like
+     * {@link #storeCertificate(AuthenticationToken, Collection, CertificateDataWrapper, String, String, ExtendedInformation)}, except that
+     * when publish.async.enabled is set, the publishers that would be invoked directly are invoked in the background after the current
+     * transaction has committed. The publish intents are stored in the publisher queue in the current transaction, so they are not lost if
+     * the node stops before they are published. If publishing after commit is not enabled, or there is no transaction, the publishers are
+     * invoked directly.
+     *
+     * @return true if successful result on all given publishers, false if any publisher is invoked after commit, since the result is not
+     *      known yet
+     * @throws AuthorizationDeniedException if access is denied to the CA issuing incert
+     */
+    boolean storeCertificateAfterCommit(AuthenticationToken admin, Collection<Integer> publisherids, CertificateDataWrapper certWrapper,
+            String password, String userDN, ExtendedInformation extendedinformation) throws AuthorizationDeniedException;
+
+    /**
+     * Publishes a certificate that was stored in the publisher queue by
+     * {@link #storeCertificateAfterCommit(AuthenticationToken, Collection, CertificateDataWrapper, String, String, ExtendedInformation)}.
+     * The entry is removed when the certificate has been published, or kept in the publisher queue as for direct publishing.
+     * Intended for use by PublisherOutboxDispatcher only.
+     *
+     * @param admin administrator that issued or revoked the certificate.
+     * @param pk the primary key of the publisher queue entry.
+     * @param fingerprint the fingerprint of the certificate.
+     */
+    void publishOutboxEntry(AuthenticationToken admin, String pk, String fingerprint);
+
+    /**
+     * Hands the certificates that should have been published after commit, but have not been published within publish.async.recoverytime,
+     * to PublisherOutboxDispatcher again, in batches until all have been handed over. Certificates that do not fit in the queue of their
+     * publisher are left to the publisher queue with the status {@link org.ejbca.core.model.ca.publisher.PublisherConst#STATUS_PENDING}.
+     * Intended for use by PublisherOutboxDispatcher only.
+     *
+     * @return the number of certificates that were recovered, including those left to the publisher queue
+     */
+    int recoverPublisherOutbox();
 }
@@ -0,0 +1,69 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.ejb.ca.revoke;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Selection and parameters of a bulk revocation, see {@link BulkRevocationSession}.
+ * <p>
+ * All selected certificates are issued by the same CA. If serial numbers are given, only those certificates are revoked.
+ * Otherwise all active certificates issued by the CA are revoked, optionally limited to a single end entity profile.
+ *
+ * @version $Id$
+ */
+public final class BulkRevocationRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String issuerDn;
+    private final int reason;
+    private final List<BigInteger> serialNumbers = new ArrayList<>();
+    private Integer endEntityProfileId = null;
+    private Date revocationDate = null;
+    private boolean generateCrl = false;
+
+    /**
+     * @param issuerDn the subject DN of the CA that issued the certificates
+     * @param reason one of the RevokedCertInfo.REVOCATION_REASON_ constants, except the ones used for unrevocation
+     */
+    public BulkRevocationRequest(final String issuerDn, final int reason) {
+        this.issuerDn = issuerDn;
+        this.reason = reason;
+    }
+
+    public String getIssuerDn() { return issuerDn; }
+    public int getReason() { return reason; }
+
+    /** @return the serial numbers to revoke, or an empty list if all active certificates of the CA are selected */
+    public List<BigInteger> getSerialNumbers() { return serialNumbers; }
+    public void addSerialNumbers(final Collection<BigInteger> serialNumbers) { this.serialNumbers.addAll(serialNumbers); }
+
+    /** @return the end entity profile that the selected certificates must have been issued with, or null for any profile */
+    public Integer getEndEntityProfileId() { return endEntityProfileId; }
+    public void setEndEntityProfileId(final Integer endEntityProfileId) { this.endEntityProfileId = endEntityProfileId; }
+
+    /** @return the revocation date to use, or null to use the current time */
+    public Date getRevocationDate() { return revocationDate; }
+    public void setRevocationDate(final Date revocationDate) { this.revocationDate = revocationDate; }
+
+    /** @return true if a new CRL should be generated for the CA once all certificates have been revoked */
+    public boolean isGenerateCrl() { return generateCrl; }
+    public void setGenerateCrl(final boolean generateCrl) { this.generateCrl = generateCrl; }
+}
@@ -0,0 +1,51 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.ejb.ca.revoke;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a bulk revocation, see {@link BulkRevocationSession}.
+ *
+ * @version $Id$
+ */
+public final class BulkRevocationResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long revokedCount = 0;
+    private long ignoredCount = 0;
+    private boolean crlGenerated = false;
+
+    /** @return the number of certificates that were revoked */
+    public long getRevokedCount() { return revokedCount; }
+
+    /**
+     * @return the number of requested serial numbers that were not revoked, because they were already revoked, could not be found,
+     * require approval for revocation, or the administrator was not authorized to the end entity profile of the certificate
+     */
+    public long getIgnoredCount() { return ignoredCount; }
+
+    /** @return true if a new CRL was generated after the revocation */
+    public boolean isCrlGenerated() { return crlGenerated; }
+
+    /** Internal method, used during bulk revocation. Can't be package internal since it's called from the bean */
+    public void _addRevoked(final int count) { revokedCount += count; }
+
+    /** Internal method, used during bulk revocation. Can't be package internal since it's called from the bean */
+    public void _addIgnored(final int count) { ignoredCount += count; }
+
+    /** Internal method, used during bulk revocation. Can't be package internal since it's called from the bean */
+    public void _setCrlGenerated(final boolean crlGenerated) { this.crlGenerated = crlGenerated; }
+}
@@ -0,0 +1,51 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.ejb.ca.revoke;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.ejbca.core.model.approval.ApprovalException;
+
+/**
+ * Revokes large numbers of certificates issued by a single CA, e.g. after a key compromise.
+ * <p>
+ * Compared to revoking the certificates one at a time, authorization is checked once, the database is updated in batches,
+ * and the audit log gets one record per batch. Each revocation is written to the queue of the publishers that use the queue for
+ * certificates, with one entry per certificate, and the other publishers are invoked for each certificate, after the batch
+ * has committed if publish.async.enabled is set and otherwise within the batch transaction.
+ *
+ * @version $Id$
+ */
+public interface BulkRevocationSession {
+
+    /**
+     * Revokes the selected certificates. Certificates that are already permanently revoked are ignored. Certificates on hold are
+     * revoked with the new reason. Each batch is committed in its own transaction, so an interrupted operation can safely be repeated.
+     * <p>
+     * Requires '/ra_functionality/revoke_end_entity' and access to the CA. If end entity profile limitations are enabled, only certificates
+     * of end entity profiles that the administrator is allowed to revoke are selected. Certificates with a certificate profile that requires
+     * approval for revocation are ignored.
+     *
+     * @param admin administrator performing the operation
+     * @param request the certificate selection and revocation parameters
+     * @return the number of revoked and ignored certificates
+     * @throws AuthorizationDeniedException if the administrator is not authorized to revoke certificates of the CA
+     * @throws CADoesntExistsException if there is no CA with the given issuer DN
+     * @throws ApprovalException if revocations for the CA require approval
+     * @throws IllegalArgumentException if the revocation reason is not a revocation reason
+     */
+    BulkRevocationResult revokeCertificates(AuthenticationToken admin, BulkRevocationRequest request)
+            throws AuthorizationDeniedException, CADoesntExistsException, ApprovalException;
+}
@@ -0,0 +1,43 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.ejb.ca.revoke;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+
+/**
+ * @version $Id$
+ */
+@Local
+public interface BulkRevocationSessionLocal extends BulkRevocationSession {
+
+    /**
+     * Revokes one batch of certificates in a new transaction. Authorization must have been checked by the caller.
+     * Only used internally by {@link BulkRevocationSession#revokeCertificates(AuthenticationToken, BulkRevocationRequest)}.
+     *
+     * @param admin administrator performing the operation
+     * @param request the revocation parameters
+     * @param serialNumbers the decimal serial numbers of this batch, or null to select the next batch of active certificates of the CA
+     * @param maxRows the maximum number of certificates to revoke
+     * @param authorizedEndEntityProfileIds end entity profiles that the selection is limited to, or null for any profile
+     * @param excludedCertificateProfileIds certificate profiles that require approval for revocation
+     * @return the number of revoked certificates
+     */
+    int revokeCertificateBatch(AuthenticationToken admin, BulkRevocationRequest request, List<String> serialNumbers, int maxRows,
+            Collection<Integer> authorizedEndEntityProfileIds, Collection<Integer> excludedCertificateProfileIds);
+}
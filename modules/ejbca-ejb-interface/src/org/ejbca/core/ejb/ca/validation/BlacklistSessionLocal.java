@@ -18,6 +18,7 @@ import javax.ejb.Local;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.ejbca.core.model.validation.BlacklistEntry;
+import org.ejbca.core.model.validation.PublicKeyBlacklistFingerprintSet;
 
 /**
  * Local interface for public key blacklist operations.
@@ -49,6 +50,14 @@ public interface BlacklistSessionLocal extends BlacklistSession {
      */
     String getBlacklistEntryFingerprint(int id);
 
+    /**
+     * Gets the fingerprints of all public key blacklist entries, for quick lookups of public keys that are not blacklisted.
+     * The set is cached, and only rebuilt from the database when entries have been added, changed or removed.
+     *
+     * @return the set of fingerprints, never null. Must not be modified.
+     */
+    PublicKeyBlacklistFingerprintSet getPublicKeyBlacklistFingerprints();
+
     /**
      * Adds a public key blacklist entry to the database. Used for importing and exporting
      * entries from xml-files.
@@ -102,6 +102,8 @@ public interface EndEntityAccessSession {
       * @param endentityprofilestring is a string placed in the where clause of
       *            SQL query indication which endentityprofiles the
       *            administrator is authorized to view.
+      *            If this or caauthorizationstring is null, the authorized CAs and end entity profiles of the
+      *            administrator are looked up and queried as bound parameters, which is preferred.
       * @param numberofrows the number of rows to fetch, use 0 for the maximum query count define in the global configuration.
       * @param endentityAccessRule The end entity access rule that is necessary 
       *            to execute the query
@@ -611,4 +611,16 @@ public interface EndEntityManagementSession {
      * @throws EndEntityExistsException the newUsername is already taken by another end entity
      */
     boolean renameEndEntity(AuthenticationToken admin, String currentUsername, String newUsername) throws AuthorizationDeniedException, EndEntityExistsException;
+
+    /**
+     * Rebuilds the search token index entries (see org.cesecore.search.SearchTokenData) of a batch of end entities, in username order.
+     * Used to populate the index after enabling database.useSearchTokenIndex on an existing installation.
+     *
+     * @param admin administrator performing the operation, must be authorized to edit the system configuration
+     * @param afterUsername the last username of the previous batch, or null to start from the beginning
+     * @param maxRows the maximum number of end entities to process in this batch
+     * @return the processed usernames in order, or an empty list if there were no more end entities to process
+     * @throws AuthorizationDeniedException if the administrator is not authorized to edit the system configuration
+     */
+    List<String> rebuildSearchTokens(AuthenticationToken admin, String afterUsername, int maxRows) throws AuthorizationDeniedException;
 }
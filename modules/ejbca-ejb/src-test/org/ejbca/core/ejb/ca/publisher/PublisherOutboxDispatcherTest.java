@@ -0,0 +1,208 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.endentity.ExtendedInformation;
+import org.ejbca.core.model.ca.publisher.ICustomPublisher;
+import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PublisherOutboxDispatcher}, with custom publishers that take time to publish.
+ *
+ * @version $Id$
+ */
+public class PublisherOutboxDispatcherTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublisherOutboxDispatcherTest"));
+
+    /** Custom publisher that waits before it publishes, and counts the published certificates */
+    private static class SlowPublisher implements ICustomPublisher {
+        private final long delay;
+        private final CountDownLatch release;
+        private final AtomicInteger published = new AtomicInteger();
+
+        private SlowPublisher(final long delay, final CountDownLatch release) {
+            this.delay = delay;
+            this.release = release;
+        }
+
+        @Override
+        public void init(final Properties properties) {
+        }
+
+        @Override
+        public boolean storeCertificate(final AuthenticationToken admin, final Certificate incert, final String username, final String password,
+                final String userDN, final String cafp, final int status, final int type, final long revocationDate, final int revocationReason,
+                final String tag, final int certificateProfileId, final long lastUpdate, final ExtendedInformation extendedinformation)
+                throws PublisherException {
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PublisherException("Interrupted.");
+            }
+            published.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean storeCRL(final AuthenticationToken admin, final byte[] incrl, final String cafp, final int number, final String userDN) {
+            return true;
+        }
+
+        @Override
+        public void testConnection() {
+        }
+
+        @Override
+        public boolean willPublishCertificate(final int status, final int revocationReason) {
+            return true;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return false;
+        }
+    }
+
+    /** Handler that publishes the intents to the custom publishers, as PublisherSessionBean does */
+    private static class TestHandler implements PublisherOutboxDispatcher.Handler {
+        private final Map<Integer, SlowPublisher> publishers = new HashMap<>();
+        private final AtomicInteger recoveries = new AtomicInteger();
+
+        @Override
+        public void publish(final PublisherOutboxDispatcher.Intent intent) {
+            try {
+                publishers.get(intent.getPublisherId()).storeCertificate(intent.getAdmin(), null, "user", null, "CN=user", null,
+                        CertificateConstants.CERT_ACTIVE, CertificateConstants.CERTTYPE_ENDENTITY, -1, RevokedCertInfo.NOT_REVOKED, null, 0, 0, null);
+            } catch (PublisherException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void recover() {
+            recoveries.incrementAndGet();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        PublisherOutboxDispatcher.INSTANCE.shutdown();
+    }
+
+    @Test
+    public void testDispatchDoesNotWaitForPublisher() throws Exception {
+        final TestHandler handler = new TestHandler();
+        final SlowPublisher publisher = new SlowPublisher(200, null);
+        handler.publishers.put(1, publisher);
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.isStarted());
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, i)));
+        }
+        assertTrue("Dispatching should not wait for the publisher.", System.currentTimeMillis() - start < 200);
+        waitFor(publisher, 3);
+        assertEquals(3, publisher.published.get());
+    }
+
+    @Test
+    public void testSlowPublisherDoesNotDelayOtherPublishers() throws Exception {
+        final TestHandler handler = new TestHandler();
+        final CountDownLatch release = new CountDownLatch(1);
+        final SlowPublisher blockedPublisher = new SlowPublisher(0, release);
+        final SlowPublisher fastPublisher = new SlowPublisher(0, null);
+        handler.publishers.put(1, blockedPublisher);
+        handler.publishers.put(2, fastPublisher);
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, i)));
+            assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(2, i)));
+        }
+        waitFor(fastPublisher, 5);
+        assertEquals("The blocked publisher should not have published anything.", 0, blockedPublisher.published.get());
+        assertEquals(4, PublisherOutboxDispatcher.INSTANCE.getQueueLength(1));
+        release.countDown();
+        waitFor(blockedPublisher, 5);
+    }
+
+    @Test
+    public void testFullQueueIsLeftForRecovery() throws Exception {
+        final TestHandler handler = new TestHandler();
+        final CountDownLatch release = new CountDownLatch(1);
+        final SlowPublisher blockedPublisher = new SlowPublisher(0, release);
+        handler.publishers.put(1, blockedPublisher);
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 2, 1, 50);
+        // One intent is published by the thread, two wait in the queue
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 0)));
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 1)));
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 2)));
+        assertFalse("Intent should be left for the recovery when the queue is full.", PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 3)));
+        release.countDown();
+        waitFor(blockedPublisher, 3);
+        final long end = System.currentTimeMillis() + 10000;
+        while (handler.recoveries.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertTrue("Recovery should run periodically.", handler.recoveries.get() > 0);
+    }
+
+    @Test
+    public void testShutdown() {
+        final TestHandler handler = new TestHandler();
+        handler.publishers.put(1, new SlowPublisher(0, null));
+        assertFalse(PublisherOutboxDispatcher.INSTANCE.isStarted());
+        assertFalse("Intents should not be accepted before start.", PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 0)));
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 0)));
+        PublisherOutboxDispatcher.INSTANCE.shutdown();
+        assertFalse(PublisherOutboxDispatcher.INSTANCE.isStarted());
+        assertFalse("Intents should not be accepted after shutdown.", PublisherOutboxDispatcher.INSTANCE.dispatch(getIntent(1, 1)));
+        assertEquals(0, PublisherOutboxDispatcher.INSTANCE.getQueueLength(1));
+    }
+
+    private static PublisherOutboxDispatcher.Intent getIntent(final int publisherId, final int i) {
+        return new PublisherOutboxDispatcher.Intent(admin, publisherId, "pk" + publisherId + "-" + i, "fingerprint" + i);
+    }
+
+    private static void waitFor(final SlowPublisher publisher, final int published) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (publisher.published.get() < published && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(published, publisher.published.get());
+    }
+}
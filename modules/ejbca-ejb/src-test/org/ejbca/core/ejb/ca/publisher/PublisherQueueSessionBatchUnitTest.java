@@ -0,0 +1,147 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
+import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
+import org.cesecore.certificates.endentity.ExtendedInformation;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.ejbca.core.model.ca.publisher.LdapPublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of the publishing of queue entries with certificates revoked together, {@link PublisherConst#PUBLISH_TYPE_CERT_BATCH}, in
+ * {@link PublisherQueueSessionBean}.
+ *
+ * @version $Id$
+ */
+@RunWith(EasyMockRunner.class)
+public class PublisherQueueSessionBatchUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublisherQueueSessionBatchUnitTest"));
+    private static final int PUBLISHER_ID = 4711;
+
+    @TestSubject
+    private final PublisherQueueSessionBean publisherQueueSessionBean = new PublisherQueueSessionBean();
+
+    @Mock
+    private PublisherQueueSessionLocal publisherQueueSession;
+    @Mock
+    private EntityManager entityManager;
+    @Mock(type = MockType.NICE)
+    private Query query;
+    @Mock
+    private NoConflictCertificateStoreSessionLocal noConflictCertificateStoreSession;
+
+    private final LdapPublisher publisher = new LdapPublisher();
+    private PublisherQueueData entity;
+
+    @Before
+    public void setUp() {
+        publisher.setPublisherId(PUBLISHER_ID);
+        final PublisherQueueVolatileInformation volatileInformation = new PublisherQueueVolatileInformation();
+        volatileInformation.setFingerprints(Arrays.asList("fp1", "fp2", "fp3"));
+        entity = new PublisherQueueData(PUBLISHER_ID, PublisherConst.PUBLISH_TYPE_CERT_BATCH, "fp1", volatileInformation, PublisherConst.STATUS_PENDING);
+        expect(entityManager.createQuery(anyString())).andReturn(query);
+        expect(query.getResultList()).andReturn(Collections.singletonList(entity));
+        expect(entityManager.find(PublisherQueueData.class, entity.getPk())).andStubReturn(entity);
+    }
+
+    @Test
+    public void testPublishBatch() throws Exception {
+        expectPublish("fp1", true);
+        expectPublish("fp2", true);
+        expectPublish("fp3", true);
+        entityManager.remove(entity);
+        expectLastCall();
+        replay(entityManager, query, noConflictCertificateStoreSession, publisherQueueSession);
+        final PublishingResult result = publisherQueueSessionBean.doChunk(admin, publisher);
+        verify(entityManager, noConflictCertificateStoreSession, publisherQueueSession);
+        assertEquals(3, result.getSuccesses());
+        assertEquals(0, result.getFailures());
+    }
+
+    @Test
+    public void testPublishBatchPartially() throws Exception {
+        expectPublish("fp1", true);
+        expect(noConflictCertificateStoreSession.getCertificateData("fp2")).andReturn(getCertificateDataWrapper("fp2"));
+        expect(publisherQueueSession.publishCertificateNonTransactional(eq(publisher), eq(admin), anyObject(CertificateDataWrapper.class),
+                isNull(String.class), eq("CN=fp2"), isNull(ExtendedInformation.class))).andThrow(new PublisherException("Publisher is down."));
+        expectPublish("fp3", false);
+        replay(entityManager, query, noConflictCertificateStoreSession, publisherQueueSession);
+        final PublishingResult result = publisherQueueSessionBean.doChunk(admin, publisher);
+        verify(entityManager, noConflictCertificateStoreSession, publisherQueueSession);
+        assertEquals(1, result.getSuccesses());
+        assertEquals(2, result.getFailures());
+        // The entry is kept for the next try, with only the certificates that were not published
+        assertEquals(Arrays.asList("fp2", "fp3"), entity.getPublisherQueueVolatileData().getFingerprints());
+        assertEquals("fp2", entity.getFingerprint());
+        assertEquals(PublisherConst.STATUS_PENDING, entity.getPublishStatus());
+        assertEquals(1, entity.getTryCounter());
+    }
+
+    @Test
+    public void testPublishBatchWithDeletedCertificate() throws Exception {
+        expectPublish("fp1", true);
+        expect(noConflictCertificateStoreSession.getCertificateData("fp2")).andReturn(null);
+        expectPublish("fp3", true);
+        entityManager.remove(entity);
+        expectLastCall();
+        replay(entityManager, query, noConflictCertificateStoreSession, publisherQueueSession);
+        final PublishingResult result = publisherQueueSessionBean.doChunk(admin, publisher);
+        verify(entityManager, noConflictCertificateStoreSession, publisherQueueSession);
+        assertEquals(2, result.getSuccesses());
+    }
+
+    private void expectPublish(final String fingerprint, final boolean published) throws PublisherException {
+        expect(noConflictCertificateStoreSession.getCertificateData(fingerprint)).andReturn(getCertificateDataWrapper(fingerprint));
+        expect(publisherQueueSession.publishCertificateNonTransactional(eq(publisher), eq(admin),
+                anyObject(CertificateDataWrapper.class), isNull(String.class), eq("CN=" + fingerprint), isNull(ExtendedInformation.class)))
+                .andReturn(published);
+    }
+
+    private static CertificateDataWrapper getCertificateDataWrapper(final String fingerprint) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint(fingerprint);
+        certificateData.setSubjectDN("CN=" + fingerprint);
+        return new CertificateDataWrapper(certificateData, null);
+    }
+}
@@ -0,0 +1,134 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.ejb.CreateException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+import org.easymock.Capture;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.TestSubject;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of the publisher queue entries that are published after commit in {@link PublisherQueueSessionBean}.
+ *
+ * @version $Id$
+ */
+@RunWith(EasyMockRunner.class)
+public class PublisherQueueSessionOutboxUnitTest {
+
+    private static final int PUBLISHER_ID = 4711;
+    private static final String FINGERPRINT = "0123456789abcdef0123456789abcdef01234567";
+
+    @TestSubject
+    private final PublisherQueueSessionBean publisherQueueSession = new PublisherQueueSessionBean();
+
+    @Mock
+    private EntityManager entityManager;
+    @Mock
+    private Query query;
+
+    @Test
+    public void testAddOutboxData() throws Exception {
+        final Capture<PublisherQueueData> persisted = Capture.newInstance();
+        entityManager.persist(capture(persisted));
+        expectLastCall();
+        replay(entityManager);
+        final PublisherQueueVolatileInformation volatileInformation = new PublisherQueueVolatileInformation();
+        volatileInformation.setUsername("user");
+        final String pk = publisherQueueSession.addOutboxData(PUBLISHER_ID, PublisherConst.PUBLISH_TYPE_CERT, FINGERPRINT, volatileInformation);
+        verify(entityManager);
+        final PublisherQueueData entity = persisted.getValue();
+        assertEquals(pk, entity.getPk());
+        assertEquals("Intents to publish after commit should not be pending in the publisher queue.", PublisherConst.STATUS_OUTBOX,
+                entity.getPublishStatus());
+        assertEquals(PUBLISHER_ID, entity.getPublisherId());
+        assertEquals(PublisherConst.PUBLISH_TYPE_CERT, entity.getPublishType());
+        assertEquals(FINGERPRINT, entity.getFingerprint());
+        assertEquals(0, entity.getLastUpdate());
+        assertEquals("user", entity.getPublisherQueueVolatileData().getUsername());
+    }
+
+    @Test
+    public void testAddOutboxDataFails() {
+        entityManager.persist(anyObject(PublisherQueueData.class));
+        expectLastCall().andThrow(new PersistenceException("Database is down."));
+        replay(entityManager);
+        try {
+            publisherQueueSession.addOutboxData(PUBLISHER_ID, PublisherConst.PUBLISH_TYPE_CERT, FINGERPRINT, null);
+            fail("Failure to store the intent should roll back the issuing transaction.");
+        } catch (CreateException e) {
+            assertEquals("Database is down.", e.getMessage());
+        }
+        verify(entityManager);
+    }
+
+    @Test
+    public void testClaimOutboxEntries() {
+        final long before = System.currentTimeMillis() - 60000;
+        final PublisherQueueData first = getEntity(before - 2000);
+        final PublisherQueueData second = getEntity(before - 1000);
+        final List<PublisherQueueData> entities = new ArrayList<>(Arrays.asList(first, second));
+        expect(entityManager.createQuery(anyString())).andReturn(query);
+        expect(query.setParameter("publishStatus", PublisherConst.STATUS_OUTBOX)).andReturn(query);
+        expect(query.setParameter("before", before)).andReturn(query);
+        expect(query.setMaxResults(2)).andReturn(query);
+        expect(query.getResultList()).andReturn(entities);
+        replay(entityManager, query);
+        final long start = System.currentTimeMillis();
+        final Collection<org.ejbca.core.model.ca.publisher.PublisherQueueData> claimed = publisherQueueSession.claimOutboxEntries(before, 2);
+        verify(entityManager, query);
+        assertEquals(2, claimed.size());
+        final List<String> pks = new ArrayList<>();
+        for (final org.ejbca.core.model.ca.publisher.PublisherQueueData entry : claimed) {
+            pks.add(entry.getPk());
+            assertEquals(PublisherConst.STATUS_OUTBOX, entry.getPublishStatus());
+            assertEquals(FINGERPRINT, entry.getFingerprint());
+            assertEquals(PUBLISHER_ID, entry.getPublisherId());
+        }
+        assertEquals(Arrays.asList(first.getPk(), second.getPk()), pks);
+        // Claimed entries are not claimed again until the recovery time has passed
+        assertTrue(first.getLastUpdate() >= start);
+        assertTrue(second.getLastUpdate() >= start);
+    }
+
+    private static PublisherQueueData getEntity(final long timeCreated) {
+        final PublisherQueueData entity = new PublisherQueueData(PUBLISHER_ID, PublisherConst.PUBLISH_TYPE_CERT, FINGERPRINT, null,
+                PublisherConst.STATUS_OUTBOX);
+        entity.setTimeCreated(timeCreated);
+        return entity;
+    }
+}
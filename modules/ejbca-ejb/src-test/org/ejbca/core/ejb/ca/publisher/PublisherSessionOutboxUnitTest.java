@@ -0,0 +1,333 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.easymock.Capture;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.LdapPublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.ejbca.core.model.ca.publisher.PublisherQueueData;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of publishing after commit in {@link PublisherSessionBean}: storing the publish intents in the transaction, handing them to
+ * {@link PublisherOutboxDispatcher} on commit, publishing them and the recovery of intents that were not published.
+ *
+ * @version $Id$
+ */
+@RunWith(EasyMockRunner.class)
+public class PublisherSessionOutboxUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublisherSessionOutboxUnitTest"));
+    private static final int PUBLISHER_ID = 4711;
+    private static final String FINGERPRINT = "0123456789abcdef0123456789abcdef01234567";
+    private static final String PK = "pk1";
+
+    @TestSubject
+    private final PublisherSessionBean publisherSession = new PublisherSessionBean();
+
+    @Mock
+    private PublisherQueueSessionLocal publisherQueueSession;
+    @Mock
+    private CertificateStoreSessionLocal certificateStoreSession;
+    @Mock(type = MockType.NICE)
+    private AuthorizationSessionLocal authorizationSession;
+    @Mock(type = MockType.NICE)
+    private SecurityEventsLoggerSessionLocal auditSession;
+    @Mock
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    /** The intents that the dispatcher has handed to the handler */
+    private final BlockingQueue<PublisherOutboxDispatcher.Intent> published = new LinkedBlockingQueue<>();
+
+    private final PublisherOutboxDispatcher.Handler handler = new PublisherOutboxDispatcher.Handler() {
+        @Override
+        public void publish(final PublisherOutboxDispatcher.Intent intent) {
+            published.add(intent);
+        }
+
+        @Override
+        public void recover() {
+            // Not needed for this test
+        }
+    };
+
+    private LdapPublisher publisher;
+
+    @Before
+    public void setUp() {
+        EjbcaConfigurationHolder.updateConfiguration("publisher.cachetime", "3600000");
+        PublisherCache.INSTANCE.flush();
+        publisher = new LdapPublisher();
+        publisher.setPublisherId(PUBLISHER_ID);
+        publisher.setName("PublisherSessionOutboxUnitTest");
+        PublisherCache.INSTANCE.updateWith(PUBLISHER_ID, 1, publisher.getName(), publisher);
+    }
+
+    @After
+    public void tearDown() {
+        PublisherOutboxDispatcher.INSTANCE.shutdown();
+        PublisherCache.INSTANCE.flush();
+        EjbcaConfigurationHolder.restoreConfiguration();
+    }
+
+    @Test
+    public void testIntentsDispatchedOnCommit() throws Exception {
+        final Synchronization synchronization = storeCertificateAfterCommit();
+        assertNull("Nothing should be published before the transaction has completed.", published.poll(100, TimeUnit.MILLISECONDS));
+        synchronization.afterCompletion(Status.STATUS_COMMITTED);
+        final PublisherOutboxDispatcher.Intent intent = published.poll(10, TimeUnit.SECONDS);
+        assertEquals(PK, intent.getPk());
+        assertEquals(PUBLISHER_ID, intent.getPublisherId());
+        assertEquals(FINGERPRINT, intent.getFingerprint());
+        assertEquals(admin, intent.getAdmin());
+    }
+
+    @Test
+    public void testIntentsNotDispatchedOnRollback() throws Exception {
+        final Synchronization synchronization = storeCertificateAfterCommit();
+        synchronization.afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertNull("Intents of a rolled back transaction should not be published.", published.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPublishedDirectlyWhenDisabled() throws Exception {
+        // Publishing after commit is not enabled by default
+        expect(authorizationSession.isAuthorized(eq(admin), anyString())).andReturn(true);
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        expect(publisherQueueSession.publishCertificateNonTransactionalInternal(eq(Collections.<BasePublisher>singletonList(publisher)), eq(admin),
+                anyObject(CertificateDataWrapper.class), anyString(), anyString(), eq(null))).andReturn(Arrays.<Object>asList(Boolean.TRUE));
+        replay(publisherQueueSession, transactionSynchronizationRegistry, authorizationSession);
+        assertTrue(publisherSession.storeCertificateAfterCommit(admin, Arrays.asList(PUBLISHER_ID), getCertificateDataWrapper(), "foo123",
+                "CN=user", null));
+        verify(publisherQueueSession, transactionSynchronizationRegistry, authorizationSession);
+    }
+
+    @Test
+    public void testPublishOutboxEntryRemovesPublished() throws Exception {
+        expectOutboxEntry(PublisherConst.STATUS_OUTBOX);
+        expect(certificateStoreSession.getCertificateData(FINGERPRINT)).andReturn(getCertificateDataWrapper());
+        expectPublish(Boolean.TRUE);
+        publisherQueueSession.removeQueueData(PK);
+        replay(publisherQueueSession, certificateStoreSession);
+        publisherSession.publishOutboxEntry(admin, PK, FINGERPRINT);
+        verify(publisherQueueSession, certificateStoreSession);
+    }
+
+    @Test
+    public void testPublishOutboxEntryKeepsPublishedInQueue() throws Exception {
+        publisher.setKeepPublishedInQueue(true);
+        publisher.setUseQueueForCertificates(true);
+        expectOutboxEntry(PublisherConst.STATUS_OUTBOX);
+        expect(certificateStoreSession.getCertificateData(FINGERPRINT)).andReturn(getCertificateDataWrapper());
+        expectPublish(Boolean.TRUE);
+        publisherQueueSession.updateData(PK, PublisherConst.STATUS_SUCCESS, 0);
+        replay(publisherQueueSession, certificateStoreSession);
+        publisherSession.publishOutboxEntry(admin, PK, FINGERPRINT);
+        verify(publisherQueueSession, certificateStoreSession);
+    }
+
+    @Test
+    public void testPublishOutboxEntryFailureIsPending() throws Exception {
+        publisher.setUseQueueForCertificates(true);
+        expectOutboxEntry(PublisherConst.STATUS_OUTBOX);
+        expect(certificateStoreSession.getCertificateData(FINGERPRINT)).andReturn(getCertificateDataWrapper());
+        expectPublish(new PublisherException("Publisher is down."));
+        publisherQueueSession.updateData(PK, PublisherConst.STATUS_PENDING, 0);
+        replay(publisherQueueSession, certificateStoreSession);
+        publisherSession.publishOutboxEntry(admin, PK, FINGERPRINT);
+        verify(publisherQueueSession, certificateStoreSession);
+    }
+
+    @Test
+    public void testPublishOutboxEntryOnlyOnce() throws Exception {
+        // Already published by another thread or node, and now pending in the publisher queue
+        expectOutboxEntry(PublisherConst.STATUS_PENDING);
+        replay(publisherQueueSession, certificateStoreSession);
+        publisherSession.publishOutboxEntry(admin, PK, FINGERPRINT);
+        verify(publisherQueueSession, certificateStoreSession);
+    }
+
+    @Test
+    public void testPublishOutboxEntryWithoutCertificate() throws Exception {
+        expectOutboxEntry(PublisherConst.STATUS_OUTBOX);
+        expect(certificateStoreSession.getCertificateData(FINGERPRINT)).andReturn(null);
+        publisherQueueSession.removeQueueData(PK);
+        replay(publisherQueueSession, certificateStoreSession);
+        publisherSession.publishOutboxEntry(admin, PK, FINGERPRINT);
+        verify(publisherQueueSession, certificateStoreSession);
+    }
+
+    @Test
+    public void testRecoveryDrainsAllBatches() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration("publish.async.queuesize", "2");
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        expect(publisherQueueSession.claimOutboxEntries(anyLong(), eq(2))).andReturn(Arrays.asList(getOutboxEntry("pk1"), getOutboxEntry("pk2")));
+        expect(publisherQueueSession.claimOutboxEntries(anyLong(), eq(2))).andReturn(Arrays.asList(getOutboxEntry("pk3")));
+        replay(publisherQueueSession);
+        assertEquals(3, publisherSession.recoverPublisherOutbox());
+        verify(publisherQueueSession);
+        final List<String> pks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pks.add(published.poll(10, TimeUnit.SECONDS).getPk());
+        }
+        assertEquals(Arrays.asList("pk1", "pk2", "pk3"), pks);
+    }
+
+    @Test
+    public void testRecoveryLeavesOverflowToPublisherQueue() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration("publish.async.queuesize", "3");
+        final CountDownLatch publishing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PublisherOutboxDispatcher.INSTANCE.start(new PublisherOutboxDispatcher.Handler() {
+            @Override
+            public void publish(final PublisherOutboxDispatcher.Intent intent) {
+                publishing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void recover() {
+                // Not needed for this test
+            }
+        }, 1, 1, 0);
+        // Occupy the only thread, so that the queue has room for one intent
+        assertTrue(PublisherOutboxDispatcher.INSTANCE.dispatch(new PublisherOutboxDispatcher.Intent(admin, PUBLISHER_ID, "pk0", FINGERPRINT)));
+        assertTrue(publishing.await(10, TimeUnit.SECONDS));
+        expect(publisherQueueSession.claimOutboxEntries(anyLong(), eq(3))).andReturn(Arrays.asList(getOutboxEntry("pk1"), getOutboxEntry("pk2")));
+        publisherQueueSession.updateData("pk2", PublisherConst.STATUS_PENDING, 0);
+        expectLastCall();
+        replay(publisherQueueSession);
+        try {
+            assertEquals(2, publisherSession.recoverPublisherOutbox());
+            verify(publisherQueueSession);
+            assertEquals(1, PublisherOutboxDispatcher.INSTANCE.getQueueLength(PUBLISHER_ID));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testRecoveryWithoutEntries() {
+        expect(publisherQueueSession.claimOutboxEntries(anyLong(), eq(1000))).andReturn(new ArrayList<PublisherQueueData>());
+        replay(publisherQueueSession);
+        assertEquals(0, publisherSession.recoverPublisherOutbox());
+        verify(publisherQueueSession);
+        assertFalse(PublisherOutboxDispatcher.INSTANCE.isStarted());
+    }
+
+    /** Stores a certificate to be published after commit, and returns the synchronization that dispatches the intents */
+    private Synchronization storeCertificateAfterCommit() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration("publish.async.enabled", "true");
+        expect(authorizationSession.isAuthorized(eq(admin), anyString())).andReturn(true);
+        PublisherOutboxDispatcher.INSTANCE.start(handler, 10, 1, 0);
+        final Capture<Synchronization> synchronization = Capture.newInstance();
+        final Capture<PublisherQueueVolatileInformation> volatileInformation = Capture.newInstance();
+        expect(transactionSynchronizationRegistry.getTransactionKey()).andReturn(new Object());
+        expect(publisherQueueSession.addOutboxData(eq(PUBLISHER_ID), eq(PublisherConst.PUBLISH_TYPE_CERT), eq(FINGERPRINT), capture(volatileInformation)))
+                .andReturn(PK);
+        transactionSynchronizationRegistry.registerInterposedSynchronization(capture(synchronization));
+        expectLastCall();
+        replay(publisherQueueSession, transactionSynchronizationRegistry, authorizationSession);
+        assertFalse("Publishing after commit should not be reported as published.", publisherSession.storeCertificateAfterCommit(admin,
+                Arrays.asList(PUBLISHER_ID), getCertificateDataWrapper(), "foo123", "CN=user", null));
+        verify(publisherQueueSession, transactionSynchronizationRegistry, authorizationSession);
+        assertEquals("user", volatileInformation.getValue().getUsername());
+        assertEquals("foo123", volatileInformation.getValue().getPassword());
+        assertEquals("CN=user", volatileInformation.getValue().getUserDN());
+        return synchronization.getValue();
+    }
+
+    private void expectOutboxEntry(final int publishStatus) {
+        final PublisherQueueVolatileInformation volatileInformation = new PublisherQueueVolatileInformation();
+        volatileInformation.setUsername("user");
+        volatileInformation.setPassword("foo123");
+        volatileInformation.setUserDN("CN=user");
+        expect(publisherQueueSession.getEntriesByFingerprint(FINGERPRINT)).andReturn(Arrays.asList(new PublisherQueueData(PK, new Date(), new Date(),
+                publishStatus, 0, PublisherConst.PUBLISH_TYPE_CERT, FINGERPRINT, PUBLISHER_ID, volatileInformation)));
+    }
+
+    private void expectPublish(final Object result) {
+        expect(publisherQueueSession.publishCertificateNonTransactionalInternal(eq(Collections.<BasePublisher>singletonList(publisher)), eq(admin),
+                anyObject(CertificateDataWrapper.class), eq("foo123"), eq("CN=user"), eq(null))).andReturn(Arrays.asList(result));
+    }
+
+    private static PublisherQueueData getOutboxEntry(final String pk) {
+        return new PublisherQueueData(pk, new Date(0), new Date(0), PublisherConst.STATUS_OUTBOX, 0, PublisherConst.PUBLISH_TYPE_CERT, FINGERPRINT,
+                PUBLISHER_ID, null);
+    }
+
+    private static CertificateDataWrapper getCertificateDataWrapper() {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint(FINGERPRINT);
+        certificateData.setIssuerDN("CN=PublisherSessionOutboxUnitTest");
+        certificateData.setSubjectDN("CN=user");
+        certificateData.setSerialNumber("4711");
+        certificateData.setUsername("user");
+        certificateData.setStatus(CertificateConstants.CERT_ACTIVE);
+        certificateData.setRevocationReason(RevokedCertInfo.NOT_REVOKED);
+        return new CertificateDataWrapper(null, certificateData, null);
+    }
+}
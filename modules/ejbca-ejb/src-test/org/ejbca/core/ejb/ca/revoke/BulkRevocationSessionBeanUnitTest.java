@@ -0,0 +1,321 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.revoke;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.CreateException;
+import javax.ejb.EJBException;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.control.StandardRules;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.easymock.Capture;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.ejbca.config.GlobalConfiguration;
+import org.ejbca.core.ejb.approval.ApprovalProfileSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.model.authorization.AccessRulesConstants;
+import org.ejbca.core.model.ca.publisher.LdapPublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of {@link BulkRevocationSessionBean}.
+ *
+ * @version $Id$
+ */
+@RunWith(EasyMockRunner.class)
+public class BulkRevocationSessionBeanUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("BulkRevocationSessionBeanUnitTest"));
+    private static final String ISSUER_DN = "CN=Bulk Revocation CA";
+    private static final int CA_ID = ISSUER_DN.hashCode();
+    private static final int CERTIFICATE_PROFILE_ID = 4712;
+    private static final int PUBLISHER_ID = 4711;
+
+    @TestSubject
+    private final BulkRevocationSessionBean bulkRevocationSessionBean = new BulkRevocationSessionBean();
+
+    @Mock
+    private BulkRevocationSessionLocal bulkRevocationSession;
+    @Mock
+    private AuthorizationSessionLocal authorizationSession;
+    @Mock
+    private EntityManager entityManager;
+    @Mock(type = MockType.NICE)
+    private TypedQuery<CertificateData> query;
+    @Mock
+    private SecurityEventsLoggerSessionLocal auditSession;
+    @Mock
+    private PublisherQueueSessionLocal publisherQueueSession;
+    @Mock(type = MockType.NICE)
+    private PublisherSessionLocal publisherSession;
+    @Mock(type = MockType.NICE)
+    private ApprovalProfileSessionLocal approvalProfileSession;
+    @Mock(type = MockType.NICE)
+    private CaSessionLocal caSession;
+    @Mock(type = MockType.NICE)
+    private CertificateProfileSessionLocal certificateProfileSession;
+    @Mock(type = MockType.NICE)
+    private EndEntityProfileSessionLocal endEntityProfileSession;
+    @Mock(type = MockType.NICE)
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+    @Mock(type = MockType.NICE)
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    private LdapPublisher publisher;
+
+    @Before
+    public void setUp() {
+        final CAInfo caInfo = new CAInfo() {
+            private static final long serialVersionUID = 1L;
+        };
+        caInfo.setSubjectDN(ISSUER_DN);
+        caInfo.setName("BulkRevocationCA");
+        final GlobalConfiguration globalConfiguration = new GlobalConfiguration();
+        globalConfiguration.setEnableEndEntityProfileLimitations(false);
+        final CertificateProfile certificateProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER);
+        certificateProfile.setPublisherList(Collections.singletonList(PUBLISHER_ID));
+        publisher = new LdapPublisher();
+        publisher.setName("Queued publisher");
+        publisher.setUseQueueForCertificates(true);
+        expect(caSession.getCAInfoInternal(CA_ID)).andStubReturn(caInfo);
+        expect(globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID)).andStubReturn(globalConfiguration);
+        expect(certificateProfileSession.getAllCertificateProfiles()).andStubReturn(Collections.singletonMap(CERTIFICATE_PROFILE_ID, certificateProfile));
+        expect(certificateProfileSession.getCertificateProfile(CERTIFICATE_PROFILE_ID)).andStubReturn(certificateProfile);
+        expect(publisherSession.getPublisher(PUBLISHER_ID)).andStubReturn(publisher);
+        replay(caSession, globalConfigurationSession, certificateProfileSession, publisherSession, approvalProfileSession, endEntityProfileSession,
+                transactionSynchronizationRegistry);
+    }
+
+    @Test
+    public void testRevokeInBatches() throws Exception {
+        expectAuthorized(true);
+        final List<BigInteger> serialNumbers = new ArrayList<>();
+        for (int i = 1; i <= 1200; i++) {
+            serialNumbers.add(BigInteger.valueOf(i));
+        }
+        final Capture<List<String>> firstBatch = Capture.newInstance();
+        final Capture<List<String>> lastBatch = Capture.newInstance();
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), capture(firstBatch), eq(500),
+                isNull(Collection.class), eq(Collections.<Integer>emptyList()))).andReturn(500);
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), anyObject(), eq(500),
+                isNull(Collection.class), eq(Collections.<Integer>emptyList()))).andReturn(500);
+        // Some of the certificates in the last batch are already revoked, or do not exist
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), capture(lastBatch), eq(200),
+                isNull(Collection.class), eq(Collections.<Integer>emptyList()))).andReturn(150);
+        replay(bulkRevocationSession);
+        final BulkRevocationRequest request = new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        request.addSerialNumbers(serialNumbers);
+        final BulkRevocationResult result = bulkRevocationSessionBean.revokeCertificates(admin, request);
+        verify(authorizationSession, bulkRevocationSession);
+        assertEquals(1150, result.getRevokedCount());
+        assertEquals(50, result.getIgnoredCount());
+        assertEquals("1", firstBatch.getValue().get(0));
+        assertEquals("1001", lastBatch.getValue().get(0));
+        assertEquals(200, lastBatch.getValue().size());
+    }
+
+    @Test
+    public void testRevokeAllInBatches() throws Exception {
+        expectAuthorized(true);
+        // Revoked certificates no longer match, so batches are requested until one is not full
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), isNull(List.class), eq(500),
+                isNull(Collection.class), anyObject())).andReturn(500).times(2);
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), isNull(List.class), eq(500),
+                isNull(Collection.class), anyObject())).andReturn(7);
+        replay(bulkRevocationSession);
+        final BulkRevocationResult result = bulkRevocationSessionBean.revokeCertificates(admin,
+                new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED));
+        verify(authorizationSession, bulkRevocationSession);
+        assertEquals(1007, result.getRevokedCount());
+    }
+
+    @Test
+    public void testNotAuthorized() throws Exception {
+        expectAuthorized(false);
+        replay(bulkRevocationSession);
+        final BulkRevocationRequest request = new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        request.addSerialNumbers(Arrays.asList(BigInteger.ONE));
+        try {
+            bulkRevocationSessionBean.revokeCertificates(admin, request);
+            fail("Administrator without access to the CA should not be able to revoke its certificates.");
+        } catch (AuthorizationDeniedException e) {
+            // Expected
+        }
+        verify(authorizationSession, bulkRevocationSession);
+    }
+
+    @Test
+    public void testFailedBatchKeepsEarlierBatches() throws Exception {
+        expectAuthorized(true);
+        final List<BigInteger> serialNumbers = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            serialNumbers.add(BigInteger.valueOf(i));
+        }
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), anyObject(), eq(500),
+                anyObject(), anyObject())).andReturn(500);
+        expect(bulkRevocationSession.revokeCertificateBatch(eq(admin), anyObject(BulkRevocationRequest.class), anyObject(), eq(500),
+                anyObject(), anyObject())).andThrow(new EJBException("Database is down."));
+        replay(bulkRevocationSession);
+        final BulkRevocationRequest request = new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        request.addSerialNumbers(serialNumbers);
+        try {
+            bulkRevocationSessionBean.revokeCertificates(admin, request);
+            fail("A failed batch should be reported to the caller.");
+        } catch (EJBException e) {
+            assertEquals("Database is down.", e.getMessage());
+        }
+        // The first batch has been committed in its own transaction, and the remaining batches are not attempted
+        verify(authorizationSession, bulkRevocationSession);
+    }
+
+    @Test
+    public void testRevokeBatchAuditLogsAndQueuesOnce() throws Exception {
+        final List<CertificateData> certificateDatas = Arrays.asList(getCertificateData("1a", "26"), getCertificateData("2b", "43"),
+                getCertificateData("3c", "60"));
+        expectQuery(certificateDatas);
+        final Capture<Map<String, Object>> details = Capture.newInstance();
+        auditSession.log(eq(EventTypes.CERT_REVOKED), eq(EventStatus.SUCCESS), eq(ModuleTypes.CERTIFICATE), eq(ServiceTypes.CORE), anyString(),
+                eq(String.valueOf(CA_ID)), isNull(String.class), isNull(String.class), capture(details));
+        expectLastCall().once();
+        final Capture<PublisherQueueVolatileInformation> volatileInformation = Capture.newInstance();
+        publisherQueueSession.addQueueData(eq(PUBLISHER_ID), eq(PublisherConst.PUBLISH_TYPE_CERT_BATCH), eq("1a"), capture(volatileInformation),
+                eq(PublisherConst.STATUS_PENDING));
+        expectLastCall().once();
+        replay(entityManager, query, auditSession, publisherQueueSession);
+        final int revoked = bulkRevocationSessionBean.revokeCertificateBatch(admin,
+                new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE), Arrays.asList("26", "43", "60"), 3, null,
+                Collections.<Integer>emptyList());
+        verify(entityManager, auditSession, publisherQueueSession);
+        assertEquals(3, revoked);
+        for (final CertificateData certificateData : certificateDatas) {
+            assertEquals(CertificateConstants.CERT_REVOKED, certificateData.getStatus());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, certificateData.getRevocationReason());
+        }
+        assertEquals("1A,2B,3C", details.getValue().get("serialNumbers"));
+        assertEquals(Arrays.asList("1a", "2b", "3c"), volatileInformation.getValue().getFingerprints());
+    }
+
+    @Test
+    public void testRevokeBatchWhenQueueFails() throws Exception {
+        final List<CertificateData> certificateDatas = Arrays.asList(getCertificateData("1a", "26"), getCertificateData("2b", "43"));
+        expectQuery(certificateDatas);
+        auditSession.log(eq(EventTypes.CERT_REVOKED), eq(EventStatus.SUCCESS), eq(ModuleTypes.CERTIFICATE), eq(ServiceTypes.CORE), anyString(),
+                anyString(), isNull(String.class), isNull(String.class), anyObject(Map.class));
+        publisherQueueSession.addQueueData(anyInt(), anyInt(), anyString(), anyObject(), anyInt());
+        expectLastCall().andThrow(new CreateException("Queue is full."));
+        replay(entityManager, query, auditSession, publisherQueueSession);
+        // Failing to queue the publishing does not undo the revocations, like for single revocations
+        final int revoked = bulkRevocationSessionBean.revokeCertificateBatch(admin,
+                new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE), null, 500, null,
+                Collections.<Integer>emptyList());
+        verify(entityManager, auditSession, publisherQueueSession);
+        assertEquals(2, revoked);
+    }
+
+    @Test
+    public void testRevokeBatchWithoutMatches() {
+        expectQuery(new ArrayList<CertificateData>());
+        replay(entityManager, query, auditSession, publisherQueueSession);
+        assertEquals(0, bulkRevocationSessionBean.revokeCertificateBatch(admin,
+                new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE), null, 500, null,
+                Collections.<Integer>emptyList()));
+        // Nothing is audit logged or published
+        verify(entityManager, auditSession, publisherQueueSession);
+    }
+
+    @Test
+    public void testRevokeBatchWithoutAuthorizedEndEntityProfiles() {
+        replay(entityManager, query, auditSession, publisherQueueSession);
+        assertEquals(0, bulkRevocationSessionBean.revokeCertificateBatch(admin,
+                new BulkRevocationRequest(ISSUER_DN, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE), null, 500, Collections.<Integer>emptyList(),
+                Collections.<Integer>emptyList()));
+        verify(entityManager, auditSession, publisherQueueSession);
+    }
+
+    private void expectAuthorized(final boolean authorized) {
+        expect(authorizationSession.isAuthorized(admin, AccessRulesConstants.REGULAR_REVOKEENDENTITY, StandardRules.CAACCESS.resource() + CA_ID))
+                .andReturn(authorized);
+        replay(authorizationSession);
+    }
+
+    private void expectQuery(final List<CertificateData> certificateDatas) {
+        expect(entityManager.createQuery(anyString(), eq(CertificateData.class))).andReturn(query);
+        expect(query.getResultList()).andReturn(certificateDatas);
+        if (!certificateDatas.isEmpty()) {
+            entityManager.flush();
+            expectLastCall();
+        }
+    }
+
+    private static CertificateData getCertificateData(final String fingerprint, final String serialNumber) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint(fingerprint);
+        certificateData.setSerialNumber(serialNumber);
+        certificateData.setIssuerDN(ISSUER_DN);
+        certificateData.setSubjectDN("CN=" + fingerprint);
+        certificateData.setUsername(fingerprint);
+        certificateData.setStatus(CertificateConstants.CERT_ACTIVE);
+        certificateData.setCertificateProfileId(CERTIFICATE_PROFILE_ID);
+        return certificateData;
+    }
+}
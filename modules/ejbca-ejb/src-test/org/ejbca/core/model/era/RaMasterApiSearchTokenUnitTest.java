@@ -0,0 +1,222 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.era;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.GlobalCesecoreConfiguration;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.search.SearchTokenData;
+import org.cesecore.search.SearchTokenDataSessionLocal;
+import org.easymock.Capture;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.model.authorization.AccessRulesConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests of the RA certificate and end entity searches in {@link RaMasterApiSessionBean} with the search token index.
+ *
+ * @version $Id$
+ */
+@RunWith(EasyMockRunner.class)
+public class RaMasterApiSearchTokenUnitTest {
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("RaMasterApiSearchTokenUnitTest"));
+    private static final int CA_ID = 1;
+    private static final int PROFILE_ID = 1;
+
+    @TestSubject
+    private final RaMasterApiSessionBean raMasterApiSession = new RaMasterApiSessionBean();
+
+    @Mock
+    private SearchTokenDataSessionLocal searchTokenDataSession;
+    @Mock
+    private EntityManager entityManager;
+    @Mock(type = MockType.NICE)
+    private Query query;
+    @Mock(type = MockType.NICE)
+    private CaSessionLocal caSession;
+    @Mock(type = MockType.NICE)
+    private CertificateProfileSessionLocal certificateProfileSession;
+    @Mock(type = MockType.NICE)
+    private EndEntityProfileSessionLocal endEntityProfileSession;
+    @Mock(type = MockType.NICE)
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+
+    private final Capture<String> jpql = Capture.newInstance();
+
+    @Before
+    public void setUp() {
+        ConfigurationHolder.updateConfiguration("database.useSearchTokenIndex", "true");
+        final CAInfo caInfo = new CAInfo() {
+            private static final long serialVersionUID = 1L;
+        };
+        caInfo.setSubjectDN("CN=Search Token CA");
+        expect(caSession.getAuthorizedCaIds(admin)).andStubReturn(new ArrayList<>(Arrays.asList(CA_ID)));
+        expect(caSession.getCAInfoInternal(CA_ID)).andStubReturn(caInfo);
+        expect(certificateProfileSession.getAuthorizedCertificateProfileIds(admin, 0)).andStubReturn(new ArrayList<>(Arrays.asList(PROFILE_ID)));
+        expect(certificateProfileSession.getCertificateProfileIdToNameMap()).andStubReturn(Collections.singletonMap(PROFILE_ID, "Profile"));
+        expect(endEntityProfileSession.getAuthorizedEndEntityProfileIds(admin, AccessRulesConstants.VIEW_END_ENTITY))
+                .andStubReturn(new ArrayList<>(Arrays.asList(PROFILE_ID)));
+        expect(endEntityProfileSession.getEndEntityProfileIdToNameMap()).andStubReturn(Collections.singletonMap(PROFILE_ID, "Profile"));
+        expect(globalConfigurationSession.getCachedConfiguration(GlobalCesecoreConfiguration.CESECORE_CONFIGURATION_ID))
+                .andStubReturn(new GlobalCesecoreConfiguration());
+        expect(query.getResultList()).andStubReturn(new ArrayList<>());
+        replay(caSession, certificateProfileSession, endEntityProfileSession, globalConfigurationSession, query);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.restoreConfiguration();
+    }
+
+    @Test
+    public void testCertificateSearchRestrictedToCandidates() {
+        final Map<Integer, String> fieldSearchStrings = new HashMap<>();
+        fieldSearchStrings.put(SearchTokenData.FIELD_SUBJECTDN, "example");
+        fieldSearchStrings.put(SearchTokenData.FIELD_USERNAME, "user");
+        final Set<String> candidates = new HashSet<>(Arrays.asList("fp1", "fp2"));
+        expect(searchTokenDataSession.findCandidates(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fieldSearchStrings, 1000)).andReturn(candidates);
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        final RaCertificateSearchRequest request = getCertificateSearchRequest("example", "", "user");
+        raMasterApiSession.searchForCertificates(admin, request);
+        verify(searchTokenDataSession, entityManager);
+        assertTrue("Search should be restricted to the candidates: " + jpql.getValue(),
+                jpql.getValue().contains("(a.fingerprint IN (:candidateFingerprints) AND (UPPER(a.subjectDN) LIKE :subjectDN OR UPPER(a.username) LIKE :username))"));
+    }
+
+    @Test
+    public void testCertificateSearchCandidatesNotWithSerialNumber() {
+        expect(searchTokenDataSession.findCandidates(eq(SearchTokenData.REFERENCE_TYPE_CERTIFICATE), anyObject(), anyInt()))
+                .andReturn(new HashSet<>(Arrays.asList("fp1")));
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        final RaCertificateSearchRequest request = getCertificateSearchRequest("example", "", "");
+        request.setSerialNumberSearchStringFromHex("7A1B2C3D4E5F6A7B");
+        raMasterApiSession.searchForCertificates(admin, request);
+        verify(searchTokenDataSession, entityManager);
+        assertTrue("Serial number matches should not be restricted to the candidates: " + jpql.getValue(),
+                jpql.getValue().contains("(a.fingerprint IN (:candidateFingerprints) AND (UPPER(a.subjectDN) LIKE :subjectDN)) OR a.serialNumber LIKE :serialNumberHex"));
+    }
+
+    @Test
+    public void testCertificateSearchWithoutCandidates() {
+        expect(searchTokenDataSession.findCandidates(eq(SearchTokenData.REFERENCE_TYPE_CERTIFICATE), anyObject(), anyInt()))
+                .andReturn(new HashSet<String>());
+        replay(searchTokenDataSession, entityManager);
+        final RaCertificateSearchResponse response = raMasterApiSession.searchForCertificates(admin, getCertificateSearchRequest("example", "", ""));
+        verify(searchTokenDataSession, entityManager);
+        assertTrue("No certificates should be found without candidates.", response.getCdws().isEmpty());
+    }
+
+    @Test
+    public void testCertificateSearchFallsBackWithoutIndex() {
+        // The search string is too short, or has too many candidates
+        expect(searchTokenDataSession.findCandidates(eq(SearchTokenData.REFERENCE_TYPE_CERTIFICATE), anyObject(), anyInt())).andReturn(null);
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        raMasterApiSession.searchForCertificates(admin, getCertificateSearchRequest("ex", "", ""));
+        verify(searchTokenDataSession, entityManager);
+        assertFalse(jpql.getValue().contains("candidateFingerprints"));
+        assertTrue(jpql.getValue().contains("UPPER(a.subjectDN) LIKE :subjectDN"));
+    }
+
+    @Test
+    public void testCertificateSearchIndexDisabled() {
+        ConfigurationHolder.updateConfiguration("database.useSearchTokenIndex", "false");
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        raMasterApiSession.searchForCertificates(admin, getCertificateSearchRequest("example", "", ""));
+        verify(searchTokenDataSession, entityManager);
+        assertFalse(jpql.getValue().contains("candidateFingerprints"));
+    }
+
+    @Test
+    public void testCertificateSearchWithoutSearchStrings() {
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        raMasterApiSession.searchForCertificates(admin, getCertificateSearchRequest("", "", ""));
+        verify(searchTokenDataSession, entityManager);
+        assertFalse(jpql.getValue().contains("candidateFingerprints"));
+    }
+
+    @Test
+    public void testEndEntitySearchRestrictedToCandidates() {
+        final Set<String> candidates = new HashSet<>(Arrays.asList("user1", "user2"));
+        expect(searchTokenDataSession.findCandidates(SearchTokenData.REFERENCE_TYPE_END_ENTITY,
+                Collections.singletonMap(SearchTokenData.FIELD_SUBJECTALTNAME, "example.com"), 1000)).andReturn(candidates);
+        expect(entityManager.createQuery(capture(jpql))).andReturn(query);
+        replay(searchTokenDataSession, entityManager);
+        final RaEndEntitySearchRequest request = new RaEndEntitySearchRequest();
+        request.setSubjectAnSearchString("example.com");
+        raMasterApiSession.searchForEndEntities(admin, request);
+        verify(searchTokenDataSession, entityManager);
+        assertTrue("Search should be restricted to the candidates: " + jpql.getValue(),
+                jpql.getValue().contains(" AND (a.username IN (:candidateUsernames)) AND (a.subjectAltName LIKE :subjectAltName)"));
+    }
+
+    @Test
+    public void testEndEntitySearchWithoutCandidates() {
+        expect(searchTokenDataSession.findCandidates(eq(SearchTokenData.REFERENCE_TYPE_END_ENTITY), anyObject(), anyInt()))
+                .andReturn(new HashSet<String>());
+        replay(searchTokenDataSession, entityManager);
+        final RaEndEntitySearchRequest request = new RaEndEntitySearchRequest();
+        request.setUsernameSearchString("user");
+        final RaEndEntitySearchResponse response = raMasterApiSession.searchForEndEntities(admin, request);
+        verify(searchTokenDataSession, entityManager);
+        assertEquals(0, response.getEndEntities().size());
+    }
+
+    private static RaCertificateSearchRequest getCertificateSearchRequest(final String subjectDn, final String subjectAn, final String username) {
+        final RaCertificateSearchRequest request = new RaCertificateSearchRequest();
+        request.setSubjectDnSearchString(subjectDn);
+        request.setSubjectAnSearchString(subjectAn);
+        request.setUsernameSearchString(username);
+        return request;
+    }
+}
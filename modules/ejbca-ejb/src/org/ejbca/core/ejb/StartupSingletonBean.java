@@ -62,6 +62,7 @@ import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.CryptoProviderTools;
@@ -72,6 +73,8 @@ import org.ejbca.core.ejb.audit.enums.EjbcaModuleTypes;
 import org.ejbca.core.ejb.audit.enums.EjbcaServiceTypes;
 import org.ejbca.core.ejb.authorization.AuthorizationSystemSessionLocal;
 import org.ejbca.core.ejb.ca.caadmin.CAAdminSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherOutboxDispatcher;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspKeyRenewalSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
@@ -122,6 +125,8 @@ public class StartupSingletonBean {
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
     @EJB
+    private PublisherSessionLocal publisherSession;
+    @EJB
     private OcspKeyRenewalSessionLocal ocspKeyRenewalSession;
     @EJB
     private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
@@ -134,6 +139,10 @@ public class StartupSingletonBean {
     private void shutdown() {
         String iMsg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservice.shutdown");
         log.info(iMsg);
+        // Clear the key pairs that were generated in advance
+        KeyPairPool.INSTANCE.shutdown();
+        // Stop publishing after commit, certificates that are waiting are published by the recovery
+        PublisherOutboxDispatcher.INSTANCE.shutdown();
         // Make a log row that EJBCA is stopping
         //final Map<String, Object> details = new LinkedHashMap<String, Object>();
         //details.put("msg", iMsg);
@@ -350,6 +359,26 @@ public class StartupSingletonBean {
         // Start legacy background service for renewal of OCSP signers via EJBCA WS calls to CA
         log.debug(">startup start OCSP renewal background service");
         ocspKeyRenewalSession.startTimer();
+        // Start generating key pairs for server generated keystores in advance, if configured
+        log.debug(">startup start key pair pool");
+        KeyPairPool.INSTANCE.start(Arrays.asList(EjbcaConfiguration.getKeyPairPoolKeySpecs()), EjbcaConfiguration.getKeyPairPoolDepth(),
+                EjbcaConfiguration.getKeyPairPoolThreads(), EjbcaConfiguration.isKeyPairPoolEncrypted());
+        // Start publishing certificates after commit, if configured
+        if (EjbcaConfiguration.isPublishAsyncEnabled()) {
+            log.debug(">startup start publishing after commit");
+            PublisherOutboxDispatcher.INSTANCE.start(new PublisherOutboxDispatcher.Handler() {
+                @Override
+                public void publish(final PublisherOutboxDispatcher.Intent intent) {
+                    publisherSession.publishOutboxEntry(intent.getAdmin(), intent.getPk(), intent.getFingerprint());
+                }
+
+                @Override
+                public void recover() {
+                    publisherSession.recoverPublisherOutbox();
+                }
+            }, EjbcaConfiguration.getPublishAsyncQueueSize(), EjbcaConfiguration.getPublishAsyncThreads(),
+                    EjbcaConfiguration.getPublishAsyncRecoveryTime());
+        }
         // Verify that the EJB CLI user (if present) cannot be used to generate certificates
         log.debug(">startup verifying that EJBCA CLI user can not be used to generate a certificate");
         final String cliUsername = EjbcaConfiguration.getCliDefaultUser();
@@ -13,15 +13,12 @@
 
 package org.ejbca.core.ejb.approval;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +41,9 @@ import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.ApprovalRequestType;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.certificate.CertificateInfo;
@@ -53,7 +53,6 @@ import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLoc
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
-import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.CryptoProviderTools;
 import org.cesecore.util.ProfileID;
@@ -67,6 +66,7 @@ import org.ejbca.core.ejb.audit.enums.EjbcaServiceTypes;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.approval.Approval;
+import org.ejbca.core.model.approval.ApprovalDataCodec;
 import org.ejbca.core.model.approval.ApprovalDataText;
 import org.ejbca.core.model.approval.ApprovalDataVO;
 import org.ejbca.core.model.approval.ApprovalException;
@@ -88,6 +88,7 @@ import org.ejbca.util.mail.MailException;
 import org.ejbca.util.mail.MailSender;
 import org.ejbca.util.query.IllegalQueryException;
 import org.ejbca.util.query.Query;
+import org.ejbca.util.query.QueryBuilder;
 
 /**
  * Keeps track of approval requests and their approval or rejects.
@@ -111,6 +112,8 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
     @EJB
     private ApprovalProfileSessionLocal approvalProfileSession;
     @EJB
+    private AuthorizationSessionLocal authorizationSession;
+    @EJB
     private CaSessionLocal caSession;
     @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
@@ -402,23 +405,73 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
     public List<ApprovalDataVO> query(final Query query, int index, int numberofrows, String caAuthorizationString,
             String endEntityProfileAuthorizationString) throws IllegalQueryException {
         log.trace(">query()");
-        // Check if query is legal.
-        if (query != null && !query.isLegalQuery()) {
-            throw new IllegalQueryException();
-        }
-        final String queryString = (query != null ? query.getQueryString() : "1 = 1");
-        final List<ApprovalDataVO> ret = queryInternal(queryString, index, numberofrows, caAuthorizationString, endEntityProfileAuthorizationString, null);
+        final QueryBuilder queryBuilder = getQueryBuilder(query);
+        andAuthorizationStrings(queryBuilder, caAuthorizationString, endEntityProfileAuthorizationString);
+        final List<ApprovalDataVO> ret = queryInternal(queryBuilder, index, numberofrows, null);
         log.trace("<query()");
         return ret;
     }
-    
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public List<ApprovalDataVO> query(final Query query, int index, int numberofrows, final Collection<Integer> caIds,
+            final Collection<Integer> endEntityProfileIds) throws IllegalQueryException {
+        log.trace(">query()");
+        final QueryBuilder queryBuilder = getQueryBuilder(query);
+        andAuthorizedIds(queryBuilder, caIds, endEntityProfileIds);
+        final List<ApprovalDataVO> ret = queryInternal(queryBuilder, index, numberofrows, null);
+        log.trace("<query()");
+        return ret;
+    }
+
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public List<ApprovalDataVO> queryByStatus(final boolean includeUnfinished, final boolean includeProcessed, final boolean includeExpired,
             final Date startDate, final Date endDate, final Date expiresBefore, int index, int numberofrows, String caAuthorizationString,
             String endEntityProfileAuthorizationString) {
         log.trace(">queryByStatus()");
-        
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        final String orderByString = andStatus(queryBuilder, includeUnfinished, includeProcessed, includeExpired, startDate, endDate, expiresBefore);
+        andAuthorizationStrings(queryBuilder, caAuthorizationString, endEntityProfileAuthorizationString);
+        final List<ApprovalDataVO> ret = queryInternal(queryBuilder, index, numberofrows, orderByString);
+        log.trace("<queryByStatus()");
+        return ret;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public List<ApprovalDataVO> queryByStatus(final boolean includeUnfinished, final boolean includeProcessed, final boolean includeExpired,
+            final Date startDate, final Date endDate, final Date expiresBefore, int index, int numberofrows, final Collection<Integer> caIds,
+            final Collection<Integer> endEntityProfileIds) {
+        log.trace(">queryByStatus()");
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        final String orderByString = andStatus(queryBuilder, includeUnfinished, includeProcessed, includeExpired, startDate, endDate, expiresBefore);
+        andAuthorizedIds(queryBuilder, caIds, endEntityProfileIds);
+        final List<ApprovalDataVO> ret = queryInternal(queryBuilder, index, numberofrows, orderByString);
+        log.trace("<queryByStatus()");
+        return ret;
+    }
+
+    /** @return a query builder with the conditions of the query, as bound parameters */
+    private QueryBuilder getQueryBuilder(final Query query) throws IllegalQueryException {
+        // Check if query is legal.
+        if (query != null && !query.isLegalQuery()) {
+            throw new IllegalQueryException();
+        }
+        final QueryBuilder queryBuilder = new QueryBuilder();
+        if (query != null) {
+            queryBuilder.and(query.getQueryString(queryBuilder));
+        }
+        return queryBuilder;
+    }
+
+    /**
+     * Adds the conditions on status and dates of {@link #queryByStatus}, with the dates as bound parameters.
+     *
+     * @return the ORDER BY clause
+     */
+    private String andStatus(final QueryBuilder queryBuilder, final boolean includeUnfinished, final boolean includeProcessed,
+            final boolean includeExpired, final Date startDate, final Date endDate, final Date expiresBefore) {
         if (!includeUnfinished && !includeProcessed && !includeExpired) {
             throw new IllegalArgumentException("At least one of includeUnfinished, includeProcessed or includeExpired must be true");
         }
@@ -426,7 +479,6 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
         final StringBuilder sb = new StringBuilder();
         
         String orderByString = null;
-        sb.append('(');
         boolean first = true;
         if (includeUnfinished || includeExpired) {
             sb.append('(');
@@ -435,21 +487,16 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
             } else if (!includeExpired) {
                 // Do not include expired requests
                 sb.append("expireDate >= ");
-                sb.append(new Date().getTime());
+                sb.append(queryBuilder.parameter("expireDate", new Date().getTime()));
                 sb.append(" AND ");
             } else if (includeExpired) {
                 sb.append("expireDate < ");
-                sb.append(new Date().getTime());
-                sb.append(" AND ");
-            } else if (expiresBefore != null) {
-                // Only include expired requests
-                sb.append("expireDate < ");
-                sb.append(new Date().getTime());
+                sb.append(queryBuilder.parameter("expireDate", new Date().getTime()));
                 sb.append(" AND ");
             }
             if (expiresBefore != null) {
                 sb.append("expireDate < ");
-                sb.append(expiresBefore.getTime());
+                sb.append(queryBuilder.parameter("expireDate", expiresBefore.getTime()));
                 sb.append(" AND ");
             }
             // "STATUS_APPROVED" means that the request is still waiting to be executed by the requester
@@ -464,36 +511,37 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
             orderByString = "ORDER BY requestDate DESC"; // most recently created first
             first = false;
         }
-        sb.append(')');
-        
+        queryBuilder.and(sb.toString());
         if (startDate != null) {
-            sb.append(" AND requestDate >= " + startDate.getTime());
+            queryBuilder.and("requestDate >= " + queryBuilder.parameter("requestDate", startDate.getTime()));
         }
         if (endDate != null) {
-            sb.append(" AND requestDate < " + endDate.getTime()); 
+            queryBuilder.and("requestDate < " + queryBuilder.parameter("requestDate", endDate.getTime()));
         }
-        final List<ApprovalDataVO> ret = queryInternal(sb.toString(), index, numberofrows,
-                caAuthorizationString, endEntityProfileAuthorizationString,
-                orderByString);
-        log.trace("<queryByStatus()");
-        return ret;
+        return orderByString;
     }
-    
-    private List<ApprovalDataVO> queryInternal(final String query, int index, int numberofrows, String caAuthorizationString,
-            String endEntityProfileAuthorizationString, final String orderByString) {
-        log.trace(">queryInternal()");
-        String customQuery = "(" + query + ")";
+
+    private void andAuthorizationStrings(final QueryBuilder queryBuilder, final String caAuthorizationString, final String endEntityProfileAuthorizationString) {
         if (StringUtils.isNotEmpty(caAuthorizationString)) {
-            customQuery += " AND " + caAuthorizationString;
+            queryBuilder.and(caAuthorizationString);
         }
         if (StringUtils.isNotEmpty(endEntityProfileAuthorizationString)) {
-            customQuery += " AND " + endEntityProfileAuthorizationString;
+            queryBuilder.and(endEntityProfileAuthorizationString);
         }
-        if (StringUtils.isNotEmpty(orderByString)) {
-            customQuery += " " + orderByString;
+    }
+
+    private void andAuthorizedIds(final QueryBuilder queryBuilder, final Collection<Integer> caIds, final Collection<Integer> endEntityProfileIds) {
+        if (caIds != null) {
+            queryBuilder.andIn("cAId", caIds);
         }
-        
-        final List<ApprovalData> approvalDataList = findByCustomQuery(index, numberofrows, customQuery);
+        if (endEntityProfileIds != null) {
+            queryBuilder.andIn("endEntityProfileId", endEntityProfileIds);
+        }
+    }
+
+    private List<ApprovalDataVO> queryInternal(final QueryBuilder queryBuilder, int index, int numberofrows, final String orderByString) {
+        log.trace(">queryInternal()");
+        final List<ApprovalData> approvalDataList = findByCustomQuery(index, numberofrows, queryBuilder, orderByString);
         final List<ApprovalDataVO> returnData = new ArrayList<>(approvalDataList.size());
         for (ApprovalData approvalData : approvalDataList) {
             final ApprovalDataVO approvalInformation = approvalData.getApprovalDataVO();
@@ -806,38 +854,48 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
     }
     
     private final void setApprovalRequest(final ApprovalData approvalData, final ApprovalRequest approvalRequest) {
-        try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            final ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(approvalRequest);
-            oos.flush();
-            approvalData.setRequestdata(new String(Base64.encode(baos.toByteArray(), false)));
-        } catch (IOException e) {
-            log.error("Error building approval request.", e);
-            throw new IllegalStateException(e);
-        }
+        approvalData.setRequestdata(ApprovalDataCodec.encodeApprovalRequest(approvalRequest));
     }
     
     @Override
     public void setApprovals(ApprovalData approvalData, final Collection<Approval> approvals) {
-        try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            final ObjectOutputStream oos = new ObjectOutputStream(baos);
-            final int size = approvals.size();
-            oos.writeInt(size);
-            final Iterator<Approval> iter = approvals.iterator();
-            while (iter.hasNext()) {
-                final Approval next = iter.next();
-                oos.writeObject(next);
+        approvalData.setApprovaldata(ApprovalDataCodec.encodeApprovals(approvals));
+    }
+    
+    @Override
+    public Integer reencodeApprovalData(final AuthenticationToken admin, final Integer afterId, final int maxRows) throws AuthorizationDeniedException {
+        if (!authorizationSession.isAuthorized(admin, StandardRules.SYSTEMCONFIGURATION_EDIT.resource())) {
+            final String msg = intres.getLocalizedMessage("authorization.notauthorizedtoresource", StandardRules.SYSTEMCONFIGURATION_EDIT.resource(), null);
+            throw new AuthorizationDeniedException(msg);
+        }
+        final TypedQuery<ApprovalData> query = entityManager.createQuery("SELECT a FROM ApprovalData a"
+                + (afterId == null ? "" : " WHERE a.id>:afterId") + " ORDER BY a.id ASC", ApprovalData.class);
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+        }
+        query.setMaxResults(maxRows);
+        final List<ApprovalData> approvalDatas = query.getResultList();
+        final int version = ApprovalDataCodec.getConfiguredCodec().getVersion();
+        Integer lastId = null;
+        int converted = 0;
+        for (final ApprovalData approvalData : approvalDatas) {
+            lastId = approvalData.getId();
+            final String requestData = ApprovalDataCodec.transcode(approvalData.getRequestdata(), version);
+            final String approvals = ApprovalDataCodec.transcode(approvalData.getApprovaldata(), version);
+            // transcode returns the same string if the data already has the configured version
+            if (requestData != approvalData.getRequestdata() || approvals != approvalData.getApprovaldata()) {
+                approvalData.setRequestdata(requestData);
+                approvalData.setApprovaldata(approvals);
+                converted++;
             }
-            oos.flush();
-            approvalData.setApprovaldata(new String(Base64.encode(baos.toByteArray(), false)));
-        } catch (IOException e) {
-            log.error("Error building approvals.", e);
-            throw new IllegalStateException(e);
         }
+        if (log.isDebugEnabled()) {
+            log.debug("Converted " + converted + " of " + approvalDatas.size() + " approval requests after id " + afterId + " to encoding version "
+                    + version + ".");
+        }
+        return lastId;
     }
-    
+
     @Override
     public void extendApprovalRequestNoAuth(final AuthenticationToken authenticationToken, final int requestId, final long extendForMillisParam) {
         if (extendForMillisParam <= 0) {
@@ -912,25 +970,49 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
     }
 
     /** @return return the query results as a List<ApprovalData>. */
-    private List<ApprovalData> findByCustomQuery(final int index, final int numberofrows, final String customQuery) {
-        final List<ApprovalData> ret = new ArrayList<ApprovalData>();
+    private List<ApprovalData> findByCustomQuery(final int index, final int numberofrows, final QueryBuilder queryBuilder, final String orderByString) {
         /* Hibernate on DB2 wont allow us to "SELECT *" in combination with setMaxResults.
          * Ingres wont let us access a LOB in a List using a native query for all fields.
-         * -> So we will get a list of primary keys and the fetch the whole entities one by one...
+         * -> So we will get a list of primary keys and then fetch the whole entities in one query...
          * 
          * As a sad little bonus, DB2 native queries returns a pair of {BigInteger, Integer}
          * where the first value is row and the second is the value.
          * As another sad little bonus, Oracle native queries returns a pair of {BigDecimal, BigDecimal}
          * where the first value is the value and the second is the row.
          */
-        final javax.persistence.Query query = entityManager.createNativeQuery("SELECT id FROM ApprovalData WHERE " + customQuery);
+        final javax.persistence.Query query = entityManager.createNativeQuery("SELECT id FROM ApprovalData WHERE " + queryBuilder.getWhereClause()
+                + (StringUtils.isNotEmpty(orderByString) ? " " + orderByString : ""));
+        for (final Map.Entry<String, Object> parameter : queryBuilder.getParameters().entrySet()) {
+            query.setParameter(parameter.getKey(), parameter.getValue());
+        }
         query.setFirstResult(index);
         query.setMaxResults(numberofrows);
         @SuppressWarnings("unchecked")
         final List<Object> ids = query.getResultList();
-        for (Object object : ids) {
-            final int id = ValueExtractor.extractIntValue(object);
-            ret.add(entityManager.find(ApprovalData.class, id));
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<Integer> idList = new ArrayList<>(ids.size());
+        for (final Object object : ids) {
+            idList.add(ValueExtractor.extractIntValue(object));
+        }
+        final QueryBuilder idQueryBuilder = new QueryBuilder().andIn("a.id", idList);
+        final TypedQuery<ApprovalData> entityQuery = entityManager.createQuery("SELECT a FROM ApprovalData a WHERE " + idQueryBuilder.getWhereClause(),
+                ApprovalData.class);
+        for (final Map.Entry<String, Object> parameter : idQueryBuilder.getParameters().entrySet()) {
+            entityQuery.setParameter(parameter.getKey(), parameter.getValue());
+        }
+        // Return the entities in the order of the ids
+        final Map<Integer, ApprovalData> approvalDataById = new HashMap<>();
+        for (final ApprovalData approvalData : entityQuery.getResultList()) {
+            approvalDataById.put(approvalData.getId(), approvalData);
+        }
+        final List<ApprovalData> ret = new ArrayList<>(idList.size());
+        for (final Integer id : idList) {
+            final ApprovalData approvalData = approvalDataById.get(id);
+            if (approvalData != null) {
+                ret.add(approvalData);
+            }
         }
         return ret;
     }
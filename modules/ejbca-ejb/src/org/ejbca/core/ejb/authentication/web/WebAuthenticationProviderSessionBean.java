@@ -32,6 +32,7 @@ import org.cesecore.authentication.tokens.AuthenticationSubject;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authentication.tokens.PublicAccessAuthenticationToken;
 import org.cesecore.authentication.tokens.X509CertificateAuthenticationToken;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationTokenCache;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.jndi.JndiConstants;
@@ -93,6 +94,11 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
             return null;
         } else {
             final X509Certificate certificate = certs.iterator().next();
+            // A certificate that was authenticated recently was valid and had an accepted status then, which is removed from the cache on status changes
+            final X509CertificateAuthenticationToken cachedAuthenticationToken = X509CertificateAuthenticationTokenCache.INSTANCE.get(certificate);
+            if (cachedAuthenticationToken != null) {
+                return cachedAuthenticationToken;
+            }
             // Check Validity
             try {
                 certificate.checkValidity();
@@ -130,7 +136,9 @@ public class WebAuthenticationProviderSessionBean implements WebAuthenticationPr
                 }
                 // TODO: We should check the certificate for CRL or OCSP tags and verify the certificate status
             }
-            return new X509CertificateAuthenticationToken(certificate);
+            final X509CertificateAuthenticationToken authenticationToken = new X509CertificateAuthenticationToken(certificate);
+            X509CertificateAuthenticationTokenCache.INSTANCE.add(authenticationToken);
+            return authenticationToken;
         }
     }
 }
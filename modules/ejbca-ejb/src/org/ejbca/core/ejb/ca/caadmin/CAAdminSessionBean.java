@@ -3340,6 +3340,12 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public String healthCheck() {
+        return healthCheck(caSession.getAllCaIds());
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public String healthCheck(final Collection<Integer> caIds) {
         final StringBuilder sb = new StringBuilder();
         final boolean caTokenSignTest = EjbcaConfiguration.getHealthCheckCaTokenSignTest();
         if (log.isDebugEnabled()) {
@@ -3347,9 +3353,9 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
         }
         final HashMap<Integer, CryptoToken> cryptoTokenMap = new HashMap<Integer, CryptoToken>();
         final Set<Integer> testedKeys = new HashSet<>();
-        for (final Integer caid : caSession.getAllCaIds()) {
+        for (final Integer caid : caIds) {
             final CAInfo cainfo = caSession.getCAInfoInternal(caid.intValue());
-            if (cainfo.getStatus() == CAConstants.CA_ACTIVE && cainfo.getIncludeInHealthCheck()) {
+            if (cainfo != null && cainfo.getStatus() == CAConstants.CA_ACTIVE && cainfo.getIncludeInHealthCheck()) {
                 // Verify that the CA's mapped keys exist and optionally that the test-key is usable
                 final int cryptoTokenId = cainfo.getCAToken().getCryptoTokenId();
                 CryptoToken cryptoToken = cryptoTokenMap.get(Integer.valueOf(cryptoTokenId));
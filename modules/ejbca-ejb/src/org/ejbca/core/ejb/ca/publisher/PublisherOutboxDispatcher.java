@@ -0,0 +1,200 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+
+/**
+ * Publishes certificates to the publishers that are invoked directly, after the transaction that issued or revoked the certificate has
+ * committed, when publish.async.enabled is set.
+ * <p>
+ * The issuing transaction stores a publish intent for each publisher in the publisher queue with the status
+ * {@link org.ejbca.core.model.ca.publisher.PublisherConst#STATUS_OUTBOX}, so the intent is committed or rolled back together with the
+ * certificate. After commit, the intents are handed to this dispatcher, which has a bounded queue and its own threads for each publisher,
+ * so a slow or unavailable publisher only delays its own certificates. The handler publishes each intent and removes it, or turns it into
+ * a pending publisher queue entry when publishing fails, as direct publishing does.
+ * <p>
+ * Intents that are not published, because the queue of the publisher was full or the node stopped, stay in the publisher queue and are
+ * handed to the dispatcher again by the periodic recovery. Intents that still do not fit in the queue are left to the publisher queue
+ * process as pending entries. A certificate can therefore be published more than once, which the publishers already allow for since the
+ * publisher queue retries publishing.
+ *
+ * @version $Id$
+ */
+public enum PublisherOutboxDispatcher {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(PublisherOutboxDispatcher.class);
+
+    /** Publishes the intents, normally by calling the publisher session */
+    public interface Handler {
+        /** Publishes the certificate of the intent, and removes or updates the intent */
+        void publish(Intent intent);
+
+        /** Hands the intents that have been left in the publisher queue to the dispatcher again */
+        void recover();
+    }
+
+    /** A certificate that should be published to a publisher */
+    public static final class Intent {
+        private final AuthenticationToken admin;
+        private final int publisherId;
+        private final String pk;
+        private final String fingerprint;
+
+        /**
+         * @param admin the administrator that issued or revoked the certificate
+         * @param publisherId the publisher to publish to
+         * @param pk the primary key of the intent in the publisher queue
+         * @param fingerprint the fingerprint of the certificate
+         */
+        public Intent(final AuthenticationToken admin, final int publisherId, final String pk, final String fingerprint) {
+            this.admin = admin;
+            this.publisherId = publisherId;
+            this.pk = pk;
+            this.fingerprint = fingerprint;
+        }
+
+        public AuthenticationToken getAdmin() {
+            return admin;
+        }
+
+        public int getPublisherId() {
+            return publisherId;
+        }
+
+        public String getPk() {
+            return pk;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+    }
+
+    private final ConcurrentMap<Integer, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+    private volatile Handler handler = null;
+    private volatile ScheduledExecutorService recoveryExecutor = null;
+    private volatile int queueSize = 0;
+    private volatile int threads = 0;
+
+    /**
+     * Starts publishing intents. Replaces the handler of a previous start, if any.
+     *
+     * @param handler the handler that publishes the intents
+     * @param queueSize the number of intents that can wait to be published, for each publisher
+     * @param threads the number of threads that publish intents, for each publisher
+     * @param recoveryInterval the interval in milliseconds at which {@link Handler#recover()} is called, or 0 to not recover intents
+     */
+    public synchronized void start(final Handler handler, final int queueSize, final int threads, final long recoveryInterval) {
+        shutdown();
+        if (handler == null || queueSize <= 0 || threads <= 0) {
+            return;
+        }
+        this.queueSize = queueSize;
+        this.threads = threads;
+        this.handler = handler;
+        if (recoveryInterval > 0) {
+            recoveryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "PublisherOutboxRecovery");
+                thread.setDaemon(true);
+                return thread;
+            });
+            recoveryExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    handler.recover();
+                } catch (RuntimeException e) {
+                    log.warn("Recovery of certificates to publish after commit failed: " + e.getMessage(), e);
+                }
+            }, recoveryInterval, recoveryInterval, TimeUnit.MILLISECONDS);
+        }
+        log.info("Started publishing after commit with a queue of " + queueSize + " certificates and " + threads + " threads for each publisher.");
+    }
+
+    /** Stops publishing intents. Intents that are waiting stay in the publisher queue, and are published by the recovery. */
+    public synchronized void shutdown() {
+        handler = null;
+        if (recoveryExecutor != null) {
+            recoveryExecutor.shutdownNow();
+            recoveryExecutor = null;
+        }
+        for (final ThreadPoolExecutor executor : executors.values()) {
+            executor.getQueue().clear();
+            executor.shutdown();
+        }
+        executors.clear();
+    }
+
+    /** @return true if the dispatcher has been started, and intents can be dispatched */
+    public boolean isStarted() {
+        return handler != null;
+    }
+
+    /**
+     * Queues an intent to be published by the threads of its publisher, without waiting.
+     *
+     * @return true if the intent was queued, false if the dispatcher is not started or the queue of the publisher is full, and the intent is
+     *      left for the recovery
+     */
+    public boolean dispatch(final Intent intent) {
+        final Handler currentHandler = handler;
+        if (currentHandler == null) {
+            return false;
+        }
+        final ThreadPoolExecutor executor = executors.computeIfAbsent(intent.getPublisherId(), this::createExecutor);
+        try {
+            executor.execute(() -> {
+                try {
+                    currentHandler.publish(intent);
+                } catch (RuntimeException e) {
+                    log.warn("Publishing certificate with fingerprint " + intent.getFingerprint() + " to publisher " + intent.getPublisherId()
+                            + " after commit failed, it will be retried by the recovery: " + e.getMessage(), e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Queue of publisher " + intent.getPublisherId() + " is full or shut down, certificate with fingerprint "
+                        + intent.getFingerprint() + " will be published by the recovery.");
+            }
+            return false;
+        }
+    }
+
+    /** @return the number of intents that are waiting to be published to the publisher */
+    public int getQueueLength(final int publisherId) {
+        final ThreadPoolExecutor executor = executors.get(publisherId);
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    private ThreadPoolExecutor createExecutor(final int publisherId) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "PublisherOutbox-" + publisherId);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
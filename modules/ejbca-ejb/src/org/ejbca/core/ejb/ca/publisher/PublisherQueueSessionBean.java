@@ -137,6 +137,39 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         log.trace("<addQueueData()");
     }
 
+    @Override
+    public String addOutboxData(int publisherId, int publishType, String fingerprint, PublisherQueueVolatileInformation queueData)
+            throws CreateException {
+        if (log.isTraceEnabled()) {
+            log.trace(">addOutboxData(publisherId: " + publisherId + ")");
+        }
+        final org.ejbca.core.ejb.ca.publisher.PublisherQueueData pqd = new org.ejbca.core.ejb.ca.publisher.PublisherQueueData(publisherId,
+                publishType, fingerprint, queueData, PublisherConst.STATUS_OUTBOX);
+        try {
+            entityManager.persist(pqd);
+        } catch (Exception e) {
+            throw new CreateException(e.getMessage());
+        }
+        log.trace("<addOutboxData()");
+        return pqd.getPk();
+    }
+
+    @Override
+    public Collection<PublisherQueueData> claimOutboxEntries(long before, int maxRows) {
+        final Collection<PublisherQueueData> ret = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        for (final org.ejbca.core.ejb.ca.publisher.PublisherQueueData d : org.ejbca.core.ejb.ca.publisher.PublisherQueueData
+                .findDataByStatusAndLastUpdateBefore(entityManager, PublisherConst.STATUS_OUTBOX, before, maxRows)) {
+            d.setLastUpdate(now);
+            ret.add(new PublisherQueueData(d.getPk(), new Date(d.getTimeCreated()), new Date(now), d.getPublishStatus(), d.getTryCounter(),
+                    d.getPublishType(), d.getFingerprint(), d.getPublisherId(), d.getPublisherQueueVolatileData()));
+        }
+        if (log.isDebugEnabled() && !ret.isEmpty()) {
+            log.debug("Claimed " + ret.size() + " publisher outbox entries.");
+        }
+        return ret;
+    }
+
     @Override
     public void removeQueueData(String pk) {
         if (log.isTraceEnabled()) {
@@ -382,6 +415,24 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                             throw e;
                         }
                     }
+                } else if (publishType == PublisherConst.PUBLISH_TYPE_CERT_BATCH) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Publishing batch of certificates");
+                    }
+                    if (publisher != null) {
+                        final List<String> fingerprints = voldata == null ? new ArrayList<String>() : voldata.getFingerprints();
+                        final List<String> remaining = publishCertificateBatch(admin, publisher, fingerprints, result);
+                        if (remaining.isEmpty()) {
+                            published = true;
+                        } else {
+                            // Keep the certificates that were not published for the next try
+                            updateBatchData(pqd.getPk(), remaining);
+                            fingerprint = remaining.get(0);
+                        }
+                    } else {
+                        String msg = intres.getLocalizedMessage("publisher.nopublisher", publisherId);
+                        log.info(msg);
+                    }
                 } else {
                     String msg = intres.getLocalizedMessage("publisher.unknowntype", publishType);
                     log.error(msg);
@@ -429,6 +480,58 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         return result;
     }
 
+    /**
+     * Publishes the certificates of a queue entry of type {@link PublisherConst#PUBLISH_TYPE_CERT_BATCH} one by one.
+     *
+     * @return the fingerprints of the certificates that could not be published
+     */
+    private List<String> publishCertificateBatch(final AuthenticationToken admin, final BasePublisher publisher, final List<String> fingerprints,
+            final PublishingResult result) {
+        final List<String> remaining = new ArrayList<>();
+        for (final String fingerprint : fingerprints) {
+            if (result.shouldBreakPublishingOperation()) {
+                remaining.add(fingerprint);
+                continue;
+            }
+            final CertificateDataWrapper certificateDataWrapper = noConflictCertificateStoreSession.getCertificateData(fingerprint);
+            if (certificateDataWrapper == null) {
+                // The certificate has been deleted, so there is nothing left to publish
+                log.info(intres.getLocalizedMessage("publisher.errornocert", fingerprint));
+                continue;
+            }
+            boolean published = false;
+            try {
+                published = publisherQueueSession.publishCertificateNonTransactional(publisher, admin, certificateDataWrapper, null,
+                        certificateDataWrapper.getCertificateDataOrCopy().getSubjectDnNeverNull(), null);
+            } catch (PublisherException e) {
+                log.debug(e.getMessage());
+            } catch (EJBException e) {
+                if (e.getCause() instanceof PublisherException) {
+                    log.debug(e.getCause().getMessage());
+                } else {
+                    throw e;
+                }
+            }
+            if (published) {
+                result.addSuccess(fingerprint);
+            } else {
+                result.addFailure(fingerprint);
+                remaining.add(fingerprint);
+            }
+        }
+        return remaining;
+    }
+
+    private void updateBatchData(final String pk, final List<String> fingerprints) {
+        final org.ejbca.core.ejb.ca.publisher.PublisherQueueData data = org.ejbca.core.ejb.ca.publisher.PublisherQueueData.findByPk(entityManager, pk);
+        if (data != null) {
+            final PublisherQueueVolatileInformation volatileInformation = data.getPublisherQueueVolatileData();
+            volatileInformation.setFingerprints(fingerprints);
+            data.setPublisherQueueVolatileData(volatileInformation);
+            data.setFingerprint(fingerprints.get(0));
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     @Override
     public boolean publishCertificateNonTransactional(BasePublisher publisher, AuthenticationToken admin, CertificateDataWrapper certWrapper,
@@ -20,6 +20,7 @@ import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,6 +28,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeSet;
 
+import javax.annotation.Resource;
 import javax.ejb.CreateException;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
@@ -36,13 +38,18 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.IntRange;
 import org.apache.log4j.Logger;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
@@ -62,6 +69,7 @@ import org.cesecore.util.CertTools;
 import org.cesecore.util.EjbRemoteHelper;
 import org.cesecore.util.ProfileID;
 import org.cesecore.util.SecureXMLDecoder;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
 import org.ejbca.core.ejb.audit.enums.EjbcaModuleTypes;
@@ -83,6 +91,7 @@ import org.ejbca.core.model.ca.publisher.PublisherConst;
 import org.ejbca.core.model.ca.publisher.PublisherDoesntExistsException;
 import org.ejbca.core.model.ca.publisher.PublisherException;
 import org.ejbca.core.model.ca.publisher.PublisherExistsException;
+import org.ejbca.core.model.ca.publisher.PublisherQueueData;
 import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
 
 /**
@@ -117,6 +126,9 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
     @EJB
     private SecurityEventsLoggerSessionLocal auditSession;
 
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public void flushPublisherCache() {
@@ -136,6 +148,20 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
     @Override
     public boolean storeCertificate(AuthenticationToken admin, Collection<Integer> publisherids, CertificateDataWrapper certWrapper,
             String password, String userDN, ExtendedInformation extendedinformation) throws AuthorizationDeniedException {
+        return storeCertificate(admin, publisherids, certWrapper, password, userDN, extendedinformation, false);
+    }
+
+    @Override
+    public boolean storeCertificateAfterCommit(AuthenticationToken admin, Collection<Integer> publisherids, CertificateDataWrapper certWrapper,
+            String password, String userDN, ExtendedInformation extendedinformation) throws AuthorizationDeniedException {
+        final boolean afterCommit = EjbcaConfiguration.isPublishAsyncEnabled() && PublisherOutboxDispatcher.INSTANCE.isStarted()
+                && transactionSynchronizationRegistry.getTransactionKey() != null;
+        return storeCertificate(admin, publisherids, certWrapper, password, userDN, extendedinformation, afterCommit);
+    }
+
+    private boolean storeCertificate(final AuthenticationToken admin, final Collection<Integer> publisherids, final CertificateDataWrapper certWrapper,
+            final String password, final String userDN, final ExtendedInformation extendedinformation, final boolean afterCommit)
+            throws AuthorizationDeniedException {
         final BaseCertificateData certificateData = certWrapper.getBaseCertificateData();
         final int caid = certificateData.getIssuerDN().hashCode();
         if (!authorizationSession.isAuthorized(admin, StandardRules.CAACCESS.resource() + caid)) {
@@ -180,6 +206,36 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
             }
         }
         final String fingerprint = certificateData.getFingerprint();
+        if (afterCommit && !publishersToTryDirect.isEmpty()) {
+            addOutboxData(admin, publishersToTryDirect, username, password, extendedinformation, userDN, fingerprint, status);
+            // Publishing after commit is not considered a successful write to the publisher (since we don't know that it will be)
+            returnval = false;
+        } else if (!publishDirect(admin, publishersToTryDirect, certWrapper, password, userDN, extendedinformation, publishersToQueueSuccess,
+                publishersToQueuePending)) {
+            returnval = false;
+        }
+        addQueueData(publishersToQueueSuccess, username, password, extendedinformation, userDN, fingerprint, status, PublisherConst.STATUS_SUCCESS);
+        addQueueData(publishersToQueuePending, username, password, extendedinformation, userDN, fingerprint, status, PublisherConst.STATUS_PENDING);
+        return returnval;
+    }
+
+    /**
+     * Invokes the publishers directly, and audit logs the results.
+     *
+     * @param publishersToQueueSuccess the publishers that should keep a successfully published certificate in the queue are added to this list
+     * @param publishersToQueuePending the publishers that should retry publishing from the queue are added to this list
+     * @return true if the certificate was published successfully to all the publishers
+     */
+    private boolean publishDirect(final AuthenticationToken admin, final List<BasePublisher> publishersToTryDirect,
+            final CertificateDataWrapper certWrapper, final String password, final String userDN, final ExtendedInformation extendedinformation,
+            final List<BasePublisher> publishersToQueueSuccess, final List<BasePublisher> publishersToQueuePending) {
+        if (publishersToTryDirect.isEmpty()) {
+            return true;
+        }
+        final BaseCertificateData certificateData = certWrapper.getBaseCertificateData();
+        final String username = certificateData.getUsername();
+        final String fingerprint = certificateData.getFingerprint();
+        boolean returnval = true;
         final List<Object> publisherResults = publisherQueueSession.publishCertificateNonTransactionalInternal(publishersToTryDirect, admin,
                 certWrapper, password, userDN, extendedinformation);
         final String certSerno = certificateData.getSerialNumberHex();
@@ -217,11 +273,130 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
                 returnval = false;
             }
         }
-        addQueueData(publishersToQueueSuccess, username, password, extendedinformation, userDN, fingerprint, status, PublisherConst.STATUS_SUCCESS);
-        addQueueData(publishersToQueuePending, username, password, extendedinformation, userDN, fingerprint, status, PublisherConst.STATUS_PENDING);
         return returnval;
     }
 
+    /**
+     * Stores publish intents for the publishers in the current transaction, and hands them to PublisherOutboxDispatcher when the transaction
+     * has committed. Intents of a transaction that is rolled back are rolled back with it.
+     */
+    private void addOutboxData(final AuthenticationToken admin, final List<BasePublisher> publishers, final String username, final String password,
+            final ExtendedInformation extendedInformation, final String userDN, final String fingerprint, final int status) {
+        final List<PublisherOutboxDispatcher.Intent> intents = new ArrayList<>();
+        for (final BasePublisher publ : publishers) {
+            final int id = publ.getPublisherId();
+            PublisherQueueVolatileInformation pqvd = new PublisherQueueVolatileInformation();
+            pqvd.setUsername(username);
+            pqvd.setPassword(password);
+            pqvd.setExtendedInformation(extendedInformation);
+            pqvd.setUserDN(userDN);
+            try {
+                final String pk = publisherQueueSession.addOutboxData(id, PublisherConst.PUBLISH_TYPE_CERT, fingerprint, pqvd);
+                intents.add(new PublisherOutboxDispatcher.Intent(admin, id, pk, fingerprint));
+            } catch (CreateException e) {
+                final String msg = intres.getLocalizedMessage("publisher.errorstorequeue", getPublisherName(id), fingerprint, status);
+                log.info(msg, e);
+            }
+        }
+        if (intents.isEmpty()) {
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // NOOP
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus != Status.STATUS_COMMITTED) {
+                    return;
+                }
+                for (final PublisherOutboxDispatcher.Intent intent : intents) {
+                    if (!PublisherOutboxDispatcher.INSTANCE.dispatch(intent)) {
+                        log.info(intres.getLocalizedMessage("publisher.outboxfull", intent.getPublisherId(), intent.getFingerprint()));
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void publishOutboxEntry(final AuthenticationToken admin, final String pk, final String fingerprint) {
+        PublisherQueueData entry = null;
+        for (final PublisherQueueData data : publisherQueueSession.getEntriesByFingerprint(fingerprint)) {
+            if (data.getPk().equals(pk)) {
+                entry = data;
+            }
+        }
+        if (entry == null || entry.getPublishStatus() != PublisherConst.STATUS_OUTBOX) {
+            if (log.isDebugEnabled()) {
+                log.debug("Publisher queue entry " + pk + " has already been published after commit.");
+            }
+            return;
+        }
+        final BasePublisher publ = getPublisherInternal(entry.getPublisherId(), null, true);
+        if (publ == null) {
+            log.info(intres.getLocalizedMessage("publisher.nopublisher", entry.getPublisherId()));
+            publisherQueueSession.removeQueueData(pk);
+            return;
+        }
+        final CertificateDataWrapper certWrapper = certificateStoreSession.getCertificateData(fingerprint);
+        if (certWrapper == null) {
+            log.info(intres.getLocalizedMessage("publisher.errornocert", fingerprint));
+            publisherQueueSession.removeQueueData(pk);
+            return;
+        }
+        // Publish the current status of the certificate, as the publisher queue does
+        final PublisherQueueVolatileInformation voldata = entry.getVolatileData();
+        final String password = voldata == null ? null : voldata.getPassword();
+        final String userDN = voldata == null ? null : voldata.getUserDN();
+        final ExtendedInformation extendedInformation = voldata == null ? null : voldata.getExtendedInformation();
+        final List<BasePublisher> publishersToQueueSuccess = new ArrayList<>();
+        final List<BasePublisher> publishersToQueuePending = new ArrayList<>();
+        publishDirect(admin, Collections.singletonList(publ), certWrapper, password, userDN, extendedInformation, publishersToQueueSuccess,
+                publishersToQueuePending);
+        if (!publishersToQueueSuccess.isEmpty()) {
+            publisherQueueSession.updateData(pk, PublisherConst.STATUS_SUCCESS, 0);
+        } else if (!publishersToQueuePending.isEmpty()) {
+            publisherQueueSession.updateData(pk, PublisherConst.STATUS_PENDING, 0);
+            log.info(intres.getLocalizedMessage("publisher.storequeue", getPublisherName(publ.getPublisherId()), fingerprint,
+                    certWrapper.getBaseCertificateData().getStatus()));
+        } else {
+            publisherQueueSession.removeQueueData(pk);
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int recoverPublisherOutbox() {
+        final long before = System.currentTimeMillis() - EjbcaConfiguration.getPublishAsyncRecoveryTime();
+        final int batchSize = EjbcaConfiguration.getPublishAsyncQueueSize();
+        final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublisherOutboxRecovery"));
+        int recovered = 0;
+        int pending = 0;
+        // Claimed entries are not claimed again until the recovery time has passed, so each batch has new entries
+        Collection<PublisherQueueData> entries;
+        do {
+            entries = publisherQueueSession.claimOutboxEntries(before, batchSize);
+            for (final PublisherQueueData entry : entries) {
+                if (PublisherOutboxDispatcher.INSTANCE.dispatch(new PublisherOutboxDispatcher.Intent(admin, entry.getPublisherId(), entry.getPk(),
+                        entry.getFingerprint()))) {
+                    recovered++;
+                } else {
+                    // The queue of the publisher is full, so leave the entry to the publisher queue process instead
+                    publisherQueueSession.updateData(entry.getPk(), PublisherConst.STATUS_PENDING, 0);
+                    pending++;
+                }
+            }
+        } while (entries.size() >= batchSize);
+        if (recovered + pending > 0) {
+            log.info(intres.getLocalizedMessage("publisher.outboxrecovered", recovered, pending));
+        }
+        return recovered + pending;
+    }
+
     @Override
     public boolean storeCertificate(AuthenticationToken admin, Collection<Integer> publisherids, String fingerprint,
             String password, String userDN, ExtendedInformation extendedinformation) throws AuthorizationDeniedException {
@@ -0,0 +1,405 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.core.ejb.ca.revoke;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.CreateException;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.CmpVerifiedSignerCache;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationTokenCache;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.control.StandardRules;
+import org.cesecore.certificates.ca.ApprovalRequestType;
+import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CAOfflineException;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.endentity.EndEntityConstants;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.jndi.JndiConstants;
+import org.cesecore.keys.token.CryptoTokenOfflineException;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.StringTools;
+import org.ejbca.config.GlobalConfiguration;
+import org.ejbca.core.ejb.approval.ApprovalProfileSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
+import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.model.InternalEjbcaResources;
+import org.ejbca.core.model.approval.ApprovalException;
+import org.ejbca.core.model.authorization.AccessRulesConstants;
+import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherQueueVolatileInformation;
+
+/**
+ * @see BulkRevocationSession
+ *
+ * @version $Id$
+ */
+@Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "BulkRevocationSessionRemote")
+@TransactionAttribute(TransactionAttributeType.REQUIRED)
+public class BulkRevocationSessionBean implements BulkRevocationSessionLocal, BulkRevocationSessionRemote {
+
+    private static final Logger log = Logger.getLogger(BulkRevocationSessionBean.class);
+    /** Internal localization of logs and errors */
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+
+    /** Number of certificates revoked in each transaction. Also keeps the "IN" clauses below the limit of 1000 values in Oracle. */
+    private static final int BATCH_SIZE = 500;
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+    @Resource
+    private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    @EJB
+    private ApprovalProfileSessionLocal approvalProfileSession;
+    @EJB
+    private AuthorizationSessionLocal authorizationSession;
+    @EJB
+    private CaSessionLocal caSession;
+    @EJB
+    private CertificateProfileSessionLocal certificateProfileSession;
+    @EJB
+    private CertificateStoreSessionLocal certificateStoreSession;
+    @EJB
+    private EndEntityProfileSessionLocal endEntityProfileSession;
+    @EJB
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+    @EJB
+    private PublisherQueueSessionLocal publisherQueueSession;
+    @EJB
+    private PublisherSessionLocal publisherSession;
+    @EJB
+    private PublishingCrlSessionLocal publishingCrlSession;
+    @EJB
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @EJB
+    private SecurityEventsLoggerSessionLocal auditSession;
+
+    private BulkRevocationSessionLocal bulkRevocationSession;
+
+    @PostConstruct
+    public void postConstruct() {
+        // We lookup the reference to our-self in PostConstruct, since we cannot inject this.
+        // We can not inject ourself, JBoss will not start then therefore we use this to get a reference to this session bean
+        // to call revokeCertificateBatch we want to do it on the real bean in order to get the transaction setting (REQUIRES_NEW).
+        bulkRevocationSession = sessionContext.getBusinessObject(BulkRevocationSessionLocal.class);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public BulkRevocationResult revokeCertificates(final AuthenticationToken admin, final BulkRevocationRequest request)
+            throws AuthorizationDeniedException, CADoesntExistsException, ApprovalException {
+        if (!RevokedCertInfo.isRevoked(request.getReason())) {
+            throw new IllegalArgumentException("Bulk revocation can not be used to unrevoke certificates.");
+        }
+        final String issuerDn = getIssuerDn(request);
+        final int caId = issuerDn.hashCode();
+        final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+        if (caInfo == null) {
+            throw new CADoesntExistsException("CA with issuer DN '" + issuerDn + "' does not exist.");
+        }
+        // Authorize once for the whole operation, instead of once per certificate
+        if (!authorizationSession.isAuthorized(admin, AccessRulesConstants.REGULAR_REVOKEENDENTITY, StandardRules.CAACCESS.resource() + caId)) {
+            throw new AuthorizationDeniedException(intres.getLocalizedMessage("ra.errorauthrevoke"));
+        }
+        Collection<Integer> authorizedEndEntityProfileIds = null;
+        final GlobalConfiguration globalConfiguration = (GlobalConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
+        if (globalConfiguration.getEnableEndEntityProfileLimitations()) {
+            authorizedEndEntityProfileIds = new HashSet<>(endEntityProfileSession.getAuthorizedEndEntityProfileIds(admin, AccessRulesConstants.REVOKE_END_ENTITY));
+            if (authorizedEndEntityProfileIds.contains(EndEntityConstants.EMPTY_END_ENTITY_PROFILE)) {
+                authorizedEndEntityProfileIds.add(EndEntityConstants.NO_END_ENTITY_PROFILE);
+            }
+        }
+        if (request.getEndEntityProfileId() != null) {
+            if (authorizedEndEntityProfileIds != null && !authorizedEndEntityProfileIds.contains(request.getEndEntityProfileId())) {
+                throw new AuthorizationDeniedException(intres.getLocalizedMessage("ra.errorauthrevoke"));
+            }
+            authorizedEndEntityProfileIds = Collections.singletonList(request.getEndEntityProfileId());
+        }
+        // Revocations that require approval can not be done in bulk
+        if (approvalProfileSession.getApprovalProfileForAction(ApprovalRequestType.REVOCATION, caInfo, null) != null) {
+            throw new ApprovalException(intres.getLocalizedMessage("store.bulkrevokeapproval", issuerDn));
+        }
+        final List<Integer> excludedCertificateProfileIds = new ArrayList<>();
+        for (final Entry<Integer, CertificateProfile> entry : certificateProfileSession.getAllCertificateProfiles().entrySet()) {
+            if (approvalProfileSession.getApprovalProfileForAction(ApprovalRequestType.REVOCATION, null, entry.getValue()) != null) {
+                excludedCertificateProfileIds.add(entry.getKey());
+            }
+        }
+        final BulkRevocationResult result = new BulkRevocationResult();
+        if (request.getSerialNumbers().isEmpty()) {
+            int revoked;
+            do {
+                // Revoked certificates no longer match the selection, so the next batch will pick up where this one ended
+                revoked = bulkRevocationSession.revokeCertificateBatch(admin, request, null, BATCH_SIZE, authorizedEndEntityProfileIds, excludedCertificateProfileIds);
+                result._addRevoked(revoked);
+            } while (revoked == BATCH_SIZE);
+        } else {
+            final Set<String> serialNumbers = new LinkedHashSet<>();
+            for (final BigInteger serialNumber : request.getSerialNumbers()) {
+                serialNumbers.add(serialNumber.toString());
+            }
+            final List<String> serialNumberList = new ArrayList<>(serialNumbers);
+            for (int i = 0; i < serialNumberList.size(); i += BATCH_SIZE) {
+                final List<String> batch = new ArrayList<>(serialNumberList.subList(i, Math.min(i + BATCH_SIZE, serialNumberList.size())));
+                final int revoked = bulkRevocationSession.revokeCertificateBatch(admin, request, batch, batch.size(), authorizedEndEntityProfileIds,
+                        excludedCertificateProfileIds);
+                result._addRevoked(revoked);
+                result._addIgnored(Math.max(0, batch.size() - revoked));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Bulk revocation for issuer '" + issuerDn + "' revoked " + result.getRevokedCount() + " certificates and ignored " +
+                    result.getIgnoredCount() + ".");
+        }
+        if (request.isGenerateCrl() && result.getRevokedCount() > 0) {
+            try {
+                result._setCrlGenerated(publishingCrlSession.forceCRL(admin, caId));
+                if (caInfo.getDeltaCRLPeriod() > 0) {
+                    publishingCrlSession.forceDeltaCRL(admin, caId);
+                }
+            } catch (CryptoTokenOfflineException | CAOfflineException e) {
+                log.info("Could not generate CRL for CA '" + caInfo.getName() + "' after bulk revocation: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int revokeCertificateBatch(final AuthenticationToken admin, final BulkRevocationRequest request, final List<String> serialNumbers,
+            final int maxRows, final Collection<Integer> authorizedEndEntityProfileIds, final Collection<Integer> excludedCertificateProfileIds) {
+        final String issuerDn = getIssuerDn(request);
+        final int reason = request.getReason();
+        final StringBuilder sb = new StringBuilder("SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN");
+        if (serialNumbers != null) {
+            sb.append(" AND a.serialNumber IN (:serialNumbers)");
+        }
+        if (reason == RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD) {
+            sb.append(" AND a.status IN (:activeStatuses)");
+        } else {
+            // It is possible to revoke a certificate on hold for good
+            sb.append(" AND (a.status IN (:activeStatuses) OR (a.status=:revokedStatus AND a.revocationReason=:onHoldReason))");
+        }
+        if (authorizedEndEntityProfileIds != null) {
+            if (authorizedEndEntityProfileIds.isEmpty()) {
+                return 0;
+            }
+            sb.append(" AND a.endEntityProfileId IN (:endEntityProfileIds)");
+        }
+        if (!excludedCertificateProfileIds.isEmpty()) {
+            sb.append(" AND a.certificateProfileId NOT IN (:excludedCertificateProfileIds)");
+        }
+        final TypedQuery<CertificateData> query = entityManager.createQuery(sb.toString(), CertificateData.class);
+        query.setParameter("issuerDN", issuerDn);
+        if (serialNumbers != null) {
+            query.setParameter("serialNumbers", serialNumbers);
+        }
+        query.setParameter("activeStatuses", Arrays.asList(CertificateConstants.CERT_ACTIVE, CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION));
+        if (reason != RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD) {
+            query.setParameter("revokedStatus", CertificateConstants.CERT_REVOKED);
+            query.setParameter("onHoldReason", RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        }
+        if (authorizedEndEntityProfileIds != null) {
+            query.setParameter("endEntityProfileIds", authorizedEndEntityProfileIds);
+        }
+        if (!excludedCertificateProfileIds.isEmpty()) {
+            query.setParameter("excludedCertificateProfileIds", excludedCertificateProfileIds);
+        }
+        query.setMaxResults(maxRows);
+        final List<CertificateData> certificateDatas = query.getResultList();
+        if (certificateDatas.isEmpty()) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        final boolean useRevocationEventLog = CesecoreConfiguration.useRevocationEventLog();
+        final long revocationDate = request.getRevocationDate() == null ? now : request.getRevocationDate().getTime();
+        final StringBuilder revokedSerialNumbers = new StringBuilder();
+        final Map<Integer, Collection<Integer>> publisherIdsByCertificateProfileId = new HashMap<>();
+        final Map<Integer, List<CertificateData>> certificateDatasByPublisherId = new LinkedHashMap<>();
+        final List<String> fingerprints = new ArrayList<>(certificateDatas.size());
+        for (final CertificateData certificateData : certificateDatas) {
+            if (certificateData.getStatus() != CertificateConstants.CERT_REVOKED) {
+                certificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                certificateData.setRevocationDate(revocationDate); // keep date if certificate on hold.
+            }
+            certificateData.setUpdateTime(now);
+            certificateData.setRevocationReason(reason);
+            if (useRevocationEventLog) {
+                revocationEventDataSession.addEvent(certificateData, now);
+            }
+            fingerprints.add(certificateData.getFingerprint());
+            if (revokedSerialNumbers.length() > 0) {
+                revokedSerialNumbers.append(',');
+            }
+            revokedSerialNumbers.append(certificateData.getSerialNumberHex());
+            final int certificateProfileId = certificateData.getCertificateProfileId();
+            Collection<Integer> publisherIds = publisherIdsByCertificateProfileId.get(certificateProfileId);
+            if (publisherIds == null) {
+                final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfile(certificateProfileId);
+                publisherIds = certificateProfile == null ? Collections.<Integer>emptyList() : certificateProfile.getPublisherList();
+                publisherIdsByCertificateProfileId.put(certificateProfileId, publisherIds);
+            }
+            for (final Integer publisherId : publisherIds) {
+                List<CertificateData> publisherCertificateDatas = certificateDatasByPublisherId.get(publisherId);
+                if (publisherCertificateDatas == null) {
+                    publisherCertificateDatas = new ArrayList<>();
+                    certificateDatasByPublisherId.put(publisherId, publisherCertificateDatas);
+                }
+                publisherCertificateDatas.add(certificateData);
+            }
+        }
+        // Write all the updates at once, so they can be sent as JDBC batches (see hibernate.jdbc.batch_size)
+        entityManager.flush();
+        removeFromAuthenticationCaches(fingerprints);
+        final String msg = intres.getLocalizedMessage("store.bulkrevoked", issuerDn, certificateDatas.size(), reason);
+        final Map<String, Object> details = new LinkedHashMap<>();
+        details.put("msg", msg);
+        details.put("serialNumbers", revokedSerialNumbers.toString());
+        auditSession.log(EventTypes.CERT_REVOKED, EventStatus.SUCCESS, ModuleTypes.CERTIFICATE, ServiceTypes.CORE, admin.toString(),
+                String.valueOf(issuerDn.hashCode()), null, null, details);
+        for (final Entry<Integer, List<CertificateData>> entry : certificateDatasByPublisherId.entrySet()) {
+            publishRevocations(admin, entry.getKey(), entry.getValue(), reason);
+        }
+        return certificateDatas.size();
+    }
+
+    /**
+     * Writes the revocations to the queue of the publisher, one entry for the whole batch, where they will be picked up by the publisher queue
+     * process service. Publishers that do not use the queue for certificates are published to for each certificate, after commit if
+     * publish.async.enabled is set.
+     */
+    private void publishRevocations(final AuthenticationToken admin, final int publisherId, final List<CertificateData> certificateDatas, final int reason) {
+        final BasePublisher publisher = publisherSession.getPublisher(publisherId);
+        if (publisher == null) {
+            log.info(intres.getLocalizedMessage("publisher.nopublisher", publisherId));
+            return;
+        }
+        if (!publisher.willPublishCertificate(CertificateConstants.CERT_REVOKED, reason)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not storing or queuing certificates for Publisher with id " + publisherId + " because publisher will not publish them.");
+            }
+            return;
+        }
+        if (publisher.getUseQueueForCertificates()) {
+            final List<String> fingerprints = new ArrayList<>(certificateDatas.size());
+            for (final CertificateData certificateData : certificateDatas) {
+                fingerprints.add(certificateData.getFingerprint());
+            }
+            final PublisherQueueVolatileInformation pqvd = new PublisherQueueVolatileInformation();
+            pqvd.setFingerprints(fingerprints);
+            try {
+                publisherQueueSession.addQueueData(publisherId, PublisherConst.PUBLISH_TYPE_CERT_BATCH, fingerprints.get(0), pqvd,
+                        PublisherConst.STATUS_PENDING);
+                log.info(intres.getLocalizedMessage("publisher.bulkstorequeue", fingerprints.size(), publisher.getName()));
+            } catch (CreateException e) {
+                log.info(intres.getLocalizedMessage("publisher.errorstorequeue", publisher.getName(), fingerprints.get(0),
+                        CertificateConstants.CERT_REVOKED), e);
+            }
+        } else {
+            final Collection<Integer> publisherIds = Collections.singletonList(publisherId);
+            for (final CertificateData certificateData : certificateDatas) {
+                try {
+                    final CertificateDataWrapper certificateDataWrapper = certificateStoreSession.getCertificateData(certificateData.getFingerprint());
+                    publisherSession.storeCertificateAfterCommit(admin, publisherIds, certificateDataWrapper, null, certificateData.getSubjectDnNeverNull(),
+                            null);
+                } catch (AuthorizationDeniedException e) {
+                    // Should not happen, since access to the CA has already been checked
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the revoked certificates from the authentication caches now, and again when the transaction has committed, since an
+     * authentication in another thread may read the old status and cache it until then.
+     */
+    private void removeFromAuthenticationCaches(final List<String> fingerprints) {
+        removeFromAuthenticationCachesNow(fingerprints);
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // NOOP
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    removeFromAuthenticationCachesNow(fingerprints);
+                }
+            }
+        });
+    }
+
+    private static void removeFromAuthenticationCachesNow(final List<String> fingerprints) {
+        for (final String fingerprint : fingerprints) {
+            CmpVerifiedSignerCache.INSTANCE.removeCertificate(fingerprint);
+            X509CertificateAuthenticationTokenCache.INSTANCE.removeCertificate(fingerprint);
+        }
+    }
+
+    private String getIssuerDn(final BulkRevocationRequest request) {
+        return CertTools.stringToBCDNString(StringTools.strip(request.getIssuerDn()));
+    }
+}
@@ -128,7 +128,7 @@ public class RevocationSessionBean implements RevocationSessionLocal, Revocation
         		}    			
     		} else {
     			// revocation
-                publisherSession.storeCertificate(admin, publishers, cdw, password, userDataDN, null);
+                publisherSession.storeCertificateAfterCommit(admin, publishers, cdw, password, userDataDN, null);
     		}
     	}
     }
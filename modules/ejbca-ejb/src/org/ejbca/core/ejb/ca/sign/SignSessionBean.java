@@ -1383,7 +1383,7 @@ public class SignSessionBean implements SignSessionLocal, SignSessionRemote {
                 publisherSession.storeCertificateNewTransaction(authenticationToken, publishers, certificateWrapper, endEntity.getPassword(),
                         endEntity.getCertificateDN(), endEntity.getExtendedInformation());
             } else {
-                publisherSession.storeCertificate(authenticationToken, publishers, certificateWrapper, endEntity.getPassword(),
+                publisherSession.storeCertificateAfterCommit(authenticationToken, publishers, certificateWrapper, endEntity.getPassword(),
                         endEntity.getCertificateDN(), endEntity.getExtendedInformation());
             }
         }
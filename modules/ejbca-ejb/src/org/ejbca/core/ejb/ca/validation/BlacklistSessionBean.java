@@ -18,12 +18,17 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.log4j.Logger;
 import org.cesecore.audit.enums.EventStatus;
@@ -43,6 +48,8 @@ import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.validation.BlacklistEntry;
 import org.ejbca.core.model.validation.PublicKeyBlacklistEntry;
 import org.ejbca.core.model.validation.PublicKeyBlacklistEntryCache;
+import org.ejbca.core.model.validation.PublicKeyBlacklistFingerprintCache;
+import org.ejbca.core.model.validation.PublicKeyBlacklistFingerprintSet;
 
 /**
  * Handles management of public key blacklist entries.
@@ -59,6 +66,9 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
     /** Internal localization of logs and errors */
     private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
 
+    /** Number of fingerprints read from the database in each query when building the public key blacklist fingerprint set */
+    private static final int FINGERPRINT_PAGE_SIZE = 10000;
+
     @PersistenceContext(unitName = "ejbca")
     private EntityManager entityManager;
 
@@ -71,6 +81,9 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
     @EJB
     private CaSessionLocal caSession;
 
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
     @Override
     public BlacklistEntry getBlacklistEntry(int id) {
         return getBlacklistEntryInternal(id, null, null, true);
@@ -131,6 +144,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
             data.setBlacklistEntry(entry);
             // Since loading a Blacklist is quite complex, we simple purge the cache here.
             PublicKeyBlacklistEntryCache.INSTANCE.removeEntry(data.getId());
+            setFingerprintsStaleAfterCommit();
             final String message = intres.getLocalizedMessage("blacklist.changedpublickeyblacklist", entry.getValue());
             final Map<String, Object> details = new LinkedHashMap<String, Object>();
             details.put("msg", message);
@@ -166,6 +180,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
             entityManager.remove(data);
             // Purge the cache here.
             PublicKeyBlacklistEntryCache.INSTANCE.removeEntry(data.getId());
+            setFingerprintsStaleAfterCommit();
             message = intres.getLocalizedMessage("blacklist.removedpublickeyblacklist", value);
             final Map<String, Object> details = new LinkedHashMap<String, Object>();
             details.put("msg", message);
@@ -180,6 +195,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
     @Override
     public void flushBlacklistEntryCache() {
         PublicKeyBlacklistEntryCache.INSTANCE.flush();
+        PublicKeyBlacklistFingerprintCache.INSTANCE.flush();
         if (log.isDebugEnabled()) {
             log.debug("Flushed BlacklistEntry cache.");
         }
@@ -224,6 +240,82 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
         return result;
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public PublicKeyBlacklistFingerprintSet getPublicKeyBlacklistFingerprints() {
+        final PublicKeyBlacklistFingerprintCache cache = PublicKeyBlacklistFingerprintCache.INSTANCE;
+        if (!cache.shouldCheckForUpdates()) {
+            return cache.getFingerprints();
+        }
+        // Only one thread at a time checks the database. The others use the current set, unless nothing has been loaded yet.
+        if (cache.getFingerprints() == null) {
+            cache.getUpdateLock().lock();
+        } else if (!cache.getUpdateLock().tryLock()) {
+            return cache.getFingerprints();
+        }
+        try {
+            if (!cache.shouldCheckForUpdates()) {
+                return cache.getFingerprints();
+            }
+            // Entries are never changed without changing the count, the ids or the update counters, so when this summary is
+            // unchanged (which is the normal case, also in a cluster) the set does not have to be rebuilt.
+            final TypedQuery<Object[]> signatureQuery = entityManager.createQuery(
+                    "SELECT COUNT(a.id), SUM(a.id), SUM(a.updateCounter) FROM BlacklistData a WHERE a.type=:type", Object[].class);
+            signatureQuery.setParameter("type", PublicKeyBlacklistEntry.TYPE);
+            final Object[] summary = signatureQuery.getSingleResult();
+            final long count = ((Number) summary[0]).longValue();
+            final String signature = count + ";" + summary[1] + ";" + summary[2];
+            if (signature.equals(cache.getSignature())) {
+                cache.touch();
+                return cache.getFingerprints();
+            }
+            final long startTime = System.currentTimeMillis();
+            final PublicKeyBlacklistFingerprintSet fingerprints = new PublicKeyBlacklistFingerprintSet((int) count);
+            final TypedQuery<Object[]> query = entityManager.createQuery(
+                    "SELECT a.id, a.value FROM BlacklistData a WHERE a.type=:type AND a.id>:lastId ORDER BY a.id ASC", Object[].class);
+            query.setParameter("type", PublicKeyBlacklistEntry.TYPE);
+            query.setMaxResults(FINGERPRINT_PAGE_SIZE);
+            int lastId = Integer.MIN_VALUE;
+            List<Object[]> rows;
+            do {
+                query.setParameter("lastId", lastId);
+                rows = query.getResultList();
+                for (final Object[] row : rows) {
+                    lastId = (Integer) row[0];
+                    fingerprints.add((String) row[1]);
+                }
+            } while (rows.size() == FINGERPRINT_PAGE_SIZE);
+            cache.replaceWith(fingerprints, signature);
+            if (log.isDebugEnabled()) {
+                log.debug("Loaded " + fingerprints.size() + " public key blacklist fingerprints (" + fingerprints.getMemoryUsage() + " bytes) in "
+                        + (System.currentTimeMillis() - startTime) + " ms.");
+            }
+            return fingerprints;
+        } finally {
+            cache.getUpdateLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the fingerprint set stale when the current transaction has committed. Before that, a rebuild in another thread would not see
+     * the change, and the set would be considered up to date until the next check.
+     */
+    private void setFingerprintsStaleAfterCommit() {
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // NOOP
+            }
+
+            @Override
+            public void afterCompletion(final int transactionStatus) {
+                if (transactionStatus == Status.STATUS_COMMITTED) {
+                    PublicKeyBlacklistFingerprintCache.INSTANCE.setStale();
+                }
+            }
+        });
+    }
+
     /** Adds a public key blacklist or throws an exception. Will not update the cache, it will be read into the cache on next try to read. */
     private void addBlacklistEntryInternal(AuthenticationToken admin, int id, BlacklistEntry blacklist) throws AuthorizationDeniedException, BlacklistExistsException {
         assertIsAuthorizedToEditBlacklists(admin);
@@ -232,6 +324,7 @@ public class BlacklistSessionBean implements BlacklistSessionLocal, BlacklistSes
             blacklist.setID(Integer.valueOf(id));
             final BlacklistData entity = new BlacklistData(blacklist);
             entityManager.persist(entity);
+            setFingerprintsStaleAfterCommit();
         } else {
             final String message = intres.getLocalizedMessage("blacklist.erroraddpublickeyblacklist", blacklist.getValue());
             log.info(message);
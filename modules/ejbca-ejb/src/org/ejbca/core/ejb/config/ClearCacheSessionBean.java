@@ -21,6 +21,8 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.CmpVerifiedSignerCache;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationTokenCache;
 import org.cesecore.authorization.AuthorizationSessionLocal;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
@@ -30,6 +32,7 @@ import org.cesecore.certificates.certificatetransparency.CertificateTransparency
 import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
 import org.cesecore.config.AvailableExtendedKeyUsagesConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.dbprotection.DatabaseProtectionKeyCache;
 import org.cesecore.keybind.InternalKeyBindingDataSessionLocal;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.keys.token.CryptoTokenSessionLocal;
@@ -159,6 +162,18 @@ public class ClearCacheSessionBean implements ClearCacheSessionLocal {
         if (log.isDebugEnabled()) {
             log.debug("OCSP request signer revocation status cache cleared.");
         }
+        CmpVerifiedSignerCache.INSTANCE.flush();
+        if (log.isDebugEnabled()) {
+            log.debug("CMP verified signer cache cleared.");
+        }
+        X509CertificateAuthenticationTokenCache.INSTANCE.flush();
+        if (log.isDebugEnabled()) {
+            log.debug("Client certificate authentication cache cleared.");
+        }
+        DatabaseProtectionKeyCache.INSTANCE.flush();
+        if (log.isDebugEnabled()) {
+            log.debug("Database protection key cache cleared.");
+        }
         certificateStoreSession.reloadCaCertificateCache(); 
         if(log.isDebugEnabled()) {
             log.debug("Certificate Store cache cleared and reloaded.");
@@ -13,17 +13,11 @@
 package org.ejbca.core.ejb.crl;
 
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -31,20 +25,20 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
-import org.cesecore.certificates.certificate.CertificateData;
-import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.certificates.crl.RevokedCertInfo;
-import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.certificates.crl.StreamingCrlParser;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.CertTools;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
 import org.ejbca.core.model.approval.ApprovalException;
@@ -68,18 +62,18 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
     @Override
     public void importCrl(final AuthenticationToken authenticationToken, final CAInfo cainfo, final byte[] crlbytes, final int crlPartitionIndex)
             throws CrlImportException, CrlStoreException, CRLException, AuthorizationDeniedException {
-
-        X509CRL x509crl = CertTools.getCRLfromByteArray(crlbytes);
+        // The CRL is parsed where it is, instead of as an X509CRL, since external CRLs can have millions of entries
+        final StreamingCrlParser crl = new StreamingCrlParser(crlbytes);
         
         X509Certificate cacert = (X509Certificate) cainfo.getCertificateChain().iterator().next();
         final String caFingerprint = CertTools.getFingerprintAsString(cacert);
         final String issuerDn = CertTools.getSubjectDN(cacert);
         
-        verifyCrlIssuer(x509crl, issuerDn, cacert);
+        verifyCrlIssuer(crl, issuerDn, cacert);
         
         // Check if the CRL is already stored locally
-        final boolean isDeltaCrl = CrlExtensions.getDeltaCRLIndicator(x509crl).intValue() != -1;
-        final int downloadedCrlNumber = CrlExtensions.getCrlNumber(x509crl).intValue();
+        final boolean isDeltaCrl = crl.getDeltaCrlIndicator().intValue() != -1;
+        final int downloadedCrlNumber = crl.getCrlNumber().intValue();
         if (log.isTraceEnabled()) {
             log.trace("Delta CRL:  " + isDeltaCrl);
             log.trace("IssuerDn:   " + issuerDn);
@@ -89,66 +83,63 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             }
         }
         
-        X509CRL lastCrlOfSameType = getLastCrlOfSameType(x509crl, isDeltaCrl, issuerDn, crlPartitionIndex);
-        if(lastCrlOfSameType!=null && !x509crl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
+        StreamingCrlParser lastCrlOfSameType = getLastCrlOfSameType(isDeltaCrl, issuerDn, crlPartitionIndex);
+        if(lastCrlOfSameType!=null && !crl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
             log.info((isDeltaCrl?"Delta":"Full") + " CRL number " + downloadedCrlNumber + " for CA '" + cainfo.getName() + 
                     "' is not newer than last known " + (isDeltaCrl?"delta":"full") + " CRL. Ignoring download.");
             return;
         }
         
         // If the CRL is newer than the last known or there wasn't any old one, loop through it
-        if (x509crl.getRevokedCertificates()==null) {
+        if (!crl.hasEntries()) {
             log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + cainfo.getName() + "'");
         } else {
-            final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-            crlEntries.addAll(x509crl.getRevokedCertificates());
-            if (log.isDebugEnabled()) {
-                log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
-            }
-            
-            if(lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
+            // Entries that were processed last time are recognized by the digests of their encoding, which are sorted for binary search
+            long[] lastEntryDigests = new long[0];
+            if (lastCrlOfSameType != null) {
+                try {
+                    lastEntryDigests = lastCrlOfSameType.getSortedEntryDigests();
+                } catch (CRLException e) {
+                    log.warn("Could not read the entries of the older CRL issued by " + issuerDn + ", all entries will be imported.", e);
+                }
                 if (log.isDebugEnabled()) {
-                    log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
+                    log.debug("Last known CRL contains " + lastEntryDigests.length / 2 + " entries.");
                 }
-                // Remove all entries that were processed last time
-                crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
+                lastCrlOfSameType = null;
             }
-        
-            log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
-            // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-            for (final X509CRLEntry crlEntry : crlEntries) {
-                final Date revocationDate = crlEntry.getRevocationDate();
-                final BigInteger serialNumber = crlEntry.getSerialNumber();
-                final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                if (crlEntry.getCertificateIssuer()!=null) {
-                    final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                    if (!issuerDn.equals(entryIssuerDn)) {
-                        log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                    }
-                }
-                
-                final CertificateDataWrapper cdw = certStoreSession.getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
-                if(isLimitedCertificate(issuerDn, serialNumber, cdw)) {
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint);
-                } else {
-                    final String serialHex = serialNumber.toString(16).toUpperCase();
-                    if (isCertAlreadyRevoked(reasonCode, cdw)) {
-                        log.info("Certificate '" + serialHex + "' is already revoked");
+            final int batchSize = EjbcaConfiguration.getCrlImportBatchSize();
+            final List<RevokedCertInfo> batch = new ArrayList<>(batchSize);
+            int entries = 0;
+            int newEntries = 0;
+            int revoked = 0;
+            try {
+                for (final Iterator<StreamingCrlParser.Entry> iterator = crl.iterator(); iterator.hasNext();) {
+                    final StreamingCrlParser.Entry crlEntry = iterator.next();
+                    entries++;
+                    if (StreamingCrlParser.containsDigest(lastEntryDigests, crlEntry.getDigestHigh(), crlEntry.getDigestLow())) {
                         continue;
                     }
-                    log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
-                    try {
-                        //log.info("Reason code: " + reason);
-                        endentityManagementSession.revokeCert(authenticationToken, serialNumber, crlEntry.getRevocationDate(), issuerDn, reasonCode, false);
-                    } catch (AlreadyRevokedException e) {
-                        log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
-                    } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
-                        throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
+                    newEntries++;
+                    if (crlEntry.getCertificateIssuer() != null) {
+                        final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().toString());
+                        if (!issuerDn.equals(entryIssuerDn)) {
+                            log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + crlEntry.getSerialNumber() + " will be ignored.");
+                        }
+                    }
+                    batch.add(new RevokedCertInfo(null, crlEntry.getSerialNumber().toByteArray(), crlEntry.getRevocationDate().getTime(), crlEntry.getReasonCode(), 0));
+                    if (batch.size() == batchSize) {
+                        revoked += importBatch(authenticationToken, cainfo, issuerDn, caFingerprint, batch);
                     }
-                    
                 }
+            } catch (IllegalStateException e) {
+                if (e.getCause() instanceof CRLException) {
+                    throw (CRLException) e.getCause();
+                }
+                throw e;
             }
+            revoked += importBatch(authenticationToken, cainfo, issuerDn, caFingerprint, batch);
+            log.info("Found " + newEntries + " new entries of " + entries + " in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber
+                    + " issued by '" + issuerDn + "' compared to previous, and revoked " + revoked + " certificates stored in full.");
         }
         // Calculate (make up) the CRL Number if the number was not present
         final int newCrlNumber;
@@ -159,54 +150,67 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             newCrlNumber = downloadedCrlNumber;
         }
         // Last of all, store the CRL if there were no errors during creation of database entries
-        crlStoreSession.storeCRL(authenticationToken, x509crl.getEncoded(), caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, x509crl.getThisUpdate(), x509crl.getNextUpdate(), isDeltaCrl?1:-1);
+        crlStoreSession.storeCRL(authenticationToken, crlbytes, caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, crl.getThisUpdate(), crl.getNextUpdate(), isDeltaCrl?1:-1);
     
     }
     
-    private boolean isCertAlreadyRevoked(final int revocationReason, final CertificateDataWrapper cdw) {
-        if(cdw != null) {
-            final CertificateData certData = cdw.getCertificateData();
-            if(certData.getStatus()==CertificateConstants.CERT_REVOKED) {
-                final int storedRevocationReason = certData.getRevocationReason();
-                if(storedRevocationReason==RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD) {
-                    return revocationReason==storedRevocationReason;
-                }
-                return true;
+    /**
+     * Stores the limited certificate entries of a batch of CRL entries in one transaction, and revokes the certificates of the batch
+     * that are stored in full through the end entity, so that the revocation is published. The batch is cleared afterwards.
+     * 
+     * @return the number of certificates stored in full that were revoked
+     */
+    private int importBatch(final AuthenticationToken authenticationToken, final CAInfo cainfo, final String issuerDn, final String caFingerprint,
+            final List<RevokedCertInfo> batch) throws CrlImportException, AuthorizationDeniedException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        final List<RevokedCertInfo> fullEntries = certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, batch, caFingerprint);
+        batch.clear();
+        int revoked = 0;
+        for (final RevokedCertInfo entry : fullEntries) {
+            final BigInteger serialNumber = entry.getUserCertificate();
+            final String serialHex = serialNumber.toString(16).toUpperCase();
+            if (log.isDebugEnabled()) {
+                log.debug("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
+            }
+            try {
+                endentityManagementSession.revokeCert(authenticationToken, serialNumber, entry.getRevocationDate(), issuerDn, entry.getReason(), false);
+                revoked++;
+            } catch (AlreadyRevokedException e) {
+                log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
+            } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
+                throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
             }
         }
-        return false;
+        return revoked;
     }
     
-    private void verifyCrlIssuer(final X509CRL crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
+    private void verifyCrlIssuer(final StreamingCrlParser crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
         log.info("CA: " + issuerDN);
         // Read the supplied CRL and verify that it is issued by the specified CA
-        if (!crl.getIssuerX500Principal().equals(cacert.getSubjectX500Principal())) {
+        if (!crl.getIssuer().equals(X500Name.getInstance(cacert.getSubjectX500Principal().getEncoded()))) {
             throw new CrlImportException("CRL wasn't issued by " + issuerDN);
         }
         
         try {
             crl.verify(cacert.getPublicKey());
-        } catch (InvalidKeyException | CRLException | NoSuchAlgorithmException | NoSuchProviderException | SignatureException e) {
+        } catch (CRLException e) {
             throw new CrlImportException("Failed to verify CRL signature.", e);
         }
     }
     
-    private X509CRL getLastCrlOfSameType(final X509CRL crl, final boolean isDeltaCrl, final String issuerDN, final int crlPartitionIndex) {
-        X509CRL lastCrlOfSameType = null;
+    private StreamingCrlParser getLastCrlOfSameType(final boolean isDeltaCrl, final String issuerDN, final int crlPartitionIndex) {
+        StreamingCrlParser lastCrlOfSameType = null;
         final byte[] lastCrl = crlStoreSession.getLastCRL(issuerDN, crlPartitionIndex, isDeltaCrl);
         if(lastCrl != null) {
             try {
-                lastCrlOfSameType = CertTools.getCRLfromByteArray(lastCrl);
+                lastCrlOfSameType = new StreamingCrlParser(lastCrl);
             } catch (CRLException e) {
                 log.warn("Could not retrieve an older CRL issued by " + issuerDN, e);
             }
         }
         return lastCrlOfSameType;
     }
-    
-    private boolean isLimitedCertificate(final String issuerDn, final BigInteger serialNumber, final CertificateDataWrapper cdw) {
-        final String limitedFingerprint = CertTools.getFingerprintAsString((issuerDn+";"+serialNumber).getBytes());
-        return (cdw==null) || (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint()));
-    }
 
 }
@@ -18,6 +18,7 @@ import java.security.cert.X509CRL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -62,13 +63,15 @@ import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLo
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlCreateSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.RevocationEventDataSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.CertTools;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.CryptoProviderTools;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 
@@ -105,6 +108,8 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
     @EJB
     private PublisherSessionLocal publisherSession;
     @EJB
+    private RevocationEventDataSessionLocal revocationEventDataSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal logSession;
 
     private PublishingCrlSessionLocal publishingCrlSession;
@@ -217,8 +222,11 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                             String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
                             log.info(msg);
                         } else {
-                            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
                             final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+                            if (crlPartitions != null && isParallelCrlGenerationEnabled(ca)) {
+                                return createCrlsForActiveCa(admin, ca, cacert, crlPartitions, now, addToCrlOverlapTime);
+                            }
+                            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
                             if (crlPartitions != null) {
                                 for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
                                     result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
@@ -247,6 +255,38 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.debug("Checking to see if CA '"+cainfo.getName()+"' ("+cainfo.getCAId()+") needs CRL generation.");
         }
         final String certSubjectDN = CertTools.getSubjectDN(cacert);
+        final CRLInfo lastBaseCrlInfo = crlSession.getLastCRLInfo(certSubjectDN, crlPartitionIndex, false);
+        if (isCrlNeeded(cainfo, lastBaseCrlInfo, now, addToCrlOverlapTime)) {
+            return (internalCreateCRL(admin, ca, crlPartitionIndex, lastBaseCrlInfo) != null);
+        }
+        return false;
+    }
+
+    /**
+     * Creates CRLs for the main CRL and all CRL partitions that need a new CRL. The CA is assumed to be active (no checks are performed)
+     * @return true if a CRL was created for the main CRL and all partitions
+     */
+    private boolean createCrlsForActiveCa(final AuthenticationToken admin, final CA ca, final Certificate cacert, final IntRange crlPartitions, final Date now,
+            final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
+        final CAInfo cainfo = ca.getCAInfo();
+        if (log.isDebugEnabled()) {
+            log.debug("Checking to see if CA '"+cainfo.getName()+"' ("+cainfo.getCAId()+") needs CRL generation for its CRL partitions.");
+        }
+        final String certSubjectDN = CertTools.getSubjectDN(cacert);
+        final Map<Integer, CRLInfo> lastBaseCrlInfos = new LinkedHashMap<>();
+        int partitionCount = 0;
+        for (final int crlPartitionIndex : getCrlPartitionIndexesWithMainCrl(crlPartitions)) {
+            partitionCount++;
+            final CRLInfo lastBaseCrlInfo = crlSession.getLastCRLInfo(certSubjectDN, crlPartitionIndex, false);
+            if (isCrlNeeded(cainfo, lastBaseCrlInfo, now, addToCrlOverlapTime)) {
+                lastBaseCrlInfos.put(crlPartitionIndex, lastBaseCrlInfo);
+            }
+        }
+        return internalCreateCRLs(admin, ca, lastBaseCrlInfos) == partitionCount;
+    }
+
+    /** @return true if a new CRL should be created, because the last one is about to expire or the CRL issue interval has passed */
+    private boolean isCrlNeeded(final CAInfo cainfo, final CRLInfo lastBaseCrlInfo, final Date now, final long addToCrlOverlapTime) {
         final long crlissueinterval = cainfo.getCRLIssueInterval();
         if (log.isDebugEnabled()) {
             log.debug("crlissueinterval="+crlissueinterval);
@@ -254,7 +294,6 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.debug("addtocrloverlaptime="+addToCrlOverlapTime);
             log.debug("now="+now.getTime());
         }
-        final CRLInfo lastBaseCrlInfo = crlSession.getLastCRLInfo(certSubjectDN, crlPartitionIndex, false);
         if (log.isDebugEnabled()) {
             if (lastBaseCrlInfo == null) {
                 log.debug("Crlinfo was null");
@@ -301,11 +340,28 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             if (log.isDebugEnabled()) {
                 log.debug("Creating CRL for CA, because:"+(now.getTime()+overlap)+" >= "+nextScheduledUpdate);
             }
-            return (internalCreateCRL(admin, ca, crlPartitionIndex, lastBaseCrlInfo) != null);
+            return true;
         }
         return false;
     }
 
+    /** @return true if the CRLs of all CRL partitions of the CA should be created together, see {@link #internalCreateCRLs} */
+    private boolean isParallelCrlGenerationEnabled(final CA ca) {
+        // CAs that have gone through Name Change also list revocation information for their previous names, which is done for each partition
+        final boolean nameChanged = ca.getCAType() == CAInfo.CATYPE_X509 && ((X509CA) ca).getNameChanged();
+        return CesecoreConfiguration.getCrlGenerationThreads() != 1 && !nameChanged;
+    }
+
+    /** @return the main CRL partition index followed by the indexes of the CRL partitions */
+    private List<Integer> getCrlPartitionIndexesWithMainCrl(final IntRange crlPartitions) {
+        final List<Integer> ret = new ArrayList<>();
+        ret.add(CertificateConstants.NO_CRL_PARTITION); // Always generate a main CRL
+        for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+            ret.add(crlPartitionIndex);
+        }
+        return ret;
+    }
+
     @Override
     public boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
         boolean ret = false;
@@ -423,6 +479,16 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public boolean forceCRL(final AuthenticationToken admin, final int caId) throws CADoesntExistsException, AuthorizationDeniedException, CryptoTokenOfflineException, CAOfflineException {
+        final CA ca = (CA) caSession.getCA(admin, caId);
+        final IntRange crlPartitionIndexes = ca.getCAInfo().getAllCrlPartitionIndexes();
+        if (crlPartitionIndexes != null && isParallelCrlGenerationEnabled(ca)) {
+            final String certSubjectDN = CertTools.getSubjectDN(getCaCertificate(ca.getCAInfo()));
+            final Map<Integer, CRLInfo> lastBaseCrlInfos = new LinkedHashMap<>();
+            for (final int crlPartitionIndex : getCrlPartitionIndexesWithMainCrl(crlPartitionIndexes)) {
+                lastBaseCrlInfos.put(crlPartitionIndex, crlSession.getLastCRLInfo(certSubjectDN, crlPartitionIndex, false));
+            }
+            return internalCreateCRLs(admin, ca, lastBaseCrlInfos) == lastBaseCrlInfos.size();
+        }
         boolean result = true;
         result &= forceCRL(admin, caId, CertificateConstants.NO_CRL_PARTITION); // Always generate a main CRL
         final IntRange crlPartitions = getAllCrlPartitionIndexes(admin, caId);
@@ -506,9 +572,9 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                             }
                         }
                     }
-                    //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
+                    //Make sure new collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
-                    revokedCertificates = new CompressedCollection<>(RevokedCertInfo.class);
+                    revokedCertificates = new RevokedCertInfoCollection();
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -519,58 +585,16 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
                     log.debug("Found "+revokedCertificates.size()+" revoked certificates. Free memory=" + freeMemory);
                 }
-                // Go through them and create a CRL, at the same time archive expired certificates, unless configured not to do so (keep expired certificates on CRL)
-                //
-                // Archiving is only done for full CRLs, not delta CRLs.
-                // RFC5280, section 3.3, states that a certificate must not be removed from the CRL until it has appeared on at least one full CRL.
-                // RFC5280, section 5: A full and complete CRL lists all unexpired certificates issued by a CA that have been revoked for any reason.
-                // See RFC5280 section 5.2.4, specifically:
-                //  If a certificate revocation notice first appears on a delta CRL, then
-                //  it is possible for the certificate validity period to expire before
-                //  the next complete CRL for the same scope is issued.  In this case,
-                //  the revocation notice MUST be included in all subsequent delta CRLs
-                //  until the revocation notice is included on at least one explicitly
-                //  issued complete CRL for this scope
-                final Date now = new Date();
-                final Date lastCrlCreationDate = lastBaseCrlInfo==null ? now : lastBaseCrlInfo.getCreateDate();
-                final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
-                final boolean keepexpiredcertsoncrl = cainfo.getKeepExpiredCertsOnCRL();
-                if (keepexpiredcertsoncrl) {
-                    log.info("KeepExpiredCertsOnCRL is enabled, we will not archive expired certificate but will keep them on the CRL (for ever growing): " + keepexpiredcertsoncrl);
-                }
-                for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
-                    // We want to include certificates that was revoked after the last CRL was issued, but before this one
-                    // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
-                    // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
-                    if ( !keepexpiredcertsoncrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastCrlCreationDate) ) {
-                        // Certificate has expired, set status to archived in the database
-                        if (log.isDebugEnabled()) {
-                            final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                            log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
-                        }
-                        noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
-                    } else {
-                        if (!revokedCertInfo.isRevocationDateSet()) {
-                            revokedCertInfo.setRevocationDate(now);
-                            /*
-                             * FIXME should use noConflictCertificateStoreSession (add a new method). the method there should also update to database. 
-                             * (or can we skip this code? when can isRevocationDateSet return false?)
-                             * ECA-7992
-                             */
-//                            noConflictCertificateStoreSession.setRevocationDate(revokedCertInfo.getCertificateFingerprint(), now);
-                            CertificateData certdata = certificateDataSession.findByFingerprint(revokedCertInfo.getCertificateFingerprint());
-                            if (certdata == null) {
-                                throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
-                            }
-                            // Set revocation date in the database
-                            certdata.setRevocationDate(now);
-                        }
-                    }
+                archiveExpiredCertificates(cainfo, revokedCertificates, lastBaseCrlInfo);
+                if (revokedCertificates instanceof RevokedCertInfoCollection) {
+                    // List the entries in serial number order, which makes the CRL easier to compare with the previous one
+                    ((RevokedCertInfoCollection) revokedCertificates).sortBySerialNumber();
                 }
                 // a full CRL
                 final byte[] crlBytes = generateAndStoreCRL(admin, ca, crlPartitionIndex, revokedCertificates, lastBaseCrlInfo, false);
                 if (crlBytes != null) {
                     ret = CertTools.getFingerprintAsString(crlBytes);
+                    removeRevocationEvents(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo);
                 }
                 // This debug logging is very very heavy if you have large CRLs. Please don't use it :-)
                 //              if (log.isDebugEnabled()) {
@@ -590,7 +614,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollection to ensure that we release all resources
+            // Release the memory of the revoked certificates right away
             if (revokedCertificates!=null) {
                 revokedCertificates.clear();
             }
@@ -601,6 +625,147 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return ret;
     }
 
+    /**
+     * Generates base CRLs for several CRL partitions of a CA. The revoked certificates of all partitions are read from the
+     * database in one pass, and the CRLs are signed at the same time and stored in one transaction, see
+     * {@link CrlCreateSessionLocal#generateAndStoreCRLs}. The CA must not have gone through Name Change.
+     *
+     * @param admin administrator performing the task
+     * @param ca the CA this operation regards
+     * @param lastBaseCrlInfos map from CRL partition index to CRLInfo on the last base CRL of the partition, or null if no
+     *        base CRL has been created before, for the partitions to create CRLs for
+     * @return the number of CRLs created
+     */
+    private int internalCreateCRLs(final AuthenticationToken admin, final CA ca, final Map<Integer, CRLInfo> lastBaseCrlInfos)
+            throws CAOfflineException, CryptoTokenOfflineException, AuthorizationDeniedException {
+        if (log.isTraceEnabled()) {
+            log.trace(">internalCreateCRLs(" + lastBaseCrlInfos.size() + " partitions)");
+        }
+        if (lastBaseCrlInfos.isEmpty()) {
+            return 0;
+        }
+        if (lastBaseCrlInfos.size() == 1) {
+            final Map.Entry<Integer, CRLInfo> entry = lastBaseCrlInfos.entrySet().iterator().next();
+            return internalCreateCRL(admin, ca, entry.getKey(), entry.getValue()) != null ? 1 : 0;
+        }
+        final CAInfo cainfo = ca.getCAInfo();
+        final Map<Integer, Collection<RevokedCertInfo>> revokedCertificatesByPartition = new LinkedHashMap<>();
+        Map<Integer, Collection<RevokedCertInfo>> allRevokedCertificates = null;
+        int ret = 0;
+        try {
+            final Certificate cacert = getCaCertificate(cainfo);
+            final String caCertSubjectDN = cacert==null ? null : CertTools.getSubjectDN(cacert);
+            // We can not create a CRL for a CA that is waiting for certificate response
+            if (caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE) {
+                allRevokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfoForAllPartitions(caCertSubjectDN);
+                final Map<Integer, Integer> nextCrlNumbers = new HashMap<>();
+                for (final Map.Entry<Integer, CRLInfo> entry : lastBaseCrlInfos.entrySet()) {
+                    final int crlPartitionIndex = entry.getKey();
+                    final CRLInfo lastBaseCrlInfo = entry.getValue();
+                    Collection<RevokedCertInfo> revokedCertificates = allRevokedCertificates.remove(crlPartitionIndex);
+                    if (revokedCertificates == null) {
+                        revokedCertificates = new RevokedCertInfoCollection(0);
+                    }
+                    revokedCertificatesByPartition.put(crlPartitionIndex, revokedCertificates);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Found " + revokedCertificates.size() + " revoked certificates in CRL partition " + crlPartitionIndex + ".");
+                    }
+                    archiveExpiredCertificates(cainfo, revokedCertificates, lastBaseCrlInfo);
+                    if (revokedCertificates instanceof RevokedCertInfoCollection) {
+                        ((RevokedCertInfoCollection) revokedCertificates).sortBySerialNumber();
+                    }
+                    final int fullcrlnumber = lastBaseCrlInfo==null ? 0 : lastBaseCrlInfo.getLastCRLNumber();
+                    nextCrlNumbers.put(crlPartitionIndex, getNextCrlNumber(caCertSubjectDN, crlPartitionIndex, fullcrlnumber));
+                }
+                final Map<Integer, byte[]> crls = crlCreateSession.generateAndStoreCRLs(admin, ca, revokedCertificatesByPartition, nextCrlNumbers);
+                final String cafp = CertTools.getFingerprintAsString(ca.getCACertificate());
+                for (final Map.Entry<Integer, byte[]> entry : crls.entrySet()) {
+                    this.publisherSession.storeCRL(admin, ca.getCRLPublishers(), entry.getValue(), cafp, nextCrlNumbers.get(entry.getKey()), caCertSubjectDN);
+                    removeRevocationEvents(caCertSubjectDN, entry.getKey(), lastBaseCrlInfos.get(entry.getKey()));
+                    ret++;
+                }
+            } else {
+                String msg = intres.getLocalizedMessage("createcrl.errornotactive", cainfo.getName(), Integer.valueOf(cainfo.getCAId()), cainfo.getStatus());
+                log.info(msg);
+                throw new CAOfflineException(msg);
+            }
+        } catch (FinderException e) {
+            // Should really not happen
+            log.error(e);
+            throw new EJBException(e);
+        } finally {
+            // Release the memory of the revoked certificates right away
+            for (final Collection<RevokedCertInfo> revokedCertificates : revokedCertificatesByPartition.values()) {
+                revokedCertificates.clear();
+            }
+            if (allRevokedCertificates != null) {
+                for (final Collection<RevokedCertInfo> revokedCertificates : allRevokedCertificates.values()) {
+                    revokedCertificates.clear();
+                }
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<internalCreateCRLs()");
+        }
+        return ret;
+    }
+
+    /**
+     * Goes through the revoked certificates for a base CRL, and archives expired certificates unless configured not to do so
+     * (keep expired certificates on CRL). Sets the revocation date of certificates that are missing one.
+     */
+    private void archiveExpiredCertificates(final CAInfo cainfo, final Collection<RevokedCertInfo> revokedCertificates, final CRLInfo lastBaseCrlInfo)
+            throws AuthorizationDeniedException, FinderException {
+        // Go through them and create a CRL, at the same time archive expired certificates, unless configured not to do so (keep expired certificates on CRL)
+        //
+        // Archiving is only done for full CRLs, not delta CRLs.
+        // RFC5280, section 3.3, states that a certificate must not be removed from the CRL until it has appeared on at least one full CRL.
+        // RFC5280, section 5: A full and complete CRL lists all unexpired certificates issued by a CA that have been revoked for any reason.
+        // See RFC5280 section 5.2.4, specifically:
+        //  If a certificate revocation notice first appears on a delta CRL, then
+        //  it is possible for the certificate validity period to expire before
+        //  the next complete CRL for the same scope is issued.  In this case,
+        //  the revocation notice MUST be included in all subsequent delta CRLs
+        //  until the revocation notice is included on at least one explicitly
+        //  issued complete CRL for this scope
+        final Date now = new Date();
+        final Date lastCrlCreationDate = lastBaseCrlInfo==null ? now : lastBaseCrlInfo.getCreateDate();
+        final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
+        final boolean keepexpiredcertsoncrl = cainfo.getKeepExpiredCertsOnCRL();
+        if (keepexpiredcertsoncrl) {
+            log.info("KeepExpiredCertsOnCRL is enabled, we will not archive expired certificate but will keep them on the CRL (for ever growing): " + keepexpiredcertsoncrl);
+        }
+        for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+            // We want to include certificates that was revoked after the last CRL was issued, but before this one
+            // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
+            // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
+            if ( !keepexpiredcertsoncrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastCrlCreationDate) ) {
+                // Certificate has expired, set status to archived in the database
+                if (log.isDebugEnabled()) {
+                    final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
+                    log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
+                }
+                noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+            } else {
+                if (!revokedCertInfo.isRevocationDateSet()) {
+                    revokedCertInfo.setRevocationDate(now);
+                    /*
+                     * FIXME should use noConflictCertificateStoreSession (add a new method). the method there should also update to database. 
+                     * (or can we skip this code? when can isRevocationDateSet return false?)
+                     * ECA-7992
+                     */
+//                    noConflictCertificateStoreSession.setRevocationDate(revokedCertInfo.getCertificateFingerprint(), now);
+                    CertificateData certdata = certificateDataSession.findByFingerprint(revokedCertInfo.getCertificateFingerprint());
+                    if (certdata == null) {
+                        throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
+                    }
+                    // Set revocation date in the database
+                    certdata.setRevocationDate(now);
+                }
+            }
+        }
+    }
+
     /**
      * Generates a new Delta CRL by looking in the database for revoked
      * certificates since the last complete CRL issued and generating a CRL with
@@ -634,14 +799,19 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         }
         byte[] crlBytes = null;
         Collection<RevokedCertInfo> revcertinfos = null;
-        CompressedCollection<RevokedCertInfo> certs = null;
+        RevokedCertInfoCollection certs = null;
         try {
             final Certificate cacert = getCaCertificate(cainfo);
             final String caCertSubjectDN = cacert==null ? null : CertTools.getSubjectDN(cacert);
             // We can not create a CRL for a CA that is waiting for certificate response
             if ( caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE ) {
                 // Find all revoked certificates
-                revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime());
+                if (CesecoreConfiguration.useRevocationEventLog()) {
+                    // Only the revocation status changes since the last base CRL are read, instead of searching CertificateData
+                    revcertinfos = revocationEventDataSession.getRevokedCertInfos(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime());
+                } else {
+                    revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime());
+                }
 
                 // if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
                 if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
@@ -668,9 +838,9 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                             }
                         }
                     }
-                    //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
+                    //Make sure new collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revcertinfos;
-                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.class);
+                    revcertinfos = new RevokedCertInfoCollection();
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revcertinfos.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -681,7 +851,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, i.e. add to cert list to be included in CRL
-                certs = new CompressedCollection<>(RevokedCertInfo.class);
+                certs = new RevokedCertInfoCollection();
                 for (final RevokedCertInfo ci : revcertinfos) {
                     final boolean certificateIsReleasedFromHold = ci.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue();
                     final boolean certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
@@ -700,6 +870,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     certs.add(ci);
                 }
                 revcertinfos.clear();  // Release unused resources
+                certs.sortBySerialNumber();
                 // create a delta CRL
                 crlBytes = generateAndStoreCRL(admin, ca, crlPartitionIndex, certs, lastBaseCrlInfo, true);
                 if (log.isDebugEnabled()) {
@@ -716,7 +887,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollections to ensure that we release all resources
+            // Release the memory of the revoked certificates right away
             if (revcertinfos!=null) {
                 revcertinfos.clear();
             }
@@ -766,14 +937,30 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             }
         }
 
-        final int deltacrlnumber = crlSession.getLastCRLNumber(certSubjectDN, crlPartitionIndex, true);
-        // nextCrlNumber: The highest number of last CRL (full or delta) and increased by 1 (both full CRLs and deltaCRLs share the same series of CRL Number)
-        final int nextCrlNumber = ( fullcrlnumber > deltacrlnumber ? fullcrlnumber : deltacrlnumber ) +1;
+        final int nextCrlNumber = getNextCrlNumber(certSubjectDN, crlPartitionIndex, fullcrlnumber);
         final byte[] crlBytes = crlCreateSession.generateAndStoreCRL(admin, ca, crlPartitionIndex, certs, delta?fullcrlnumber:-1, nextCrlNumber);
         this.publisherSession.storeCRL(admin, ca.getCRLPublishers(), crlBytes, cafp, nextCrlNumber, certSubjectDN);
         return crlBytes;
     }
 
+    /**
+     * Removes the revocation events that are not needed for delta CRLs anymore, after a new base CRL has been created. Events up to
+     * the previous base CRL are removed, since the delta CRLs of the new base CRL only include events after it was created. The
+     * events between the previous and the new base CRL are kept, so that changes committed while the new base CRL was generated are
+     * not lost.
+     */
+    private void removeRevocationEvents(final String caCertSubjectDN, final int crlPartitionIndex, final CRLInfo previousBaseCrlInfo) {
+        if (CesecoreConfiguration.useRevocationEventLog() && previousBaseCrlInfo != null) {
+            revocationEventDataSession.removeEvents(caCertSubjectDN, crlPartitionIndex, previousBaseCrlInfo.getCreateDate().getTime());
+        }
+    }
+
+    /** @return the highest number of last CRL (full or delta) and increased by 1 (both full CRLs and deltaCRLs share the same series of CRL Number) */
+    private int getNextCrlNumber(final String certSubjectDN, final int crlPartitionIndex, final int fullcrlnumber) {
+        final int deltacrlnumber = crlSession.getLastCRLNumber(certSubjectDN, crlPartitionIndex, true);
+        return ( fullcrlnumber > deltacrlnumber ? fullcrlnumber : deltacrlnumber ) +1;
+    }
+
     private Certificate getCaCertificate(final CAInfo caInfo) {
         final Collection<Certificate> certificateChain = caInfo.getCertificateChain();
         return certificateChain.isEmpty() ? null : certificateChain.iterator().next();
@@ -63,6 +63,7 @@ import org.ejbca.util.crypto.SupportedPasswordHashAlgorithm;
 import org.ejbca.util.query.BasicMatch;
 import org.ejbca.util.query.IllegalQueryException;
 import org.ejbca.util.query.Query;
+import org.ejbca.util.query.QueryBuilder;
 import org.ejbca.util.query.UserMatch;
 
 /**
@@ -405,7 +406,7 @@ public class EndEntityAccessSessionBean implements EndEntityAccessSessionLocal,
         final List<UserData> userDataList = query.getResultList();
         final List<EndEntityInformation> returnval = new ArrayList<EndEntityInformation>(userDataList.size());
         for (UserData ud : userDataList) {
-            EndEntityInformation endEntityInformation = ud.toEndEntityInformation();
+            EndEntityInformation endEntityInformation = ud.toEndEntityInformationLazy();
             if (endEntityInformation.getPassword() != null && endEntityInformation.getPassword().length() > 0) {
                 returnval.add(endEntityInformation);
             }
@@ -435,56 +436,51 @@ public class EndEntityAccessSessionBean implements EndEntityAccessSessionLocal,
             throw new IllegalQueryException();
         }
 
-        String sqlquery = "";
+        final QueryBuilder queryBuilder = new QueryBuilder();
         if (query != null) {
-            sqlquery += query.getQueryString();
+            queryBuilder.and(query.getQueryString(queryBuilder));
         }
 
         final GlobalConfiguration globalconfiguration = getGlobalConfiguration();
-        String caauthstring = caauthorizationstring;
-        String endentityauth = endentityprofilestring;
-        RAAuthorization raauthorization = null;
         if (caauthorizationstring == null || endentityprofilestring == null) {
-            raauthorization = new RAAuthorization(admin, globalConfigurationSession, authorizationSession, caSession, endEntityProfileSession);
-            caauthstring = raauthorization.getCAAuthorizationString();
+            // Authorized CAs and profiles as bound parameters, so that the statement is the same for administrators with the same number of them
+            final RAAuthorization raauthorization = new RAAuthorization(admin, globalConfigurationSession, authorizationSession, caSession, endEntityProfileSession);
+            queryBuilder.andIn("cAId", raauthorization.getAuthorizedCaIds());
             if (globalconfiguration.getEnableEndEntityProfileLimitations()) {
-                endentityauth = raauthorization.getEndEntityProfileAuthorizationString(true, endentityAccessRule);
-            } else {
-                endentityauth = "";
+                final List<Integer> profileIds = raauthorization.getAuthorizedEndEntityProfileIds(endentityAccessRule);
+                if (profileIds.isEmpty()) {
+                    authorizedtoanyprofile = false;
+                } else {
+                    queryBuilder.andIn("endEntityProfileId", profileIds);
+                }
             }
-        }
-        if (!StringUtils.isBlank(caauthstring)) {
-            if (StringUtils.isBlank(sqlquery)) {
-                sqlquery += caauthstring;
-            } else {
-                sqlquery = "(" + sqlquery + ") AND " + caauthstring;
+        } else {
+            if (!StringUtils.isBlank(caauthorizationstring)) {
+                queryBuilder.and(caauthorizationstring);
             }
-        } 
-        if (globalconfiguration.getEnableEndEntityProfileLimitations()) {
-            if (endentityauth == null || StringUtils.isBlank(endentityauth)) {
-                authorizedtoanyprofile = false;
-            } else {
-                if (StringUtils.isEmpty(sqlquery)) {
-                    sqlquery += endentityauth;
+            if (globalconfiguration.getEnableEndEntityProfileLimitations()) {
+                if (StringUtils.isBlank(endentityprofilestring)) {
+                    authorizedtoanyprofile = false;
                 } else {
-                    sqlquery = "(" + sqlquery + ") AND " + endentityauth;
+                    queryBuilder.and(endentityprofilestring);
                 }
             }
         }
         // Finally order the return values
-        sqlquery += " ORDER BY " + USERDATA_CREATED_COL + " DESC";
+        final String sqlquery = queryBuilder.getWhereClause() + " ORDER BY " + USERDATA_CREATED_COL + " DESC";
         if (log.isDebugEnabled()) {
-            log.debug("generated query: " + sqlquery);
+            log.debug("generated query: " + sqlquery + ", parameters: " + queryBuilder.getParameters());
         }
         if (authorizedtoanyprofile) {
-            final javax.persistence.Query dbQuery = entityManager.createQuery("SELECT a FROM UserData a WHERE " + sqlquery);
+            final TypedQuery<UserData> dbQuery = entityManager.createQuery("SELECT a FROM UserData a WHERE " + sqlquery, UserData.class);
+            for (final Map.Entry<String, Object> parameter : queryBuilder.getParameters().entrySet()) {
+                dbQuery.setParameter(parameter.getKey(), parameter.getValue());
+            }
             if (fetchsize > 0) {
                 dbQuery.setMaxResults(fetchsize);
             }
-            @SuppressWarnings("unchecked")
-            final List<UserData> userDataList = dbQuery.getResultList();
-            for (UserData userData : userDataList) {
-                returnval.add(userData.toEndEntityInformation());
+            for (final UserData userData : dbQuery.getResultList()) {
+                returnval.add(userData.toEndEntityInformationLazy());
             }
         } else {
             if (log.isDebugEnabled()) {
@@ -534,7 +530,7 @@ public class EndEntityAccessSessionBean implements EndEntityAccessSessionLocal,
         final List<UserData> userDataList = query.getResultList();
         final List<EndEntityInformation> returnval = new ArrayList<EndEntityInformation>(userDataList.size());
         for (UserData ud : userDataList) {
-            returnval.add(ud.toEndEntityInformation());
+            returnval.add(ud.toEndEntityInformationLazy());
         }
         if (log.isTraceEnabled()) {
             log.trace("<findAllUsersByCaIdNoAuth()");
@@ -87,6 +87,7 @@ import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.certificates.util.DnComponents;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.validation.IssuancePhase;
@@ -94,6 +95,8 @@ import org.cesecore.keys.validation.KeyValidatorSessionLocal;
 import org.cesecore.keys.validation.ValidationException;
 import org.cesecore.keys.validation.ValidationResult;
 import org.cesecore.roles.member.RoleMemberData;
+import org.cesecore.search.SearchTokenData;
+import org.cesecore.search.SearchTokenDataSessionLocal;
 import org.cesecore.util.CeSecoreNameStyle;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.EJBTools;
@@ -198,6 +201,8 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
     @EJB
     private RevocationSessionLocal revocationSession;
     @EJB
+    private SearchTokenDataSessionLocal searchTokenDataSession;
+    @EJB
     private SecurityEventsLoggerSessionLocal auditSession;
 
     /** Gets the Global Configuration from ra admin session bean */
@@ -493,6 +498,9 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
                     throw new EndEntityExistsException("User " + userData.getUsername() + " already exists.");
                 }
                 entityManager.persist(userData);
+                if (CesecoreConfiguration.useSearchTokenIndex()) {
+                    searchTokenDataSession.addTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, username, getSearchTokenFieldValues(userData));
+                }
                 // Although EndEntityInformation should always have a null password for
                 // autogenerated end entities, the notification framework
                 // expect it to exist. Since nothing else but printing is done after
@@ -567,6 +575,15 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
     }
 
+    /** @return the values of the searchable fields of the end entity, for use with {@link SearchTokenDataSessionLocal} */
+    private Map<Integer, String> getSearchTokenFieldValues(final UserData userData) {
+        final Map<Integer, String> fieldValues = new HashMap<>();
+        fieldValues.put(SearchTokenData.FIELD_SUBJECTDN, userData.getSubjectDnNeverNull());
+        fieldValues.put(SearchTokenData.FIELD_SUBJECTALTNAME, userData.getSubjectAltNameNeverNull());
+        fieldValues.put(SearchTokenData.FIELD_USERNAME, userData.getUsername());
+        return fieldValues;
+    }
+
     /* Does not check authorization. Calling code is responsible for this. */
     private boolean isSubjectDnSerialnumberUnique(final int caid, final String subjectDN, final String username) {
         final String serialnumber = CertTools.getPartFromDN(subjectDN, "SN");
@@ -628,6 +645,11 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         userDataClone.setTimeModified(now);
         entityManager.persist(userDataClone);
         entityManager.remove(currentUserData);
+        final boolean useSearchTokenIndex = CesecoreConfiguration.useSearchTokenIndex();
+        if (useSearchTokenIndex) {
+            searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, currentUsername);
+            searchTokenDataSession.addTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, newUsername, getSearchTokenFieldValues(userDataClone));
+        }
         // Find all entities and update the username (we cant just do UPDATE ... SET username.. WHERE username since rowProtection might be enabled)
         final List<CertificateData> certificateDatas = entityManager.createQuery(
                 "SELECT a FROM CertificateData a WHERE a.username=:username", CertificateData.class).setParameter("username", currentUsername).getResultList();
@@ -636,6 +658,13 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
             final String fingerprint = certificateData.getFingerprint();
             certificateData.setUsername(newUsername);
             certificateData.setUpdateTime(now);
+            if (useSearchTokenIndex) {
+                final Map<Integer, String> fieldValues = new HashMap<>();
+                fieldValues.put(SearchTokenData.FIELD_SUBJECTDN, certificateData.getSubjectDN());
+                fieldValues.put(SearchTokenData.FIELD_SUBJECTALTNAME, certificateData.getSubjectAltName());
+                fieldValues.put(SearchTokenData.FIELD_USERNAME, newUsername);
+                searchTokenDataSession.replaceTokens(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, fingerprint, fieldValues);
+            }
             // Find all publisher queue data where PublisherQueueData.fingerprint matches CertificateData.fingerprint for this user
             final List<PublisherQueueData> publisherQueueDatas = PublisherQueueData.findDataByFingerprint(entityManager, fingerprint);
             for (final PublisherQueueData publisherQueueData : publisherQueueDatas) {
@@ -691,6 +720,30 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         return true;
     }
 
+    @Override
+    public List<String> rebuildSearchTokens(final AuthenticationToken admin, final String afterUsername, final int maxRows) throws AuthorizationDeniedException {
+        if (!authorizationSession.isAuthorized(admin, StandardRules.SYSTEMCONFIGURATION_EDIT.resource())) {
+            final String msg = intres.getLocalizedMessage("authorization.notauthorizedtoresource", StandardRules.SYSTEMCONFIGURATION_EDIT.resource(), null);
+            throw new AuthorizationDeniedException(msg);
+        }
+        final TypedQuery<UserData> query = entityManager.createQuery("SELECT a FROM UserData a"
+                + (afterUsername == null ? "" : " WHERE a.username>:afterUsername") + " ORDER BY a.username ASC", UserData.class);
+        if (afterUsername != null) {
+            query.setParameter("afterUsername", afterUsername);
+        }
+        query.setMaxResults(maxRows);
+        final List<UserData> userDatas = query.getResultList();
+        final List<String> usernames = new ArrayList<>(userDatas.size());
+        for (final UserData userData : userDatas) {
+            usernames.add(userData.getUsername());
+            searchTokenDataSession.replaceTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, userData.getUsername(), getSearchTokenFieldValues(userData));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Rebuilt search tokens for " + userDatas.size() + " end entities after username " + afterUsername + ".");
+        }
+        return usernames;
+    }
+
     private static final ApprovalOveradableClassName[] NONAPPROVABLECLASSNAMES_CHANGEUSER = {
             new ApprovalOveradableClassName(org.ejbca.core.model.approval.approvalrequests.EditEndEntityApprovalRequest.class.getName(), null),
             /**
@@ -959,8 +1012,13 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
 
         try {
+            final boolean searchableFieldsChanged = !StringUtils.equals(dn, userData.getSubjectDnNeverNull())
+                    || !StringUtils.equals(altName, userData.getSubjectAltNameNeverNull());
             userData.setDN(dn);
             userData.setSubjectAltName(altName);
+            if (searchableFieldsChanged && CesecoreConfiguration.useSearchTokenIndex()) {
+                searchTokenDataSession.replaceTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, username, getSearchTokenFieldValues(userData));
+            }
             userData.setSubjectEmail(endEntityInformation.getEmail());
             userData.setCaId(caid);
             userData.setType(type.getHexValue());
@@ -1112,6 +1170,9 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
         try {
             entityManager.remove(data1);
+            if (CesecoreConfiguration.useSearchTokenIndex()) {
+                searchTokenDataSession.removeTokens(SearchTokenData.REFERENCE_TYPE_END_ENTITY, username);
+            }
             final String msg = intres.getLocalizedMessage("ra.removedentity", username);
             final Map<String, Object> details = new LinkedHashMap<>();
             details.put("msg", msg);
@@ -1995,7 +2056,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         final List<UserData> queryResult = query.getResultList();
         final List<EndEntityInformation> ret = new ArrayList<>(queryResult.size());
         for (UserData userData : queryResult) {
-            ret.add(userData.toEndEntityInformation());
+            ret.add(userData.toEndEntityInformationLazy());
         }
         return ret;
     }
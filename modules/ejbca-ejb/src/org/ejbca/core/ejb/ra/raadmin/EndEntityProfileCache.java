@@ -15,6 +15,7 @@ package org.ejbca.core.ejb.ra.raadmin;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.persistence.EntityManager;
@@ -59,6 +60,10 @@ public enum EndEntityProfileCache {
     private volatile Map<String, Integer> nameIdMapCache = null;
     /** Cache of end entity profiles, with Id as keys */
     private volatile Map<Integer, EndEntityProfile> profileCache = null;
+    /** Row versions of the cached profiles, with Id as keys, used to detect changes when the cache is updated */
+    private volatile Map<Integer, Integer> rowVersionCache = null;
+    /** Incremented whenever the cached profiles may have changed */
+    private final AtomicLong changeCount = new AtomicLong();
     
     private volatile long lastUpdate = 0;
 
@@ -103,6 +108,7 @@ public enum EndEntityProfileCache {
         final Map<Integer, String> idNameCache = new HashMap<Integer, String>(idNameMapCacheTemplate);
         final Map<String, Integer> nameIdCache = new HashMap<String, Integer>(nameIdMapCacheTemplate);
         final Map<Integer, EndEntityProfile> profCache = new HashMap<Integer, EndEntityProfile>();
+        final Map<Integer, Integer> rowVersions = new HashMap<Integer, Integer>();
         try {
         	final List<EndEntityProfileData> result = EndEntityProfileData.findAll(entityManager);
         	for (final EndEntityProfileData next : result) {
@@ -111,6 +117,7 @@ public enum EndEntityProfileCache {
         		idNameCache.put(id, profileName);
         		nameIdCache.put(profileName, id);
         		profCache.put(id, next.getProfile());
+        		rowVersions.put(id, next.getRowVersion());
         	}
         } catch (Exception e) {
         	LOG.error(INTRES.getLocalizedMessage("ra.errorreadprofiles"), e);
@@ -118,6 +125,11 @@ public enum EndEntityProfileCache {
         idNameMapCache = idNameCache;
         nameIdMapCache = nameIdCache;
         profileCache = profCache;
+        // A forced update is made when a profile is changed, possibly before the new row version has been written
+        if (force || !rowVersions.equals(rowVersionCache)) {
+            changeCount.incrementAndGet();
+        }
+        rowVersionCache = rowVersions;
         if (LOG.isTraceEnabled()) {
             final long end = System.currentTimeMillis();
             LOG.trace("<updateProfileCache took: "+(end-now)+"ms");
@@ -130,6 +142,15 @@ public enum EndEntityProfileCache {
 		return profileCache;
 	}
 
+	/**
+	 * @return a number that changes whenever the cached profiles may have changed, for results computed from the profiles. Read it before
+	 *      {@link #getProfileCache(EntityManager)}, so that the profiles are at least as recent as the number.
+	 */
+	public long getChangeCount(final EntityManager entityManager) {
+		updateProfileCache(entityManager, false);
+		return changeCount.get();
+	}
+
 	/** @return the latest object from the cache or a current database representation if no caching is used. */
 	public Map<Integer, String> getIdNameMapCache(final EntityManager entityManager) {
 		updateProfileCache(entityManager, false);
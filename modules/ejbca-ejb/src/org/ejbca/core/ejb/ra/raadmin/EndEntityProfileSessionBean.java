@@ -41,6 +41,7 @@ import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSessionLocal;
+import org.cesecore.authorization.AuthorizedIdSets;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CADoesntExistsException;
 import org.cesecore.certificates.ca.CaSessionLocal;
@@ -304,24 +305,31 @@ public class EndEntityProfileSessionBean implements EndEntityProfileSessionLocal
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
-    public Collection<Integer> getAuthorizedEndEntityProfileIds(final AuthenticationToken admin, String endentityAccessRule) {
-    	final ArrayList<Integer> returnval = new ArrayList<>();
-    	final HashSet<Integer> authorizedCaIds = new HashSet<>(caSession.getAuthorizedCaIds(admin));
-    	final HashSet<Integer> allCaIds = new HashSet<>(caSession.getAllCaIds());
-		// If this is the special value ALLCAs we are authorized
-    	authorizedCaIds.add(Integer.valueOf(SecConst.ALLCAS));
-
-    	final boolean rootAccess = authorizationSession.isAuthorizedNoLogging(admin, StandardRules.ROLE_ROOT.resource());
-        // We have to manually add the EMPTY end entity profile because it is not included in the profile cache
-        if (authorizationSession.isAuthorizedNoLogging(admin, AccessRulesConstants.ENDENTITYPROFILEBASE + "/" + EndEntityConstants.EMPTY_END_ENTITY_PROFILE + endentityAccessRule)) {
-            returnval.add(EndEntityConstants.EMPTY_END_ENTITY_PROFILE);
-        }
-        for (final Entry<Integer, EndEntityProfile> entry : EndEntityProfileCache.INSTANCE.getProfileCache(entityManager).entrySet()) {
-            if (isAuthorizedToProfile(admin, entry.getKey(), entry.getValue(), rootAccess, authorizedCaIds, allCaIds, endentityAccessRule)) {
-                returnval.add(entry.getKey());
+    public Collection<Integer> getAuthorizedEndEntityProfileIds(final AuthenticationToken admin, final String endentityAccessRule) {
+        // The result is memoised until the access rules, the CAs or the profiles change
+        final AuthorizedIdSets.IdSet authorizedCaIdSet = caSession.getAuthorizedCaIdSet(admin);
+        final List<Integer> allCaIdList = caSession.getAllCaIds();
+        final long profileChangeCount = EndEntityProfileCache.INSTANCE.getChangeCount(entityManager);
+        final Map<Integer, EndEntityProfile> profileCache = EndEntityProfileCache.INSTANCE.getProfileCache(entityManager);
+        return new ArrayList<>(authorizationSession.getAuthorizedIdSets(admin).get(AuthorizedIdSets.END_ENTITY_PROFILE_IDS + endentityAccessRule, () -> {
+            final ArrayList<Integer> returnval = new ArrayList<>();
+            final HashSet<Integer> authorizedCaIds = new HashSet<>(authorizedCaIdSet.getIds());
+            final HashSet<Integer> allCaIds = new HashSet<>(allCaIdList);
+            // If this is the special value ALLCAs we are authorized
+            authorizedCaIds.add(Integer.valueOf(SecConst.ALLCAS));
+
+            final boolean rootAccess = authorizationSession.isAuthorizedNoLogging(admin, StandardRules.ROLE_ROOT.resource());
+            // We have to manually add the EMPTY end entity profile because it is not included in the profile cache
+            if (authorizationSession.isAuthorizedNoLogging(admin, AccessRulesConstants.ENDENTITYPROFILEBASE + "/" + EndEntityConstants.EMPTY_END_ENTITY_PROFILE + endentityAccessRule)) {
+                returnval.add(EndEntityConstants.EMPTY_END_ENTITY_PROFILE);
             }
-        }
-        return returnval;
+            for (final Entry<Integer, EndEntityProfile> entry : profileCache.entrySet()) {
+                if (isAuthorizedToProfile(admin, entry.getKey(), entry.getValue(), rootAccess, authorizedCaIds, allCaIds, endentityAccessRule)) {
+                    returnval.add(entry.getKey());
+                }
+            }
+            return returnval;
+        }, authorizedCaIdSet, allCaIdList, profileChangeCount).getIds());
     }
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
@@ -99,6 +99,7 @@ import org.cesecore.config.RaStyleInfo;
 import org.cesecore.configuration.ConfigurationBase;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.roles.AccessRulesHelper;
 import org.cesecore.roles.Role;
@@ -1175,7 +1176,7 @@ public class RaMasterApiProxyBean implements RaMasterApiProxyBeanLocal {
                     // Create new key pair and CSR
                     final String keyalg = storedEndEntity.getExtendedInformation().getKeyStoreAlgorithmType();
                     final String keyspec = storedEndEntity.getExtendedInformation().getKeyStoreAlgorithmSubType();
-                    kp = KeyTools.genKeys(keyspec, keyalg);
+                    kp = KeyPairPool.INSTANCE.getKeyPair(keyspec, keyalg);
                     // requestCertForEndEntity verifies the password and performs the finishUser operation
                     cert = requestCertForEndEntity(authenticationToken, storedEndEntity, endEntity.getPassword(), kp);
                     // Store key pair
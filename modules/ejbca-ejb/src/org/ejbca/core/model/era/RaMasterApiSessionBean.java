@@ -132,6 +132,8 @@ import org.cesecore.roles.management.RoleSessionLocal;
 import org.cesecore.roles.member.RoleMember;
 import org.cesecore.roles.member.RoleMemberData;
 import org.cesecore.roles.member.RoleMemberSessionLocal;
+import org.cesecore.search.SearchTokenData;
+import org.cesecore.search.SearchTokenDataSessionLocal;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.EJBTools;
 import org.cesecore.util.StringTools;
@@ -300,6 +302,8 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
     @EJB
     private ScepMessageDispatcherSessionLocal scepMessageDispatcherSession;
     @EJB
+    private SearchTokenDataSessionLocal searchTokenDataSession;
+    @EJB
     private SignSessionLocal signSessionLocal;
     @EJB
     private EndEntityAuthenticationSessionLocal endEntityAuthenticationSessionLocal;
@@ -865,11 +869,11 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
 
         final List<ApprovalDataVO> approvals;
         try {
-            String endEntityProfileAuthorizationString = getEndEntityProfileAuthorizationString(authenticationToken, AccessRulesConstants.APPROVE_END_ENTITY);
+            final List<Integer> endEntityProfileIds = getApprovalEndEntityProfileIds(authenticationToken, AccessRulesConstants.APPROVE_END_ENTITY);
             RAAuthorization raAuthorization = new RAAuthorization(authenticationToken, globalConfigurationSession,
                     authorizationSession, caSession, endEntityProfileSession);
             approvals = approvalSession.queryByStatus(request.isSearchingWaitingForMe() || request.isSearchingPending(), request.isSearchingHistorical(),
-                    request.isSearchingExpired(), request.getStartDate(), request.getEndDate(), request.getExpiresBefore(), 0, 100, raAuthorization.getCAAuthorizationString(), endEntityProfileAuthorizationString);
+                    request.isSearchingExpired(), request.getStartDate(), request.getEndDate(), request.getExpiresBefore(), 0, 100, raAuthorization.getAuthorizedCaIds(), endEntityProfileIds);
         } catch (AuthorizationDeniedException e) {
             // Not currently ever thrown by query()
             throw new IllegalStateException(e);
@@ -918,7 +922,8 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
 
     // TODO this method is copied from RAAuthorization because we couldn't use ComplexAccessControlSession.
     // We should find a way to use ComplexAccessControlSession here instead
-    private String getEndEntityProfileAuthorizationString(AuthenticationToken authenticationToken, String endentityAccessRule) throws AuthorizationDeniedException {
+    /** @return the end entity profile ids of the approvals that the administrator may query for, or null if they should not be limited by end entity profile */
+    private List<Integer> getApprovalEndEntityProfileIds(AuthenticationToken authenticationToken, String endentityAccessRule) throws AuthorizationDeniedException {
         // i.e approvals with endentityprofile ApprovalDataVO.ANY_ENDENTITYPROFILE
         boolean authorizedToApproveCAActions = authorizationSession.isAuthorizedNoLogging(authenticationToken, AccessRulesConstants.REGULAR_APPROVECAACTION);
         // i.e approvals with endentityprofile not ApprovalDataVO.ANY_ENDENTITYPROFILE
@@ -930,48 +935,32 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                     +", "+authorizedToAudit+" or "+authorizedToViewApprovals);
         }
 
-        String endentityauth = null;
         GlobalConfiguration globalconfiguration = (GlobalConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
-        if (globalconfiguration.getEnableEndEntityProfileLimitations()){
-            endentityauth = getEndEntityProfileAuthorizationString(authenticationToken, true, endentityAccessRule);
-            if(authorizedToApproveCAActions && authorizedToApproveRAActions){
-                endentityauth = getEndEntityProfileAuthorizationString(authenticationToken, true, endentityAccessRule);
-                if(endentityauth != null){
-                  endentityauth = "(" + getEndEntityProfileAuthorizationString(authenticationToken, false, endentityAccessRule) + " OR endEntityProfileId=" + ApprovalDataVO.ANY_ENDENTITYPROFILE + " ) ";
-                }
-            }else if (authorizedToApproveCAActions) {
-                endentityauth = " endEntityProfileId=" + ApprovalDataVO.ANY_ENDENTITYPROFILE;
-            }else if (authorizedToApproveRAActions) {
-                endentityauth = getEndEntityProfileAuthorizationString(authenticationToken, true, endentityAccessRule);
-            }
-
+        if (!globalconfiguration.getEnableEndEntityProfileLimitations()) {
+            return null;
+        }
+        if (authorizedToApproveCAActions && !authorizedToApproveRAActions) {
+            return new ArrayList<>(Arrays.asList(ApprovalDataVO.ANY_ENDENTITYPROFILE));
         }
-        return endentityauth == null ? endentityauth : endentityauth.trim();
+        final List<Integer> profileIds = getAuthorizedApprovalEndEntityProfileIds(authenticationToken, endentityAccessRule);
+        if (profileIds.isEmpty()) {
+            // As with the authorization string this replaces, no authorized end entity profiles does not limit the query
+            return null;
+        }
+        if (authorizedToApproveCAActions) {
+            profileIds.add(ApprovalDataVO.ANY_ENDENTITYPROFILE);
+        }
+        return profileIds;
     }
 
     // TODO this method is copied from RAAuthorization because we couldn't use ComplexAccessControlSession.
     // We should find a way to use ComplexAccessControlSession here instead
-    private String getEndEntityProfileAuthorizationString(AuthenticationToken authenticationToken, boolean includeparanteses, String endentityAccessRule){
-        String authendentityprofilestring=null;
-          Collection<Integer> profileIds = new ArrayList<>(endEntityProfileSession.getEndEntityProfileIdToNameMap().keySet());
-          Collection<Integer> result = getAuthorizedEndEntityProfileIds(authenticationToken, AccessRulesConstants.VIEW_END_ENTITY, profileIds);
-          result.retainAll(this.endEntityProfileSession.getAuthorizedEndEntityProfileIds(authenticationToken, endentityAccessRule));
-          Iterator<Integer> iter = result.iterator();
-
-          while(iter.hasNext()){
-            if(authendentityprofilestring == null) {
-              authendentityprofilestring = " endEntityProfileId = " + iter.next().toString();
-            } else {
-              authendentityprofilestring = authendentityprofilestring + " OR endEntityProfileId = " + iter.next().toString();
-            }
-          }
-
-          if(authendentityprofilestring != null) {
-            authendentityprofilestring = "( " + authendentityprofilestring + " )";
-          }
-
-        return authendentityprofilestring;
-      }
+    private List<Integer> getAuthorizedApprovalEndEntityProfileIds(AuthenticationToken authenticationToken, String endentityAccessRule) {
+        Collection<Integer> profileIds = new ArrayList<>(endEntityProfileSession.getEndEntityProfileIdToNameMap().keySet());
+        Collection<Integer> result = getAuthorizedEndEntityProfileIds(authenticationToken, AccessRulesConstants.VIEW_END_ENTITY, profileIds);
+        result.retainAll(this.endEntityProfileSession.getAuthorizedEndEntityProfileIds(authenticationToken, endentityAccessRule));
+        return new ArrayList<>(result);
+    }
 
     // TODO this method is copied from ComplexAccessControlSession. We should find a way to use ComplexAccessControlSession here instead
     private Collection<Integer> getAuthorizedEndEntityProfileIds(AuthenticationToken authenticationToken, String rapriviledge,
@@ -1025,6 +1014,33 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         return cdw;
     }
 
+    /**
+     * Looks up the rows that may match the given (possibly empty) search strings in the search token index.
+     *
+     * @param referenceType one of the SearchTokenData.REFERENCE_TYPE_ constants
+     * @return the primary keys of the candidate rows, or null if the index is disabled or cannot be used to narrow down these search strings
+     */
+    private Set<String> findSearchTokenCandidates(final int referenceType, final String subjectDnSearchString, final String subjectAnSearchString,
+            final String usernameSearchString) {
+        if (!CesecoreConfiguration.useSearchTokenIndex()) {
+            return null;
+        }
+        final Map<Integer, String> fieldSearchStrings = new HashMap<>();
+        if (!subjectDnSearchString.isEmpty()) {
+            fieldSearchStrings.put(SearchTokenData.FIELD_SUBJECTDN, subjectDnSearchString);
+        }
+        if (!subjectAnSearchString.isEmpty()) {
+            fieldSearchStrings.put(SearchTokenData.FIELD_SUBJECTALTNAME, subjectAnSearchString);
+        }
+        if (!usernameSearchString.isEmpty()) {
+            fieldSearchStrings.put(SearchTokenData.FIELD_USERNAME, usernameSearchString);
+        }
+        if (fieldSearchStrings.isEmpty()) {
+            return null;
+        }
+        return searchTokenDataSession.findCandidates(referenceType, fieldSearchStrings, CesecoreConfiguration.getSearchTokenIndexMaxCandidates());
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public RaCertificateSearchResponse searchForCertificates(AuthenticationToken authenticationToken, RaCertificateSearchRequest request) {
@@ -1077,16 +1093,31 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
             authorizedEepIds.add(EndEntityConstants.NO_END_ENTITY_PROFILE);
             authorizedCpIds.add(CertificateProfileConstants.NO_CERTIFICATE_PROFILE);
         }
-        final String subjectDnSearchString = request.getSubjectDnSearchString();
-        final String subjectAnSearchString = request.getSubjectAnSearchString();
-        final String usernameSearchString = request.getUsernameSearchString();
         final String serialNumberSearchStringFromDec = request.getSerialNumberSearchStringFromDec();
         final String serialNumberSearchStringFromHex = request.getSerialNumberSearchStringFromHex();
+        // Narrow down the Subject DN, Subject AN and username searches to the candidates found in the search token index (if enabled)
+        final Set<String> candidateFingerprints = findSearchTokenCandidates(SearchTokenData.REFERENCE_TYPE_CERTIFICATE, request.getSubjectDnSearchString(),
+                request.getSubjectAnSearchString(), request.getUsernameSearchString());
+        final boolean noTextMatches = candidateFingerprints != null && candidateFingerprints.isEmpty();
+        if (noTextMatches && serialNumberSearchStringFromDec.isEmpty() && serialNumberSearchStringFromHex.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No certificates matched the search strings in the search token index.");
+            }
+            return response;
+        }
+        final boolean useCandidateFingerprints = candidateFingerprints != null && !noTextMatches;
+        // When nothing matched in the index, only the serial number can match
+        final String subjectDnSearchString = noTextMatches ? "" : request.getSubjectDnSearchString();
+        final String subjectAnSearchString = noTextMatches ? "" : request.getSubjectAnSearchString();
+        final String usernameSearchString = noTextMatches ? "" : request.getUsernameSearchString();
         final StringBuilder sb = new StringBuilder("SELECT a.fingerprint FROM CertificateData a WHERE (a.issuerDN IN (:issuerDN))");
         if (!subjectDnSearchString.isEmpty() || !subjectAnSearchString.isEmpty() || !usernameSearchString.isEmpty() ||
                 !serialNumberSearchStringFromDec.isEmpty() || !serialNumberSearchStringFromHex.isEmpty()) {
             sb.append(" AND (");
             boolean firstAppended = false;
+            if (useCandidateFingerprints) {
+                sb.append("(a.fingerprint IN (:candidateFingerprints) AND (");
+            }
             if (!subjectDnSearchString.isEmpty()) {
                 sb.append("UPPER(a.subjectDN) LIKE :subjectDN");
                 firstAppended = true;
@@ -1107,6 +1138,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
                 }
                 sb.append("UPPER(a.username) LIKE :username");
             }
+            if (useCandidateFingerprints) {
+                sb.append("))");
+            }
             if (!serialNumberSearchStringFromDec.isEmpty()) {
                 if (firstAppended) {
                     sb.append(" OR ");
@@ -1160,6 +1194,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         }
         final Query query = entityManager.createQuery(sb.toString());
         query.setParameter("issuerDN", issuerDns);
+        if (useCandidateFingerprints) {
+            query.setParameter("candidateFingerprints", candidateFingerprints);
+        }
         if (!accessAnyCpAvailable || !request.getCpIds().isEmpty()) {
             query.setParameter("certificateProfileId", authorizedCpIds);
         }
@@ -1330,7 +1367,19 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         final String subjectDnSearchString = request.getSubjectDnSearchString();
         final String subjectAnSearchString = request.getSubjectAnSearchString();
         final String usernameSearchString = request.getUsernameSearchString();
+        // Narrow down the search to the candidates found in the search token index (if enabled)
+        final Set<String> candidateUsernames = findSearchTokenCandidates(SearchTokenData.REFERENCE_TYPE_END_ENTITY, subjectDnSearchString,
+                subjectAnSearchString, usernameSearchString);
+        if (candidateUsernames != null && candidateUsernames.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No end entities matched the search strings in the search token index.");
+            }
+            return response;
+        }
         final StringBuilder sb = new StringBuilder("SELECT a.username FROM UserData a WHERE (a.caId IN (:caId))");
+        if (candidateUsernames != null) {
+            sb.append(" AND (a.username IN (:candidateUsernames))");
+        }
         if (!subjectDnSearchString.isEmpty() || !subjectAnSearchString.isEmpty() || !usernameSearchString.isEmpty()) {
             sb.append(" AND (");
             boolean firstAppended = false;
@@ -1376,6 +1425,9 @@ public class RaMasterApiSessionBean implements RaMasterApiSessionLocal {
         }
         final Query query = entityManager.createQuery(sb.toString());
         query.setParameter("caId", authorizedLocalCaIds);
+        if (candidateUsernames != null) {
+            query.setParameter("candidateUsernames", candidateUsernames);
+        }
         if (!accessAnyCpAvailable || !request.getCpIds().isEmpty()) {
             query.setParameter("certificateProfileId", authorizedCpIds);
         }
@@ -34,9 +34,11 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -55,8 +57,10 @@ import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Hex;
 import org.cesecore.authentication.tokens.AuthenticationSubject;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.CmpVerifiedSignerCache;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.AuthorizationSession;
 import org.cesecore.authorization.control.StandardRules;
@@ -120,6 +124,9 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
     private WebAuthenticationProviderSessionLocal authenticationProviderSession;
     private EndEntityManagementSession eeManagementSession;
 
+    /** CAs looked up by name while handling this message, since the same CA is often needed by several checks */
+    private final Map<String, CAInfo> caInfosByName = new HashMap<>();
+
     /** Definition of the optional Vendor mode implementation */
     private static final String implClassName = "org.ejbca.core.protocol.cmp.authentication.CmpVendorModeImpl";
     /** Cache class so we don't have to do Class.forName for every entity object created */
@@ -339,32 +346,42 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
             }
         } else if(ramode) {
 
-            // Get the CA to use for the authentication
-            CAInfo cainfo = getCAInfoByName(authenticationparameter);
-            if(cainfo == null) {
-                return false;
-            }
+            final String extraCertFingerprint = CertTools.getFingerprintAsString(extraCert);
+            final String verifiedSignerKey = getVerifiedSignerKey(extraCertFingerprint, msg, endentity);
+            if (CmpVerifiedSignerCache.INSTANCE.isVerified(verifiedSignerKey)) {
+                if(log.isDebugEnabled()) {
+                    log.debug("Certificate in extraCerts field has recently been verified and authorized for this kind of request, skipping database lookups.");
+                }
+            } else {
+                final long removalCount = CmpVerifiedSignerCache.INSTANCE.getRemovalCount();
+                // Get the CA to use for the authentication
+                CAInfo cainfo = getCAInfoByName(authenticationparameter);
+                if(cainfo == null) {
+                    return false;
+                }
 
-            // Check that extraCert is in the Database
-            CertificateInfo certinfo = certSession.getCertificateInfo(CertTools.getFingerprintAsString(extraCert));
-            if(certinfo == null) {
-                this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
-                return false;
-            }
+                // Check that extraCert is in the Database
+                CertificateInfo certinfo = certSession.getCertificateInfo(extraCertFingerprint);
+                if(certinfo == null) {
+                    this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
+                    return false;
+                }
 
-            // More extraCert verifications
-            if(!isExtraCertValidAndIssuedByCA(extraCertPath, cainfo) || !isExtraCertActive(certinfo)) {
-                return false;
-            } else {
-                if(log.isDebugEnabled()) {
-                    log.debug("Certificate in extraCerts field is issued by " + cainfo.getName() + ", is valid and active");
+                // More extraCert verifications
+                if(!isExtraCertValidAndIssuedByCA(extraCertPath, cainfo) || !isExtraCertActive(certinfo)) {
+                    return false;
+                } else {
+                    if(log.isDebugEnabled()) {
+                        log.debug("Certificate in extraCerts field is issued by " + cainfo.getName() + ", is valid and active");
+                    }
                 }
-            }
 
-            // Check that extraCert belong to an admin with sufficient access rights
-            if(!isAuthorizedAdmin(certinfo, msg, endentity)){
-                this.errorMessage = "'" + CertTools.getSubjectDN(extraCert) + "' is not an authorized administrator.";
-                return false;
+                // Check that extraCert belong to an admin with sufficient access rights
+                if(!isAuthorizedAdmin(certinfo, msg, endentity)){
+                    this.errorMessage = "'" + CertTools.getSubjectDN(extraCert) + "' is not an authorized administrator.";
+                    return false;
+                }
+                CmpVerifiedSignerCache.INSTANCE.addVerified(verifiedSignerKey, (X509Certificate) extraCert, removalCount);
             }
 
         } else if(!ramode) { // client mode
@@ -584,6 +601,37 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
         return userdata;
     }
 
+    /**
+     * Returns the key of the extraCert in {@link CmpVerifiedSignerCache}. The key contains everything the RA mode verifications
+     * depend on, i.e. the certificate, the CMP alias settings that select the CA and profiles, and the parts of the request that
+     * are used in {@link #isAuthorizedAdmin(CertificateInfo, PKIMessage, EndEntityInformation)}.
+     *
+     * @return the key, or null if the request can not be handled by the cache.
+     */
+    private String getVerifiedSignerKey(final String extraCertFingerprint, final PKIMessage msg, final EndEntityInformation endentity) {
+        final int tagnr = msg.getBody().getType();
+        final StringBuilder key = new StringBuilder(extraCertFingerprint);
+        key.append(';').append(confAlias).append(';').append(authenticationparameter).append(';').append(tagnr);
+        key.append(';').append(cmpConfiguration.getRAEEProfile(confAlias)).append(';').append(cmpConfiguration.getRACertProfile(confAlias));
+        key.append(';').append(cmpConfiguration.getRACAName(confAlias));
+        final ASN1OctetString senderKID = msg.getHeader().getSenderKID();
+        if (senderKID != null) {
+            key.append(';').append(Hex.toHexString(senderKID.getOctets()));
+        }
+        if (tagnr == CmpPKIBodyConstants.KEYUPDATEREQUEST) {
+            key.append(';').append(endentity.getEndEntityProfileId()).append(';').append(endentity.getCertificateProfileId());
+            key.append(';').append(endentity.getCAId());
+        } else if (tagnr == CmpPKIBodyConstants.REVOCATIONREQUEST) {
+            try {
+                key.append(';').append(CertTools.stringToBCDNString(getIssuerDNFromRevRequest((RevReqContent) msg.getBody().getContent())));
+            } catch (RuntimeException e) {
+                // Let the normal verification report the problem
+                return null;
+            }
+        }
+        return key.toString();
+    }
+
     /**
      * Checks if cert belongs to an administrator who is authorized to process the request.
      *
@@ -979,8 +1027,13 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
     }
 
     private CAInfo getCAInfoByName(String caname) {
+        if (caInfosByName.containsKey(caname)) {
+            return caInfosByName.get(caname);
+        }
         try {
-            return caSession.getCAInfo(admin, caname);
+            final CAInfo cainfo = caSession.getCAInfo(admin, caname);
+            caInfosByName.put(caname, cainfo);
+            return cainfo;
         } catch (AuthorizationDeniedException e) {
             this.errorMessage = "Authorization denied for CA: " + caname;
             if(log.isDebugEnabled()) {
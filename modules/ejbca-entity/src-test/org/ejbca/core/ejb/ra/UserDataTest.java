@@ -14,13 +14,22 @@ package org.ejbca.core.ejb.ra;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+import org.apache.log4j.Logger;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
+import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.ejbca.core.ejb.ra.UserData;
 import org.ejbca.core.model.ra.UserDataVO;
 import org.junit.Test;
@@ -33,6 +42,8 @@ import org.junit.Test;
 @SuppressWarnings("deprecation")
 public class UserDataTest {
 
+    private static final Logger log = Logger.getLogger(UserDataTest.class);
+
 	@Test
     public void test01UserPassword() throws Exception {
     	UserData data = new UserData();
@@ -96,4 +107,80 @@ public class UserDataTest {
 		assertEquals(3, ei.getTokenType());
 		assertEquals(65, ei.getType().getHexValue());
 	}
+
+    @Test
+    public void test03LazyExtendedInformation() throws Exception {
+        final ExtendedInformation extendedInformation = new ExtendedInformation();
+        extendedInformation.setCertificateEndTime("2030-01-01 00:00:00+00:00");
+        final UserData data = new UserData();
+        data.setUsername("lazytest");
+        data.setExtendedInformationData(EndEntityInformation.extendedInformationToStringData(extendedInformation));
+        final EndEntityInformation ei = data.toEndEntityInformationLazy();
+        // Copies, serialization and the detail map should all see the not yet decoded extended information
+        final EndEntityInformation copy = new EndEntityInformation(ei);
+        assertEquals("2030-01-01 00:00:00+00:00", copy.getExtendedInformation().getCertificateEndTime());
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(ei);
+        }
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            final EndEntityInformation read = (EndEntityInformation) ois.readObject();
+            assertEquals("2030-01-01 00:00:00+00:00", read.getExtendedInformation().getCertificateEndTime());
+        }
+        assertEquals("2030-01-01 00:00:00+00:00", ei.getExtendedInformation().getCertificateEndTime());
+        assertTrue(data.toEndEntityInformationLazy().getDetailMap().get("extendedInformation").contains("2030-01-01"));
+        // Setting the extended information should replace the not yet decoded data
+        final EndEntityInformation replaced = data.toEndEntityInformationLazy();
+        replaced.setExtendedInformation(null);
+        assertNull(replaced.getExtendedInformation());
+        // An entity that has already decoded its extended information shares it, like toEndEntityInformation
+        data.getExtendedInformation().setCertificateEndTime("2031-01-01 00:00:00+00:00");
+        assertEquals("2031-01-01 00:00:00+00:00", data.toEndEntityInformationLazy().getExtendedInformation().getCertificateEndTime());
+        final UserData empty = new UserData();
+        empty.setUsername("lazytest2");
+        assertNull(empty.toEndEntityInformationLazy().getExtendedInformation());
+    }
+
+    /**
+     * Compares the time to list end entities with eagerly and lazily decoded extended information, for callers that only use the
+     * searchable fields. Run with -Duserdata.benchmark=true
+     */
+    @Test
+    public void test04ListingBenchmark() throws Exception {
+        if (!Boolean.getBoolean("userdata.benchmark")) {
+            log.info("Skipping benchmark, enable with -Duserdata.benchmark=true");
+            return;
+        }
+        final ExtendedInformation extendedInformation = new ExtendedInformation();
+        extendedInformation.setCertificateEndTime("2030-01-01 00:00:00+00:00");
+        extendedInformation.setSubjectDirectoryAttributes("countryOfCitizenship=SE");
+        extendedInformation.setMaxLoginAttempts(3);
+        final String extendedInformationData = EndEntityInformation.extendedInformationToStringData(extendedInformation);
+        final int rows = 100000;
+        final List<UserData> userDatas = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            final UserData data = new UserData();
+            data.setUsername("user" + i);
+            data.setSubjectDN("CN=user" + i);
+            data.setStatus(10);
+            data.setExtendedInformationData(extendedInformationData);
+            userDatas.add(data);
+        }
+        int count = 0;
+        // Lazy first, since toEndEntityInformation leaves the decoded extended information in the entity
+        long start = System.nanoTime();
+        for (final UserData data : userDatas) {
+            count += data.toEndEntityInformationLazy().getStatus() == 10 ? 1 : 0;
+        }
+        final long lazyTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (final UserData data : userDatas) {
+            count += data.toEndEntityInformation().getStatus() == 10 ? 1 : 0;
+        }
+        final long eagerTime = System.nanoTime() - start;
+        log.info("Listing " + rows + " end entities: " + eagerTime / 1000000 + " ms when decoding the extended information, " + lazyTime / 1000000
+                + " ms with lazy decoding.");
+        assertEquals(2 * rows, count);
+        assertTrue(lazyTime < eagerTime);
+    }
 }
@@ -13,9 +13,6 @@
 
 package org.ejbca.core.ejb.approval;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
@@ -32,8 +29,8 @@ import org.apache.log4j.Logger;
 import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.dbprotection.ProtectedData;
 import org.cesecore.dbprotection.ProtectionStringBuilder;
-import org.cesecore.util.Base64;
 import org.ejbca.core.model.approval.Approval;
+import org.ejbca.core.model.approval.ApprovalDataCodec;
 import org.ejbca.core.model.approval.ApprovalDataVO;
 import org.ejbca.core.model.approval.ApprovalRequest;
 
@@ -64,6 +61,9 @@ public class ApprovalData extends ProtectedData implements Serializable {
 	private int remainingApprovals;
 	private int rowVersion = 0;
 	private String rowProtection;
+	/** The decoded requestData and approvalData, that are decoded when first used and discarded when the column is set */
+	private transient ApprovalRequest approvalRequest;
+	private transient List<Approval> approvals;
 
 	/**
 	 * Entity holding data of a approval data.
@@ -177,7 +177,10 @@ public class ApprovalData extends ProtectedData implements Serializable {
 	/**
 	 * String representation of data of approvals made by one or more administrators
 	 */
-	public void setApprovaldata(String approvalData) { this.approvalData = approvalData; }
+	public void setApprovaldata(String approvalData) {
+		this.approvalData = approvalData;
+		this.approvals = null;
+	}
 
 	/**
 	 * Data containing information about the request displayed for the approval administrator.
@@ -188,7 +191,10 @@ public class ApprovalData extends ProtectedData implements Serializable {
 	/**
 	 * Data containing information about the request displayed for the approval administrator.
 	 */
-	public void setRequestdata(String requestData) { this.requestData = requestData; }            
+	public void setRequestdata(String requestData) {
+		this.requestData = requestData;
+		this.approvalRequest = null;
+	}
 
 	/**
 	 * Date the request for approval were added
@@ -320,49 +326,44 @@ public class ApprovalData extends ProtectedData implements Serializable {
     //
     
     /**
-     * @return a value object representation of this entity bean
+     * @return a value object representation of this entity bean. The approval request and approvals of the value object are decoded when
+     * first used.
      */
     @Transient
     public ApprovalDataVO getApprovalDataVO() {
         hasRequestOrApprovalExpired();
-        ApprovalDataVO result = new ApprovalDataVO(getId(), getApprovalid(), getApprovaltype(), getEndEntityProfileId(), getCaid(), getReqadmincertissuerdn(),
-                getReqadmincertsn(), getStatus(), getApprovals(), getApprovalRequest(), getRequestDate(), getExpireDate());
-        return result;
+        return new ApprovalDataVO(getId(), getApprovalid(), getApprovaltype(), getEndEntityProfileId(), getCaid(), getReqadmincertissuerdn(),
+                getReqadmincertsn(), getStatus(), getApprovaldata(), getRequestdata(), getRequestDate(), getExpireDate());
     }
-    
+
+    /**
+     * @return the approval request, that is decoded once and then kept until the request data is set. Changes to the returned object are
+     * stored when it is set with ApprovalSessionLocal.updateApprovalRequest.
+     */
     @Transient
     public ApprovalRequest getApprovalRequest() {
-        ApprovalRequest retval = null;      
-        try {
-            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Base64.decode(getRequestdata().getBytes())));
-            retval= (ApprovalRequest) ois.readObject();
-        } catch (IOException e) {
-            log.error("Error building approval request.",e);
-            throw new IllegalStateException(e);
-        } catch (ClassNotFoundException e) {
-            log.error("Error building approval request.",e);
-            throw new IllegalStateException(e);
+        if (approvalRequest == null) {
+            try {
+                approvalRequest = ApprovalDataCodec.decodeApprovalRequest(getRequestdata());
+            } catch (IllegalStateException e) {
+                log.error("Error building approval request.", e);
+                throw e;
+            }
         }
-        return retval;
+        return approvalRequest;
     }
-    
+
+    /** @return a modifiable copy of the list of approvals, that is decoded once and then kept until the approval data is set */
     @Transient
     public List<Approval> getApprovals() {
-        List<Approval> retval = new ArrayList<Approval>();
-        try{
-            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Base64.decode(getApprovaldata().getBytes())));
-            int size = ois.readInt();
-            for(int i=0;i<size;i++){
-                Approval next = (Approval) ois.readObject();
-                retval.add(next);
+        if (approvals == null) {
+            try {
+                approvals = ApprovalDataCodec.decodeApprovals(getApprovaldata());
+            } catch (IllegalStateException e) {
+                log.error("Error building approvals.", e);
+                throw e;
             }
-        } catch (IOException e) {
-            log.error("Error building approvals.",e);
-            throw new IllegalStateException(e);
-        } catch (ClassNotFoundException e) {
-            log.error("Error building approvals.",e);
-            throw new IllegalStateException(e);
         }
-        return retval;
+        return new ArrayList<>(approvals);
     }
 }
@@ -311,6 +311,26 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     	return query.getResultList();
     }
 
+    /**
+     * Lookup publisher queue data items with the specified status that were created and last updated before the given time, oldest first.
+     *
+     * @param entityManager the entity manager used to create the query.
+     * @param publishStatus one of the constants in {@link PublisherConst}, only publisher queue data items with this status is returned.
+     * @param before time in milliseconds, only items created and last updated before this time are returned.
+     * @param maxRows limits the number of rows fetched.
+     * @return return a list of publisher queue data items.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<PublisherQueueData> findDataByStatusAndLastUpdateBefore(EntityManager entityManager, int publishStatus, long before,
+            int maxRows) {
+        final Query query = entityManager.createQuery("SELECT a FROM PublisherQueueData a WHERE a.publishStatus=:publishStatus"
+                + " AND a.timeCreated<:before AND a.lastUpdate<:before ORDER BY a.timeCreated ASC");
+        query.setParameter("publishStatus", publishStatus);
+        query.setParameter("before", before);
+        query.setMaxResults(maxRows);
+        return query.getResultList();
+    }
+
 	/** @return return the count. */
 	public static long findCountOfPendingEntriesForPublisher(EntityManager entityManager, int publisherId) {
 		Query query = entityManager.createQuery("SELECT COUNT(a) FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND publishStatus=" + PublisherConst.STATUS_PENDING);
@@ -623,6 +623,19 @@ public class UserData extends ProtectedData implements Serializable {
      * Non-searchable information about a user.
      */
     public EndEntityInformation toEndEntityInformation() {
+        return toEndEntityInformation(false);
+    }
+
+    /**
+     * Like {@link #toEndEntityInformation()}, but the extended information is only decoded when the returned object's
+     * {@link EndEntityInformation#getExtendedInformation()} is first called. Used when listing end entities.
+     */
+    public EndEntityInformation toEndEntityInformationLazy() {
+        return toEndEntityInformation(true);
+    }
+
+    /** @param lazy true to pass the extended information on undecoded, unless it has already been decoded */
+    private EndEntityInformation toEndEntityInformation(final boolean lazy) {
         final EndEntityInformation data = new EndEntityInformation();
         data.setUsername(getUsername());
         data.setCAId(getCaId());
@@ -630,7 +643,11 @@ public class UserData extends ProtectedData implements Serializable {
         data.setDN(getSubjectDnNeverNull());
         data.setEmail(getSubjectEmail());
         data.setEndEntityProfileId(getEndEntityProfileId());
-        data.setExtendedInformation(getExtendedInformation());
+        if (lazy && extendedInformation == null) {
+            data.setExtendedInformationStringData(extendedInformationData);
+        } else {
+            data.setExtendedInformation(getExtendedInformation());
+        }
         data.setPassword(getOpenPassword());
         data.setStatus(getStatus());
         data.setSubjectAltName(getSubjectAltNameNeverNull());
@@ -31,6 +31,8 @@ import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.log4j.Logger;
+import org.cesecore.util.metrics.LatencyHistogram;
+import org.cesecore.util.metrics.LatencyMetrics;
 
 /**
  * Servlet Filter for logging REST request and responses.
@@ -134,6 +136,8 @@ public class RestLoggingFilter implements Filter {
     }
     
     private static final Logger log = Logger.getLogger(RestLoggingFilter.class);
+    /** Duration of REST requests, exported by the metrics servlet of the health check */
+    private static final LatencyHistogram latencyHistogram = LatencyMetrics.INSTANCE.getHistogram(LatencyMetrics.Type.PROTOCOL, "REST");
 
     @Override
     public void init(final FilterConfig filterConfig) throws ServletException {}
@@ -143,6 +147,15 @@ public class RestLoggingFilter implements Filter {
 
     @Override
     public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse, final FilterChain filterChain) throws IOException, ServletException {
+        final long startNanos = System.nanoTime();
+        try {
+            logAndFilter(servletRequest, servletResponse, filterChain);
+        } finally {
+            latencyHistogram.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void logAndFilter(final ServletRequest servletRequest, final ServletResponse servletResponse, final FilterChain filterChain) throws IOException, ServletException {
         
         final long startTime = System.currentTimeMillis();
         
@@ -165,6 +165,8 @@ public class ObjectFactory {
     private final static QName _CertificateProfileDoesNotExistException_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "CertificateProfileDoesNotExistException");
     private final static QName _RevokeCertWithMetadata_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "revokeCertWithMetadata");
     private final static QName _RevokeCertWithMetadataResponse_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "revokeCertWithMetadataResponse");
+    private final static QName _RevokeCertificates_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "revokeCertificates");
+    private final static QName _RevokeCertificatesResponse_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "revokeCertificatesResponse");
     private final static QName _GetLatestCRLPartition_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "getLatestCRLPartition");
     private final static QName _CrlRequestResponseReturn_QNAME = new QName("", "return");
     private final static QName _GetLatestCRLPartitionResponse_QNAME = new QName("http://ws.protocol.core.ejbca.org/", "getLatestCRLPartitionResponse");
@@ -296,6 +298,22 @@ public class ObjectFactory {
         return new RevokeCertResponse();
     }
 
+    /**
+     * Create an instance of {@link RevokeCertificates }
+     *
+     */
+    public RevokeCertificates createRevokeCertificates() {
+        return new RevokeCertificates();
+    }
+
+    /**
+     * Create an instance of {@link RevokeCertificatesResponse }
+     *
+     */
+    public RevokeCertificatesResponse createRevokeCertificatesResponse() {
+        return new RevokeCertificatesResponse();
+    }
+
     /**
      * Create an instance of {@link IsApprovedResponse }
      *
@@ -2682,6 +2700,24 @@ public class ObjectFactory {
         return new JAXBElement<RevokeCertWithMetadataResponse>(_RevokeCertWithMetadataResponse_QNAME, RevokeCertWithMetadataResponse.class, null, value);
     }
 
+    /**
+     * Create an instance of {@link JAXBElement }{@code <}{@link RevokeCertificates }{@code >}}
+     *
+     */
+    @XmlElementDecl(namespace = "http://ws.protocol.core.ejbca.org/", name = "revokeCertificates")
+    public JAXBElement<RevokeCertificates> createRevokeCertificates(RevokeCertificates value) {
+        return new JAXBElement<RevokeCertificates>(_RevokeCertificates_QNAME, RevokeCertificates.class, null, value);
+    }
+
+    /**
+     * Create an instance of {@link JAXBElement }{@code <}{@link RevokeCertificatesResponse }{@code >}}
+     *
+     */
+    @XmlElementDecl(namespace = "http://ws.protocol.core.ejbca.org/", name = "revokeCertificatesResponse")
+    public JAXBElement<RevokeCertificatesResponse> createRevokeCertificatesResponse(RevokeCertificatesResponse value) {
+        return new JAXBElement<RevokeCertificatesResponse>(_RevokeCertificatesResponse_QNAME, RevokeCertificatesResponse.class, null, value);
+    }
+
     /**
      * Create an instance of {@link JAXBElement }{@code <}{@link GetLatestCRLPartition }{@code >}}
      *
@@ -42,6 +42,7 @@ import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.interceptor.Interceptors;
 import javax.jws.WebService;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.DatatypeConverter;
@@ -99,12 +100,15 @@ import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.config.WebServiceConfiguration;
 import org.ejbca.core.EjbcaException;
 import org.ejbca.core.ejb.EnterpriseEditionWSBridgeSessionLocal;
+import org.ejbca.core.ejb.LatencyMetricsInterceptor;
 import org.ejbca.core.ejb.approval.ApprovalProfileSessionLocal;
 import org.ejbca.core.ejb.approval.ApprovalSessionLocal;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
 import org.ejbca.core.ejb.authentication.web.WebAuthenticationProviderSessionLocal;
 import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.ejbca.core.ejb.ca.revoke.BulkRevocationRequest;
+import org.ejbca.core.ejb.ca.revoke.BulkRevocationSessionLocal;
 import org.ejbca.core.ejb.ca.sign.SignSessionLocal;
 import org.ejbca.core.ejb.ca.store.CertReqHistorySessionLocal;
 import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
@@ -178,6 +182,7 @@ import org.ejbca.util.query.IllegalQueryException;
  * @version $Id$
  */
 @Stateless
+@Interceptors(LatencyMetricsInterceptor.class)
 @WebService(name="EjbcaWS", serviceName="EjbcaWSService", targetNamespace="http://ws.protocol.core.ejbca.org/", portName="EjbcaWSPort")	//portName="EjbcaWSPort" default
 public class EjbcaWS implements IEjbcaWS {
 	@Resource
@@ -192,6 +197,8 @@ public class EjbcaWS implements IEjbcaWS {
     @EJB
     private AuthorizationSessionLocal authorizationSession;
     @EJB
+    private BulkRevocationSessionLocal bulkRevocationSession;
+    @EJB
     private CaSessionLocal caSession;
     @EJB
     private CertificateRequestSessionLocal certificateRequestSession;
@@ -962,6 +969,39 @@ public class EjbcaWS implements IEjbcaWS {
         }
 	}
 
+	@Override
+	public int revokeCertificates(final String issuerDN, final List<String> certificateSNs, final int reason, final boolean generateCrl)
+	        throws CADoesntExistsException, AuthorizationDeniedException, ApprovalException, EjbcaException {
+	    final IPatternLogger logger = TransactionLogger.getPatternLogger();
+	    try {
+	        final AuthenticationToken admin = getAdmin();
+	        logAdminName(admin, logger);
+	        // An empty selection would revoke every certificate issued by the CA
+	        if (certificateSNs == null || certificateSNs.isEmpty()) {
+	            throw getEjbcaException("No certificate serial numbers to revoke.", logger, ErrorCode.FIELD_VALUE_NOT_VALID, null);
+	        }
+	        final BulkRevocationRequest request = new BulkRevocationRequest(issuerDN, reason);
+	        final List<BigInteger> serialNumbers = new ArrayList<>();
+	        for (final String certificateSN : certificateSNs) {
+	            try {
+	                serialNumbers.add(new BigInteger(certificateSN, 16));
+	            } catch (NumberFormatException e) {
+	                throw getEjbcaException("Invalid hexadecimal certificate serial number: " + certificateSN, logger, ErrorCode.FIELD_VALUE_NOT_VALID, null);
+	            }
+	        }
+	        request.addSerialNumbers(serialNumbers);
+	        request.setGenerateCrl(generateCrl);
+	        return (int) bulkRevocationSession.revokeCertificates(admin, request).getRevokedCount();
+	    } catch (IllegalArgumentException e) {
+	        throw getEjbcaException(e.getMessage(), logger, ErrorCode.FIELD_VALUE_NOT_VALID, null);
+	    } catch (RuntimeException e) {  // EJBException, ...
+	        throw getInternalException(e, logger);
+	    } finally {
+	        logger.writeln();
+	        logger.flush();
+	    }
+	}
+
     CertRevocationDto parseRevocationMetadata(CertRevocationDto certRevocationDto, final List<KeyValuePair> metadata) throws DateNotValidException {
         final String REASON_KEY = "reason";
         final String REVOCATION_DATE_KEY = "revocationdate";
@@ -616,6 +616,37 @@ public interface IEjbcaWS {
             throws CADoesntExistsException, AuthorizationDeniedException, NotFoundException, EjbcaException, ApprovalException,
             WaitingForApprovalException, AlreadyRevokedException, RevokeBackDateNotAllowedForProfileException, DateNotValidException, 
             CertificateProfileDoesNotExistException;
+
+	/**
+	 * Revokes many certificates issued by the same CA in one operation. Authorization is checked once, the certificates are revoked
+	 * in batches. The revocations are written to the queues of the publishers that use the queue for certificates, and are published
+	 * directly to the other publishers.
+	 *
+	 * Certificates that are already revoked, does not exist, require approval for revocation, or belong to an end entity profile
+	 * that the client isn't authorized to, are ignored.
+	 *
+	 * Authorization requirements:<pre>
+	 * - /administrator
+	 * - /ra_functionality/revoke_end_entity
+	 * - /endentityprofilesrules/&lt;end entity profile&gt;/revoke_end_entity
+	 * - /ca/&lt;caid&gt;
+	 * </pre>
+	 *
+	 * <p>The request is only processed on the local system.</p>
+	 *
+	 * @param issuerDN of the CA that issued the certificates
+	 * @param certificateSNs the serial numbers in hex of the certificates to revoke
+	 * @param reason for revocation, one of {@link org.ejbca.core.protocol.ws.client.gen.RevokeStatus}.REVOKATION_REASON_ constants.
+	 * Un-revocation is not supported.
+	 * @param generateCrl if a new CRL should be generated for the CA after the revocation
+	 * @return the number of revoked certificates
+	 * @throws CADoesntExistsException if a referenced CA does not exist.
+	 * @throws AuthorizationDeniedException if client isn't authorized.
+	 * @throws ApprovalException if revocations of certificates from the CA require approval.
+	 * @throws EjbcaException any EjbcaException, for example if no serial numbers are given or a serial number is not valid hex.
+	 */
+	int revokeCertificates(String issuerDN, List<String> certificateSNs, int reason, boolean generateCrl)
+	        throws CADoesntExistsException, AuthorizationDeniedException, ApprovalException, EjbcaException;
 	
 	/**
 	 * Revokes all of a user's certificates.
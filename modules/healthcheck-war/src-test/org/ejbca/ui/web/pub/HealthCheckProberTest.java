@@ -0,0 +1,136 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the background health checks and the results published from them.
+ *
+ * @version $Id$
+ */
+public class HealthCheckProberTest {
+
+    private HealthCheckProber prober;
+    private volatile boolean slow = false;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (prober != null) {
+            prober.shutdown();
+        }
+    }
+
+    @Test
+    public void testChecksRunInParallel() {
+        final CountDownLatch started = new CountDownLatch(2);
+        final Map<String, Callable<String>> checks = new LinkedHashMap<>();
+        // Each check waits for the other one, so they only complete if they run at the same time
+        checks.put("A", waitFor(started, ""));
+        checks.put("B", waitFor(started, "\nB: Error"));
+        prober = new HealthCheckProber(supplier(checks), 2, 5000, 60000);
+        assertNull(prober.getSnapshot());
+        prober.probe();
+        final HealthCheckProber.Snapshot snapshot = prober.getSnapshot();
+        assertEquals("", snapshot.getResults().get("A").getError());
+        assertEquals("\nB: Error", snapshot.getErrors(System.currentTimeMillis(), 60000));
+    }
+
+    @Test
+    public void testFailingCheck() {
+        final Map<String, Callable<String>> checks = new LinkedHashMap<>();
+        checks.put("A", new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("Broken");
+            }
+        });
+        prober = new HealthCheckProber(supplier(checks), 1, 5000, 60000);
+        prober.probe();
+        assertEquals("\nA: Error Broken", prober.getSnapshot().getErrors(System.currentTimeMillis(), 60000));
+    }
+
+    @Test
+    public void testTimeoutKeepsFreshResult() {
+        final Map<String, Callable<String>> checks = new LinkedHashMap<>();
+        checks.put("A", new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                if (slow) {
+                    release.await();
+                }
+                return "";
+            }
+        });
+        prober = new HealthCheckProber(supplier(checks), 2, 200, 60000);
+        prober.probe();
+        final HealthCheckProber.Result first = prober.getSnapshot().getResults().get("A");
+        slow = true;
+        prober.probe();
+        assertSame("A fresh result should be kept when the check times out.", first, prober.getSnapshot().getResults().get("A"));
+        // With a short maximum age the previous result is not used
+        prober.shutdown();
+        prober = new HealthCheckProber(supplier(checks), 2, 200, 0);
+        prober.probe();
+        final String errors = prober.getSnapshot().getErrors(System.currentTimeMillis(), 60000);
+        assertTrue(errors, errors.contains("A: Error check did not complete within 200 ms."));
+    }
+
+    @Test
+    public void testStaleResult() {
+        final Map<String, Callable<String>> checks = new LinkedHashMap<>();
+        checks.put("A", waitFor(new CountDownLatch(0), ""));
+        prober = new HealthCheckProber(supplier(checks), 1, 5000, 1000);
+        prober.probe();
+        final HealthCheckProber.Snapshot snapshot = prober.getSnapshot();
+        assertEquals("", snapshot.getErrors(System.currentTimeMillis(), 1000));
+        final String errors = snapshot.getErrors(System.currentTimeMillis() + 2000, 1000);
+        assertTrue(errors, errors.startsWith("\nSTALE: A was last checked "));
+        assertTrue(snapshot.getDetails(System.currentTimeMillis()).startsWith("A: age="));
+    }
+
+    private static Callable<String> waitFor(final CountDownLatch latch, final String result) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                latch.countDown();
+                latch.await(5, TimeUnit.SECONDS);
+                return latch.getCount() == 0 ? result : "not parallel";
+            }
+        };
+    }
+
+    private static Supplier<Map<String, Callable<String>>> supplier(final Map<String, Callable<String>> checks) {
+        return new Supplier<Map<String, Callable<String>>>() {
+            @Override
+            public Map<String, Callable<String>> get() {
+                return checks;
+            }
+        };
+    }
+}
@@ -0,0 +1,244 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the health checks in the background at a fixed interval, so that health check requests can be answered from the
+ * latest results instead of testing the database, every CA token and the publishers in each request.
+ * <p>
+ * The checks of a round run in parallel. A check that has not completed within the timeout is reported as failed, unless
+ * the previous result of it is still fresh. Each round publishes an immutable {@link Snapshot}, with the age and latency of
+ * every check, which is replaced atomically.
+ *
+ * @version $Id$
+ */
+public class HealthCheckProber {
+
+    private static final Logger log = Logger.getLogger(HealthCheckProber.class);
+
+    /** The result of one check */
+    public static final class Result {
+        private final String name;
+        private final String error;
+        private final long completed;
+        private final long latency;
+
+        Result(final String name, final String error, final long completed, final long latency) {
+            this.name = name;
+            this.error = error;
+            this.completed = completed;
+            this.latency = latency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return the error message of the check, or an empty String if the check passed */
+        public String getError() {
+            return error;
+        }
+
+        /** @return the time the check completed, in milliseconds since epoch */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /** @return the time the check took, in milliseconds */
+        public long getLatency() {
+            return latency;
+        }
+    }
+
+    /** The latest results of all checks */
+    public static final class Snapshot {
+        private final Map<String, Result> results;
+
+        Snapshot(final Map<String, Result> results) {
+            this.results = Collections.unmodifiableMap(results);
+        }
+
+        public Map<String, Result> getResults() {
+            return results;
+        }
+
+        /**
+         * @param now the current time in milliseconds since epoch
+         * @param maxAge the age in milliseconds after which a result is stale
+         * @return the error messages of the failed and stale checks, or an empty String if all checks passed recently
+         */
+        public String getErrors(final long now, final long maxAge) {
+            final StringBuilder sb = new StringBuilder();
+            for (final Result result : results.values()) {
+                final long age = now - result.completed;
+                if (age > maxAge) {
+                    sb.append("\nSTALE: ").append(result.name).append(" was last checked ").append(age).append(" ms ago.");
+                } else {
+                    sb.append(result.error);
+                }
+            }
+            return sb.toString();
+        }
+
+        /** @return one line per check, with the name, age in ms, latency in ms and status */
+        public String getDetails(final long now) {
+            final StringBuilder sb = new StringBuilder();
+            for (final Result result : results.values()) {
+                sb.append(result.name).append(": age=").append(now - result.completed).append(" ms, latency=").append(result.latency).append(" ms, ")
+                        .append(result.error.isEmpty() ? "OK" : result.error.trim().replace('\n', ' ')).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    private final Supplier<Map<String, Callable<String>>> checks;
+    private final long timeout;
+    private final long maxAge;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private volatile Snapshot snapshot = null;
+
+    /**
+     * @param checks supplies the checks of each round by name, since the set of CAs and key bindings may change. Each check
+     *      returns an error message, or an empty String if it passed
+     * @param threads the number of checks that may run at the same time
+     * @param timeout the time in milliseconds after the start of a round that a check must have completed
+     * @param maxAge the age in milliseconds after which the result of a check is stale
+     */
+    public HealthCheckProber(final Supplier<Map<String, Callable<String>>> checks, final int threads, final long timeout, final long maxAge) {
+        this.checks = checks;
+        this.timeout = timeout;
+        this.maxAge = maxAge;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("HealthCheckProber"));
+        this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("HealthCheck"));
+    }
+
+    /**
+     * Starts running the checks in the background.
+     *
+     * @param interval the time in milliseconds between the end of a round and the start of the next one
+     */
+    public void start(final long interval) {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probe();
+                } catch (RuntimeException e) {
+                    // Keep the schedule running, the results will become stale if this keeps happening
+                    log.error("Health check round failed: " + e.getMessage(), e);
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the background checks, and interrupts the checks that are running */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /** @return the results of the latest round, or null if no round has completed yet */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Runs all checks in parallel, and publishes a new snapshot with the results. */
+    void probe() {
+        final long start = System.currentTimeMillis();
+        final Map<String, Future<Result>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, Callable<String>> check : checks.get().entrySet()) {
+            futures.put(check.getKey(), executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    final long checkStart = System.currentTimeMillis();
+                    String error;
+                    try {
+                        error = check.getValue().call();
+                    } catch (Exception e) { // NOPMD: a failing check should not fail the others
+                        error = "\n" + check.getKey() + ": Error " + e.getMessage();
+                    }
+                    final long completed = System.currentTimeMillis();
+                    return new Result(check.getKey(), error == null ? "" : error, completed, completed - checkStart);
+                }
+            }));
+        }
+        final Snapshot previous = snapshot;
+        final Map<String, Result> results = new LinkedHashMap<>();
+        final List<String> timedOut = new ArrayList<>();
+        for (final Map.Entry<String, Future<Result>> future : futures.entrySet()) {
+            final String name = future.getKey();
+            try {
+                results.put(name, future.getValue().get(Math.max(0, start + timeout - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                future.getValue().cancel(true);
+                timedOut.add(name);
+                // Keep the previous result until it is stale, so that a single slow check does not fail the node
+                final Result previousResult = previous == null ? null : previous.results.get(name);
+                if (previousResult != null && System.currentTimeMillis() - previousResult.completed <= maxAge) {
+                    results.put(name, previousResult);
+                } else {
+                    results.put(name, new Result(name, "\n" + name + ": Error check did not complete within " + timeout + " ms.",
+                            System.currentTimeMillis(), timeout));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                results.put(name, new Result(name, "\n" + name + ": Error " + e.getCause().getMessage(), System.currentTimeMillis(), 0));
+            }
+        }
+        snapshot = new Snapshot(results);
+        if (!timedOut.isEmpty()) {
+            log.info("Health checks did not complete within " + timeout + " ms: " + timedOut);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Health check round of " + results.size() + " checks took " + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private DaemonThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -19,7 +19,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 import javax.ejb.EJB;
 import javax.servlet.ServletConfig;
@@ -32,6 +38,8 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
 import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.util.CryptoProviderTools;
@@ -56,6 +64,10 @@ import org.ejbca.core.model.InternalEjbcaResources;
  * 
  * * Optionally you can configure the CAToken test to also make a test signature, not only check if the token status is active.
  * 
+ * Unless healthcheck.probe.interval is 0, the checks of the database, CAs, publishers, OcspKeyBindings and audit log are run in the
+ * background by a {@link HealthCheckProber}, and requests are answered from its latest results. The age and latency of each
+ * check can be seen with the request parameter details=true.
+ * 
  * @version $Id$
  */
 public class HealthCheckServlet extends HttpServlet {
@@ -66,15 +78,21 @@ public class HealthCheckServlet extends HttpServlet {
     /** Internal localization of logs and errors */
     private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
     private static final SameRequestRateLimiter<String> rateLimiter = new SameRequestRateLimiter<String>();
+    /** The number of background checks that may run at the same time */
+    private static final int PROBE_THREADS = 8;
     
     private String[] authIPs = null;
     private boolean anyIpAuthorized = false;
 
     private final long minfreememory = EjbcaConfiguration.getHealthCheckAmountFreeMem();
+    private final long probeMaxAge = EjbcaConfiguration.getHealthCheckProbeMaxAge();
+    private HealthCheckProber prober = null;
 
     @EJB
     private CAAdminSessionLocal caAdminSession;
     @EJB
+    private CaSessionLocal caSession;
+    @EJB
     private PublisherSessionLocal publisherSession;
     @EJB
     private HealthCheckSessionLocal healthCheckSession;
@@ -97,6 +115,24 @@ public class HealthCheckServlet extends HttpServlet {
             log.warn("CheckPublishers servlet parameter has been dropped. Use \"healthcheck.publisherconnections\" property instead.");
         }
         initMaintenanceFile();
+        final long probeInterval = EjbcaConfiguration.getHealthCheckProbeInterval();
+        if (probeInterval > 0) {
+            prober = new HealthCheckProber(new Supplier<Map<String, Callable<String>>>() {
+                @Override
+                public Map<String, Callable<String>> get() {
+                    return getChecks();
+                }
+            }, PROBE_THREADS, EjbcaConfiguration.getHealthCheckProbeTimeout(), probeMaxAge);
+            prober.start(probeInterval);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (prober != null) {
+            prober.shutdown();
+        }
+        super.destroy();
     }
 
     @Override
@@ -107,7 +143,11 @@ public class HealthCheckServlet extends HttpServlet {
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         if (isAuthorized(request, response)) {
-            respond(getRateLimitedResult(request), response);
+            if (prober != null && Boolean.parseBoolean(request.getParameter("details"))) {
+                respondDetails(response);
+            } else {
+                respond(getRateLimitedResult(request), response);
+            }
         }
     }
     
@@ -130,6 +170,10 @@ public class HealthCheckServlet extends HttpServlet {
     }
     
     private String getRateLimitedResult(HttpServletRequest request) {
+        final HealthCheckProber.Snapshot snapshot = prober == null ? null : prober.getSnapshot();
+        if (snapshot != null) {
+            return getProbedResult(snapshot);
+        }
         final SameRequestRateLimiter<String>.Result result = rateLimiter.getResult();
         if (result.isFirst()) {
             try {
@@ -174,6 +218,107 @@ public class HealthCheckServlet extends HttpServlet {
         
     }
     
+    private void respondDetails(HttpServletResponse resp) {
+        resp.setContentType("text/plain");
+        final HealthCheckProber.Snapshot snapshot = prober.getSnapshot();
+        try {
+            final Writer out = resp.getWriter();
+            out.write(snapshot == null ? "No health check has completed yet.\n" : snapshot.getDetails(System.currentTimeMillis()));
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            log.error("Error writing to Servlet Response.", e);
+        }
+    }
+
+    /** @return the checks run in the background by the prober, with one check per crypto token so that slow CA tokens do not delay the others */
+    private Map<String, Callable<String>> getChecks() {
+        final Map<String, Callable<String>> checks = new LinkedHashMap<>();
+        checks.put("DB", new Callable<String>() {
+            @Override
+            public String call() {
+                return healthCheckSession.getDatabaseStatus();
+            }
+        });
+        // CAs that share a crypto token are checked together, so that a key used by several CAs is only tested once
+        final Map<Integer, List<Integer>> caIdsByCryptoToken = new LinkedHashMap<>();
+        for (final Integer caId : caSession.getAllCaIds()) {
+            final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+            if (caInfo != null && caInfo.getCAToken() != null) {
+                caIdsByCryptoToken.computeIfAbsent(caInfo.getCAToken().getCryptoTokenId(), key -> new ArrayList<>()).add(caId);
+            }
+        }
+        for (final Map.Entry<Integer, List<Integer>> entry : caIdsByCryptoToken.entrySet()) {
+            checks.put("CAs of crypto token " + entry.getKey(), new Callable<String>() {
+                @Override
+                public String call() {
+                    return caAdminSession.healthCheck(entry.getValue());
+                }
+            });
+        }
+        if (EjbcaConfiguration.getHealthCheckPublisherConnections()) {
+            checks.put("Publishers", new Callable<String>() {
+                @Override
+                public String call() {
+                    return publisherSession.testAllConnections();
+                }
+            });
+        }
+        checks.put("OcspKeyBindings", new Callable<String>() {
+            @Override
+            public String call() {
+                return ocspResponseGeneratorSession.healthCheck();
+            }
+        });
+        checks.put("AuditLog", new Callable<String>() {
+            @Override
+            public String call() {
+                try {
+                    securityEventsLoggerSession.healthCheck();
+                    return "";
+                } catch (DatabaseProtectionException e) {
+                    return "Could not perform a test signature on the audit log.";
+                }
+            }
+        });
+        return checks;
+    }
+
+    /** @return the result of the health check from the latest background checks, or null if all is ok */
+    private String getProbedResult(final HealthCheckProber.Snapshot snapshot) {
+        final Properties maintenanceProperties = getMaintenanceProperties();
+        final String maintenancePropertyName = EjbcaConfiguration.getHealthCheckMaintenancePropertyName();
+        if (maintenanceProperties != null && Boolean.valueOf(maintenanceProperties.getProperty(maintenancePropertyName))) {
+            return "MAINT: " + maintenancePropertyName;
+        }
+        final StringBuilder sb = new StringBuilder(0);
+        sb.append(checkMemory());
+        sb.append(snapshot.getErrors(System.currentTimeMillis(), probeMaxAge));
+        return sb.length()==0 ? null : sb.toString();
+    }
+
+    /** @return an error message if the JVM is about to run out of memory, or an empty String */
+    private String checkMemory() {
+        if (log.isDebugEnabled()) {
+            log.debug("Checking JVM heap memory.");
+        }
+        // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
+        final long maxAllocation = Runtime.getRuntime().maxMemory();
+        // The total amount of memory allocated to the JVM.
+        final long currentlyAllocation = Runtime.getRuntime().totalMemory();
+        // Available memory of what is allocated by the JVM
+        final long freeAllocated = Runtime.getRuntime().freeMemory();
+        // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
+        final long currentFreeMemory = maxAllocation - currentlyAllocation + freeAllocated;
+        if (log.isDebugEnabled()) {
+            log.debug((100L*(maxAllocation-currentFreeMemory)/maxAllocation)+"% of the " + (maxAllocation/1048576L) + " MiB heap is currently used.");
+        }
+        if (minfreememory >= currentFreeMemory) {
+            return "\nMEM: Error Virtual Memory is about to run out, currently free memory :" + String.valueOf(Runtime.getRuntime().freeMemory());
+        }
+        return "";
+    }
+
     public String doAllHealthChecks(HttpServletRequest request) {
         if (log.isDebugEnabled()) {
             log.debug("Starting HealthCheck requested by : " + request.getRemoteAddr());
@@ -191,23 +336,7 @@ public class HealthCheckServlet extends HttpServlet {
         }
         sb.append(healthCheckSession.getDatabaseStatus());
         if (sb.length()==0) { 
-            if (log.isDebugEnabled()) {
-                log.debug("Checking JVM heap memory.");
-            }
-            // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
-            final long maxAllocation = Runtime.getRuntime().maxMemory();
-            // The total amount of memory allocated to the JVM.
-            final long currentlyAllocation = Runtime.getRuntime().totalMemory();
-            // Available memory of what is allocated by the JVM
-            final long freeAllocated = Runtime.getRuntime().freeMemory();
-            // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
-            final long currentFreeMemory = maxAllocation - currentlyAllocation + freeAllocated;
-            if (log.isDebugEnabled()) {
-                log.debug((100L*(maxAllocation-currentFreeMemory)/maxAllocation)+"% of the " + (maxAllocation/1048576L) + " MiB heap is currently used.");
-            }
-            if (minfreememory >= currentFreeMemory) {
-                sb.append("\nMEM: Error Virtual Memory is about to run out, currently free memory :").append(String.valueOf(Runtime.getRuntime().freeMemory()));    
-            }
+            sb.append(checkMemory());
             if (log.isDebugEnabled()) {
                 log.debug("Checking CAs.");
             }
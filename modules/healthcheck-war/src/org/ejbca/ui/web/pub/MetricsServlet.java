@@ -0,0 +1,106 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationTokenCache;
+import org.cesecore.keys.util.KeyPairPool;
+import org.cesecore.util.metrics.LatencyMetrics;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Servlet that exports the latency histograms of EJB methods, protocol endpoints and crypto token signatures, and the hits and
+ * misses of the client certificate authentication cache, in the Prometheus text format, so that they can be scraped by a
+ * monitoring system.
+ * <p>
+ * Only the IP addresses that are allowed to use the health check (healthcheck.authorizedips) may read the metrics.
+ *
+ * @see LatencyMetrics
+ * @version $Id$
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final Logger log = Logger.getLogger(MetricsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    private String[] authIPs = null;
+    private boolean anyIpAuthorized = false;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        authIPs = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
+        anyIpAuthorized = ArrayUtils.contains(authIPs, "ANY");
+    }
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        final String remoteIP = request.getRemoteAddr();
+        if (!anyIpAuthorized && !ArrayUtils.contains(authIPs, remoteIP)) {
+            log.info("Metrics request received from a non authorized IP: " + remoteIP);
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Metrics request received from a non authorized IP.");
+            return;
+        }
+        final StringBuilder sb = new StringBuilder(16384);
+        LatencyMetrics.INSTANCE.writePrometheus(sb);
+        writeCounter(sb, "ejbca_authentication_cache_hits_total", "Client certificate authentications answered from the cache.",
+                X509CertificateAuthenticationTokenCache.INSTANCE.getHits());
+        writeCounter(sb, "ejbca_authentication_cache_misses_total", "Client certificate authentications checked against the database.",
+                X509CertificateAuthenticationTokenCache.INSTANCE.getMisses());
+        writeKeyPairPool(sb);
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        final Writer out = response.getWriter();
+        out.write(sb.toString());
+        out.flush();
+    }
+
+    private static void writeKeyPairPool(final StringBuilder sb) {
+        final Collection<String> keySpecs = KeyPairPool.INSTANCE.getKeySpecs();
+        if (keySpecs.isEmpty()) {
+            return;
+        }
+        sb.append("# HELP ejbca_keypair_pool_hits_total Server generated key pairs taken from the key pair pool.\n");
+        sb.append("# TYPE ejbca_keypair_pool_hits_total counter\n");
+        for (final String keySpec : keySpecs) {
+            sb.append("ejbca_keypair_pool_hits_total{keyspec=\"").append(keySpec).append("\"} ").append(KeyPairPool.INSTANCE.getHits(keySpec)).append('\n');
+        }
+        sb.append("# HELP ejbca_keypair_pool_misses_total Server generated key pairs generated in the request because the key pair pool was empty.\n");
+        sb.append("# TYPE ejbca_keypair_pool_misses_total counter\n");
+        for (final String keySpec : keySpecs) {
+            sb.append("ejbca_keypair_pool_misses_total{keyspec=\"").append(keySpec).append("\"} ").append(KeyPairPool.INSTANCE.getMisses(keySpec)).append('\n');
+        }
+        sb.append("# HELP ejbca_keypair_pool_size Key pairs available in the key pair pool.\n");
+        sb.append("# TYPE ejbca_keypair_pool_size gauge\n");
+        for (final String keySpec : keySpecs) {
+            sb.append("ejbca_keypair_pool_size{keyspec=\"").append(keySpec).append("\"} ").append(KeyPairPool.INSTANCE.getSize(keySpec)).append('\n');
+        }
+    }
+
+    private static void writeCounter(final StringBuilder sb, final String name, final String help, final long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,191 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.cesecore.CaTestUtils;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.certificates.ca.CA;
+import org.cesecore.certificates.ca.CaSessionRemote;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.InternalCertificateStoreSessionRemote;
+import org.cesecore.certificates.crl.CrlStoreSessionRemote;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.mock.authentication.tokens.TestAlwaysAllowLocalAuthenticationToken;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.core.ejb.config.ConfigurationSessionRemote;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests delta CRLs created from the revocation event log (database.useRevocationEventLog).
+ * <p>
+ * The benchmark compares the time to create a delta CRL with and without the log, for an increasing number of revoked
+ * certificates. It is only run when the system property revocationeventlog.benchmark.rows is set to the largest number of
+ * revoked certificates to test with, e.g. -Drevocationeventlog.benchmark.rows=100000
+ *
+ * @version $Id$
+ */
+public class RevocationEventLogSystemTest {
+
+    private static final Logger log = Logger.getLogger(RevocationEventLogSystemTest.class);
+
+    private static final String X509CADN = "CN=" + RevocationEventLogSystemTest.class.getSimpleName();
+    private static final String PROPERTY = "database.useRevocationEventLog";
+    private static final AuthenticationToken alwaysAllowToken = new TestAlwaysAllowLocalAuthenticationToken(new UsernamePrincipal(
+            RevocationEventLogSystemTest.class.getSimpleName()));
+
+    private static final ConfigurationSessionRemote configurationSession = EjbRemoteHelper.INSTANCE.getRemoteSession(ConfigurationSessionRemote.class,
+            EjbRemoteHelper.MODULE_TEST);
+    private final CaSessionRemote caSession = EjbRemoteHelper.INSTANCE.getRemoteSession(CaSessionRemote.class);
+    private final CrlStoreSessionRemote crlStoreSession = EjbRemoteHelper.INSTANCE.getRemoteSession(CrlStoreSessionRemote.class);
+    private final PublishingCrlSessionRemote publishingCrlSession = EjbRemoteHelper.INSTANCE.getRemoteSession(PublishingCrlSessionRemote.class);
+    private final InternalCertificateStoreSessionRemote internalCertificateStoreSession = EjbRemoteHelper.INSTANCE
+            .getRemoteSession(InternalCertificateStoreSessionRemote.class, EjbRemoteHelper.MODULE_TEST);
+
+    private static String originalValue;
+    private CA testx509ca;
+    private String caFingerprint;
+    private final Set<BigInteger> serialNumbers = new HashSet<>();
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProvider();
+        originalValue = configurationSession.getProperty(PROPERTY);
+        configurationSession.updateProperty(PROPERTY, "true");
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        configurationSession.updateProperty(PROPERTY, originalValue == null ? "false" : originalValue);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testx509ca = CaTestUtils.createTestX509CA(X509CADN, null, false);
+        caSession.removeCA(alwaysAllowToken, testx509ca.getCAId());
+        caSession.addCA(alwaysAllowToken, testx509ca);
+        caFingerprint = CertTools.getFingerprintAsString(testx509ca.getCACertificate());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            for (final BigInteger serialNumber : serialNumbers) {
+                internalCertificateStoreSession.removeCertificate(serialNumber);
+            }
+        } finally {
+            CaTestUtils.removeCa(alwaysAllowToken, testx509ca.getCAInfo());
+        }
+    }
+
+    @Test
+    public void testRevokeAndReleaseFromHold() throws Exception {
+        final BigInteger serialNumber = new BigInteger("1234567890");
+        publishingCrlSession.forceCRL(alwaysAllowToken, testx509ca.getCAId());
+        Thread.sleep(1000);
+        revoke(serialNumber, new Date(), RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        X509CRL deltaCrl = createDeltaCrl();
+        assertNotNull("Certificate put on hold should be on the delta CRL.", deltaCrl.getRevokedCertificate(serialNumber));
+        // The change is on the new base CRL, so it is not on the delta CRLs of it
+        publishingCrlSession.forceCRL(alwaysAllowToken, testx509ca.getCAId());
+        Thread.sleep(1000);
+        deltaCrl = createDeltaCrl();
+        assertNull("Certificate should not be on the delta CRL of the new base CRL.", deltaCrl.getRevokedCertificate(serialNumber));
+        revoke(serialNumber, new Date(), RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        deltaCrl = createDeltaCrl();
+        final X509CRLEntry entry = deltaCrl.getRevokedCertificate(serialNumber);
+        assertNotNull("Change from hold to key compromise should be on the delta CRL.", entry);
+        assertEquals("keyCompromise", entry.getRevocationReason().name());
+    }
+
+    @Test
+    public void testBackdatedRevocation() throws Exception {
+        final BigInteger serialNumber = new BigInteger("1234567891");
+        publishingCrlSession.forceCRL(alwaysAllowToken, testx509ca.getCAId());
+        Thread.sleep(1000);
+        // The revocation date is before the base CRL, which the query on CertificateData.revocationDate would miss
+        revoke(serialNumber, new Date(System.currentTimeMillis() - 3600000L), RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        final X509CRL deltaCrl = createDeltaCrl();
+        assertNotNull("Backdated revocation should be on the delta CRL.", deltaCrl.getRevokedCertificate(serialNumber));
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        final String maxRows = System.getProperty("revocationeventlog.benchmark.rows");
+        assumeTrue(maxRows != null);
+        final long revocationDate = System.currentTimeMillis() - 86400000L;
+        int rows = 0;
+        for (int tableSize = 1000; tableSize <= Integer.parseInt(maxRows); tableSize *= 10) {
+            // Revoked certificates that are already on the base CRL
+            while (rows < tableSize) {
+                revoke(BigInteger.valueOf(1000000L + rows), new Date(revocationDate), RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+                rows++;
+            }
+            publishingCrlSession.forceCRL(alwaysAllowToken, testx509ca.getCAId());
+            Thread.sleep(1000);
+            // A few revocations since the base CRL
+            for (int i = 0; i < 10; i++) {
+                revoke(BigInteger.valueOf(1000000L + rows), new Date(), RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+                rows++;
+            }
+            final long withLog = timeDeltaCrl();
+            configurationSession.updateProperty(PROPERTY, "false");
+            final long withoutLog;
+            try {
+                withoutLog = timeDeltaCrl();
+            } finally {
+                configurationSession.updateProperty(PROPERTY, "true");
+            }
+            log.info("Delta CRL with " + rows + " revoked certificates: " + withLog + " ms from revocation event log, " + withoutLog
+                    + " ms from CertificateData.");
+        }
+    }
+
+    private void revoke(final BigInteger serialNumber, final Date revocationDate, final int reason) throws Exception {
+        serialNumbers.add(serialNumber);
+        internalCertificateStoreSession.updateLimitedCertificateDataStatus(alwaysAllowToken, testx509ca.getCAId(), testx509ca.getSubjectDN(),
+                serialNumber, revocationDate, reason, caFingerprint);
+    }
+
+    private X509CRL createDeltaCrl() throws Exception {
+        publishingCrlSession.forceDeltaCRL(alwaysAllowToken, testx509ca.getCAId());
+        final byte[] crl = crlStoreSession.getLastCRL(testx509ca.getSubjectDN(), CertificateConstants.NO_CRL_PARTITION, true);
+        assertNotNull("Could not get delta CRL", crl);
+        return CertTools.getCRLfromByteArray(crl);
+    }
+
+    private long timeDeltaCrl() throws Exception {
+        final long start = System.currentTimeMillis();
+        publishingCrlSession.forceDeltaCRL(alwaysAllowToken, testx509ca.getCAId());
+        return System.currentTimeMillis() - start;
+    }
+}